@@ -26,6 +26,7 @@ import wyil.lang.WyilFile;
 import wyil.lang.WyilFile.QualifiedName;
 import wyil.lang.WyilFile.Type;
 import static wyil.lang.WyilFile.Name;
+import wyil.interpreter.ClosureInterpreter;
 import wyil.interpreter.Interpreter;
 
 import java.io.IOException;
@@ -41,6 +42,7 @@ import wybs.util.AbstractCompilationUnit.Tuple;
 import wybs.util.AbstractCompilationUnit.Value;
 import wyc.lang.WhileyFile;
 import wyc.task.CompileTask;
+import wyc.util.CompileServer;
 
 public class Activator implements Module.Activator {
 
@@ -49,8 +51,25 @@ public class Activator implements Module.Activator {
 	public static Trie TARGET_CONFIG_OPTION = Trie.fromString("build/whiley/target");
 	public static Trie VERIFY_CONFIG_OPTION = Trie.fromString("build/whiley/verify");
 	public static Trie COUNTEREXAMPLE_CONFIG_OPTION = Trie.fromString("build/whiley/counterexamples");
+	public static Trie PARALLEL_CONFIG_OPTION = Trie.fromString("build/whiley/parallel");
+	public static Trie INCREMENTAL_CONFIG_OPTION = Trie.fromString("build/whiley/incremental");
+	public static Trie LATTICE_CONFIG_OPTION = Trie.fromString("build/whiley/lattice");
+	public static Trie METRICS_CONFIG_OPTION = Trie.fromString("build/whiley/metrics");
+	public static Trie ENGINE_CONFIG_OPTION = Trie.fromString("build/whiley/engine");
+	public static Trie CONTRACTS_CONFIG_OPTION = Trie.fromString("build/whiley/contracts");
+	public static Trie SAMPLING_CONFIG_OPTION = Trie.fromString("build/whiley/sampling");
+	public static Trie SERVER_CONFIG_OPTION = Trie.fromString("build/whiley/server");
 	private static Value.UTF8 SOURCE_DEFAULT = new Value.UTF8("src".getBytes());
 	private static Value.UTF8 TARGET_DEFAULT = new Value.UTF8("bin".getBytes());
+	private static Value.UTF8 ENGINE_DEFAULT = new Value.UTF8("interpreter".getBytes());
+	private static Value.UTF8 CONTRACTS_DEFAULT = new Value.UTF8("full".getBytes());
+	private static Value.Int SAMPLING_DEFAULT = new Value.Int(100);
+	private static Value.Int SERVER_DEFAULT = new Value.Int(0);
+	/**
+	 * The number of calls after which a function or method is compiled into
+	 * bytecode by the "jit" engine.
+	 */
+	private static final int JIT_THRESHOLD = 1000;
 
 	public static Build.Platform WHILEY_PLATFORM = new Build.Platform() {
 		private Trie pkg;
@@ -62,6 +81,24 @@ public class Activator implements Module.Activator {
 		private boolean verification;
 		// Determine whether to try and find counterexamples or not
 		private boolean counterexamples;
+		// Determine whether compiler checks are run in parallel or not
+		private boolean parallel;
+		// Determine whether compilation is incremental or not
+		private boolean incremental;
+		// Determine whether subtyping between named types is precomputed or not
+		private boolean lattice;
+		// Determine whether cache metrics are reported or not
+		private boolean metrics;
+		// Determine which engine is used to execute WyIL files
+		private String engine;
+		// Determine which contracts are checked when executing WyIL files
+		private String contracts;
+		// Determine how often contracts are checked when sampling
+		private int sampling;
+		// Determine port on which to start a compile server (or 0 for none)
+		private int port;
+		// The compile server started for this platform (if any)
+		private Thread server;
 		//
 		@Override
 		public String getName() {
@@ -74,7 +111,15 @@ public class Activator implements Module.Activator {
 					Configuration.UNBOUND_STRING(SOURCE_CONFIG_OPTION, "Specify location for whiley source files", SOURCE_DEFAULT),
 					Configuration.UNBOUND_STRING(TARGET_CONFIG_OPTION, "Specify location for generated wyil files", TARGET_DEFAULT),
 					Configuration.UNBOUND_BOOLEAN(VERIFY_CONFIG_OPTION, "Enable verification of whiley files", new Value.Bool(false)),
-					Configuration.UNBOUND_BOOLEAN(COUNTEREXAMPLE_CONFIG_OPTION, "Enable counterexample generation during verification", new Value.Bool(false)));
+					Configuration.UNBOUND_BOOLEAN(COUNTEREXAMPLE_CONFIG_OPTION, "Enable counterexample generation during verification", new Value.Bool(false)),
+					Configuration.UNBOUND_BOOLEAN(PARALLEL_CONFIG_OPTION, "Enable parallel checking of whiley files", new Value.Bool(false)),
+					Configuration.UNBOUND_BOOLEAN(INCREMENTAL_CONFIG_OPTION, "Enable incremental compilation of whiley files", new Value.Bool(false)),
+					Configuration.UNBOUND_BOOLEAN(LATTICE_CONFIG_OPTION, "Enable precomputation of subtyping between named types", new Value.Bool(false)),
+					Configuration.UNBOUND_BOOLEAN(METRICS_CONFIG_OPTION, "Enable reporting of compiler cache metrics", new Value.Bool(false)),
+					Configuration.UNBOUND_STRING(ENGINE_CONFIG_OPTION, "Specify engine for executing wyil files (interpreter, closure or jit)", ENGINE_DEFAULT),
+					Configuration.UNBOUND_STRING(CONTRACTS_CONFIG_OPTION, "Specify which contracts are checked when executing wyil files (full, boundary, sampled or none)", CONTRACTS_DEFAULT),
+					Configuration.BOUND_INTEGER(SAMPLING_CONFIG_OPTION, "Specify that one in every n calls is checked when sampling contracts", SAMPLING_DEFAULT, 1),
+					Configuration.BOUND_INTEGER(SERVER_CONFIG_OPTION, "Specify port on which to start a compile server (or 0 for none)", SERVER_DEFAULT, 0));
 		}
 
 		@Override
@@ -85,13 +130,27 @@ public class Activator implements Module.Activator {
 			this.target = Trie.fromString(configuration.get(Value.UTF8.class, TARGET_CONFIG_OPTION).unwrap());
 			this.verification = configuration.get(Value.Bool.class, VERIFY_CONFIG_OPTION).unwrap();
 			this.counterexamples = configuration.get(Value.Bool.class, COUNTEREXAMPLE_CONFIG_OPTION).unwrap();
+			this.parallel = configuration.get(Value.Bool.class, PARALLEL_CONFIG_OPTION).unwrap();
+			this.incremental = configuration.get(Value.Bool.class, INCREMENTAL_CONFIG_OPTION).unwrap();
+			this.lattice = configuration.get(Value.Bool.class, LATTICE_CONFIG_OPTION).unwrap();
+			this.metrics = configuration.get(Value.Bool.class, METRICS_CONFIG_OPTION).unwrap();
+			this.engine = configuration.get(Value.UTF8.class, ENGINE_CONFIG_OPTION).unwrap();
+			this.contracts = configuration.get(Value.UTF8.class, CONTRACTS_CONFIG_OPTION).unwrap();
+			this.sampling = configuration.get(Value.Int.class, SAMPLING_CONFIG_OPTION).unwrap().intValue();
+			this.port = configuration.get(Value.Int.class, SERVER_CONFIG_OPTION).unwrap().intValue();
 		}
 
 		@Override
 		public Task initialise(Build.Project project) {
 			try {
+				if (port != 0 && server == null) {
+					// Start compile server against this project's dependencies. This keeps
+					// running after this build, though not after the platform exits.
+					server = CompileServer.start(port, project.getPackages());
+				}
 				CompileTask task = new CompileTask(project, getSourceRoot(project.getRoot()))
-						.setVerification(verification).setCounterExamples(counterexamples);
+						.setVerification(verification).setCounterExamples(counterexamples).setParallel(parallel)
+						.setIncremental(incremental).setLattice(lattice).setMetrics(metrics);
 				return task;
 			} catch(IOException e) {
 				// FIXME: this is broken
@@ -156,7 +215,7 @@ public class Activator implements Module.Activator {
 			Type.Method sig = new Type.Method(new Tuple<>(new Type[0]), new Tuple<>(), new Tuple<>(), new Tuple<>());
 			QualifiedName name = new QualifiedName(new Name(id), new Identifier(method));
 			// Try to run the given function or method
-			Interpreter interpreter = new Interpreter(System.out);
+			Interpreter interpreter = createInterpreter();
 			// Create the initial stack
 			Interpreter.CallStack stack = initialise(project,interpreter);;
 			// Execute the requested function
@@ -172,6 +231,35 @@ public class Activator implements Module.Activator {
 			}
 		}
 
+		private Interpreter createInterpreter() {
+			Interpreter.Contracts contracts = createContracts();
+			switch (engine) {
+			case "interpreter":
+				return new Interpreter(System.out, contracts);
+			case "closure":
+				return new ClosureInterpreter(System.out, contracts);
+			case "jit":
+				return new ClosureInterpreter(System.out, contracts).setCompileThreshold(JIT_THRESHOLD);
+			default:
+				throw new IllegalArgumentException("unknown execution engine: " + engine);
+			}
+		}
+
+		private Interpreter.Contracts createContracts() {
+			switch (contracts) {
+			case "full":
+				return Interpreter.Contracts.FULL;
+			case "boundary":
+				return Interpreter.Contracts.BOUNDARY;
+			case "sampled":
+				return Interpreter.Contracts.SAMPLED(sampling);
+			case "none":
+				return Interpreter.Contracts.NONE;
+			default:
+				throw new IllegalArgumentException("unknown contract checking mode: " + contracts);
+			}
+		}
+
 		private Interpreter.CallStack initialise(Build.Project project, Interpreter interpreter) throws IOException {
 			// Determine target root where compiled WyIL files live
 			Path.Root bin = getTargetRoot(project.getRoot());
@@ -15,6 +15,10 @@ package wyc.task;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
 
 import wyal.lang.WyalFile;
 import wyal.util.Interpreter;
@@ -29,16 +33,26 @@ import wyil.check.DefiniteUnassignmentCheck;
 import wyil.check.FlowTypeCheck;
 import wyil.check.FunctionalCheck;
 import wyil.check.StaticVariableCheck;
+import wyil.io.WyilFileCache;
+import wyil.lang.Compiler;
 import wyil.lang.WyilFile;
 import wyil.lang.WyilFile.Decl;
 import wyil.transform.MoveAnalysis;
 import wyil.transform.NameResolution;
 import wyil.transform.RecursiveTypeAnalysis;
 import wyil.transform.VerificationConditionGenerator;
+import wyil.type.binding.RelaxedTypeResolver;
+import wyil.type.subtyping.RelaxedTypeEmptinessTest;
+import wyil.type.subtyping.SubtypeLattice;
+import wyil.type.subtyping.SubtypeOperator;
+import wyil.type.util.ReadWriteTypeExtractor;
 import wytp.provers.AutomatedTheoremProver;
 import wytp.types.extractors.TypeInvariantExtractor;
 import wybs.lang.*;
 import wybs.lang.CompilationUnit.Name;
+import wybs.util.AbstractCompilationUnit.Ref;
+import wybs.util.AbstractCompilationUnit.Tuple;
+import wybs.util.AbstractSyntacticHeap;
 import wyc.io.WhileyFileParser;
 import wyc.lang.*;
 import wycc.util.Logger;
@@ -110,6 +124,34 @@ public final class CompileTask implements Build.Task {
 	 * Specify whether counterexample generation is enabled or not
 	 */
 	private boolean counterexamples;
+	/**
+	 * Specify whether compiler checks are applied to units in parallel or not
+	 */
+	private boolean parallel;
+	/**
+	 * Specify whether targets are compiled incrementally or not
+	 */
+	private boolean incremental;
+	/**
+	 * Cache used for reading external dependencies, or <code>null</code> if they
+	 * should always be read from scratch.
+	 */
+	private WyilFileCache cache;
+	/**
+	 * Specify whether the subtype relation between named types is precomputed
+	 * or not
+	 */
+	private boolean lattice;
+	/**
+	 * Specify whether metrics for the caches used during compilation are
+	 * reported or not
+	 */
+	private boolean metrics;
+	/**
+	 * Precomputed subtype relations for each target, which are retained so they
+	 * can be updated incrementally.
+	 */
+	private final HashMap<Path.ID, SubtypeLattice> lattices = new HashMap<>();
 
 	public CompileTask(Build.Project project, Path.Root sourceRoot) {
 		this.project = project;
@@ -135,26 +177,53 @@ public final class CompileTask implements Build.Task {
 		return this;
 	}
 
+	public CompileTask setParallel(boolean flag) {
+		this.parallel = flag;
+		return this;
+	}
+
+	public CompileTask setIncremental(boolean flag) {
+		this.incremental = flag;
+		return this;
+	}
+
+	public CompileTask setCache(WyilFileCache cache) {
+		this.cache = cache;
+		return this;
+	}
+
+	public CompileTask setLattice(boolean flag) {
+		this.lattice = flag;
+		return this;
+	}
+
+	public CompileTask setMetrics(boolean flag) {
+		this.metrics = flag;
+		return this;
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public Set<Path.Entry<?>> build(Collection<Pair<Path.Entry<?>, Path.Root>> delta, Build.Graph graph)
 			throws IOException {
 		// Identify the source compilation groups
 		HashSet<Path.Entry<?>> targets = new HashSet<>();
+		HashSet<Path.Entry<?>> changed = new HashSet<>();
 		for (Pair<Path.Entry<?>, Path.Root> p : delta) {
 			Path.Entry<?> entry = p.first();
 			if (entry.contentType() == WhileyFile.ContentType) {
 				targets.addAll(graph.getChildren(entry));
+				changed.add(entry);
 			}
 		}
 		// Determine which were successfully built
 		HashSet<Path.Entry<?>> built = new HashSet<>();
 		// Compile each one in turn
 		for (Path.Entry<?> target : targets) {
-			// FIXME: there is a problem here. That's because not every parent will be in
-			// the delta. Therefore, this is forcing every file to be recompiled.
+			// NOTE: not every parent will be in the delta. Therefore, unless incremental
+			// compilation is enabled, this is forcing every file to be recompiled.
 			List sources = graph.getParents(target);
-			boolean ok = build((Path.Entry<WyilFile>) target, (List<Path.Entry<WhileyFile>>) sources);
+			boolean ok = build((Path.Entry<WyilFile>) target, (List<Path.Entry<WhileyFile>>) sources, changed);
 			// Record whether target built successfully or not
 			if(ok) {
 				built.add(target);
@@ -165,7 +234,12 @@ public final class CompileTask implements Build.Task {
 	}
 
 	public boolean build(Path.Entry<WyilFile> target, List<Path.Entry<WhileyFile>> sources) throws IOException {
-		if(!build(sourceRoot, target, sources)) {
+		return build(target, sources, new HashSet<>(sources));
+	}
+
+	public boolean build(Path.Entry<WyilFile> target, List<Path.Entry<WhileyFile>> sources,
+			Set<Path.Entry<?>> changed) throws IOException {
+		if(!build(sourceRoot, target, sources, changed)) {
 			return false;
 		} else if (verification) {
 			verify(sourceRoot, target, sources);
@@ -175,6 +249,25 @@ public final class CompileTask implements Build.Task {
 
 	public boolean build(Path.Root sourceRoot, Path.Entry<WyilFile> target, List<Path.Entry<WhileyFile>> sources)
 			throws IOException {
+		return build(sourceRoot, target, sources, new HashSet<>(sources));
+	}
+
+	/**
+	 * Compile a given set of source files into a given target, where only some of
+	 * the source files may have changed since the target was last compiled. When
+	 * incremental compilation is enabled, only those source files which changed
+	 * are parsed again, and only declarations affected by those changes are
+	 * resolved and checked again.
+	 *
+	 * @param sourceRoot The source root containing the source files
+	 * @param target     The target file being generated
+	 * @param sources    All source files which make up the target
+	 * @param changed    The set of source files which have changed
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean build(Path.Root sourceRoot, Path.Entry<WyilFile> target, List<Path.Entry<WhileyFile>> sources,
+			Set<Path.Entry<?>> changed) throws IOException {
 		Logger logger = project.getLogger();
 
 		Runtime runtime = Runtime.getRuntime();
@@ -186,10 +279,15 @@ public final class CompileTask implements Build.Task {
 		// ========================================================================
 		// Parse source files
 		// ========================================================================
-		WyilFile wf = compile(sources, target);
+		// Read target WyilFile. This may have already been compiled in a previous run
+		// and, in such case, we are invalidating some or all of the existing file.
+		WyilFile wf = target.read();
+		// Determine which declarations need to be (re)checked
+		Set<Decl> dirty = compile(wf, sources, changed);
 
-		logger.logTimedMessage("Parsed " + sources.size() + " source file(s).", System.currentTimeMillis() - tmpTime,
-				tmpMemory - runtime.freeMemory());
+		logger.logTimedMessage("Parsed " + (dirty == null ? sources.size() : countChanged(sources, changed))
+				+ " source file(s)" + (dirty == null ? "." : ", with " + dirty.size() + " declaration(s) to check."),
+				System.currentTimeMillis() - tmpTime, tmpMemory - runtime.freeMemory());
 
 		// ========================================================================
 		// Type Checking & Code Generation
@@ -199,14 +297,27 @@ public final class CompileTask implements Build.Task {
 		tmpTime = System.currentTimeMillis();
 		tmpMemory = runtime.freeMemory();
 
-		boolean r = new NameResolution(project,wf).apply();
+		boolean r = new NameResolution(project,wf,cache).apply(dirty);
+		// Discard generic types instantiated by a previous build, since names may now
+		// resolve differently.
+		wf.setInstantiations(new WyilFile.Type.Nominal.Instantiations(WyilFile.Type.Nominal.CACHE_SIZE));
+		// Precompute subtype relation between named types (if applicable)
+		SubtypeLattice l = (r && lattice) ? lattice(target, wf, dirty) : null;
 		// Compiler checks
-		r = r && new FlowTypeCheck().check(wf);
-		r = r && new DefiniteAssignmentCheck().check(wf);
-		r = r && new DefiniteUnassignmentCheck().check(wf);
-		r = r && new FunctionalCheck().check(wf);
-		r = r && new StaticVariableCheck().check(wf);
-		r = r && new AmbiguousCoercionCheck().check(wf);
+		RelaxedTypeResolver.Cache resolutions = new RelaxedTypeResolver.Cache();
+		ReadWriteTypeExtractor.Cache normalForms = new ReadWriteTypeExtractor.Cache();
+		r = r && check(wf, dirty, () -> new FlowTypeCheck(l, resolutions, normalForms));
+		r = r && check(wf, dirty, DefiniteAssignmentCheck::new);
+		r = r && check(wf, dirty, DefiniteUnassignmentCheck::new);
+		r = r && check(wf, dirty, FunctionalCheck::new);
+		r = r && check(wf, dirty, StaticVariableCheck::new);
+		r = r && check(wf, dirty, AmbiguousCoercionCheck::new);
+		if (metrics) {
+			// Report time saved by reusing overload resolutions
+			long reused = resolutions.getCacheHits();
+			logger.logTimedMessage("Reused " + reused + " of " + (reused + resolutions.getCacheMisses())
+					+ " overload resolution(s), saving", resolutions.getTimeSaved() / 1000000, 0);
+		}
 		// Transforms
 		if(r) {
 			// Only apply if previous stages have all passed.
@@ -229,6 +340,145 @@ public final class CompileTask implements Build.Task {
 	}
 
 
+	/**
+	 * Compute the subtype relation between the named types of a given target.
+	 * When the target was compiled previously, the existing relation is updated
+	 * such that only relationships involving dirty declarations are computed
+	 * again.
+	 *
+	 * @param target The target file being generated
+	 * @param wf     The contents of the target file
+	 * @param dirty  The set of declarations which have changed, or
+	 *               <code>null</code> if everything has changed.
+	 * @return
+	 */
+	private SubtypeLattice lattice(Path.Entry<WyilFile> target, WyilFile wf, Set<Decl> dirty) {
+		SubtypeLattice l = lattices.get(target.id());
+		if (l == null) {
+			l = new SubtypeLattice();
+			lattices.put(target.id(), l);
+			dirty = null;
+		}
+		// NOTE: a fresh operator is used, since its cache refers to types from this
+		// compilation.
+		l.apply(wf, dirty, new SubtypeOperator(new RelaxedTypeEmptinessTest()));
+		return l;
+	}
+
+	/**
+	 * Get the subtype relation most recently computed for a given target, or
+	 * <code>null</code> if none has been computed.
+	 *
+	 * @param target
+	 * @return
+	 */
+	public SubtypeLattice getLattice(Path.ID target) {
+		return lattices.get(target);
+	}
+
+	/**
+	 * Apply a given compiler check to a WyilFile. When parallel checking is
+	 * enabled, a fresh instance of the check is applied to each unit of the file
+	 * on the common fork/join pool. Since markers are added to the module in
+	 * whatever order the units complete, those generated by this check are then
+	 * sorted by unit to ensure errors are reported exactly as for a sequential
+	 * check.
+	 *
+	 * @param wf    The file being checked
+	 * @param dirty The set of declarations to check, or <code>null</code> if all
+	 *              declarations are to be checked.
+	 * @param check Constructs a fresh instance of the check in question.
+	 * @return
+	 */
+	private boolean check(WyilFile wf, Set<Decl> dirty, Supplier<? extends Compiler.UnitCheck> check) {
+		Compiler.UnitCheck checker = check.get();
+		List<Decl.Unit> units = checker.getUnits(wf);
+		//
+		if (!parallel || units.size() <= 1) {
+			if (dirty == null) {
+				return checker.check(wf);
+			} else {
+				boolean r = true;
+				for (Decl.Unit unit : units) {
+					r &= check(wf, unit, dirty, checker);
+				}
+				return r;
+			}
+		}
+		Decl.Module module = wf.getModule();
+		int start = module.getAttributes().size();
+		// Check each unit in parallel
+		ArrayList<ForkJoinTask<Boolean>> tasks = new ArrayList<>();
+		for (Decl.Unit unit : units) {
+			tasks.add(ForkJoinPool.commonPool().submit(() -> check(wf, unit, dirty, check.get())));
+		}
+		// Wait for all units to complete
+		boolean r = true;
+		RuntimeException exception = null;
+		for (ForkJoinTask<Boolean> task : tasks) {
+			try {
+				r &= task.join();
+			} catch (RuntimeException e) {
+				// Report the exception from the first unit
+				exception = (exception == null) ? e : exception;
+			}
+		}
+		if (exception != null) {
+			throw exception;
+		}
+		// Restore sequential order of any markers generated
+		Tuple<SyntacticItem.Marker> attributes = module.getAttributes();
+		if (attributes.size() > (start + 1)) {
+			IdentityHashMap<SyntacticItem.Marker, Integer> order = new IdentityHashMap<>();
+			ArrayList<SyntacticItem.Marker> markers = new ArrayList<>();
+			for (int i = start; i < attributes.size(); ++i) {
+				SyntacticItem.Marker marker = attributes.get(i);
+				order.put(marker, indexOf(marker.getTarget().getAncestor(Decl.Unit.class), units));
+				markers.add(marker);
+			}
+			// NOTE: sort is stable and, hence, preserves order within a unit
+			markers.sort((m1, m2) -> Integer.compare(order.get(m1), order.get(m2)));
+			for (int i = 0; i != markers.size(); ++i) {
+				attributes.setOperand(start + i, markers.get(i));
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Apply a given compiler check to either a whole unit, or only those
+	 * declarations within it which are dirty.
+	 *
+	 * @param wf      The file being checked
+	 * @param unit    The unit being checked
+	 * @param dirty   The set of declarations to check, or <code>null</code> if
+	 *                all declarations are to be checked.
+	 * @param checker The check being applied
+	 * @return
+	 */
+	private static boolean check(WyilFile wf, Decl.Unit unit, Set<Decl> dirty, Compiler.UnitCheck checker) {
+		if (dirty == null) {
+			return checker.check(wf, unit);
+		} else {
+			boolean r = true;
+			for (Decl decl : unit.getDeclarations()) {
+				if (dirty.contains(decl)) {
+					r &= checker.check(wf, decl);
+				}
+			}
+			return r;
+		}
+	}
+
+	private static int indexOf(Decl.Unit unit, List<Decl.Unit> units) {
+		for (int i = 0; i != units.size(); ++i) {
+			if (units.get(i) == unit) {
+				return i;
+			}
+		}
+		return units.size();
+	}
+
 	public  void verify(Path.Root sourceRoot, Path.Entry<WyilFile> target, List<Path.Entry<WhileyFile>> sources)
 			throws IOException {
 		Logger logger = project.getLogger();
@@ -282,27 +532,256 @@ public final class CompileTask implements Build.Task {
 	}
 
 	/**
-	 * Compile one or more WhileyFiles into a given WyilFile
+	 * Compile one or more WhileyFiles into a given WyilFile, where only some of
+	 * the source files may have changed since it was last compiled. When
+	 * incremental compilation is enabled, and the target was previously compiled
+	 * without errors from the same number of source files, then only the source
+	 * files which changed are parsed again. Their units replace the existing ones
+	 * in the target, and the set of declarations which must be resolved and
+	 * checked again is returned. This consists of every declaration in a changed
+	 * unit, along with any declaration which refers to a name declared by a
+	 * changed unit (before or after the change) and any declaration which
+	 * (transitively) links to one of these. Otherwise, all source files are parsed
+	 * again and <code>null</code> is returned to indicate everything must be
+	 * checked.
 	 *
-	 * @param source The source file being compiled.
-	 * @param target The target file being generated.
+	 * @param wyil    The target file being generated.
+	 * @param sources All source files which make up the target.
+	 * @param changed The set of source files which have changed.
 	 * @return
 	 * @throws IOException
 	 */
-	private static WyilFile compile(List<Path.Entry<WhileyFile>> sources, Path.Entry<WyilFile> target) throws IOException {
-		// Read target WyilFile. This may have already been compiled in a previous run
-		// and, in such case, we are invalidating some or all of the existing file.
-		WyilFile wyil = target.read();
-		// Parse all modules
-		for(int i=0;i!=sources.size();++i) {
-			Path.Entry<WhileyFile> source = sources.get(i);
-			WhileyFileParser wyp = new WhileyFileParser(wyil, source.read());
-			// FIXME: what to do with module added to heap? The problem is that this might
-			// be replaced a module, for example.
-			wyil.getModule().putUnit(wyp.read());
+	private Set<Decl> compile(WyilFile wyil, List<Path.Entry<WhileyFile>> sources, Set<Path.Entry<?>> changed)
+			throws IOException {
+		Decl.Module module = wyil.getModule();
+		ArrayList<Decl.Unit> previous = new ArrayList<>();
+		for (Decl.Unit unit : module.getUnits()) {
+			previous.add(unit);
+		}
+		// Check whether incremental compilation is possible
+		if (!incremental || module.getAttributes().size() > 0 || previous.size() != sources.size()) {
+			compile(wyil, sources);
+			return null;
+		}
+		// Parse only those sources which have changed
+		ArrayList<Path.Entry<WhileyFile>> modified = new ArrayList<>();
+		ArrayList<Path.Entry<WhileyFile>> unmodified = new ArrayList<>();
+		for (Path.Entry<WhileyFile> source : sources) {
+			if (changed.contains(source)) {
+				modified.add(source);
+			} else {
+				unmodified.add(source);
+			}
+		}
+		compile(wyil, modified);
+		//
+		Tuple<Decl.Unit> units = module.getUnits();
+		if (units.size() != previous.size()) {
+			// A new unit was added rather than replacing an existing one. Hence, we
+			// cannot be sure which units correspond to unchanged sources.
+			compile(wyil, unmodified);
+			return null;
+		}
+		// Identify declarations which are stale (i.e. have been replaced) and those
+		// which are dirty (i.e. must be checked again).
+		Set<Decl> stale = Collections.newSetFromMap(new IdentityHashMap<>());
+		Set<Decl> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+		// Names declared either before or after the change by a changed unit. Since
+		// these may have been added, removed or overloaded, any reference to them
+		// may now resolve differently.
+		HashSet<String> declared = new HashSet<>();
+		for (int i = 0; i != units.size(); ++i) {
+			Decl.Unit unit = units.get(i);
+			if (unit != previous.get(i)) {
+				for (Decl decl : previous.get(i).getDeclarations()) {
+					stale.add(decl);
+					names(decl, declared);
+				}
+				for (Decl decl : unit.getDeclarations()) {
+					dirty.add(decl);
+					names(decl, declared);
+				}
+			}
+		}
+		ArrayDeque<Decl> worklist = new ArrayDeque<>(stale);
+		// Index the dependencies of unchanged declarations. That is, for each
+		// declaration, those unchanged declarations which link to it. Any unchanged
+		// declaration referring to a name declared by a changed unit is dirty, since
+		// its links must be resolved again.
+		IdentityHashMap<Decl, List<Decl>> dependents = new IdentityHashMap<>();
+		for (int i = 0; i != units.size(); ++i) {
+			Decl.Unit unit = units.get(i);
+			if (unit == previous.get(i)) {
+				for (Decl decl : unit.getDeclarations()) {
+					Set<SyntacticItem> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+					HashSet<String> referenced = new HashSet<>();
+					for (Decl target : dependencies(decl, visited, new ArrayList<>(), referenced)) {
+						dependents.computeIfAbsent(target, k -> new ArrayList<>()).add(decl);
+					}
+					if (!Collections.disjoint(referenced, declared) && dirty.add(decl)) {
+						worklist.add(decl);
+					}
+				}
+			}
+		}
+		// Propagate through the dependencies of unchanged declarations
+		while (!worklist.isEmpty()) {
+			for (Decl decl : dependents.getOrDefault(worklist.remove(), Collections.emptyList())) {
+				if (dirty.add(decl)) {
+					// Links of this declaration must be resolved again
+					worklist.add(decl);
+				}
+			}
+		}
+		return dirty;
+	}
+
+	/**
+	 * Record the name of a given declaration, if it has one.
+	 *
+	 * @param decl  The declaration in question.
+	 * @param names The set of names being recorded.
+	 */
+	private static void names(Decl decl, Set<String> names) {
+		if (decl instanceof Decl.Named) {
+			names.add(((Decl.Named<?>) decl).getName().get());
+		}
+	}
+
+	/**
+	 * Determine the declarations which a given item links to, along with the
+	 * (unqualified) names it refers to. Observe that this does not traverse
+	 * references, as these are used to connect links (and recursive types) with
+	 * their targets.
+	 *
+	 * @param item         The item being checked.
+	 * @param visited      Records items already visited.
+	 * @param declarations The declarations linked to so far.
+	 * @param names        The names referred to so far.
+	 * @return
+	 */
+	private static List<Decl> dependencies(SyntacticItem item, Set<SyntacticItem> visited,
+			List<Decl> declarations, Set<String> names) {
+		if (item instanceof Ref || !visited.add(item)) {
+			return declarations;
+		} else if (item instanceof Decl.Link) {
+			Decl.Link<?> link = (Decl.Link<?>) item;
+			names.add(link.getName().getLast().get());
+			for (Object candidate : link.getCandidates()) {
+				declarations.add((Decl) candidate);
+			}
+			return declarations;
+		}
+		for (int i = 0; i != item.size(); ++i) {
+			SyntacticItem child = item.get(i);
+			if (child != null) {
+				dependencies(child, visited, declarations, names);
+			}
+		}
+		return declarations;
+	}
+
+	private static int countChanged(List<Path.Entry<WhileyFile>> sources, Set<Path.Entry<?>> changed) {
+		int count = 0;
+		for (Path.Entry<WhileyFile> source : sources) {
+			if (changed.contains(source)) {
+				count++;
+			}
 		}
+		return count;
+	}
+
+	/**
+	 * Compile one or more WhileyFiles into a given WyilFile. When parallel
+	 * compilation is enabled, each source file is lexed and parsed into its own
+	 * private staging heap on the common fork/join pool. The resulting units are
+	 * then merged into the target in source order. Either way, the target is laid
+	 * out identically.
+	 *
+	 * @param wyil    The target file being generated.
+	 * @param sources The source files being compiled.
+	 * @throws IOException
+	 */
+	public void compile(WyilFile wyil, List<Path.Entry<WhileyFile>> sources) throws IOException {
+		Path.Entry<WyilFile> target = wyil.getEntry();
 		//
-		return wyil;
+		if (parallel && sources.size() > 1) {
+			// Parse all modules in parallel
+			ArrayList<ForkJoinTask<Decl.Unit>> tasks = new ArrayList<>();
+			for (Path.Entry<WhileyFile> source : sources) {
+				tasks.add(ForkJoinPool.commonPool().submit(() -> parse(new WyilFile(target), source)));
+			}
+			// Merge all modules in order
+			for (ForkJoinTask<Decl.Unit> task : tasks) {
+				wyil.getModule().putUnit(merge(wyil, join(task)));
+			}
+		} else {
+			// Parse all modules
+			for (int i = 0; i != sources.size(); ++i) {
+				// FIXME: what to do with module added to heap? The problem is that this might
+				// be replaced a module, for example.
+				wyil.getModule().putUnit(parse(wyil, sources.get(i)));
+			}
+		}
+	}
+
+	/**
+	 * Parse a given source file into a given heap.
+	 *
+	 * @param heap   The heap into which the parsed unit is allocated.
+	 * @param source The source file being parsed.
+	 * @return
+	 * @throws IOException
+	 */
+	private static Decl.Unit parse(WyilFile heap, Path.Entry<WhileyFile> source) throws IOException {
+		WhileyFileParser wyp = new WhileyFileParser(heap, source.read());
+		return wyp.read();
+	}
+
+	/**
+	 * Merge a unit parsed into a staging heap into a given target heap. Every item
+	 * in the staging heap is allocated into the target, since not all are
+	 * reachable from the unit itself (e.g. source spans). Furthermore, items are
+	 * allocated in order of appearance to ensure the target heap is laid out
+	 * exactly as though the unit had been parsed directly into it.
+	 *
+	 * @param target The heap into which the unit is being merged.
+	 * @param unit   The unit being merged.
+	 * @return
+	 */
+	private static Decl.Unit merge(WyilFile target, Decl.Unit unit) {
+		SyntacticHeap staging = unit.getHeap();
+		AbstractSyntacticHeap.Allocator allocator = new AbstractSyntacticHeap.Allocator(target);
+		for (int i = 0; i != staging.size(); ++i) {
+			allocator.allocate(staging.getSyntacticItem(i));
+		}
+		return (Decl.Unit) allocator.allocate(unit);
+	}
+
+	/**
+	 * Wait for a given task to complete, whilst unwrapping any exception arising.
+	 *
+	 * @param task
+	 * @return
+	 * @throws IOException
+	 */
+	private static <T> T join(ForkJoinTask<T> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw new RuntimeException(cause);
+			}
+		}
 	}
 
 	public String findCounterexamples(WyalFile.Declaration.Assert assertion) {
@@ -0,0 +1,126 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyc.util;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+import wyal.lang.WyalFile;
+import wybs.lang.Build;
+import wybs.lang.SyntacticItem;
+import wybs.util.AbstractCompilationUnit.Name;
+import wybs.util.AbstractCompilationUnit.Tuple;
+import wyc.lang.WhileyFile;
+import wycc.util.Pair;
+import wyfs.lang.Content;
+import wyfs.lang.Path;
+import wyfs.util.Trie;
+import wyil.lang.WyilFile;
+
+/**
+ * Miscellaneous utilities for building Whiley files outside of a configured
+ * project (e.g. from the compile server or the test harness).
+ *
+ * @author David J. Pearce
+ *
+ */
+public class BuildUtils {
+
+	/**
+	 * Default implementation of a content registry. This associates whiley, wyil
+	 * and wyal files with their respective content types.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static class Registry implements Content.Registry {
+		@Override
+		public void associate(Path.Entry e) {
+			String suffix = e.suffix();
+
+			if (suffix.equals("whiley")) {
+				e.associate(WhileyFile.ContentType, null);
+			} else if (suffix.equals("wyil")) {
+				e.associate(WyilFile.ContentType, null);
+			} else if (suffix.equals("wyal")) {
+				e.associate(WyalFile.ContentType, null);
+			}
+		}
+
+		@Override
+		public String suffix(Content.Type<?> t) {
+			return t.getSuffix();
+		}
+	}
+
+	/**
+	 * Identify the Whiley file entry with a given name in a source root, and
+	 * create a fresh (i.e. empty) WyIL target for it. The source is then
+	 * connected to the target in the given build graph.
+	 *
+	 * @param root  The root containing the Whiley file.
+	 * @param graph The build graph being constructed.
+	 * @param arg   The name of the Whiley file (e.g. "test").
+	 * @return
+	 * @throws IOException
+	 */
+	public static Pair<Path.Entry<WhileyFile>, Path.Entry<WyilFile>> findSourceFiles(Path.Root root, Build.Graph graph,
+			String arg) throws IOException {
+		Path.ID id = Trie.fromString(arg);
+		Path.Entry<WhileyFile> source = root.get(id, WhileyFile.ContentType);
+		if (source == null) {
+			throw new IllegalArgumentException("file not found: " + arg);
+		}
+		// Construct target with default value
+		Path.Entry<WyilFile> target = root.create(id, WyilFile.ContentType);
+		WyilFile wf = new WyilFile(target);
+		target.write(wf);
+		// Create initially empty WyIL module.
+		wf.setRootItem(new WyilFile.Decl.Module(new Name(id), new Tuple<>(), new Tuple<>(), new Tuple<>()));
+		//
+		graph.connect(source, target);
+		// Done
+		return new Pair<>(source, target);
+	}
+
+	/**
+	 * Determine whether any syntax error is reachable from a given item. This is
+	 * something of a kludge as there is no easy way at the moment to tell when a
+	 * build has failed.
+	 *
+	 * @param item    The item to start from.
+	 * @param visited Records the indices of items already visited.
+	 * @return
+	 */
+	public static boolean findSyntaxErrors(SyntacticItem item, BitSet visited) {
+		int index = item.getIndex();
+		// Check whether already visited this item
+		if (!visited.get(index)) {
+			visited.set(index);
+			// Check whether this item has a marker associated with it.
+			if (item instanceof WyilFile.SyntaxError) {
+				// At least one marked associated with item.
+				return true;
+			}
+			// Recursive children looking for other syntactic markers
+			for (int i = 0; i != item.size(); ++i) {
+				if (findSyntaxErrors(item.get(i), visited)) {
+					return true;
+				}
+			}
+		}
+		//
+		return false;
+	}
+}
@@ -0,0 +1,292 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyc.util;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import wybs.lang.Build;
+import wybs.lang.SyntacticException;
+import wybs.util.StdBuildGraph;
+import wybs.util.StdBuildRule;
+import wybs.util.StdProject;
+import wycc.cfg.Configuration;
+import wycc.util.Pair;
+import wyc.lang.WhileyFile;
+import wyc.task.CompileTask;
+import wyfs.lang.Content;
+import wyfs.lang.Path;
+import wyfs.util.DirectoryRoot;
+import wyil.io.WyilFileCache;
+import wyil.lang.WyilFile;
+
+/**
+ * <p>
+ * A long-running compile server which accepts build requests one at a time.
+ * This avoids paying the cost of starting a fresh JVM for every build and, more
+ * importantly, of reading in every external dependency again. Specifically,
+ * dependencies are read through a <code>WyilFileCache</code> which persists
+ * between builds, such that a dependency is only deserialised again if its
+ * contents change. Requests are read one per line, either from stdin or from a
+ * socket bound to the loopback address:
+ * </p>
+ *
+ * <pre>
+ * package &lt;dir&gt;         Register a directory of WyIL files as a dependency
+ * build &lt;dir&gt; &lt;file&gt;    Compile a given Whiley file (e.g. "test") in a directory
+ * quit                    Shutdown the server
+ * </pre>
+ *
+ * <p>
+ * The response to a build request consists of any error messages produced,
+ * followed by a line containing either "<code>ok</code>" or
+ * "<code>failed</code>". Likewise, other requests are acknowledged with a line
+ * containing either "<code>ok</code>" or an error message. A server can be
+ * started from the command line, or by the Whiley platform when the
+ * <code>build/whiley/server</code> option specifies a port. In the latter
+ * case, the server only runs for as long as the process which started it, and
+ * the packages of the project being built are registered automatically.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class CompileServer {
+	/**
+	 * Identifies which whiley source files should be considered for compilation.
+	 */
+	private static final Content.Filter<WhileyFile> whileyIncludes = Content.filter("**", WhileyFile.ContentType);
+	/**
+	 * A simple default registry which knows about whiley files and wyil files.
+	 */
+	private static final Content.Registry registry = new BuildUtils.Registry();
+	/**
+	 * The cache of external dependencies which persists between builds.
+	 */
+	private final WyilFileCache cache = new WyilFileCache();
+	/**
+	 * The list of external dependencies available to every build.
+	 */
+	private final ArrayList<Build.Package> packages = new ArrayList<>();
+
+	/**
+	 * Get the cache of external dependencies used by this server.
+	 *
+	 * @return
+	 */
+	public WyilFileCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Register a directory of WyIL files as an external dependency.
+	 *
+	 * @param dir
+	 * @throws IOException
+	 */
+	public void addPackage(File dir) throws IOException {
+		DirectoryRoot root = new DirectoryRoot(dir, registry);
+		addPackage(new Build.Package() {
+			@Override
+			public Configuration getConfiguration() {
+				return null;
+			}
+
+			@Override
+			public Path.Root getRoot() {
+				return root;
+			}
+		});
+	}
+
+	/**
+	 * Register a package as an external dependency.
+	 *
+	 * @param pkg
+	 */
+	public void addPackage(Build.Package pkg) {
+		packages.add(pkg);
+	}
+
+	/**
+	 * Compile a given Whiley file in a given directory, writing any error messages
+	 * produced to a given output stream.
+	 *
+	 * @param whileydir The directory containing the Whiley file.
+	 * @param arg       The name of the Whiley file (e.g. "test").
+	 * @param out       The stream to which error messages are written.
+	 * @return
+	 */
+	public boolean build(File whileydir, String arg, PrintStream out) {
+		try {
+			// Construct the project
+			DirectoryRoot root = new DirectoryRoot(whileydir, registry);
+			StdProject project = new StdProject(root);
+			project.getPackages().addAll(packages);
+			// Add build rule (whiley => wyil)
+			CompileTask task = new CompileTask(project, root).setCache(cache);
+			project.add(new StdBuildRule(task, root, whileyIncludes, null, root));
+			// Create empty build graph
+			Build.Graph graph = new StdBuildGraph();
+			// Identify source files
+			Pair<Path.Entry<WhileyFile>, Path.Entry<WyilFile>> p = BuildUtils.findSourceFiles(root, graph, arg);
+			Path.Entry<WyilFile> target = p.second();
+			// Build the project
+			ArrayList<Path.Entry<?>> sources = new ArrayList<>();
+			sources.add(p.first());
+			project.build(sources, graph);
+			// Flush any created resources (e.g. wyil files)
+			root.flush();
+			// Print out any error messages
+			wycc.commands.Build.printSyntacticMarkers(out, sources, target);
+			return !BuildUtils.findSyntaxErrors(target.read().getRootItem(), new java.util.BitSet());
+		} catch (SyntacticException e) {
+			e.outputSourceError(out, false);
+			return false;
+		} catch (Exception e) {
+			e.printStackTrace(out);
+			return false;
+		}
+	}
+
+	/**
+	 * Serve requests from a given input stream until either it is exhausted, or a
+	 * "quit" request is received.
+	 *
+	 * @param input
+	 * @param out
+	 * @return true if a "quit" request was received.
+	 * @throws IOException
+	 */
+	public boolean serve(BufferedReader input, PrintStream out) throws IOException {
+		String line;
+		while ((line = input.readLine()) != null) {
+			List<String> request = split(line);
+			if (request.isEmpty()) {
+				continue;
+			}
+			switch (request.get(0)) {
+			case "package":
+				if (request.size() != 2) {
+					out.println("usage: package <dir>");
+				} else {
+					addPackage(new File(request.get(1)));
+					out.println("ok");
+				}
+				break;
+			case "build":
+				if (request.size() != 3) {
+					out.println("usage: build <dir> <file>");
+				} else {
+					boolean ok = build(new File(request.get(1)), request.get(2), out);
+					out.println(ok ? "ok" : "failed");
+				}
+				break;
+			case "quit":
+				out.println("ok");
+				out.flush();
+				return true;
+			default:
+				out.println("unknown request: " + request.get(0));
+			}
+			out.flush();
+		}
+		return false;
+	}
+
+	private static List<String> split(String line) {
+		ArrayList<String> items = new ArrayList<>();
+		for (String item : line.trim().split("\\s+")) {
+			if (!item.isEmpty()) {
+				items.add(item);
+			}
+		}
+		return items;
+	}
+
+	/**
+	 * Start a compile server. If a port number is given then requests are accepted
+	 * from connections to that port on the loopback address (one connection at a
+	 * time). Otherwise, requests are read from stdin.
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		CompileServer server = new CompileServer();
+		if (args.length == 0) {
+			server.serve(new BufferedReader(new InputStreamReader(System.in)), System.out);
+		} else {
+			server.listen(new ServerSocket(Integer.parseInt(args[0]), 0, InetAddress.getLoopbackAddress()));
+		}
+	}
+
+	/**
+	 * Start a compile server in the background, which accepts requests from
+	 * connections to a given port on the loopback address (one connection at a
+	 * time). The server runs until either a "quit" request is received, or the
+	 * JVM exits (i.e. it does not keep the JVM alive by itself). Every build made
+	 * by the server can use the given packages as external dependencies, in
+	 * addition to any registered by requests.
+	 *
+	 * @param port
+	 * @param packages
+	 * @return The thread running the server.
+	 * @throws IOException If the port cannot be bound.
+	 */
+	public static Thread start(int port, List<Build.Package> packages) throws IOException {
+		// NOTE: bind here so that any failure is reported to the caller
+		ServerSocket socket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+		CompileServer server = new CompileServer();
+		for (Build.Package pkg : packages) {
+			server.addPackage(pkg);
+		}
+		Thread thread = new Thread(() -> {
+			try {
+				server.listen(socket);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}, "whiley-compile-server");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Serve requests from connections to a given socket, until a "quit" request
+	 * is received.
+	 *
+	 * @param socket
+	 * @throws IOException
+	 */
+	private void listen(ServerSocket socket) throws IOException {
+		try {
+			boolean quit = false;
+			while (!quit) {
+				try (Socket client = socket.accept()) {
+					BufferedReader input = new BufferedReader(new InputStreamReader(client.getInputStream()));
+					PrintStream out = new PrintStream(client.getOutputStream(), true);
+					quit = serve(input, out);
+				}
+			}
+		} finally {
+			socket.close();
+		}
+	}
+}
@@ -28,6 +28,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.function.Function;
 
 import wyal.lang.WyalFile;
 import wybs.lang.Build;
@@ -74,24 +75,7 @@ public class TestUtils {
 	 * @author David J. Pearce
 	 *
 	 */
-	public static class Registry implements Content.Registry {
-		@Override
-		public void associate(Path.Entry e) {
-			String suffix = e.suffix();
-
-			if (suffix.equals("whiley")) {
-				e.associate(WhileyFile.ContentType, null);
-			} else if (suffix.equals("wyil")) {
-				e.associate(WyilFile.ContentType, null);
-			} else if (suffix.equals("wyal")) {
-				e.associate(WyalFile.ContentType, null);
-			}
-		}
-
-		@Override
-		public String suffix(Content.Type<?> t) {
-			return t.getSuffix();
-		}
+	public static class Registry extends BuildUtils.Registry {
 	}
 
 	/**
@@ -183,6 +167,24 @@ public class TestUtils {
 	 */
 	public static Pair<Boolean, String> compile(File whileydir, boolean verify, boolean counterexamples, String arg)
 			throws IOException {
+		return compile(whileydir, verify, counterexamples, task -> task, arg);
+	}
+
+	/**
+	 * Run the Whiley Compiler on one or more source files, which are compiled
+	 * together into a single target named after the first. The compile task used
+	 * can be configured (e.g. to enable parallel checking).
+	 *
+	 * @param whileydir       The root directory containing the source files.
+	 * @param verify          Whether or not to enable verification.
+	 * @param counterexamples Whether or not to generate counterexamples.
+	 * @param options         Configures the compile task being used.
+	 * @param args            The names of the source files to compile.
+	 * @return
+	 * @throws IOException
+	 */
+	public static Pair<Boolean, String> compile(File whileydir, boolean verify, boolean counterexamples,
+			Function<CompileTask, CompileTask> options, String... args) throws IOException {
 		ByteArrayOutputStream syserr = new ByteArrayOutputStream();
 		ByteArrayOutputStream sysout = new ByteArrayOutputStream();
 		PrintStream psyserr = new PrintStream(syserr);
@@ -194,16 +196,23 @@ public class TestUtils {
 			DirectoryRoot root = new DirectoryRoot(whileydir, registry);
 			StdProject project = new StdProject(root);
 			// Add build rules
-			addCompilationRules(project,root,verify,counterexamples);
+			addCompilationRules(project,root,verify,counterexamples,options);
 			// Create empty build graph
 			Build.Graph graph = new StdBuildGraph();
 			// Identify source files
-			Pair<Path.Entry<WhileyFile>,Path.Entry<WyilFile>> p = findSourceFiles(root,graph,arg);
-			Path.Entry<WhileyFile> source = p.first();
+			Pair<Path.Entry<WhileyFile>,Path.Entry<WyilFile>> p = findSourceFiles(root,graph,args[0]);
 			Path.Entry<WyilFile> target = p.second();
 			// Build the project
 			ArrayList<Path.Entry<?>> sources = new ArrayList<>();
-			sources.add(source);
+			sources.add(p.first());
+			for (int i = 1; i < args.length; ++i) {
+				Path.Entry<WhileyFile> source = root.get(Trie.fromString(args[i]), WhileyFile.ContentType);
+				if (source == null) {
+					throw new IllegalArgumentException("file not found: " + args[i]);
+				}
+				graph.connect(source, target);
+				sources.add(source);
+			}
 			project.build(sources, graph);
 			// Flush any created resources (e.g. wyil files)
 			root.flush();
@@ -240,24 +249,7 @@ public class TestUtils {
 	 * @return
 	 */
 	public static boolean findSyntaxErrors(SyntacticItem item, BitSet visited) {
-		int index = item.getIndex();
-		// Check whether already visited this item
-		if(!visited.get(index)) {
-			visited.set(index);
-			// Check whether this item has a marker associated with it.
-			if (item instanceof WyilFile.SyntaxError) {
-				// At least one marked associated with item.
-				return true;
-			}
-			// Recursive children looking for other syntactic markers
-			for (int i = 0; i != item.size(); ++i) {
-				if(findSyntaxErrors(item.get(i), visited)) {
-					return true;
-				}
-			}
-		}
-		//
-		return false;
+		return BuildUtils.findSyntaxErrors(item, visited);
 	}
 
 	/**
@@ -268,8 +260,9 @@ public class TestUtils {
 	 * @param root
 	 * @param verify
 	 */
-	private static void addCompilationRules(StdProject project, Path.Root root, boolean verify, boolean counterexamples) {
-		CompileTask task = new CompileTask(project, root);
+	private static void addCompilationRules(StdProject project, Path.Root root, boolean verify, boolean counterexamples,
+			Function<CompileTask, CompileTask> options) {
+		CompileTask task = options.apply(new CompileTask(project, root));
 		// Add compilation rule(s) (whiley => wyil)
 		project.add(new StdBuildRule(task, root, whileyIncludes, null, root));
 		// Rule for compiling WyIL to WyAL. This will force generation of WyAL files
@@ -300,23 +293,7 @@ public class TestUtils {
 	public static Pair<Path.Entry<WhileyFile>, Path.Entry<WyilFile>> findSourceFiles(Path.Root root, Build.Graph graph,
 			String arg)
 			throws IOException {
-		Path.ID id = Trie.fromString(arg);
-		Path.Entry<WhileyFile> source = root.get(id, WhileyFile.ContentType);
-		if (source == null) {
-			throw new IllegalArgumentException("file not found: " + arg);
-		}
-		// Construct target
-		Path.Entry<WyilFile> target = root.get(id, WyilFile.ContentType);
-		// Doesn't exist, so create with default value
-		target = root.create(id, WyilFile.ContentType);
-		WyilFile wf = new WyilFile(target);
-		target.write(wf);
-		// Create initially empty WyIL module.
-		wf.setRootItem(new WyilFile.Decl.Module(new Name(id), new Tuple<>(), new Tuple<>(), new Tuple<>()));
-		//
-		graph.connect(source, target);
-		// Done
-		return new Pair<>(source,target);
+		return BuildUtils.findSourceFiles(root, graph, arg);
 	}
 
 	/**
@@ -329,12 +306,26 @@ public class TestUtils {
 	 * @throws IOException
 	 */
 	public static void execWyil(File wyildir, Path.ID id) throws IOException {
+		execWyil(wyildir, id, new Interpreter(System.out));
+	}
+
+	/**
+	 * Execute a given WyIL file using a given interpreter (e.g. a
+	 * <code>ClosureInterpreter</code>).
+	 *
+	 * @param wyilDir
+	 *            The root directory to look for the WyIL file.
+	 * @param id
+	 *            The name of the WyIL file
+	 * @param interpreter
+	 *            The interpreter used to execute the file
+	 * @throws IOException
+	 */
+	public static void execWyil(File wyildir, Path.ID id, Interpreter interpreter) throws IOException {
 		Path.Root root = new DirectoryRoot(wyildir, registry);
 		// Empty signature
 		Type.Method sig = new Type.Method(new Tuple<>(new Type[0]), new Tuple<>(), new Tuple<>(), new Tuple<>());
 		QualifiedName name = new QualifiedName(new Name(id), new Identifier("test"));
-		// Try to run the given function or method
-		Interpreter interpreter = new Interpreter(System.out);
 		// Create the initial stack
 		Interpreter.CallStack stack = interpreter.new CallStack();
 		// Load the relevant WyIL module
@@ -81,7 +81,7 @@ import wyil.type.subtyping.EmptinessTest.LifetimeRelation;
  * @author David J. Pearce
  *
  */
-public class AmbiguousCoercionCheck extends AbstractTypedVisitor implements Compiler.Check {
+public class AmbiguousCoercionCheck extends AbstractTypedVisitor implements Compiler.UnitCheck {
 	private boolean status = true;
 
 	public AmbiguousCoercionCheck() {
@@ -96,6 +96,12 @@ public class AmbiguousCoercionCheck extends AbstractTypedVisitor implements Comp
 		return status;
 	}
 
+	@Override
+	public boolean check(WyilFile file, Decl decl) {
+		visitDeclaration(decl);
+		return status;
+	}
+
 	@Override
 	public void visitExpression(Expr expr, Type target, Environment environment) {
 		if(checkCoercion(expr, target, environment)) {
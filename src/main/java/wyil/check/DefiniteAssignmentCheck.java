@@ -49,7 +49,7 @@ import wyc.util.ErrorMessages;
  */
 public class DefiniteAssignmentCheck
 		extends AbstractFunction<DefiniteAssignmentCheck.DefinitelyAssignedSet, DefiniteAssignmentCheck.ControlFlow>
-		implements Compiler.Check {
+		implements Compiler.UnitCheck {
 	private boolean status = true;
 
 	@Override
@@ -60,6 +60,12 @@ public class DefiniteAssignmentCheck
 		return status;
 	}
 
+	@Override
+	public boolean check(WyilFile wf, Decl decl) {
+		visitDeclaration(decl, null);
+		return status;
+	}
+
 	/**
 	 * Check a function or method declaration for definite assignment.
 	 *
@@ -65,7 +65,7 @@ import wybs.lang.SyntacticItem;
  *
  */
 public class DefiniteUnassignmentCheck
-		extends AbstractFunction<DefiniteUnassignmentCheck.MaybeAssignedSet, DefiniteUnassignmentCheck.ControlFlow> implements Compiler.Check {
+		extends AbstractFunction<DefiniteUnassignmentCheck.MaybeAssignedSet, DefiniteUnassignmentCheck.ControlFlow> implements Compiler.UnitCheck {
 
 	/**
 	 * NOTE: the following is left in place to facilitate testing for the final
@@ -84,6 +84,12 @@ public class DefiniteUnassignmentCheck
 		return status;
 	}
 
+	@Override
+	public boolean check(WyilFile wf, Decl decl) {
+		visitDeclaration(decl, null);
+		return status;
+	}
+
 	/**
 	 * Check a function or method declaration for definite assignment.
 	 *
@@ -38,6 +38,7 @@ import wyil.type.subtyping.EmptinessTest;
 import wyil.type.subtyping.EmptinessTest.LifetimeRelation;
 import wyil.type.subtyping.RelaxedTypeEmptinessTest;
 import wyil.type.subtyping.StrictTypeEmptinessTest;
+import wyil.type.subtyping.SubtypeLattice;
 import wyil.type.subtyping.SubtypeOperator;
 import wyil.type.util.ConcreteTypeExtractor;
 import wyil.type.util.ReadWriteTypeExtractor;
@@ -98,7 +99,7 @@ import static wyil.lang.WyilFile.*;
  * @author David J. Pearce
  *
  */
-public class FlowTypeCheck implements Compiler.Check {
+public class FlowTypeCheck implements Compiler.UnitCheck {
 	private final SubtypeOperator relaxedSubtypeOperator;
 	private final SubtypeOperator strictSubtypeOperator;
 	private final ConcreteTypeExtractor concreteTypeExtractor;
@@ -107,12 +108,30 @@ public class FlowTypeCheck implements Compiler.Check {
 	private boolean status = true;
 
 	public FlowTypeCheck() {
+		this(null, new RelaxedTypeResolver.Cache(), new ReadWriteTypeExtractor.Cache());
+	}
+
+	/**
+	 * Construct a flow type check which answers subtype queries between named
+	 * types using a precomputed lattice, and which shares caches of overload
+	 * resolutions and normal forms with other checks in the same compilation.
+	 * The lattice must have been computed using the relaxed emptiness test.
+	 *
+	 * @param lattice     The precomputed lattice, or <code>null</code> if none
+	 *                    is available.
+	 * @param resolutions The cache of overload resolutions to use.
+	 * @param normalForms The cache of normal forms to use when extracting
+	 *                    readable or writeable types.
+	 */
+	public FlowTypeCheck(SubtypeLattice lattice, RelaxedTypeResolver.Cache resolutions,
+			ReadWriteTypeExtractor.Cache normalForms) {
 		EmptinessTest<SemanticType> strictEmptiness = new StrictTypeEmptinessTest();
 		this.concreteTypeExtractor = new ConcreteTypeExtractor(strictEmptiness);
-		this.relaxedSubtypeOperator = new SubtypeOperator(new RelaxedTypeEmptinessTest());
+		this.relaxedSubtypeOperator = new SubtypeOperator(new RelaxedTypeEmptinessTest()).setLattice(lattice);
 		this.strictSubtypeOperator = new SubtypeOperator(strictEmptiness);
-		this.rwTypeExtractor = new ReadWriteTypeExtractor(strictSubtypeOperator);
-		this.typeInference = new RelaxedTypeResolver(relaxedSubtypeOperator, concreteTypeExtractor, rwTypeExtractor);
+		this.rwTypeExtractor = new ReadWriteTypeExtractor(strictSubtypeOperator, normalForms);
+		this.typeInference = new RelaxedTypeResolver(relaxedSubtypeOperator, concreteTypeExtractor, rwTypeExtractor,
+				resolutions);
 	}
 
 	// =========================================================================
@@ -127,6 +146,12 @@ public class FlowTypeCheck implements Compiler.Check {
 		return status;
 	}
 
+	@Override
+	public boolean check(WyilFile wf, Decl decl) {
+		checkDeclaration(decl);
+		return status;
+	}
+
 	// =========================================================================
 	// Declarations
 	// =========================================================================
@@ -28,6 +28,7 @@ import static wyc.util.ErrorMessages.syntaxError;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -297,6 +298,10 @@ public class FlowTypeUtils {
 	public static class Environment implements LifetimeRelation {
 		private final Map<Decl.Variable, SemanticType> refinements;
 		private final Map<String, String[]> withins;
+		/**
+		 * Fingerprint of the within relation, or <code>null</code> if not yet computed.
+		 */
+		private Map<String, List<String>> fingerprint;
 
 		public Environment() {
 			this.refinements = new HashMap<>();
@@ -362,6 +367,20 @@ public class FlowTypeUtils {
 			}
 		}
 
+		@Override
+		public Object getFingerprint() {
+			Map<String, List<String>> r = fingerprint;
+			if (r == null) {
+				// NOTE: withins are never modified once this environment is constructed.
+				r = new HashMap<>();
+				for (Map.Entry<String, String[]> w : withins.entrySet()) {
+					r.put(w.getKey(), Arrays.asList(w.getValue()));
+				}
+				fingerprint = r;
+			}
+			return r;
+		}
+
 		public Environment declareWithin(String inner, Tuple<Identifier> outers) {
 			String[] outs = new String[outers.size()];
 			for (int i = 0; i != outs.length; ++i) {
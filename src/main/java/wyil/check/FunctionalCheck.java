@@ -71,7 +71,7 @@ import static wyil.lang.WyilFile.*;
  * @author David J. Pearce
  *
  */
-public class FunctionalCheck extends AbstractConsumer<FunctionalCheck.Context> implements Compiler.Check {
+public class FunctionalCheck extends AbstractConsumer<FunctionalCheck.Context> implements Compiler.UnitCheck {
 	private boolean status = true;
 
 	@Override
@@ -80,6 +80,12 @@ public class FunctionalCheck extends AbstractConsumer<FunctionalCheck.Context> i
 		return status;
 	}
 
+	@Override
+	public boolean check(WyilFile file, Decl decl) {
+		visitDeclaration(decl, null);
+		return status;
+	}
+
 	public enum Context {
 		PURE, FUNCTIONAL, IMPURE
 	}
@@ -44,7 +44,7 @@ import static wyil.lang.WyilFile.*;
  * @author David J. Pearce
  *
  */
-public class StaticVariableCheck extends AbstractConsumer<Set<QualifiedName>> implements Compiler.Check {
+public class StaticVariableCheck extends AbstractConsumer<Set<QualifiedName>> implements Compiler.UnitCheck {
 	private boolean status = true;
 
 	@Override
@@ -53,6 +53,12 @@ public class StaticVariableCheck extends AbstractConsumer<Set<QualifiedName>> im
 		return status;
 	}
 
+	@Override
+	public boolean check(WyilFile wf, Decl decl) {
+		visitDeclaration(decl, null);
+		return status;
+	}
+
 	@Override
 	public void visitStaticVariable(Decl.StaticVariable decl, Set<QualifiedName> accessed) {
 		if (decl.hasInitialiser()) {
@@ -0,0 +1,1128 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.interpreter;
+
+import static wyil.interpreter.ConcreteSemantics.RValue;
+import static wyil.lang.WyilFile.*;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import wybs.lang.SyntacticItem;
+import wyil.interpreter.ClassFile.Code;
+import wyil.interpreter.ClassFile.Label;
+import wyil.lang.WyilFile;
+import wyil.lang.WyilFile.Decl;
+import wyil.util.AbstractVisitor;
+
+/**
+ * <p>
+ * Responsible for compiling the bodies of WyIL functions and methods into JVM
+ * bytecode, such that they can be executed directly by the JVM (and, hence,
+ * compiled further by its JIT). Each body is compiled into a class
+ * implementing <code>Body</code>, which is written using
+ * <code>ClassFile</code> and then loaded via a dedicated class loader.
+ * </p>
+ * <p>
+ * Local variables are held in JVM locals, rather than in the frame, and
+ * control-flow is compiled into branches. Values are still represented using
+ * <code>ConcreteSemantics</code> and, hence, all operations on them have
+ * exactly the same semantics as for the interpreter. Only a subset of the
+ * language is supported. Specifically, lambdas, references, static variables
+ * and debug statements are not. Any declaration using an unsupported construct
+ * is not compiled and should continue to be interpreted.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class BytecodeCompiler {
+	/**
+	 * The compiled body of a function or method. This accepts the arguments to
+	 * the function or method and produces its return values. The frame given is
+	 * that of the function or method itself, and is used for invoking other
+	 * functions or methods, and for testing types.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public interface Body {
+		public RValue[] execute(Interpreter.CallStack frame, RValue[] args);
+	}
+
+	/**
+	 * The first JVM local available for holding WyIL variables. Local 0 holds
+	 * <code>this</code>, whilst locals 1 and 2 hold the frame and arguments.
+	 */
+	private static final int FIRST_LOCAL = 3;
+
+	private final Interpreter interpreter;
+	private final Loader loader;
+	private int count;
+	/**
+	 * The number of functions and methods successfully compiled so far.
+	 */
+	private int compiled;
+
+	public BytecodeCompiler(Interpreter interpreter) {
+		this.interpreter = interpreter;
+		this.loader = new Loader(BytecodeCompiler.class.getClassLoader());
+	}
+
+	/**
+	 * Compile a given function or method into bytecode, returning
+	 * <code>null</code> if this is not possible. That is, if it uses a construct
+	 * which is not supported, if it exceeds a limit of the class file format
+	 * (e.g. the method is too large), or if the generated class cannot be loaded
+	 * (e.g. it fails verification). In all such cases, the caller continues to
+	 * interpret the function or method instead.
+	 *
+	 * @param decl
+	 * @return
+	 */
+	public synchronized Body compile(Decl.FunctionOrMethod decl) {
+		if (decl.getBody() == null) {
+			return null;
+		}
+		String name = "wyil/interpreter/jit/Body" + (count++);
+		try {
+			Translator m = new Translator(name, decl, interpreter);
+			m.compile();
+			Class<?> c = loader.define(name.replace('/', '.'), m.toByteArray());
+			Constructor<?> constructor = c.getConstructor(Interpreter.class, Object[].class);
+			Body body = (Body) constructor.newInstance(interpreter, m.constants.toArray());
+			compiled++;
+			return body;
+		} catch (Unsupported | ClassFile.LimitExceeded e) {
+			return null;
+		} catch (ReflectiveOperationException | LinkageError e) {
+			// Generated class was rejected by the JVM (e.g. it failed verification)
+			return null;
+		}
+	}
+
+	/**
+	 * Get the number of functions and methods successfully compiled so far.
+	 *
+	 * @return
+	 */
+	public synchronized int getCompiledCount() {
+		return compiled;
+	}
+
+	/**
+	 * Indicates a construct which cannot be compiled.
+	 */
+	private static class Unsupported extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public Unsupported(SyntacticItem item) {
+			super(item.getClass().getSimpleName());
+		}
+	}
+
+	/**
+	 * The class loader used for all compiled bodies.
+	 */
+	private static final class Loader extends ClassLoader {
+		public Loader(ClassLoader parent) {
+			super(parent);
+		}
+
+		public Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	// =============================================================
+	// Translator
+	// =============================================================
+
+	/**
+	 * Responsible for translating a single function or method.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Translator {
+		private final String name;
+		private final Decl.FunctionOrMethod decl;
+		private final ClassFile file;
+		private final Code code;
+		private final ArrayList<Label> labels = new ArrayList<>();
+		/**
+		 * The constants referred to from the compiled code, which are passed in when
+		 * it is instantiated.
+		 */
+		private final ArrayList<Object> constants = new ArrayList<>();
+		private final IdentityHashMap<Object, Integer> indices = new IdentityHashMap<>();
+		/**
+		 * The targets of break and continue statements in the enclosing loops.
+		 */
+		private final ArrayDeque<Label> breaks = new ArrayDeque<>();
+		private final ArrayDeque<Label> continues = new ArrayDeque<>();
+		/**
+		 * The point at which the return values are collected and returned.
+		 */
+		private final Label exit;
+		private final int slots;
+		/**
+		 * Used to evaluate constants at compile time.
+		 */
+		private final Interpreter interpreter;
+
+		public Translator(String name, Decl.FunctionOrMethod decl, Interpreter interpreter) {
+			this.name = name;
+			this.decl = decl;
+			this.interpreter = interpreter;
+			this.file = new ClassFile(name, Object.class, Body.class);
+			this.slots = SlotCounter.count(decl, interpreter);
+			this.code = file.new Code(FIRST_LOCAL + slots);
+			this.exit = newLabel();
+		}
+
+		public void compile() {
+			// Initialise all variables, as the verifier cannot see they are always
+			// assigned before being used.
+			for (int i = 0; i != slots; ++i) {
+				code.aconstNull();
+				code.astore(FIRST_LOCAL + i);
+			}
+			Tuple<Decl.Variable> parameters = decl.getParameters();
+			for (int i = 0; i != parameters.size(); ++i) {
+				code.aload(2);
+				code.iconst(i);
+				code.emit(Code.AALOAD, -1);
+				code.astore(local(parameters.get(i)));
+			}
+			compileBlock(decl.getBody());
+			code.place(exit);
+			Tuple<Decl.Variable> returns = decl.getReturns();
+			code.iconst(returns.size());
+			code.anewarray(RValue.class);
+			for (int i = 0; i != returns.size(); ++i) {
+				code.emit(Code.DUP, 1);
+				code.iconst(i);
+				code.aload(local(returns.get(i)));
+				code.emit(Code.AASTORE, -3);
+			}
+			code.emit(Code.ARETURN, -1);
+			ClassFile.patch(code, labels);
+			file.addMethod(ClassFile.ACC_PUBLIC, "execute",
+					ClassFile.descriptor(RValue[].class, Interpreter.CallStack.class, RValue[].class), code);
+			addFieldsAndConstructor();
+		}
+
+		public byte[] toByteArray() {
+			return file.toByteArray();
+		}
+
+		private void addFieldsAndConstructor() {
+			file.addField(ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL, "interpreter", Interpreter.class);
+			file.addField(ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL, "constants", Object[].class);
+			Code init = file.new Code(3);
+			init.aload(0);
+			init.invoke(OBJECT_INIT);
+			init.aload(0);
+			init.aload(1);
+			init.putfield(name, "interpreter", Interpreter.class);
+			init.aload(0);
+			init.aload(2);
+			init.putfield(name, "constants", Object[].class);
+			init.emit(Code.RETURN, 0);
+			file.addMethod(ClassFile.ACC_PUBLIC, "<init>",
+					ClassFile.descriptor(void.class, Interpreter.class, Object[].class), init);
+		}
+
+		// =============================================================
+		// Statements
+		// =============================================================
+
+		private void compileBlock(Stmt.Block block) {
+			for (int i = 0; i != block.size() && code.isReachable(); ++i) {
+				compileStatement(block.get(i));
+			}
+		}
+
+		private void compileStatement(Stmt stmt) {
+			// Temporaries are only live within the statement which allocates them
+			int mark = code.getLocals();
+			compileStatementInner(stmt);
+			code.release(mark);
+		}
+
+		private void compileStatementInner(Stmt stmt) {
+			switch (stmt.getOpcode()) {
+			case WyilFile.STMT_assert:
+				compileCheck(((Stmt.Assert) stmt).getCondition());
+				break;
+			case WyilFile.STMT_assume:
+				compileCheck(((Stmt.Assume) stmt).getCondition());
+				break;
+			case WyilFile.STMT_assign:
+				compileAssign((Stmt.Assign) stmt);
+				break;
+			case WyilFile.STMT_break:
+				code.branch(Code.GOTO, breaks.peek());
+				break;
+			case WyilFile.STMT_continue:
+				code.branch(Code.GOTO, continues.peek());
+				break;
+			case WyilFile.STMT_dowhile:
+				compileDoWhile((Stmt.DoWhile) stmt);
+				break;
+			case WyilFile.STMT_fail:
+				code.invoke(FAULT);
+				code.emit(Code.ATHROW, -1);
+				break;
+			case WyilFile.STMT_if:
+			case WyilFile.STMT_ifelse:
+				compileIf((Stmt.IfElse) stmt);
+				break;
+			case WyilFile.EXPR_invoke:
+				compileInvoke((Expr.Invoke) stmt);
+				code.emit(Code.POP, -1);
+				break;
+			case WyilFile.STMT_namedblock:
+				compileBlock(((Stmt.NamedBlock) stmt).getBlock());
+				break;
+			case WyilFile.STMT_while:
+				compileWhile((Stmt.While) stmt);
+				break;
+			case WyilFile.STMT_return:
+				compileReturn((Stmt.Return) stmt);
+				break;
+			case WyilFile.STMT_skip:
+				break;
+			case WyilFile.STMT_switch:
+				compileSwitch((Stmt.Switch) stmt);
+				break;
+			case WyilFile.DECL_variableinitialiser:
+			case WyilFile.DECL_variable: {
+				Decl.Variable var = (Decl.Variable) stmt;
+				if (var.hasInitialiser()) {
+					compile(var.getInitialiser());
+					code.astore(local(var));
+				}
+				break;
+			}
+			default:
+				throw new Unsupported(stmt);
+			}
+		}
+
+		private void compileCheck(Expr condition) {
+			Label ok = newLabel();
+			compileCondition(condition, ok, true);
+			code.invoke(FAILURE);
+			code.emit(Code.ATHROW, -1);
+			code.place(ok);
+		}
+
+		private void compileAssign(Stmt.Assign stmt) {
+			Tuple<WyilFile.LVal> lhs = stmt.getLeftHandSide();
+			int[] values = compileValues(stmt.getRightHandSide());
+			for (int i = 0; i != lhs.size(); ++i) {
+				code.aload(values[i]);
+				compileUpdate(lhs.get(i));
+			}
+		}
+
+		/**
+		 * Update a given lvalue with the value on top of the stack.
+		 *
+		 * @param lval
+		 */
+		private void compileUpdate(WyilFile.LVal lval) {
+			switch (lval.getOpcode()) {
+			case EXPR_arrayborrow:
+			case EXPR_arrayaccess: {
+				Expr.ArrayAccess e = (Expr.ArrayAccess) lval;
+				int value = code.newLocal();
+				code.astore(value);
+				compile(e.getFirstOperand(), RValue.Array.class);
+				compile(e.getSecondOperand(), RValue.Int.class);
+				code.aload(value);
+				code.invoke(ARRAY_WRITE);
+				compileUpdate((WyilFile.LVal) e.getFirstOperand());
+				break;
+			}
+			case EXPR_recordaccess:
+			case EXPR_recordborrow: {
+				Expr.RecordAccess e = (Expr.RecordAccess) lval;
+				int value = code.newLocal();
+				code.astore(value);
+				compile(e.getOperand(), RValue.Record.class);
+				constant(new RValue.Record.Cache(e.getField()), RValue.Record.Cache.class);
+				code.emit(Code.SWAP, 0);
+				code.aload(value);
+				code.invoke(RECORD_WRITE);
+				compileUpdate((WyilFile.LVal) e.getOperand());
+				break;
+			}
+			case EXPR_variablemove:
+			case EXPR_variablecopy:
+				code.astore(local(((Expr.VariableAccess) lval).getVariableDeclaration()));
+				break;
+			default:
+				throw new Unsupported(lval);
+			}
+		}
+
+		private void compileDoWhile(Stmt.DoWhile stmt) {
+			Label head = newLabel();
+			Label end = newLabel();
+			code.place(head);
+			breaks.push(end);
+			continues.push(head);
+			compileBlock(stmt.getBody());
+			breaks.pop();
+			continues.pop();
+			if (code.isReachable()) {
+				compileCondition(stmt.getCondition(), head, true);
+			}
+			code.place(end);
+		}
+
+		private void compileWhile(Stmt.While stmt) {
+			Label head = newLabel();
+			Label end = newLabel();
+			code.place(head);
+			compileCondition(stmt.getCondition(), end, false);
+			breaks.push(end);
+			continues.push(head);
+			compileBlock(stmt.getBody());
+			breaks.pop();
+			continues.pop();
+			if (code.isReachable()) {
+				code.branch(Code.GOTO, head);
+			}
+			code.place(end);
+		}
+
+		private void compileIf(Stmt.IfElse stmt) {
+			Label falseBranch = newLabel();
+			Label end = newLabel();
+			compileCondition(stmt.getCondition(), falseBranch, false);
+			compileBlock(stmt.getTrueBranch());
+			if (code.isReachable()) {
+				code.branch(Code.GOTO, end);
+			}
+			code.place(falseBranch);
+			if (stmt.hasFalseBranch()) {
+				compileBlock(stmt.getFalseBranch());
+			}
+			code.place(end);
+		}
+
+		private void compileReturn(Stmt.Return stmt) {
+			Tuple<Decl.Variable> returns = decl.getReturns();
+			int[] values = compileValues(stmt.getReturns());
+			for (int i = 0; i != returns.size(); ++i) {
+				code.aload(values[i]);
+				code.astore(local(returns.get(i)));
+			}
+			code.branch(Code.GOTO, exit);
+		}
+
+		private void compileSwitch(Stmt.Switch stmt) {
+			int value = code.newLocal();
+			compile(stmt.getCondition());
+			code.astore(value);
+			Label end = newLabel();
+			Tuple<Stmt.Case> cases = stmt.getCases();
+			for (int i = 0; i != cases.size(); ++i) {
+				Stmt.Case c = cases.get(i);
+				Label next = newLabel();
+				if (!c.isDefault()) {
+					Label match = newLabel();
+					Tuple<Expr> conditions = c.getConditions();
+					for (int j = 0; j != conditions.size(); ++j) {
+						compile(conditions.get(j));
+						code.aload(value);
+						code.invoke(OBJECT_EQUALS);
+						code.branch(Code.IFNE, match);
+					}
+					code.branch(Code.GOTO, next);
+					code.place(match);
+				}
+				compileBlock(c.getBlock());
+				if (code.isReachable()) {
+					code.branch(Code.GOTO, end);
+				}
+				code.place(next);
+				if (c.isDefault()) {
+					// Any cases after the default are unreachable
+					break;
+				}
+			}
+			code.place(end);
+		}
+
+		/**
+		 * Evaluate a sequence of expressions, any of which may produce more than one
+		 * value, storing each value produced into a fresh local. This returns the
+		 * locals in the order the values were produced.
+		 *
+		 * @param exprs
+		 * @return
+		 */
+		private int[] compileValues(Tuple<Expr> exprs) {
+			ArrayList<Integer> locals = new ArrayList<>();
+			for (int i = 0; i != exprs.size(); ++i) {
+				Expr e = exprs.get(i);
+				if (e instanceof Expr.Invoke) {
+					int n = ((Expr.Invoke) e).getLink().getTarget().getReturns().size();
+					int values = code.newLocal();
+					compileInvoke((Expr.Invoke) e);
+					code.astore(values);
+					for (int j = 0; j != n; ++j) {
+						int local = code.newLocal();
+						code.aload(values);
+						code.iconst(j);
+						code.emit(Code.AALOAD, -1);
+						code.astore(local);
+						locals.add(local);
+					}
+				} else {
+					int local = code.newLocal();
+					compile(e);
+					code.astore(local);
+					locals.add(local);
+				}
+			}
+			int[] result = new int[locals.size()];
+			for (int i = 0; i != result.length; ++i) {
+				result[i] = locals.get(i);
+			}
+			return result;
+		}
+
+		// =============================================================
+		// Expressions
+		// =============================================================
+
+		/**
+		 * Compile an expression such that a value of the given kind is left on the
+		 * stack, inserting a check if necessary.
+		 *
+		 * @param expr
+		 * @param kind
+		 */
+		private void compile(Expr expr, Class<? extends RValue> kind) {
+			Class<?> type = compile(expr);
+			if (!kind.isAssignableFrom(type)) {
+				code.invoke(method(Runtime.class, "as" + kind.getSimpleName(), RValue.class));
+			}
+		}
+
+		/**
+		 * Compile an expression such that its value is left on the stack. This
+		 * returns the static type of the value produced, which is used to avoid
+		 * unnecessary checks.
+		 *
+		 * @param expr
+		 * @return
+		 */
+		private Class<?> compile(Expr expr) {
+			switch (expr.getOpcode()) {
+			case WyilFile.EXPR_constant: {
+				RValue value = interpreter.executeConst((Expr.Constant) expr, null);
+				constant(value, value.getClass());
+				return value.getClass();
+			}
+			case WyilFile.EXPR_cast: {
+				Expr.Cast e = (Expr.Cast) expr;
+				compile(e.getOperand());
+				constant(e.getType(), Type.class);
+				return invoke(CONVERT);
+			}
+			case WyilFile.EXPR_recordinitialiser: {
+				Expr.RecordInitialiser e = (Expr.RecordInitialiser) expr;
+				Tuple<Identifier> fields = e.getFields();
+				Identifier[] names = new Identifier[fields.size()];
+				for (int i = 0; i != names.length; ++i) {
+					names[i] = fields.get(i);
+				}
+				// Store each operand directly at its offset within the record
+				RValue.Record.Shape shape = RValue.Record.Shape.get(names);
+				int[] offsets = new int[names.length];
+				for (int i = 0; i != names.length; ++i) {
+					offsets[i] = shape.indexOf(names[i]);
+				}
+				constant(shape, RValue.Record.Shape.class);
+				compileArray(e.getOperands(), offsets);
+				return invoke(RECORD);
+			}
+			case WyilFile.EXPR_recordaccess:
+			case WyilFile.EXPR_recordborrow: {
+				Expr.RecordAccess e = (Expr.RecordAccess) expr;
+				compile(e.getOperand(), RValue.Record.class);
+				constant(new RValue.Record.Cache(e.getField()), RValue.Record.Cache.class);
+				code.emit(Code.SWAP, 0);
+				return invoke(RECORD_READ);
+			}
+			case WyilFile.EXPR_invoke:
+				compileInvoke((Expr.Invoke) expr);
+				code.iconst(0);
+				code.emit(Code.AALOAD, -1);
+				return RValue.class;
+			case WyilFile.EXPR_variablemove:
+			case WyilFile.EXPR_variablecopy:
+				code.aload(local(((Expr.VariableAccess) expr).getVariableDeclaration()));
+				return RValue.class;
+			case WyilFile.EXPR_bitwisenot:
+				compile(((Expr.BitwiseComplement) expr).getOperand(), RValue.Byte.class);
+				return invoke(BYTE_INVERT);
+			case WyilFile.EXPR_bitwiseor:
+			case WyilFile.EXPR_bitwisexor:
+			case WyilFile.EXPR_bitwiseand: {
+				Tuple<Expr> operands = ((Expr.NaryOperator) expr).getOperands();
+				Method op = expr.getOpcode() == WyilFile.EXPR_bitwiseor ? BYTE_OR
+						: expr.getOpcode() == WyilFile.EXPR_bitwisexor ? BYTE_XOR : BYTE_AND;
+				compile(operands.get(0), RValue.Byte.class);
+				for (int i = 1; i != operands.size(); ++i) {
+					compile(operands.get(i), RValue.Byte.class);
+					code.invoke(op);
+				}
+				return RValue.Byte.class;
+			}
+			case WyilFile.EXPR_bitwiseshl:
+			case WyilFile.EXPR_bitwiseshr: {
+				Expr.BinaryOperator e = (Expr.BinaryOperator) expr;
+				compile(e.getFirstOperand(), RValue.Byte.class);
+				compile(e.getSecondOperand(), RValue.Int.class);
+				return invoke(expr.getOpcode() == WyilFile.EXPR_bitwiseshl ? BYTE_SHL : BYTE_SHR);
+			}
+			case WyilFile.EXPR_arrayborrow:
+			case WyilFile.EXPR_arrayaccess: {
+				Expr.ArrayAccess e = (Expr.ArrayAccess) expr;
+				compile(e.getFirstOperand(), RValue.Array.class);
+				compile(e.getSecondOperand(), RValue.Int.class);
+				return invoke(ARRAY_READ);
+			}
+			case WyilFile.EXPR_arraygenerator: {
+				Expr.ArrayGenerator e = (Expr.ArrayGenerator) expr;
+				compile(e.getFirstOperand());
+				compile(e.getSecondOperand(), RValue.Int.class);
+				return invoke(GENERATE);
+			}
+			case WyilFile.EXPR_arrayinitialiser:
+				compileArray(((Expr.ArrayInitialiser) expr).getOperands());
+				return invoke(ARRAY);
+			case WyilFile.EXPR_arrayrange: {
+				Expr.ArrayRange e = (Expr.ArrayRange) expr;
+				compile(e.getFirstOperand(), RValue.Int.class);
+				compile(e.getSecondOperand(), RValue.Int.class);
+				return invoke(RANGE);
+			}
+			case WyilFile.EXPR_arraylength:
+				compile(((Expr.ArrayLength) expr).getOperand(), RValue.Array.class);
+				return invoke(ARRAY_LENGTH);
+			case WyilFile.EXPR_integernegation:
+				compile(((Expr.IntegerNegation) expr).getOperand(), RValue.Int.class);
+				return invoke(INT_NEGATE);
+			case WyilFile.EXPR_integeraddition:
+				return compileBinary((Expr.BinaryOperator) expr, INT_ADD);
+			case WyilFile.EXPR_integersubtraction:
+				return compileBinary((Expr.BinaryOperator) expr, INT_SUBTRACT);
+			case WyilFile.EXPR_integermultiplication:
+				return compileBinary((Expr.BinaryOperator) expr, INT_MULTIPLY);
+			case WyilFile.EXPR_integerdivision:
+				return compileBinary((Expr.BinaryOperator) expr, INT_DIVIDE);
+			case WyilFile.EXPR_integerremainder:
+				return compileBinary((Expr.BinaryOperator) expr, INT_REMAINDER);
+			case WyilFile.EXPR_is:
+			case WyilFile.EXPR_logicalnot:
+			case WyilFile.EXPR_logicaland:
+			case WyilFile.EXPR_logicalor:
+			case WyilFile.EXPR_logiaclimplication:
+			case WyilFile.EXPR_logicaliff:
+			case WyilFile.EXPR_logicalexistential:
+			case WyilFile.EXPR_logicaluniversal:
+			case WyilFile.EXPR_equal:
+			case WyilFile.EXPR_notequal:
+			case WyilFile.EXPR_integerlessthan:
+			case WyilFile.EXPR_integerlessequal:
+			case WyilFile.EXPR_integergreaterthan:
+			case WyilFile.EXPR_integergreaterequal: {
+				Label falseBranch = newLabel();
+				Label end = newLabel();
+				compileCondition(expr, falseBranch, false);
+				code.getstatic(RValue.class, "True");
+				code.branch(Code.GOTO, end);
+				code.place(falseBranch);
+				code.getstatic(RValue.class, "False");
+				code.place(end);
+				return RValue.Bool.class;
+			}
+			default:
+				throw new Unsupported(expr);
+			}
+		}
+
+		private Class<?> compileBinary(Expr.BinaryOperator expr, Method op) {
+			compile(expr.getFirstOperand(), RValue.Int.class);
+			compile(expr.getSecondOperand(), RValue.Int.class);
+			return invoke(op);
+		}
+
+		/**
+		 * Construct an array holding the values of a sequence of expressions, each of
+		 * which produces exactly one value.
+		 *
+		 * @param exprs
+		 */
+		private void compileArray(Tuple<Expr> exprs) {
+			compileArray(exprs, null);
+		}
+
+		/**
+		 * Compile a sequence of expressions into an array, where the value of the
+		 * ith expression is stored at index <code>indices[i]</code> (or at index
+		 * <code>i</code> if no indices are given). Expressions are always evaluated
+		 * in order.
+		 *
+		 * @param exprs
+		 * @param indices
+		 */
+		private void compileArray(Tuple<Expr> exprs, int[] indices) {
+			code.iconst(exprs.size());
+			code.anewarray(RValue.class);
+			for (int i = 0; i != exprs.size(); ++i) {
+				Expr e = exprs.get(i);
+				if (e instanceof Expr.Invoke && ((Expr.Invoke) e).getLink().getTarget().getReturns().size() != 1) {
+					throw new Unsupported(e);
+				}
+				code.emit(Code.DUP, 1);
+				code.iconst(indices == null ? i : indices[i]);
+				compile(e);
+				code.emit(Code.AASTORE, -3);
+			}
+		}
+
+		/**
+		 * Compile an invocation, leaving the array of values it returns on the
+		 * stack.
+		 *
+		 * @param expr
+		 */
+		private void compileInvoke(Expr.Invoke expr) {
+			Decl.Callable target = expr.getLink().getTarget();
+			code.aload(0);
+			code.getfield(name, "interpreter", Interpreter.class);
+			constant(target.getQualifiedName(), QualifiedName.class);
+			constant(target.getType(), Type.Callable.class);
+			code.aload(1);
+			compileArray(expr.getOperands());
+			code.invoke(EXECUTE);
+		}
+
+		// =============================================================
+		// Conditions
+		// =============================================================
+
+		/**
+		 * Compile a condition such that control is transferred to a given label if
+		 * it evaluates to a given outcome and, otherwise, falls through.
+		 *
+		 * @param expr
+		 * @param target
+		 * @param outcome
+		 */
+		private void compileCondition(Expr expr, Label target, boolean outcome) {
+			switch (expr.getOpcode()) {
+			case WyilFile.EXPR_is: {
+				Expr.Is e = (Expr.Is) expr;
+				compile(e.getOperand());
+				constant(e.getTestType(), Type.class);
+				code.aload(1);
+				code.invoke(IS);
+				break;
+			}
+			case WyilFile.EXPR_logicalnot:
+				compileCondition(((Expr.LogicalNot) expr).getOperand(), target, !outcome);
+				return;
+			case WyilFile.EXPR_logicaland:
+				compileConnective(((Expr.LogicalAnd) expr).getOperands(), target, outcome, false);
+				return;
+			case WyilFile.EXPR_logicalor:
+				compileConnective(((Expr.LogicalOr) expr).getOperands(), target, outcome, true);
+				return;
+			case WyilFile.EXPR_logiaclimplication: {
+				Expr.LogicalImplication e = (Expr.LogicalImplication) expr;
+				// lhs ==> rhs is equivalent to !lhs || rhs
+				if (outcome) {
+					compileCondition(e.getFirstOperand(), target, false);
+					compileCondition(e.getSecondOperand(), target, true);
+				} else {
+					Label end = newLabel();
+					compileCondition(e.getFirstOperand(), end, false);
+					compileCondition(e.getSecondOperand(), target, false);
+					code.place(end);
+				}
+				return;
+			}
+			case WyilFile.EXPR_logicaliff: {
+				Expr.LogicalIff e = (Expr.LogicalIff) expr;
+				compile(e.getFirstOperand(), RValue.Bool.class);
+				compile(e.getSecondOperand(), RValue.Bool.class);
+				code.invoke(EQUAL);
+				break;
+			}
+			case WyilFile.EXPR_logicalexistential:
+			case WyilFile.EXPR_logicaluniversal:
+				compileQuantifier((Expr.Quantifier) expr, target, outcome);
+				return;
+			case WyilFile.EXPR_equal: {
+				Expr.Equal e = (Expr.Equal) expr;
+				compile(e.getFirstOperand());
+				compile(e.getSecondOperand());
+				code.invoke(EQUAL);
+				break;
+			}
+			case WyilFile.EXPR_notequal: {
+				Expr.NotEqual e = (Expr.NotEqual) expr;
+				compile(e.getFirstOperand());
+				compile(e.getSecondOperand());
+				code.invoke(NOT_EQUAL);
+				break;
+			}
+			case WyilFile.EXPR_integerlessthan:
+				compileBinary((Expr.BinaryOperator) expr, INT_LESS_THAN);
+				break;
+			case WyilFile.EXPR_integerlessequal:
+				compileBinary((Expr.BinaryOperator) expr, INT_LESS_EQUAL);
+				break;
+			case WyilFile.EXPR_integergreaterthan:
+			case WyilFile.EXPR_integergreaterequal: {
+				Expr.BinaryOperator e = (Expr.BinaryOperator) expr;
+				// NOTE: the operands are evaluated in order and then swapped
+				compile(e.getFirstOperand(), RValue.Int.class);
+				compile(e.getSecondOperand(), RValue.Int.class);
+				code.emit(Code.SWAP, 0);
+				code.invoke(expr.getOpcode() == WyilFile.EXPR_integergreaterthan ? INT_LESS_THAN : INT_LESS_EQUAL);
+				break;
+			}
+			default:
+				compile(expr, RValue.Bool.class);
+			}
+			code.getstatic(RValue.class, "True");
+			code.branch(outcome ? Code.IF_ACMPEQ : Code.IF_ACMPNE, target);
+		}
+
+		/**
+		 * Compile a short-circuiting conjunction or disjunction.
+		 *
+		 * @param operands
+		 * @param target
+		 * @param outcome
+		 * @param disjunct
+		 */
+		private void compileConnective(Tuple<Expr> operands, Label target, boolean outcome, boolean disjunct) {
+			int last = operands.size() - 1;
+			if (outcome == disjunct) {
+				// Any operand determining the outcome transfers control to the target
+				for (int i = 0; i <= last; ++i) {
+					compileCondition(operands.get(i), target, outcome);
+				}
+			} else {
+				// Only the last operand can transfer control to the target
+				Label end = newLabel();
+				for (int i = 0; i < last; ++i) {
+					compileCondition(operands.get(i), end, disjunct);
+				}
+				compileCondition(operands.get(last), target, outcome);
+				code.place(end);
+			}
+		}
+
+		/**
+		 * Compile a quantifier into a loop nest over its ranges. A quantifier
+		 * terminates early as soon as its body does not evaluate to
+		 * <code>universal</code> (i.e. on finding a counterexample or witness). Its
+		 * outcome is <code>universal</code> if it runs to completion and
+		 * <code>!universal</code> otherwise.
+		 *
+		 * @param expr
+		 * @param target
+		 * @param outcome
+		 */
+		private void compileQuantifier(Expr.Quantifier expr, Label target, boolean outcome) {
+			boolean universal = (expr instanceof Expr.UniversalQuantifier);
+			Tuple<Decl.Variable> parameters = expr.getParameters();
+			Label early = (outcome == universal) ? newLabel() : target;
+			Label[] heads = new Label[parameters.size()];
+			Label[] ends = new Label[parameters.size()];
+			int[] indices = new int[parameters.size()];
+			int[] elements = new int[parameters.size()];
+			for (int i = 0; i != heads.length; ++i) {
+				Decl.Variable var = parameters.get(i);
+				heads[i] = newLabel();
+				ends[i] = newLabel();
+				elements[i] = code.newLocal();
+				indices[i] = code.newLocal();
+				compile(var.getInitialiser(), RValue.Array.class);
+				code.invoke(ARRAY_ELEMENTS);
+				code.astore(elements[i]);
+				code.iconst(0);
+				code.istore(indices[i]);
+				code.place(heads[i]);
+				code.iload(indices[i]);
+				code.aload(elements[i]);
+				code.emit(Code.ARRAYLENGTH, 0);
+				code.branch(Code.IF_ICMPGE, ends[i]);
+				code.aload(elements[i]);
+				code.iload(indices[i]);
+				code.emit(Code.AALOAD, -1);
+				code.astore(local(var));
+			}
+			compileCondition(expr.getOperand(), early, !universal);
+			for (int i = heads.length - 1; i >= 0; --i) {
+				code.iinc(indices[i], 1);
+				code.branch(Code.GOTO, heads[i]);
+				code.place(ends[i]);
+			}
+			if (outcome == universal) {
+				code.branch(Code.GOTO, target);
+				code.place(early);
+			}
+		}
+
+		// =============================================================
+		// Helpers
+		// =============================================================
+
+		private Label newLabel() {
+			Label label = new Label();
+			labels.add(label);
+			return label;
+		}
+
+		private Class<?> invoke(Method m) {
+			code.invoke(m);
+			return m.getReturnType();
+		}
+
+		/**
+		 * Load a given constant onto the stack.
+		 *
+		 * @param constant
+		 * @param type
+		 */
+		private void constant(Object constant, Class<?> type) {
+			Integer index = indices.get(constant);
+			if (index == null) {
+				index = constants.size();
+				constants.add(constant);
+				indices.put(constant, index);
+			}
+			code.aload(0);
+			code.getfield(name, "constants", Object[].class);
+			code.iconst(index);
+			code.emit(Code.AALOAD, -1);
+			code.checkcast(type);
+		}
+
+		private int local(Decl.Variable var) {
+			int slot = interpreter.getSlot(var);
+			if (slot >= slots) {
+				// Can happen for a variable declared in a lambda
+				throw new Unsupported(var);
+			}
+			return FIRST_LOCAL + slot;
+		}
+	}
+
+	/**
+	 * Determines the number of slots used by variables in a given declaration.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class SlotCounter extends AbstractVisitor {
+		private final Interpreter interpreter;
+		private int slots;
+
+		private SlotCounter(Interpreter interpreter) {
+			this.interpreter = interpreter;
+		}
+
+		public static int count(Decl.Callable decl, Interpreter interpreter) {
+			SlotCounter counter = new SlotCounter(interpreter);
+			counter.visitDeclaration(decl);
+			return counter.slots;
+		}
+
+		@Override
+		public void visitVariable(Decl.Variable decl) {
+			slots = Math.max(slots, interpreter.getSlot(decl) + 1);
+			super.visitVariable(decl);
+		}
+
+		@Override
+		public void visitType(Type type) {
+			// No variables are declared within types
+		}
+	}
+
+	// =============================================================
+	// Runtime
+	// =============================================================
+
+	/**
+	 * Operations invoked from compiled code. Since compiled code is loaded by a
+	 * separate class loader, these must all be public.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class Runtime {
+		private static final ConcreteSemantics semantics = new ConcreteSemantics();
+
+		public static RValue.Int asInt(RValue value) {
+			return Interpreter.checkType(value, null, RValue.Int.class);
+		}
+
+		public static RValue.Bool asBool(RValue value) {
+			return Interpreter.checkType(value, null, RValue.Bool.class);
+		}
+
+		public static RValue.Byte asByte(RValue value) {
+			return Interpreter.checkType(value, null, RValue.Byte.class);
+		}
+
+		public static RValue.Array asArray(RValue value) {
+			return Interpreter.checkType(value, null, RValue.Array.class);
+		}
+
+		public static RValue.Record asRecord(RValue value) {
+			return Interpreter.checkType(value, null, RValue.Record.class);
+		}
+
+		public static RValue.Array array(RValue[] elements) {
+			return semantics.Array(elements);
+		}
+
+		public static RValue.Array generate(RValue value, RValue.Int count) {
+			int n = count.intValue();
+			if (n < 0) {
+				throw new AssertionError("negative array length");
+			}
+			RValue[] values = new RValue[n];
+			for (int i = 0; i != n; ++i) {
+				values[i] = value;
+			}
+			return semantics.Array(values);
+		}
+
+		public static RValue.Array range(RValue.Int lhs, RValue.Int rhs) {
+			int start = lhs.intValue();
+			int end = rhs.intValue();
+			RValue[] elements = new RValue[end - start];
+			for (int i = start; i < end; ++i) {
+				elements[i - start] = semantics.Int(i);
+			}
+			return semantics.Array(elements);
+		}
+
+		public static AssertionError fault() {
+			return new AssertionError("Runtime fault occurred");
+		}
+
+		public static AssertionError failure() {
+			// FIXME: need to do more here
+			return new AssertionError();
+		}
+	}
+
+	// =============================================================
+	// Methods
+	// =============================================================
+
+	private static Method method(Class<?> owner, String name, Class<?>... parameters) {
+		try {
+			return owner.getMethod(name, parameters);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private static final Constructor<?> OBJECT_INIT;
+
+	static {
+		try {
+			OBJECT_INIT = Object.class.getConstructor();
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private static final Method OBJECT_EQUALS = method(Object.class, "equals", Object.class);
+	private static final Method EXECUTE = method(Interpreter.class, "execute",
+			QualifiedName.class, Type.Callable.class, Interpreter.CallStack.class, RValue[].class);
+	private static final Method IS = method(RValue.class, "is", Type.class,
+			Interpreter.CallStack.class);
+	private static final Method CONVERT = method(RValue.class, "convert", Type.class);
+	private static final Method EQUAL = method(RValue.class, "equal", AbstractSemantics.RValue.class);
+	private static final Method NOT_EQUAL = method(RValue.class, "notEqual",
+			AbstractSemantics.RValue.class);
+	private static final Method INT_NEGATE = method(RValue.Int.class, "negate");
+	private static final Method INT_ADD = method(RValue.Int.class, "add",
+			AbstractSemantics.RValue.Int.class);
+	private static final Method INT_SUBTRACT = method(RValue.Int.class, "subtract",
+			AbstractSemantics.RValue.Int.class);
+	private static final Method INT_MULTIPLY = method(RValue.Int.class, "multiply",
+			AbstractSemantics.RValue.Int.class);
+	private static final Method INT_DIVIDE = method(RValue.Int.class, "divide",
+			AbstractSemantics.RValue.Int.class);
+	private static final Method INT_REMAINDER = method(RValue.Int.class, "remainder",
+			AbstractSemantics.RValue.Int.class);
+	private static final Method INT_LESS_THAN = method(RValue.Int.class, "lessThan",
+			AbstractSemantics.RValue.Int.class);
+	private static final Method INT_LESS_EQUAL = method(RValue.Int.class, "lessThanOrEqual",
+			AbstractSemantics.RValue.Int.class);
+	private static final Method BYTE_INVERT = method(RValue.Byte.class, "invert");
+	private static final Method BYTE_AND = method(RValue.Byte.class, "and",
+			AbstractSemantics.RValue.Byte.class);
+	private static final Method BYTE_OR = method(RValue.Byte.class, "or",
+			AbstractSemantics.RValue.Byte.class);
+	private static final Method BYTE_XOR = method(RValue.Byte.class, "xor",
+			AbstractSemantics.RValue.Byte.class);
+	private static final Method BYTE_SHL = method(RValue.Byte.class, "shl",
+			AbstractSemantics.RValue.Int.class);
+	private static final Method BYTE_SHR = method(RValue.Byte.class, "shr",
+			AbstractSemantics.RValue.Int.class);
+	private static final Method ARRAY_READ = method(RValue.Array.class, "read",
+			AbstractSemantics.RValue.Int.class);
+	private static final Method ARRAY_WRITE = method(RValue.Array.class, "write",
+			AbstractSemantics.RValue.Int.class, AbstractSemantics.RValue.class);
+	private static final Method ARRAY_LENGTH = method(RValue.Array.class, "length");
+	private static final Method ARRAY_ELEMENTS = method(RValue.Array.class, "getElements");
+	private static final Method RECORD_READ = method(RValue.Record.Cache.class, "read",
+			RValue.Record.class);
+	private static final Method RECORD_WRITE = method(RValue.Record.Cache.class, "write",
+			RValue.Record.class, RValue.class);
+	private static final Method ARRAY = method(Runtime.class, "array", RValue[].class);
+	private static final Method GENERATE = method(Runtime.class, "generate", RValue.class,
+			RValue.Int.class);
+	private static final Method RANGE = method(Runtime.class, "range", RValue.Int.class,
+			RValue.Int.class);
+	private static final Method RECORD = method(RValue.Record.Shape.class, "construct", RValue[].class);
+	private static final Method FAULT = method(Runtime.class, "fault");
+	private static final Method FAILURE = method(Runtime.class, "failure");
+}
@@ -0,0 +1,629 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * <p>
+ * A minimal writer for JVM class files, sufficient for generating simple
+ * classes at runtime (see <code>BytecodeCompiler</code>). Classes are written
+ * using version 49 of the class file format which, unlike later versions, does
+ * not require a <code>StackMapTable</code> to be given for each method. This
+ * avoids the need to compute stack map frames and, instead, the JVM verifies
+ * such classes by type inference.
+ * </p>
+ * <p>
+ * Methods and fields referenced from generated code are described using
+ * reflection. This ensures their descriptors are always consistent with the
+ * classes actually being called.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ClassFile {
+	public static final int ACC_PUBLIC = 0x0001;
+	public static final int ACC_FINAL = 0x0010;
+	public static final int ACC_SUPER = 0x0020;
+
+	private static final int CONSTANT_Utf8 = 1;
+	private static final int CONSTANT_Integer = 3;
+	private static final int CONSTANT_Class = 7;
+	private static final int CONSTANT_Fieldref = 9;
+	private static final int CONSTANT_Methodref = 10;
+	private static final int CONSTANT_InterfaceMethodref = 11;
+	private static final int CONSTANT_NameAndType = 12;
+
+	/**
+	 * The constant pool, where each entry is given as a list of its fields.
+	 */
+	private final ArrayList<Object[]> pool = new ArrayList<>();
+	/**
+	 * Maps each constant pool entry to its index, to prevent duplicates.
+	 */
+	private final HashMap<List<Object>, Integer> indices = new HashMap<>();
+	private final ByteArrayOutputStream fields = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+	private int fieldCount;
+	private int methodCount;
+	private final int thisClass;
+	private final int superClass;
+	private final int[] interfaces;
+
+	/**
+	 * Construct a public final class with a given (internal) name, super class
+	 * and interfaces.
+	 *
+	 * @param name
+	 * @param superClass
+	 * @param interfaces
+	 */
+	public ClassFile(String name, Class<?> superClass, Class<?>... interfaces) {
+		this.thisClass = classConstant(name);
+		this.superClass = classConstant(internalName(superClass));
+		this.interfaces = new int[interfaces.length];
+		for (int i = 0; i != interfaces.length; ++i) {
+			this.interfaces[i] = classConstant(internalName(interfaces[i]));
+		}
+	}
+
+	/**
+	 * Add a field to this class.
+	 *
+	 * @param modifiers
+	 * @param name
+	 * @param type
+	 */
+	public void addField(int modifiers, String name, Class<?> type) {
+		DataOutputStream out = new DataOutputStream(fields);
+		try {
+			out.writeShort(modifiers);
+			out.writeShort(utf8Constant(name));
+			out.writeShort(utf8Constant(descriptor(type)));
+			out.writeShort(0);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		fieldCount++;
+	}
+
+	/**
+	 * Add a method with a given body to this class.
+	 *
+	 * @param modifiers
+	 * @param name
+	 * @param descriptor
+	 * @param code
+	 */
+	public void addMethod(int modifiers, String name, String descriptor, Code code) {
+		byte[] bytes = code.toByteArray();
+		DataOutputStream out = new DataOutputStream(methods);
+		try {
+			out.writeShort(modifiers);
+			out.writeShort(utf8Constant(name));
+			out.writeShort(utf8Constant(descriptor));
+			out.writeShort(1);
+			// Code attribute
+			out.writeShort(utf8Constant("Code"));
+			out.writeInt(12 + bytes.length);
+			out.writeShort(code.maxStack);
+			out.writeShort(code.maxLocals);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			out.writeShort(0); // exception table
+			out.writeShort(0); // attributes
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		methodCount++;
+	}
+
+	/**
+	 * Write out this class file as an array of bytes.
+	 *
+	 * @return
+	 */
+	public byte[] toByteArray() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(49);
+			out.writeShort(pool.size() + 1);
+			for (Object[] entry : pool) {
+				int tag = (Integer) entry[0];
+				out.writeByte(tag);
+				switch (tag) {
+				case CONSTANT_Utf8:
+					out.writeUTF((String) entry[1]);
+					break;
+				case CONSTANT_Integer:
+					out.writeInt((Integer) entry[1]);
+					break;
+				case CONSTANT_Class:
+					out.writeShort((Integer) entry[1]);
+					break;
+				default:
+					out.writeShort((Integer) entry[1]);
+					out.writeShort((Integer) entry[2]);
+				}
+			}
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(interfaces.length);
+			for (int i : interfaces) {
+				out.writeShort(i);
+			}
+			out.writeShort(fieldCount);
+			fields.writeTo(out);
+			out.writeShort(methodCount);
+			methods.writeTo(out);
+			out.writeShort(0);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	// =========================================================================
+	// Constant Pool
+	// =========================================================================
+
+	private int constant(Object... entry) {
+		List<Object> key = Arrays.asList(entry);
+		Integer index = indices.get(key);
+		if (index == null) {
+			pool.add(entry);
+			index = pool.size();
+			indices.put(key, index);
+			if (pool.size() >= 0xFFFF) {
+				throw new LimitExceeded("constant pool overflow");
+			}
+		}
+		return index;
+	}
+
+	private int utf8Constant(String s) {
+		return constant(CONSTANT_Utf8, s);
+	}
+
+	private int classConstant(String internalName) {
+		return constant(CONSTANT_Class, utf8Constant(internalName));
+	}
+
+	private int nameAndTypeConstant(String name, String descriptor) {
+		return constant(CONSTANT_NameAndType, utf8Constant(name), utf8Constant(descriptor));
+	}
+
+	private int fieldConstant(String owner, String name, String descriptor) {
+		return constant(CONSTANT_Fieldref, classConstant(owner), nameAndTypeConstant(name, descriptor));
+	}
+
+	private int methodConstant(Class<?> owner, String name, String descriptor) {
+		int tag = owner.isInterface() ? CONSTANT_InterfaceMethodref : CONSTANT_Methodref;
+		return constant(tag, classConstant(internalName(owner)), nameAndTypeConstant(name, descriptor));
+	}
+
+	// =========================================================================
+	// Descriptors
+	// =========================================================================
+
+	public static String internalName(Class<?> c) {
+		return c.getName().replace('.', '/');
+	}
+
+	public static String descriptor(Class<?> c) {
+		if (c.isArray()) {
+			return c.getName().replace('.', '/');
+		} else if (c == void.class) {
+			return "V";
+		} else if (c == boolean.class) {
+			return "Z";
+		} else if (c == int.class) {
+			return "I";
+		} else if (c == long.class) {
+			return "J";
+		} else if (c.isPrimitive()) {
+			throw new IllegalArgumentException("unsupported primitive type: " + c);
+		} else {
+			return "L" + internalName(c) + ";";
+		}
+	}
+
+	public static String descriptor(Class<?> ret, Class<?>... params) {
+		StringBuilder r = new StringBuilder("(");
+		for (Class<?> p : params) {
+			r.append(descriptor(p));
+		}
+		return r.append(")").append(descriptor(ret)).toString();
+	}
+
+	/**
+	 * Determine the number of stack slots occupied by a value of a given type.
+	 *
+	 * @param c
+	 * @return
+	 */
+	private static int size(Class<?> c) {
+		return c == void.class ? 0 : (c == long.class || c == double.class) ? 2 : 1;
+	}
+
+	// =========================================================================
+	// Code
+	// =========================================================================
+
+	/**
+	 * Signals that a limit imposed by the class file format has been exceeded
+	 * (e.g. the constant pool is full). Unlike other failures, this does not
+	 * indicate an internal error and, hence, the caller can recover from it.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static final class LimitExceeded extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public LimitExceeded(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * A label identifies a position within the body of a method, which may be
+	 * placed after branches to it have been emitted.
+	 */
+	public static final class Label {
+		private int position = -1;
+		/**
+		 * The stack depth at this label, or <code>-1</code> if not yet known.
+		 */
+		private int depth = -1;
+		private final ArrayList<Integer> branches = new ArrayList<>();
+	}
+
+	/**
+	 * Responsible for emitting the body of a single method. This tracks the
+	 * depth of the operand stack as instructions are emitted, in order to
+	 * determine the maximum stack size required.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public final class Code {
+		public static final int ICONST_0 = 0x03;
+		public static final int AALOAD = 0x32;
+		public static final int AASTORE = 0x53;
+		public static final int POP = 0x57;
+		public static final int DUP = 0x59;
+		public static final int SWAP = 0x5f;
+		public static final int ARRAYLENGTH = 0xbe;
+		public static final int ATHROW = 0xbf;
+		public static final int ARETURN = 0xb0;
+		public static final int RETURN = 0xb1;
+		public static final int IFEQ = 0x99;
+		public static final int IFNE = 0x9a;
+		public static final int IF_ICMPLT = 0xa1;
+		public static final int IF_ICMPGE = 0xa2;
+		public static final int IF_ACMPEQ = 0xa5;
+		public static final int IF_ACMPNE = 0xa6;
+		public static final int GOTO = 0xa7;
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private int depth;
+		private int maxStack;
+		private int maxLocals;
+		/**
+		 * The next local variable available for allocation.
+		 */
+		private int locals;
+		private boolean reachable = true;
+
+		public Code(int locals) {
+			this.locals = locals;
+			this.maxLocals = locals;
+		}
+
+		/**
+		 * Allocate a fresh local variable.
+		 *
+		 * @return
+		 */
+		public int newLocal() {
+			if (locals >= 255) {
+				throw new LimitExceeded("too many local variables");
+			}
+			maxLocals = Math.max(maxLocals, locals + 1);
+			return locals++;
+		}
+
+		/**
+		 * Get the number of local variables currently allocated. This can be passed
+		 * to <code>release()</code> to reuse any allocated after this point.
+		 *
+		 * @return
+		 */
+		public int getLocals() {
+			return locals;
+		}
+
+		/**
+		 * Release all local variables allocated after a given point.
+		 *
+		 * @param mark
+		 */
+		public void release(int mark) {
+			locals = mark;
+		}
+
+		/**
+		 * Emit an instruction which takes no operands and has a given effect on the
+		 * stack.
+		 *
+		 * @param opcode
+		 * @param delta
+		 */
+		public void emit(int opcode, int delta) {
+			bytes.write(opcode);
+			adjust(delta);
+			if (opcode == ATHROW || opcode == ARETURN || opcode == RETURN) {
+				reachable = false;
+			}
+		}
+
+		public void iconst(int value) {
+			if (value >= -1 && value <= 5) {
+				bytes.write(ICONST_0 + value);
+			} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				bytes.write(0x10); // bipush
+				bytes.write(value);
+			} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				bytes.write(0x11); // sipush
+				u2(value);
+			} else {
+				bytes.write(0x13); // ldc_w
+				u2(constant(CONSTANT_Integer, value));
+			}
+			adjust(1);
+		}
+
+		public void aconstNull() {
+			emit(0x01, 1);
+		}
+
+		public void aload(int local) {
+			bytes.write(0x19);
+			bytes.write(local);
+			adjust(1);
+		}
+
+		public void astore(int local) {
+			bytes.write(0x3a);
+			bytes.write(local);
+			adjust(-1);
+		}
+
+		public void iload(int local) {
+			bytes.write(0x15);
+			bytes.write(local);
+			adjust(1);
+		}
+
+		public void istore(int local) {
+			bytes.write(0x36);
+			bytes.write(local);
+			adjust(-1);
+		}
+
+		public void iinc(int local, int amount) {
+			bytes.write(0x84);
+			bytes.write(local);
+			bytes.write(amount);
+		}
+
+		public void newObject(Class<?> c) {
+			bytes.write(0xbb);
+			u2(classConstant(internalName(c)));
+			adjust(1);
+		}
+
+		public void anewarray(Class<?> c) {
+			bytes.write(0xbd);
+			u2(classConstant(internalName(c)));
+		}
+
+		public void checkcast(Class<?> c) {
+			bytes.write(0xc0);
+			u2(classConstant(c.isArray() ? descriptor(c) : internalName(c)));
+		}
+
+		public void getstatic(Class<?> owner, String name) {
+			try {
+				Class<?> type = owner.getField(name).getType();
+				bytes.write(0xb2);
+				u2(fieldConstant(internalName(owner), name, descriptor(type)));
+				adjust(size(type));
+			} catch (NoSuchFieldException e) {
+				throw new IllegalArgumentException(e);
+			}
+		}
+
+		public void getfield(String owner, String name, Class<?> type) {
+			bytes.write(0xb4);
+			u2(fieldConstant(owner, name, descriptor(type)));
+			adjust(size(type) - 1);
+		}
+
+		public void putfield(String owner, String name, Class<?> type) {
+			bytes.write(0xb5);
+			u2(fieldConstant(owner, name, descriptor(type)));
+			adjust(-size(type) - 1);
+		}
+
+		/**
+		 * Emit an invocation of a given method, choosing the appropriate instruction
+		 * based on how it is declared.
+		 *
+		 * @param m
+		 */
+		public void invoke(Method m) {
+			Class<?> owner = m.getDeclaringClass();
+			String desc = descriptor(m.getReturnType(), m.getParameterTypes());
+			int args = 0;
+			for (Class<?> p : m.getParameterTypes()) {
+				args += size(p);
+			}
+			if (Modifier.isStatic(m.getModifiers())) {
+				bytes.write(0xb8);
+				u2(methodConstant(owner, m.getName(), desc));
+			} else if (owner.isInterface()) {
+				args += 1;
+				bytes.write(0xb9);
+				u2(methodConstant(owner, m.getName(), desc));
+				bytes.write(args);
+				bytes.write(0);
+			} else {
+				args += 1;
+				bytes.write(0xb6);
+				u2(methodConstant(owner, m.getName(), desc));
+			}
+			adjust(size(m.getReturnType()) - args);
+		}
+
+		/**
+		 * Emit an invocation of a given constructor (i.e. of
+		 * <code>&lt;init&gt;</code>).
+		 *
+		 * @param c
+		 */
+		public void invoke(Constructor<?> c) {
+			Class<?>[] params = c.getParameterTypes();
+			bytes.write(0xb7);
+			u2(methodConstant(c.getDeclaringClass(), "<init>", descriptor(void.class, params)));
+			int args = 1;
+			for (Class<?> p : params) {
+				args += size(p);
+			}
+			adjust(-args);
+		}
+
+		/**
+		 * Emit a branch to a given label. The stack depth at the label is that
+		 * after the branch has consumed its operands.
+		 *
+		 * @param opcode
+		 * @param target
+		 */
+		public void branch(int opcode, Label target) {
+			int position = bytes.size();
+			bytes.write(opcode);
+			u2(0);
+			switch (opcode) {
+			case GOTO:
+				break;
+			case IFEQ:
+			case IFNE:
+				adjust(-1);
+				break;
+			default:
+				adjust(-2);
+			}
+			if (target.depth < 0) {
+				target.depth = depth;
+			} else if (target.depth != depth) {
+				throw new IllegalStateException("inconsistent stack depth at branch");
+			}
+			target.branches.add(position);
+			if (opcode == GOTO) {
+				reachable = false;
+			}
+		}
+
+		/**
+		 * Place a given label at the current position.
+		 *
+		 * @param label
+		 */
+		public void place(Label label) {
+			label.position = bytes.size();
+			if (label.depth >= 0) {
+				// The stack depth at a label is determined by branches to it, unless
+				// control falls through to it.
+				if (reachable && label.depth != depth) {
+					throw new IllegalStateException("inconsistent stack depth at label");
+				}
+				depth = label.depth;
+			} else {
+				label.depth = depth;
+			}
+			reachable = true;
+		}
+
+		public boolean isReachable() {
+			return reachable;
+		}
+
+		private byte[] toByteArray() {
+			byte[] code = bytes.toByteArray();
+			if (code.length >= 0x8000) {
+				throw new LimitExceeded("method too large");
+			}
+			return code;
+		}
+
+		private void adjust(int delta) {
+			depth += delta;
+			maxStack = Math.max(maxStack, depth);
+		}
+
+		private void u2(int value) {
+			bytes.write(value >> 8);
+			bytes.write(value);
+		}
+	}
+
+	/**
+	 * Resolve all branches in a given method body to their labels. This must be
+	 * called once the method body is complete and all labels have been placed.
+	 *
+	 * @param code
+	 * @param labels
+	 */
+	public static void patch(Code code, List<Label> labels) {
+		byte[] bytes = code.bytes.toByteArray();
+		for (Label label : labels) {
+			if (label.position < 0 && !label.branches.isEmpty()) {
+				throw new IllegalStateException("label not placed");
+			}
+			for (int branch : label.branches) {
+				int offset = label.position - branch;
+				bytes[branch + 1] = (byte) (offset >> 8);
+				bytes[branch + 2] = (byte) offset;
+			}
+		}
+		code.bytes.reset();
+		code.bytes.write(bytes, 0, bytes.length);
+	}
+}
@@ -0,0 +1,1178 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.interpreter;
+
+import static wyil.interpreter.ConcreteSemantics.LValue;
+import static wyil.interpreter.ConcreteSemantics.RValue;
+import static wyil.lang.WyilFile.*;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import wybs.lang.SyntacticItem;
+import wyil.lang.WyilFile;
+import wyil.lang.WyilFile.Decl;
+
+/**
+ * <p>
+ * An alternative execution engine for WyIL which, rather than walking the
+ * syntax tree of a function or method every time it is executed, first
+ * compiles it into a tree of closures. Each closure is specialised for the
+ * particular construct it implements, such that dispatching on opcodes,
+ * casting syntactic items and checking the types of intermediate values are
+ * all resolved once at compile time. For example, an integer addition is
+ * compiled into a closure which evaluates its two operands as integers and
+ * adds them, without any further checks.
+ * </p>
+ * <p>
+ * Functions and methods are compiled lazily when first invoked, and the
+ * compiled code is retained for subsequent invocations. The semantics are
+ * identical to those of the <code>Interpreter</code>, which remains the
+ * reference implementation.
+ * </p>
+ * <p>
+ * Optionally, functions and methods which are called sufficiently often can be
+ * compiled further into JVM bytecode using the <code>BytecodeCompiler</code>.
+ * Those which cannot be (e.g. because they use unsupported constructs) simply
+ * continue executing as closures.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ClosureInterpreter extends Interpreter {
+	/**
+	 * The compiled code for each function, method or property invoked so far.
+	 */
+	private final Map<Decl.Callable, Code> callables = Collections.synchronizedMap(new IdentityHashMap<>());
+	/**
+	 * The compiled code for each lambda body executed so far.
+	 */
+	private final Map<SyntacticItem, Lambda> lambdas = Collections.synchronizedMap(new IdentityHashMap<>());
+	/**
+	 * The compiled code for expressions evaluated from outside of compiled code
+	 * (e.g. type invariants).
+	 */
+	private final Map<Expr, Expression> expressions = Collections.synchronizedMap(new IdentityHashMap<>());
+	/**
+	 * Used to compile hot functions and methods into bytecode.
+	 */
+	private final BytecodeCompiler compiler = new BytecodeCompiler(this);
+	/**
+	 * The number of times a function or method must be called before it is
+	 * compiled into bytecode. A negative threshold means nothing is compiled into
+	 * bytecode.
+	 */
+	private int compileThreshold = -1;
+
+	public ClosureInterpreter(PrintStream debug) {
+		super(debug);
+	}
+
+	public ClosureInterpreter(PrintStream debug, Contracts contracts) {
+		super(debug, contracts);
+	}
+
+	/**
+	 * Set the number of times a function or method must be called before it is
+	 * compiled into bytecode, or a negative value to disable this altogether.
+	 *
+	 * @param threshold
+	 * @return
+	 */
+	public ClosureInterpreter setCompileThreshold(int threshold) {
+		this.compileThreshold = threshold;
+		return this;
+	}
+
+	/**
+	 * Get the number of functions and methods which have been compiled into
+	 * bytecode so far.
+	 *
+	 * @return
+	 */
+	public int getCompiledCount() {
+		return compiler.getCompiledCount();
+	}
+
+	@Override
+	public RValue[] execute(QualifiedName name, Type.Callable signature, CallStack frame, RValue... args) {
+		Decl.Callable decl = frame.getCallable(name, signature);
+		if (decl == null) {
+			throw new IllegalArgumentException("no function or method found: " + name + ", " + signature);
+		} else if (decl.getParameters().size() != args.length) {
+			throw new IllegalArgumentException(
+					"incorrect number of arguments: " + decl.getName() + ", " + decl.getType());
+		}
+		Code code = callables.get(decl);
+		if (code == null) {
+			code = new Code(decl);
+			callables.put(decl, code);
+		}
+		return code.call(frame, args);
+	}
+
+	@Override
+	public <T extends RValue> T executeExpression(Class<T> expected, Expr expr, CallStack frame) {
+		Expression e = expressions.get(expr);
+		if (e == null) {
+			e = compile(expr);
+			expressions.put(expr, e);
+		}
+		return checkType(e.evaluate(frame), expr, expected);
+	}
+
+	// =============================================================
+	// Compiled Code
+	// =============================================================
+
+	/**
+	 * A compiled expression which produces a single value.
+	 */
+	private interface Expression {
+		public RValue evaluate(CallStack frame);
+	}
+
+	/**
+	 * A compiled expression which is known to produce an integer.
+	 */
+	private interface IntExpression {
+		public RValue.Int evaluate(CallStack frame);
+	}
+
+	/**
+	 * A compiled expression which is known to produce a boolean.
+	 */
+	private interface BoolExpression {
+		public RValue.Bool evaluate(CallStack frame);
+	}
+
+	/**
+	 * A compiled expression which produces zero or more values (e.g. an
+	 * invocation, or a sequence of expressions).
+	 */
+	private interface MultiExpression {
+		public RValue[] evaluate(CallStack frame);
+	}
+
+	/**
+	 * A compiled statement.
+	 */
+	private interface Statement {
+		public Status execute(CallStack frame);
+	}
+
+	/**
+	 * A compiled lvalue which constructs the location to be assigned.
+	 */
+	private interface LVal {
+		public LValue construct(CallStack frame);
+	}
+
+	/**
+	 * The compiled code for a function, method or property.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private final class Code {
+		private final Decl.Callable decl;
+		private final Decl.Variable[] parameters;
+		private final Decl.Variable[] returns;
+		private final BoolExpression[] requires;
+		private final BoolExpression[] ensures;
+		/**
+		 * The compiled body, or <code>null</code> if there is none.
+		 */
+		private final Statement body;
+		/**
+		 * The number of times this has been called, which determines when it is
+		 * compiled into bytecode. This is atomic since a function or method may be
+		 * called concurrently (e.g. when evaluating a quantifier in parallel).
+		 */
+		private final AtomicInteger calls = new AtomicInteger();
+		/**
+		 * The body compiled into bytecode, or <code>null</code> if this has not (yet)
+		 * happened.
+		 */
+		private volatile BytecodeCompiler.Body bytecode;
+
+		public Code(Decl.Callable decl) {
+			this.decl = decl;
+			this.parameters = toArray(decl.getParameters());
+			this.returns = toArray(decl.getReturns());
+			if (decl instanceof Decl.FunctionOrMethod) {
+				Decl.FunctionOrMethod fm = (Decl.FunctionOrMethod) decl;
+				this.requires = compileBool(fm.getRequires());
+				this.ensures = compileBool(fm.getEnsures());
+				this.body = fm.getBody() == null ? null : compileBlock(fm.getBody(), decl);
+			} else {
+				this.requires = new BoolExpression[0];
+				this.ensures = new BoolExpression[0];
+				this.body = null;
+			}
+		}
+
+		public RValue[] call(CallStack frame, RValue[] args) {
+			frame = frame.enter(decl);
+			bind(frame, parameters, args);
+			if (decl instanceof Decl.FunctionOrMethod) {
+				boolean checked = contracts.check((Decl.FunctionOrMethod) decl);
+				if (checked) {
+					check(frame, requires);
+				}
+				if (body == null) {
+					// FIXME: Add support for native functions or methods.
+					throw new IllegalArgumentException(
+							"no function or method body found: " + decl.getQualifiedName() + ", " + decl.getType());
+				}
+				if (bytecode == null && compileThreshold >= 0 && calls.getAndIncrement() == compileThreshold) {
+					// NOTE: compilation is attempted once only, since it can fail if the body
+					// uses constructs not supported by the compiler.
+					bytecode = compiler.compile((Decl.FunctionOrMethod) decl);
+				}
+				RValue[] values;
+				if (bytecode != null) {
+					values = bytecode.execute(frame, args);
+					bind(frame, returns, values);
+				} else {
+					body.execute(frame);
+					values = new RValue[returns.length];
+					for (int i = 0; i != values.length; ++i) {
+						values[i] = frame.getLocal(returns[i]);
+					}
+				}
+				if (checked) {
+					// Restore original parameter values
+					bind(frame, parameters, args);
+					check(frame, ensures);
+				}
+				return values;
+			} else {
+				// Properties always return true (provided their preconditions hold)
+				return new RValue[] { RValue.True };
+			}
+		}
+	}
+
+	/**
+	 * The compiled body of a lambda, which is executed within the frame captured
+	 * when the lambda was created.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private final class Lambda {
+		private final Decl.Variable[] parameters;
+		private final Decl.Variable[] returns;
+		private final Statement block;
+		private final Expression expr;
+
+		public Lambda(Decl.Callable context, Stmt body) {
+			this.parameters = toArray(context.getParameters());
+			this.returns = toArray(context.getReturns());
+			if (body instanceof Stmt.Block) {
+				this.block = compileBlock((Stmt.Block) body, context);
+				this.expr = null;
+			} else {
+				this.block = null;
+				this.expr = compile((Expr) body);
+			}
+		}
+
+		public RValue[] call(RValue.Lambda lambda, RValue[] args) {
+			CallStack frame = lambda.getFrame();
+			bind(frame, parameters, args);
+			if (block != null) {
+				block.execute(frame);
+				RValue[] values = new RValue[returns.length];
+				for (int i = 0; i != values.length; ++i) {
+					values[i] = frame.getLocal(returns[i]);
+				}
+				return values;
+			} else {
+				return new RValue[] { expr.evaluate(frame) };
+			}
+		}
+	}
+
+	private static void bind(CallStack frame, Decl.Variable[] variables, RValue[] values) {
+		for (int i = 0; i != variables.length; ++i) {
+			frame.putLocal(variables[i], values[i]);
+		}
+	}
+
+	private static void check(CallStack frame, BoolExpression[] conditions) {
+		for (int i = 0; i != conditions.length; ++i) {
+			if (conditions[i].evaluate(frame) == RValue.False) {
+				// FIXME: need to do more here
+				throw new AssertionError();
+			}
+		}
+	}
+
+	private static Decl.Variable[] toArray(Tuple<Decl.Variable> variables) {
+		Decl.Variable[] vars = new Decl.Variable[variables.size()];
+		for (int i = 0; i != vars.length; ++i) {
+			vars[i] = variables.get(i);
+		}
+		return vars;
+	}
+
+	// =============================================================
+	// Statements
+	// =============================================================
+
+	/**
+	 * Compile a block of statements.
+	 *
+	 * @param block   The block to compile
+	 * @param context The enclosing function, method or lambda
+	 * @return
+	 */
+	private Statement compileBlock(Stmt.Block block, Decl.Callable context) {
+		final Statement[] stmts = new Statement[block.size()];
+		for (int i = 0; i != stmts.length; ++i) {
+			stmts[i] = compileStatement(block.get(i), context);
+		}
+		if (stmts.length == 1) {
+			return stmts[0];
+		}
+		return frame -> {
+			for (int i = 0; i != stmts.length; ++i) {
+				Status r = stmts[i].execute(frame);
+				if (r != Status.NEXT) {
+					return r;
+				}
+			}
+			return Status.NEXT;
+		};
+	}
+
+	private Statement compileStatement(Stmt stmt, Decl.Callable context) {
+		switch (stmt.getOpcode()) {
+		case WyilFile.STMT_assert:
+		case WyilFile.STMT_assume: {
+			BoolExpression[] condition = { compileBool(stmt.getOpcode() == WyilFile.STMT_assert
+					? ((Stmt.Assert) stmt).getCondition() : ((Stmt.Assume) stmt).getCondition()) };
+			return frame -> {
+				check(frame, condition);
+				return Status.NEXT;
+			};
+		}
+		case WyilFile.STMT_assign:
+			return compileAssign((Stmt.Assign) stmt);
+		case WyilFile.STMT_break:
+			return frame -> Status.BREAK;
+		case WyilFile.STMT_continue:
+			return frame -> Status.CONTINUE;
+		case WyilFile.STMT_debug: {
+			Expression operand = compile(((Stmt.Debug) stmt).getOperand());
+			return frame -> {
+				RValue.Array arr = asArray(operand.evaluate(frame), stmt);
+				for (RValue item : arr.getElements()) {
+					debug.print((char) asInt(item, stmt).intValue());
+				}
+				return Status.NEXT;
+			};
+		}
+		case WyilFile.STMT_dowhile:
+			return compileDoWhile((Stmt.DoWhile) stmt, context);
+		case WyilFile.STMT_fail:
+			return frame -> {
+				throw new AssertionError("Runtime fault occurred");
+			};
+		case WyilFile.STMT_if:
+		case WyilFile.STMT_ifelse:
+			return compileIf((Stmt.IfElse) stmt, context);
+		case WyilFile.EXPR_indirectinvoke:
+		case WyilFile.EXPR_invoke: {
+			MultiExpression invoke = compileMulti((Expr) stmt);
+			return frame -> {
+				invoke.evaluate(frame);
+				return Status.NEXT;
+			};
+		}
+		case WyilFile.STMT_namedblock:
+			return compileBlock(((Stmt.NamedBlock) stmt).getBlock(), context);
+		case WyilFile.STMT_while:
+			return compileWhile((Stmt.While) stmt, context);
+		case WyilFile.STMT_return:
+			return compileReturn((Stmt.Return) stmt, context);
+		case WyilFile.STMT_skip:
+			return frame -> Status.NEXT;
+		case WyilFile.STMT_switch:
+			return compileSwitch((Stmt.Switch) stmt, context);
+		case WyilFile.DECL_variableinitialiser:
+		case WyilFile.DECL_variable: {
+			Decl.Variable decl = (Decl.Variable) stmt;
+			if (!decl.hasInitialiser()) {
+				return frame -> Status.NEXT;
+			}
+			Expression initialiser = compile(decl.getInitialiser());
+			int slot = getSlot(decl);
+			return frame -> {
+				frame.putLocal(slot, initialiser.evaluate(frame));
+				return Status.NEXT;
+			};
+		}
+		}
+		throw new RuntimeException("internal failure --- dead code reached");
+	}
+
+	private Statement compileAssign(Stmt.Assign stmt) {
+		// FIXME: handle multi-assignments properly
+		Tuple<WyilFile.LVal> lhs = stmt.getLeftHandSide();
+		LVal[] lvals = new LVal[lhs.size()];
+		for (int i = 0; i != lvals.length; ++i) {
+			lvals[i] = compileLVal(lhs.get(i));
+		}
+		if (lvals.length == 1 && stmt.getRightHandSide().size() == 1 && lhs.get(0) instanceof Expr.VariableAccess
+				&& isSingle(stmt.getRightHandSide().get(0))) {
+			// Common case of assigning a single value to a variable
+			int slot = getSlot(((Expr.VariableAccess) lhs.get(0)).getVariableDeclaration());
+			Expression e = compile(stmt.getRightHandSide().get(0));
+			return frame -> {
+				frame.putLocal(slot, e.evaluate(frame));
+				return Status.NEXT;
+			};
+		}
+		MultiExpression rhs = compileMulti(stmt.getRightHandSide());
+		return frame -> {
+			RValue[] values = rhs.evaluate(frame);
+			for (int i = 0; i != lvals.length; ++i) {
+				lvals[i].construct(frame).write(frame, values[i]);
+			}
+			return Status.NEXT;
+		};
+	}
+
+	private Statement compileDoWhile(Stmt.DoWhile stmt, Decl.Callable context) {
+		Statement body = compileBlock(stmt.getBody(), context);
+		BoolExpression condition = compileBool(stmt.getCondition());
+		return frame -> {
+			Status r = Status.NEXT;
+			while (r == Status.NEXT || r == Status.CONTINUE) {
+				r = body.execute(frame);
+				if (r == Status.NEXT && condition.evaluate(frame) == RValue.False) {
+					return Status.NEXT;
+				}
+			}
+			return r == Status.BREAK ? Status.NEXT : r;
+		};
+	}
+
+	private Statement compileWhile(Stmt.While stmt, Decl.Callable context) {
+		Statement body = compileBlock(stmt.getBody(), context);
+		BoolExpression condition = compileBool(stmt.getCondition());
+		return frame -> {
+			Status r;
+			do {
+				if (condition.evaluate(frame) == RValue.False) {
+					return Status.NEXT;
+				}
+				r = body.execute(frame);
+			} while (r == Status.NEXT || r == Status.CONTINUE);
+			return r == Status.BREAK ? Status.NEXT : r;
+		};
+	}
+
+	private Statement compileIf(Stmt.IfElse stmt, Decl.Callable context) {
+		BoolExpression condition = compileBool(stmt.getCondition());
+		Statement trueBranch = compileBlock(stmt.getTrueBranch(), context);
+		if (stmt.hasFalseBranch()) {
+			Statement falseBranch = compileBlock(stmt.getFalseBranch(), context);
+			return frame -> condition.evaluate(frame) == RValue.True ? trueBranch.execute(frame)
+					: falseBranch.execute(frame);
+		} else {
+			return frame -> condition.evaluate(frame) == RValue.True ? trueBranch.execute(frame) : Status.NEXT;
+		}
+	}
+
+	private Statement compileReturn(Stmt.Return stmt, Decl.Callable context) {
+		Decl.Variable[] returns = toArray(context.getReturns());
+		MultiExpression values = compileMulti(stmt.getReturns());
+		return frame -> {
+			RValue[] rs = values.evaluate(frame);
+			for (int i = 0; i != returns.length; ++i) {
+				frame.putLocal(returns[i], rs[i]);
+			}
+			return Status.RETURN;
+		};
+	}
+
+	private Statement compileSwitch(Stmt.Switch stmt, Decl.Callable context) {
+		Expression condition = compile(stmt.getCondition());
+		Tuple<Stmt.Case> cases = stmt.getCases();
+		MultiExpression[] conditions = new MultiExpression[cases.size()];
+		Statement[] blocks = new Statement[cases.size()];
+		for (int i = 0; i != blocks.length; ++i) {
+			Stmt.Case c = cases.get(i);
+			// NOTE: default cases are indicated by null conditions
+			conditions[i] = c.isDefault() ? null : compileMulti(c.getConditions());
+			blocks[i] = compileBlock(c.getBlock(), context);
+		}
+		return frame -> {
+			RValue value = condition.evaluate(frame);
+			for (int i = 0; i != blocks.length; ++i) {
+				if (conditions[i] == null) {
+					return blocks[i].execute(frame);
+				}
+				for (RValue v : conditions[i].evaluate(frame)) {
+					if (v.equals(value)) {
+						return blocks[i].execute(frame);
+					}
+				}
+			}
+			return Status.NEXT;
+		};
+	}
+
+	private LVal compileLVal(WyilFile.LVal lval) {
+		switch (lval.getOpcode()) {
+		case EXPR_arrayborrow:
+		case EXPR_arrayaccess: {
+			Expr.ArrayAccess e = (Expr.ArrayAccess) lval;
+			LVal src = compileLVal((WyilFile.LVal) e.getFirstOperand());
+			IntExpression index = compileInt(e.getSecondOperand());
+			return frame -> new LValue.Array(src.construct(frame), index.evaluate(frame));
+		}
+		case EXPR_dereference: {
+			Expr.Dereference e = (Expr.Dereference) lval;
+			LVal src = compileLVal((WyilFile.LVal) e.getOperand());
+			return frame -> new LValue.Dereference(src.construct(frame));
+		}
+		case EXPR_recordaccess:
+		case EXPR_recordborrow: {
+			Expr.RecordAccess e = (Expr.RecordAccess) lval;
+			LVal src = compileLVal((WyilFile.LVal) e.getOperand());
+			RValue.Record.Cache field = new RValue.Record.Cache(e.getField());
+			return frame -> new LValue.Record(src.construct(frame), field);
+		}
+		case EXPR_variablemove:
+		case EXPR_variablecopy: {
+			LValue.Variable var = new LValue.Variable(getSlot(((Expr.VariableAccess) lval).getVariableDeclaration()));
+			return frame -> var;
+		}
+		}
+		throw new RuntimeException("internal failure --- dead code reached");
+	}
+
+	// =============================================================
+	// Expressions
+	// =============================================================
+
+	/**
+	 * Compile an expression which produces a single value of any kind.
+	 *
+	 * @param expr
+	 * @return
+	 */
+	private Expression compile(Expr expr) {
+		switch (expr.getOpcode()) {
+		case WyilFile.EXPR_constant: {
+			RValue value = executeConst((Expr.Constant) expr, null);
+			return frame -> value;
+		}
+		case WyilFile.EXPR_cast: {
+			Expr.Cast e = (Expr.Cast) expr;
+			Expression operand = compile(e.getOperand());
+			Type type = e.getType();
+			// NOTE: the operand of a cast is not considered to be consumed
+			return frame -> operand.evaluate(frame).convert(type).share();
+		}
+		case WyilFile.EXPR_recordinitialiser: {
+			Expr.RecordInitialiser e = (Expr.RecordInitialiser) expr;
+			Tuple<Identifier> fields = e.getFields();
+			Identifier[] names = new Identifier[fields.size()];
+			Expression[] operands = compile(e.getOperands());
+			for (int i = 0; i != names.length; ++i) {
+				names[i] = fields.get(i);
+			}
+			// Determine the offset of each operand within the record
+			RValue.Record.Shape shape = RValue.Record.Shape.get(names);
+			int[] offsets = new int[names.length];
+			for (int i = 0; i != names.length; ++i) {
+				offsets[i] = shape.indexOf(names[i]);
+			}
+			return frame -> {
+				RValue[] values = new RValue[operands.length];
+				for (int i = 0; i != values.length; ++i) {
+					values[offsets[i]] = operands[i].evaluate(frame);
+				}
+				return shape.construct(values);
+			};
+		}
+		case WyilFile.EXPR_recordaccess:
+		case WyilFile.EXPR_recordborrow: {
+			Expr.RecordAccess e = (Expr.RecordAccess) expr;
+			Expression operand = compile(e.getOperand());
+			RValue.Record.Cache field = new RValue.Record.Cache(e.getField());
+			if (e.isMove()) {
+				return frame -> field.read(asRecord(operand.evaluate(frame), expr));
+			} else {
+				// NOTE: a copy is implemented by sharing the value
+				return frame -> field.read(asRecord(operand.evaluate(frame), expr)).share();
+			}
+		}
+		case WyilFile.EXPR_indirectinvoke:
+		case WyilFile.EXPR_invoke: {
+			MultiExpression invoke = compileMulti(expr);
+			return frame -> invoke.evaluate(frame)[0];
+		}
+		case WyilFile.EXPR_variablemove: {
+			int slot = getSlot(((Expr.VariableAccess) expr).getVariableDeclaration());
+			return frame -> frame.getLocal(slot);
+		}
+		case WyilFile.EXPR_variablecopy: {
+			int slot = getSlot(((Expr.VariableAccess) expr).getVariableDeclaration());
+			return frame -> frame.getLocal(slot).share();
+		}
+		case WyilFile.EXPR_staticvariable: {
+			Decl.StaticVariable decl = ((Expr.StaticVariableAccess) expr).getLink().getTarget();
+			QualifiedName name = decl.getQualifiedName();
+			return frame -> {
+				RValue v = frame.getStatic(name);
+				if (v == null) {
+					// NOTE: it's possible to get here without the static variable having been
+					// initialised in the special case that we have just loaded a module.
+					CallStack f = frame.enter(decl);
+					v = executeExpression(RValue.class, decl.getInitialiser(), f);
+					f.putStatic(name, v);
+				}
+				return v;
+			};
+		}
+		case WyilFile.EXPR_bitwisenot: {
+			Expression operand = compile(((Expr.BitwiseComplement) expr).getOperand());
+			return frame -> asByte(operand.evaluate(frame), expr).invert();
+		}
+		case WyilFile.EXPR_bitwiseor:
+		case WyilFile.EXPR_bitwisexor:
+		case WyilFile.EXPR_bitwiseand:
+			return compileBitwise((Expr.NaryOperator) expr);
+		case WyilFile.EXPR_bitwiseshl:
+		case WyilFile.EXPR_bitwiseshr: {
+			Expr.BinaryOperator e = (Expr.BinaryOperator) expr;
+			Expression lhs = compile(e.getFirstOperand());
+			IntExpression rhs = compileInt(e.getSecondOperand());
+			if (expr.getOpcode() == WyilFile.EXPR_bitwiseshl) {
+				return frame -> asByte(lhs.evaluate(frame), expr).shl(rhs.evaluate(frame));
+			} else {
+				return frame -> asByte(lhs.evaluate(frame), expr).shr(rhs.evaluate(frame));
+			}
+		}
+		case WyilFile.EXPR_arrayborrow:
+		case WyilFile.EXPR_arrayaccess: {
+			Expr.ArrayAccess e = (Expr.ArrayAccess) expr;
+			Expression src = compile(e.getFirstOperand());
+			IntExpression index = compileInt(e.getSecondOperand());
+			if (e.isMove()) {
+				return frame -> asArray(src.evaluate(frame), expr).read(index.evaluate(frame));
+			} else {
+				return frame -> asArray(src.evaluate(frame), expr).read(index.evaluate(frame)).share();
+			}
+		}
+		case WyilFile.EXPR_arraygenerator: {
+			Expr.ArrayGenerator e = (Expr.ArrayGenerator) expr;
+			Expression element = compile(e.getFirstOperand());
+			IntExpression count = compileInt(e.getSecondOperand());
+			return frame -> {
+				// NOTE: the element is not considered to be consumed, but is shared
+				RValue value = element.evaluate(frame).share();
+				int n = count.evaluate(frame).intValue();
+				if (n < 0) {
+					throw new AssertionError("negative array length");
+				}
+				RValue[] values = new RValue[n];
+				for (int i = 0; i != n; ++i) {
+					values[i] = value;
+				}
+				return semantics.Array(values);
+			};
+		}
+		case WyilFile.EXPR_arrayinitialiser: {
+			Expression[] operands = compile(((Expr.ArrayInitialiser) expr).getOperands());
+			return frame -> {
+				RValue[] elements = new RValue[operands.length];
+				for (int i = 0; i != elements.length; ++i) {
+					elements[i] = operands[i].evaluate(frame);
+				}
+				return semantics.Array(elements);
+			};
+		}
+		case WyilFile.EXPR_arrayrange: {
+			Expr.ArrayRange e = (Expr.ArrayRange) expr;
+			IntExpression lhs = compileInt(e.getFirstOperand());
+			IntExpression rhs = compileInt(e.getSecondOperand());
+			return frame -> {
+				int start = lhs.evaluate(frame).intValue();
+				int end = rhs.evaluate(frame).intValue();
+				RValue[] elements = new RValue[end - start];
+				for (int i = start; i < end; ++i) {
+					elements[i - start] = semantics.Int(i);
+				}
+				return semantics.Array(elements);
+			};
+		}
+		case WyilFile.EXPR_new: {
+			Expression operand = compile(((Expr.New) expr).getOperand());
+			return frame -> semantics.Reference(semantics.Cell(operand.evaluate(frame)));
+		}
+		case WyilFile.EXPR_dereference: {
+			Expression operand = compile(((Expr.Dereference) expr).getOperand());
+			return frame -> asReference(operand.evaluate(frame), expr).deref().read();
+		}
+		case WyilFile.EXPR_lambdaaccess: {
+			Decl.Callable decl = ((Expr.LambdaAccess) expr).getLink().getTarget();
+			if (decl instanceof Decl.FunctionOrMethod) {
+				Stmt body = ((Decl.FunctionOrMethod) decl).getBody();
+				// Clone frame to ensure it executes in this exact environment.
+				return frame -> semantics.Lambda(decl, frame.clone(), body);
+			} else {
+				return frame -> (RValue) error("cannot take address of property", expr);
+			}
+		}
+		case WyilFile.DECL_lambda: {
+			Decl.Lambda decl = (Decl.Lambda) expr;
+			Stmt body = decl.getBody();
+			return frame -> semantics.Lambda(decl, frame.clone(), body);
+		}
+		case WyilFile.EXPR_integernegation:
+		case WyilFile.EXPR_integeraddition:
+		case WyilFile.EXPR_integersubtraction:
+		case WyilFile.EXPR_integermultiplication:
+		case WyilFile.EXPR_integerdivision:
+		case WyilFile.EXPR_integerremainder:
+		case WyilFile.EXPR_arraylength: {
+			IntExpression e = compileInt(expr);
+			return e::evaluate;
+		}
+		case WyilFile.EXPR_is:
+		case WyilFile.EXPR_logicalnot:
+		case WyilFile.EXPR_logicaland:
+		case WyilFile.EXPR_logicalor:
+		case WyilFile.EXPR_logiaclimplication:
+		case WyilFile.EXPR_logicaliff:
+		case WyilFile.EXPR_logicalexistential:
+		case WyilFile.EXPR_logicaluniversal:
+		case WyilFile.EXPR_equal:
+		case WyilFile.EXPR_notequal:
+		case WyilFile.EXPR_integerlessthan:
+		case WyilFile.EXPR_integerlessequal:
+		case WyilFile.EXPR_integergreaterthan:
+		case WyilFile.EXPR_integergreaterequal: {
+			BoolExpression e = compileBool(expr);
+			return e::evaluate;
+		}
+		}
+		throw new RuntimeException("internal failure --- dead code reached");
+	}
+
+	private Expression[] compile(Tuple<Expr> exprs) {
+		Expression[] es = new Expression[exprs.size()];
+		for (int i = 0; i != es.length; ++i) {
+			es[i] = compile(exprs.get(i));
+		}
+		return es;
+	}
+
+	private Expression compileBitwise(Expr.NaryOperator expr) {
+		Expression[] operands = compile(expr.getOperands());
+		int opcode = expr.getOpcode();
+		return frame -> {
+			RValue.Byte val = asByte(operands[0].evaluate(frame), expr);
+			for (int i = 1; i != operands.length; ++i) {
+				RValue.Byte rhs = asByte(operands[i].evaluate(frame), expr);
+				switch (opcode) {
+				case WyilFile.EXPR_bitwiseor:
+					val = val.or(rhs);
+					break;
+				case WyilFile.EXPR_bitwisexor:
+					val = val.xor(rhs);
+					break;
+				default:
+					val = val.and(rhs);
+				}
+			}
+			return val;
+		};
+	}
+
+	/**
+	 * Compile an expression which is expected to produce an integer. Arithmetic
+	 * expressions are compiled directly, whilst for anything else a check is
+	 * inserted.
+	 *
+	 * @param expr
+	 * @return
+	 */
+	private IntExpression compileInt(Expr expr) {
+		switch (expr.getOpcode()) {
+		case WyilFile.EXPR_integernegation: {
+			IntExpression operand = compileInt(((Expr.IntegerNegation) expr).getOperand());
+			return frame -> operand.evaluate(frame).negate();
+		}
+		case WyilFile.EXPR_integeraddition: {
+			Expr.BinaryOperator e = (Expr.BinaryOperator) expr;
+			IntExpression lhs = compileInt(e.getFirstOperand());
+			IntExpression rhs = compileInt(e.getSecondOperand());
+			return frame -> lhs.evaluate(frame).add(rhs.evaluate(frame));
+		}
+		case WyilFile.EXPR_integersubtraction: {
+			Expr.BinaryOperator e = (Expr.BinaryOperator) expr;
+			IntExpression lhs = compileInt(e.getFirstOperand());
+			IntExpression rhs = compileInt(e.getSecondOperand());
+			return frame -> lhs.evaluate(frame).subtract(rhs.evaluate(frame));
+		}
+		case WyilFile.EXPR_integermultiplication: {
+			Expr.BinaryOperator e = (Expr.BinaryOperator) expr;
+			IntExpression lhs = compileInt(e.getFirstOperand());
+			IntExpression rhs = compileInt(e.getSecondOperand());
+			return frame -> lhs.evaluate(frame).multiply(rhs.evaluate(frame));
+		}
+		case WyilFile.EXPR_integerdivision: {
+			Expr.BinaryOperator e = (Expr.BinaryOperator) expr;
+			IntExpression lhs = compileInt(e.getFirstOperand());
+			IntExpression rhs = compileInt(e.getSecondOperand());
+			return frame -> lhs.evaluate(frame).divide(rhs.evaluate(frame));
+		}
+		case WyilFile.EXPR_integerremainder: {
+			Expr.BinaryOperator e = (Expr.BinaryOperator) expr;
+			IntExpression lhs = compileInt(e.getFirstOperand());
+			IntExpression rhs = compileInt(e.getSecondOperand());
+			return frame -> lhs.evaluate(frame).remainder(rhs.evaluate(frame));
+		}
+		case WyilFile.EXPR_arraylength: {
+			Expression operand = compile(((Expr.ArrayLength) expr).getOperand());
+			return frame -> asArray(operand.evaluate(frame), expr).length();
+		}
+		case WyilFile.EXPR_constant: {
+			RValue.Int value = asInt(executeConst((Expr.Constant) expr, null), expr);
+			return frame -> value;
+		}
+		default: {
+			Expression e = compile(expr);
+			return frame -> asInt(e.evaluate(frame), expr);
+		}
+		}
+	}
+
+	/**
+	 * Compile an expression which is expected to produce a boolean. Logical
+	 * connectives and comparisons are compiled directly, whilst for anything else
+	 * a check is inserted.
+	 *
+	 * @param expr
+	 * @return
+	 */
+	private BoolExpression compileBool(Expr expr) {
+		switch (expr.getOpcode()) {
+		case WyilFile.EXPR_is: {
+			Expr.Is e = (Expr.Is) expr;
+			Expression operand = compile(e.getOperand());
+			Type type = e.getTestType();
+			return frame -> operand.evaluate(frame).is(type, frame);
+		}
+		case WyilFile.EXPR_logicalnot: {
+			BoolExpression operand = compileBool(((Expr.LogicalNot) expr).getOperand());
+			return frame -> operand.evaluate(frame).not();
+		}
+		case WyilFile.EXPR_logicaland: {
+			BoolExpression[] operands = compileBool(((Expr.LogicalAnd) expr).getOperands());
+			return frame -> {
+				// This is a short-circuiting operator
+				for (int i = 0; i != operands.length; ++i) {
+					if (operands[i].evaluate(frame) == RValue.False) {
+						return RValue.False;
+					}
+				}
+				return RValue.True;
+			};
+		}
+		case WyilFile.EXPR_logicalor: {
+			BoolExpression[] operands = compileBool(((Expr.LogicalOr) expr).getOperands());
+			return frame -> {
+				// This is a short-circuiting operator
+				for (int i = 0; i != operands.length; ++i) {
+					if (operands[i].evaluate(frame) == RValue.True) {
+						return RValue.True;
+					}
+				}
+				return RValue.False;
+			};
+		}
+		case WyilFile.EXPR_logiaclimplication: {
+			Expr.LogicalImplication e = (Expr.LogicalImplication) expr;
+			BoolExpression lhs = compileBool(e.getFirstOperand());
+			BoolExpression rhs = compileBool(e.getSecondOperand());
+			return frame -> lhs.evaluate(frame) == RValue.False ? RValue.True : rhs.evaluate(frame);
+		}
+		case WyilFile.EXPR_logicaliff: {
+			Expr.LogicalIff e = (Expr.LogicalIff) expr;
+			BoolExpression lhs = compileBool(e.getFirstOperand());
+			BoolExpression rhs = compileBool(e.getSecondOperand());
+			return frame -> lhs.evaluate(frame).equal(rhs.evaluate(frame));
+		}
+		case WyilFile.EXPR_logicalexistential:
+		case WyilFile.EXPR_logicaluniversal:
+			return compileQuantifier((Expr.Quantifier) expr);
+		case WyilFile.EXPR_equal: {
+			Expr.Equal e = (Expr.Equal) expr;
+			Expression lhs = compile(e.getFirstOperand());
+			Expression rhs = compile(e.getSecondOperand());
+			return frame -> lhs.evaluate(frame).equal(rhs.evaluate(frame));
+		}
+		case WyilFile.EXPR_notequal: {
+			Expr.NotEqual e = (Expr.NotEqual) expr;
+			Expression lhs = compile(e.getFirstOperand());
+			Expression rhs = compile(e.getSecondOperand());
+			return frame -> lhs.evaluate(frame).notEqual(rhs.evaluate(frame));
+		}
+		case WyilFile.EXPR_integerlessthan: {
+			Expr.BinaryOperator e = (Expr.BinaryOperator) expr;
+			IntExpression lhs = compileInt(e.getFirstOperand());
+			IntExpression rhs = compileInt(e.getSecondOperand());
+			return frame -> lhs.evaluate(frame).lessThan(rhs.evaluate(frame));
+		}
+		case WyilFile.EXPR_integerlessequal: {
+			Expr.BinaryOperator e = (Expr.BinaryOperator) expr;
+			IntExpression lhs = compileInt(e.getFirstOperand());
+			IntExpression rhs = compileInt(e.getSecondOperand());
+			return frame -> lhs.evaluate(frame).lessThanOrEqual(rhs.evaluate(frame));
+		}
+		case WyilFile.EXPR_integergreaterthan: {
+			Expr.BinaryOperator e = (Expr.BinaryOperator) expr;
+			IntExpression lhs = compileInt(e.getFirstOperand());
+			IntExpression rhs = compileInt(e.getSecondOperand());
+			return frame -> {
+				RValue.Int l = lhs.evaluate(frame);
+				return rhs.evaluate(frame).lessThan(l);
+			};
+		}
+		case WyilFile.EXPR_integergreaterequal: {
+			Expr.BinaryOperator e = (Expr.BinaryOperator) expr;
+			IntExpression lhs = compileInt(e.getFirstOperand());
+			IntExpression rhs = compileInt(e.getSecondOperand());
+			return frame -> {
+				RValue.Int l = lhs.evaluate(frame);
+				return rhs.evaluate(frame).lessThanOrEqual(l);
+			};
+		}
+		default: {
+			Expression e = compile(expr);
+			return frame -> asBool(e.evaluate(frame), expr);
+		}
+		}
+	}
+
+	private BoolExpression[] compileBool(Tuple<Expr> exprs) {
+		BoolExpression[] es = new BoolExpression[exprs.size()];
+		for (int i = 0; i != es.length; ++i) {
+			es[i] = compileBool(exprs.get(i));
+		}
+		return es;
+	}
+
+	private BoolExpression compileQuantifier(Expr.Quantifier expr) {
+		Tuple<Decl.Variable> params = expr.getParameters();
+		Decl.Variable[] vars = toArray(params);
+		Expression[] ranges = new Expression[vars.length];
+		for (int i = 0; i != vars.length; ++i) {
+			ranges[i] = compile(vars[i].getInitialiser());
+		}
+		BoolExpression body = compileBool(expr.getOperand());
+		boolean universal = (expr instanceof Expr.UniversalQuantifier);
+		return frame -> {
+			boolean r = quantify(0, vars, ranges, body, universal, frame, expr);
+			return r == universal ? RValue.True : RValue.False;
+		};
+	}
+
+	/**
+	 * Execute one range of a quantifier, or the body if no ranges remain. This
+	 * returns <code>false</code> if the quantifier terminated early.
+	 */
+	private boolean quantify(int index, Decl.Variable[] vars, Expression[] ranges, BoolExpression body,
+			boolean universal, CallStack frame, Expr.Quantifier expr) {
+		if (index == vars.length) {
+			// This is the base case where we evaluate the condition itself.
+			return body.evaluate(frame).boolValue() == universal;
+		} else {
+			RValue[] elements = asArray(ranges[index].evaluate(frame), expr).getElements();
+			if (isParallelisable(expr, elements.length)) {
+				return quantifyParallel(vars[index], elements, frame,
+						f -> quantify(index + 1, vars, ranges, body, universal, f, expr));
+			}
+			for (int i = 0; i != elements.length; ++i) {
+				frame.putLocal(vars[index], elements[i]);
+				if (!quantify(index + 1, vars, ranges, body, universal, frame, expr)) {
+					// early termination
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Compile an expression which may produce more than one value (i.e. an
+	 * invocation).
+	 *
+	 * @param expr
+	 * @return
+	 */
+	private MultiExpression compileMulti(Expr expr) {
+		switch (expr.getOpcode()) {
+		case WyilFile.EXPR_indirectinvoke: {
+			Expr.IndirectInvoke e = (Expr.IndirectInvoke) expr;
+			Expression source = compile(e.getSource());
+			MultiExpression arguments = compileMulti(e.getArguments());
+			return frame -> {
+				RValue.Lambda lambda = asLambda(source.evaluate(frame), expr);
+				RValue[] args = arguments.evaluate(frame);
+				// NOTE: the lambda executes within the frame in which it was created.
+				Stmt body = lambda.getBody();
+				Lambda code = lambdas.get(body);
+				if (code == null) {
+					code = new Lambda(lambda.getContext(), body);
+					lambdas.put(body, code);
+				}
+				return code.call(lambda, args);
+			};
+		}
+		case WyilFile.EXPR_invoke: {
+			Expr.Invoke e = (Expr.Invoke) expr;
+			Decl.Callable decl = e.getLink().getTarget();
+			QualifiedName name = decl.getQualifiedName();
+			Type.Callable signature = decl.getType();
+			MultiExpression arguments = compileMulti(e.getOperands());
+			return frame -> execute(name, signature, frame, arguments.evaluate(frame));
+		}
+		default: {
+			Expression e = compile(expr);
+			return frame -> new RValue[] { e.evaluate(frame) };
+		}
+		}
+	}
+
+	/**
+	 * Compile a sequence of expressions, any of which may produce more than one
+	 * value, such that all values produced are returned in order.
+	 *
+	 * @param exprs
+	 * @return
+	 */
+	private MultiExpression compileMulti(Tuple<Expr> exprs) {
+		boolean single = true;
+		for (int i = 0; i != exprs.size(); ++i) {
+			single &= isSingle(exprs.get(i));
+		}
+		if (single) {
+			// Common case, where each expression produces exactly one value
+			Expression[] es = compile(exprs);
+			return frame -> {
+				RValue[] values = new RValue[es.length];
+				for (int i = 0; i != values.length; ++i) {
+					values[i] = es[i].evaluate(frame);
+				}
+				return values;
+			};
+		}
+		MultiExpression[] es = new MultiExpression[exprs.size()];
+		for (int i = 0; i != es.length; ++i) {
+			es[i] = compileMulti(exprs.get(i));
+		}
+		return frame -> {
+			RValue[][] results = new RValue[es.length][];
+			int count = 0;
+			for (int i = 0; i != es.length; ++i) {
+				results[i] = es[i].evaluate(frame);
+				count += results[i].length;
+			}
+			RValue[] rs = new RValue[count];
+			for (int i = 0, j = 0; i != es.length; ++i) {
+				System.arraycopy(results[i], 0, rs, j, results[i].length);
+				j += results[i].length;
+			}
+			return rs;
+		};
+	}
+
+	private static boolean isSingle(Expr expr) {
+		switch (expr.getOpcode()) {
+		case WyilFile.EXPR_indirectinvoke:
+		case WyilFile.EXPR_invoke:
+			return false;
+		default:
+			return true;
+		}
+	}
+
+	// =============================================================
+	// Checks
+	// =============================================================
+
+	private static RValue.Int asInt(RValue value, SyntacticItem context) {
+		if (value instanceof RValue.Int) {
+			return (RValue.Int) value;
+		}
+		return checkType(value, context, RValue.Int.class);
+	}
+
+	private static RValue.Bool asBool(RValue value, SyntacticItem context) {
+		if (value instanceof RValue.Bool) {
+			return (RValue.Bool) value;
+		}
+		return checkType(value, context, RValue.Bool.class);
+	}
+
+	private static RValue.Byte asByte(RValue value, SyntacticItem context) {
+		if (value instanceof RValue.Byte) {
+			return (RValue.Byte) value;
+		}
+		return checkType(value, context, RValue.Byte.class);
+	}
+
+	private static RValue.Array asArray(RValue value, SyntacticItem context) {
+		if (value instanceof RValue.Array) {
+			return (RValue.Array) value;
+		}
+		return checkType(value, context, RValue.Array.class);
+	}
+
+	private static RValue.Record asRecord(RValue value, SyntacticItem context) {
+		if (value instanceof RValue.Record) {
+			return (RValue.Record) value;
+		}
+		return checkType(value, context, RValue.Record.class);
+	}
+
+	private static RValue.Reference asReference(RValue value, SyntacticItem context) {
+		if (value instanceof RValue.Reference) {
+			return (RValue.Reference) value;
+		}
+		return checkType(value, context, RValue.Reference.class);
+	}
+
+	private static RValue.Lambda asLambda(RValue value, SyntacticItem context) {
+		if (value instanceof RValue.Lambda) {
+			return (RValue.Lambda) value;
+		}
+		return checkType(value, context, RValue.Lambda.class);
+	}
+}
@@ -18,6 +18,9 @@ import static wyil.lang.WyilFile.*;
 import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import wybs.util.AbstractCompilationUnit.Identifier;
 import wybs.util.AbstractCompilationUnit.Tuple;
@@ -42,7 +45,12 @@ public class ConcreteSemantics implements AbstractSemantics {
 
 	@Override
 	public RValue.Int Int(BigInteger value) {
-		return new RValue.Int(value);
+		return RValue.Int.valueOf(value);
+	}
+
+	@Override
+	public RValue.Int Int(long value) {
+		return RValue.Int.valueOf(value);
 	}
 
 	@Override
@@ -81,6 +89,17 @@ public class ConcreteSemantics implements AbstractSemantics {
 		public static final RValue.Bool True = new RValue.Bool(true);
 		public static final RValue.Bool False = new RValue.Bool(false);
 
+		/**
+		 * The last nominal type which this value was found to be an instance of,
+		 * and the last it was found not to be an instance of. Testing whether a
+		 * value is an instance of a nominal type requires checking its invariant,
+		 * which can be expensive. Remembering these means repeated tests against
+		 * the same type (e.g. when matching on a union in a loop) return
+		 * immediately. Both must be cleared whenever this value is updated in
+		 * place.
+		 */
+		private Decl.Type proven, refuted;
+
 		/**
 		 * Check whether a given value is an instanceof of a given type.
 		 *
@@ -96,12 +115,25 @@ public class ConcreteSemantics implements AbstractSemantics {
 			} else if (type instanceof Type.Nominal) {
 				Type.Nominal nom = (Type.Nominal) type;
 				Decl.Type decl = nom.getLink().getTarget();
+				if (decl == proven) {
+					return True;
+				} else if (decl == refuted) {
+					return False;
+				}
 				Decl.Variable var = decl.getVariableDeclaration();
+				Bool result = False;
 				if(is(var.getType(), frame) == True) {
 					Tuple<Expr> invariant = decl.getInvariant();
-					return checkInvariant(var,invariant,frame);
+					result = checkInvariant(var,invariant,frame);
 				}
-				return False;
+				if (frame.isCacheable(decl)) {
+					if (result == True) {
+						proven = decl;
+					} else {
+						refuted = decl;
+					}
+				}
+				return result;
 			} else if (type instanceof Type.Union) {
 				Type.Union t = (Type.Union) type;
 				for (int i=0;i!=t.size();++i) {
@@ -115,6 +147,15 @@ public class ConcreteSemantics implements AbstractSemantics {
 			return False;
 		}
 
+		/**
+		 * Forget any type tests previously made on this value. This is necessary
+		 * when it is updated in place.
+		 */
+		protected void clearTypeTests() {
+			proven = null;
+			refuted = null;
+		}
+
 		@Override
 		public RValue convert(Type type) {
 			// At the moment, this appears to be sound because there are no actual
@@ -122,6 +163,17 @@ public class ConcreteSemantics implements AbstractSemantics {
 			return this;
 		}
 
+		/**
+		 * Indicate that this value may now be held in more than one location. Values
+		 * which support being updated in place (see <code>RValue.Array</code> and
+		 * <code>RValue.Record</code>) can no longer be updated in place after this.
+		 *
+		 * @return
+		 */
+		public RValue share() {
+			return this;
+		}
+
 		/**
 		 * Determine whether two values are equal
 		 *
@@ -160,7 +212,7 @@ public class ConcreteSemantics implements AbstractSemantics {
 				// to execute the invariant and determine whether or not it
 				// returns true.
 				frame = frame.enter(var);
-				frame.putLocal(var.getName(), this);
+				frame.putLocal(var, this);
 				for (int i = 0; i != invariant.size(); ++i) {
 					RValue.Bool b = frame.execute(Bool.class, invariant.get(i), frame);
 					if (b == False) {
@@ -336,12 +388,66 @@ public class ConcreteSemantics implements AbstractSemantics {
 			}
 		}
 
+		/**
+		 * Represents an unbounded integer value. Since the vast majority of integers
+		 * encountered in practice are small, values which fit into a
+		 * <code>long</code> are represented as such and a <code>BigInteger</code> is
+		 * only used for those which don't. Arithmetic is performed on
+		 * <code>long</code>s wherever possible, with the result promoted to a
+		 * <code>BigInteger</code> on overflow. Observe that the representation of
+		 * any given value is unique, such that equality can be checked directly.
+		 *
+		 * @author David J. Pearce
+		 *
+		 */
 		public final static class Int extends RValue implements AbstractSemantics.RValue.Int {
-			private final BigInteger value;
+			/**
+			 * The smallest and largest values which are cached.
+			 */
+			private static final int CACHE_LOW = -128, CACHE_HIGH = 1024;
+			private static final Int[] CACHE = new Int[CACHE_HIGH - CACHE_LOW + 1];
+
+			static {
+				for (int i = 0; i != CACHE.length; ++i) {
+					CACHE[i] = new Int(i + CACHE_LOW, null);
+				}
+			}
 
-			private Int(BigInteger value) {
+			private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+			private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+			/**
+			 * The value of this integer when it fits into a <code>long</code> (i.e. when
+			 * <code>big</code> is <code>null</code>).
+			 */
+			private final long value;
+			/**
+			 * The value of this integer when it does not fit into a <code>long</code>,
+			 * otherwise <code>null</code>.
+			 */
+			private final BigInteger big;
+
+			private Int(long value, BigInteger big) {
 				this.value = value;
+				this.big = big;
+			}
+
+			public static Int valueOf(long value) {
+				if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+					return CACHE[(int) value - CACHE_LOW];
+				} else {
+					return new Int(value, null);
+				}
+			}
+
+			public static Int valueOf(BigInteger value) {
+				if (value.compareTo(LONG_MIN) >= 0 && value.compareTo(LONG_MAX) <= 0) {
+					return valueOf(value.longValue());
+				} else {
+					return new Int(0, value);
+				}
 			}
+
 			@Override
 			public Bool is(Type type, Interpreter.CallStack frame) {
 				if(type instanceof Type.Int) {
@@ -361,82 +467,205 @@ public class ConcreteSemantics implements AbstractSemantics {
 
 			@Override
 			public Int negate() {
-				return new Int(value.negate());
+				if (big == null && value != Long.MIN_VALUE) {
+					return valueOf(-value);
+				}
+				return valueOf(toBigInteger().negate());
 			}
 
 			@Override
 			public Int add(AbstractSemantics.RValue.Int _rhs) {
 				RValue.Int rhs = (RValue.Int) _rhs;
-				return new Int(value.add(rhs.value));
+				if (big == null && rhs.big == null) {
+					try {
+						return valueOf(Math.addExact(value, rhs.value));
+					} catch (ArithmeticException e) {
+						// overflow, so fall through
+					}
+				}
+				return valueOf(toBigInteger().add(rhs.toBigInteger()));
 			}
 
 			@Override
 			public Int subtract(AbstractSemantics.RValue.Int _rhs)  {
 				RValue.Int rhs = (RValue.Int) _rhs;
-				return new Int(value.subtract(rhs.value));
+				if (big == null && rhs.big == null) {
+					try {
+						return valueOf(Math.subtractExact(value, rhs.value));
+					} catch (ArithmeticException e) {
+						// overflow, so fall through
+					}
+				}
+				return valueOf(toBigInteger().subtract(rhs.toBigInteger()));
 			}
 
 			@Override
 			public Int multiply(AbstractSemantics.RValue.Int _rhs) {
 				RValue.Int rhs = (RValue.Int) _rhs;
-				return new Int(value.multiply(rhs.value));
+				if (big == null && rhs.big == null) {
+					try {
+						return valueOf(Math.multiplyExact(value, rhs.value));
+					} catch (ArithmeticException e) {
+						// overflow, so fall through
+					}
+				}
+				return valueOf(toBigInteger().multiply(rhs.toBigInteger()));
 			}
 
 			@Override
 			public Int divide(AbstractSemantics.RValue.Int _rhs) {
 				RValue.Int rhs = (RValue.Int) _rhs;
-				return new Int(value.divide(rhs.value));
+				// NOTE: division by zero and MIN_VALUE / -1 are left to BigInteger
+				if (big == null && rhs.big == null && rhs.value != 0 && rhs.value != -1) {
+					return valueOf(value / rhs.value);
+				}
+				return valueOf(toBigInteger().divide(rhs.toBigInteger()));
 			}
 
 			@Override
 			public Int remainder(AbstractSemantics.RValue.Int _rhs) {
 				RValue.Int rhs = (RValue.Int) _rhs;
-				return new Int(value.remainder(rhs.value));
+				// NOTE: division by zero is left to BigInteger
+				if (big == null && rhs.big == null && rhs.value != 0) {
+					return valueOf(value % rhs.value);
+				}
+				return valueOf(toBigInteger().remainder(rhs.toBigInteger()));
 			}
 
 			@Override
 			public Bool lessThan(AbstractSemantics.RValue.Int _rhs) {
 				RValue.Int rhs = (RValue.Int) _rhs;
-				return (value.compareTo(rhs.value) < 0) ? True : False;
+				return (compareTo(rhs) < 0) ? True : False;
 			}
 
 			@Override
 			public Bool lessThanOrEqual(AbstractSemantics.RValue.Int _rhs) {
 				RValue.Int rhs = (RValue.Int) _rhs;
-				return (value.compareTo(rhs.value) <= 0) ? True : False;
+				return (compareTo(rhs) <= 0) ? True : False;
 			}
 
 			@Override
 			public int intValue() {
-				return value.intValue();
+				return big == null ? (int) value : big.intValue();
+			}
+
+			/**
+			 * Get this value as an index into an array of a given length, or
+			 * <code>-1</code> if it is out-of-bounds.
+			 *
+			 * @param length
+			 * @return
+			 */
+			private int toIndex(int length) {
+				return (big == null && value >= 0 && value < length) ? (int) value : -1;
+			}
+
+			public BigInteger toBigInteger() {
+				return big == null ? BigInteger.valueOf(value) : big;
+			}
+
+			private int compareTo(Int rhs) {
+				if (big == null && rhs.big == null) {
+					return Long.compare(value, rhs.value);
+				} else {
+					return toBigInteger().compareTo(rhs.toBigInteger());
+				}
 			}
 
 			@Override
 			public boolean equals(Object o) {
-				return (o instanceof Int) && value.equals(((Int)o).value);
+				if (o instanceof Int) {
+					Int i = (Int) o;
+					return big == null ? (i.big == null && value == i.value) : big.equals(i.big);
+				}
+				return false;
 			}
 
 			@Override
 			public int hashCode() {
-				return value.hashCode();
+				return big == null ? Long.hashCode(value) : big.hashCode();
 			}
 
 			@Override
 			public String toString() {
-				return value.toString();
+				return big == null ? Long.toString(value) : big.toString();
 			}
 		}
 
+		/**
+		 * <p>
+		 * An array value, represented as a persistent vector. That is, a trie of
+		 * nodes with up to 32 children each whose leaves hold the elements. Updating
+		 * an element copies only the nodes on the path to it, whilst all other nodes
+		 * are shared with the original array. Thus, updates take
+		 * <code>O(log n)</code> time rather than <code>O(n)</code>. Since Whiley
+		 * arrays have fixed length, the shape of the trie never changes. The trie is
+		 * only constructed when the array is first updated and, until then, the
+		 * array is held as a flat sequence of elements.
+		 * </p>
+		 * <p>
+		 * An array can additionally be <em>owned</em> by the location holding it
+		 * (e.g. a variable in a given frame). An array which is owned can be updated
+		 * in place through its owner, since nothing else can observe it. Ownership is
+		 * lost when the array is shared (see <code>share()</code>) or when a copy
+		 * of it is updated, since the copy shares its nodes. To support this,
+		 * each node is tagged with the array which created it, and an array can
+		 * only modify nodes it created. Other nodes (i.e. those shared with other
+		 * arrays) are copied first, as for a persistent update.
+		 * </p>
+		 *
+		 * @author David J. Pearce
+		 *
+		 */
 		public final static class Array extends RValue implements AbstractSemantics.RValue.Array {
-			private final RValue[] elements;
+			private static final int BITS = 5;
+			private static final int WIDTH = 1 << BITS;
+			private static final int MASK = WIDTH - 1;
+
+			private final int length;
+			/**
+			 * The shift applied to an index to determine the child of the root node it
+			 * belongs to. This is zero when the root is a leaf.
+			 */
+			private final int shift;
+			/**
+			 * The root of the trie, or <code>null</code> if it has not yet been
+			 * constructed. Every node is an array whose last element is the array value
+			 * which created it.
+			 */
+			private Object[] root;
+			/**
+			 * The elements of this array as a flat sequence, or <code>null</code> if
+			 * this is not known. This must not be modified, since it may be shared.
+			 * This is volatile since it may be computed lazily by a thread other than
+			 * that which created this array (e.g. when evaluating a quantifier in
+			 * parallel).
+			 */
+			private volatile RValue[] elements;
+			/**
+			 * Identifies the location which exclusively holds this array, or
+			 * <code>null</code> if this array may be held in more than one location.
+			 */
+			private Object owner;
 
 			private Array(RValue... elements) {
+				this.length = elements.length;
+				this.shift = shiftFor(elements.length);
 				this.elements = elements;
 			}
+
+			private Array(RValue.Array array) {
+				this.length = array.length;
+				this.shift = array.shift;
+				this.root = array.root;
+				this.elements = array.elements;
+			}
+
 			@Override
 			public RValue.Bool is(Type type, Interpreter.CallStack frame) {
 				if(type instanceof Type.Array) {
 					Type.Array t = (Type.Array) type;
+					RValue[] elements = getElements();
 					for (int i = 0; i != elements.length; ++i) {
 						if (elements[i].is(t.getElement(), frame) == False) {
 							return False;
@@ -452,6 +681,7 @@ public class ConcreteSemantics implements AbstractSemantics {
 			public RValue convert(Type type) {
 				if (type instanceof Type.Array) {
 					Type.Array t = (Type.Array) type;
+					RValue[] elements = getElements();
 					RValue[] values = new RValue[elements.length];
 					for (int i = 0; i != values.length; ++i) {
 						values[i] = elements[i].convert(t.getElement());
@@ -464,44 +694,201 @@ public class ConcreteSemantics implements AbstractSemantics {
 			@Override
 			public RValue read(AbstractSemantics.RValue.Int _index) {
 				RValue.Int index = (RValue.Int) _index;
-				int idx = index.value.intValue();
-				if(idx < 0 || idx >= elements.length) {
+				int idx = index.toIndex(length);
+				if(idx < 0) {
 					throw new AssertionError("out-of-bounds array access");
+				} else if (elements != null) {
+					return elements[idx];
+				}
+				Object[] node = root;
+				for (int s = shift; s > 0; s -= BITS) {
+					node = (Object[]) node[(idx >>> s) & MASK];
 				}
-				return elements[idx];
+				return (RValue) node[idx & MASK];
 			}
 
 			@Override
-			public RValue.Array write(AbstractSemantics.RValue.Int _index, AbstractSemantics.RValue value) {
-				RValue.Int index = (RValue.Int)_index;
-				int idx = index.value.intValue();
-				RValue[] values = Arrays.copyOf(this.elements, this.elements.length);
-				values[idx] = (RValue) value;
-				return new RValue.Array(values);
+			public RValue.Array write(AbstractSemantics.RValue.Int index, AbstractSemantics.RValue value) {
+				return write(index, value, null);
+			}
+
+			/**
+			 * Update a given element of this array, where the updated array will be
+			 * held by a given owner (which may be <code>null</code>). If this array is
+			 * already owned by the given owner, then it is updated in place. Otherwise,
+			 * a new array is returned which is owned by the given owner.
+			 *
+			 * @param _index
+			 * @param value
+			 * @param owner
+			 * @return
+			 */
+			public RValue.Array write(AbstractSemantics.RValue.Int _index, AbstractSemantics.RValue value,
+					Object owner) {
+				RValue.Int index = (RValue.Int) _index;
+				int idx = index.toIndex(length);
+				if (idx < 0) {
+					throw new AssertionError("out-of-bounds array access");
+				}
+				RValue.Array r;
+				if (isOwnedBy(owner)) {
+					r = this;
+				} else {
+					r = new RValue.Array(this);
+					// The nodes of this array are now shared with r and, hence, can no
+					// longer be updated in place.
+					this.owner = null;
+				}
+				r.set(idx, (RValue) value);
+				r.owner = owner;
+				r.clearTypeTests();
+				return r;
 			}
 
+			/**
+			 * Check whether this array is exclusively held by a given owner and, hence,
+			 * can be updated in place through it.
+			 *
+			 * @param owner
+			 * @return
+			 */
+			public boolean isOwnedBy(Object owner) {
+				return owner != null && this.owner == owner;
+			}
+
+			@Override
+			public RValue share() {
+				owner = null;
+				return this;
+			}
+
+			/**
+			 * Get the elements of this array. The array returned must not be modified.
+			 *
+			 * @return
+			 */
 			public RValue[] getElements() {
+				RValue[] elements = this.elements;
+				if (elements == null) {
+					elements = new RValue[length];
+					flatten(root, shift, elements, 0);
+					this.elements = elements;
+				}
 				return elements;
 			}
 
 			@Override
 			public RValue.Int length() {
-				return new RValue.Int(BigInteger.valueOf(elements.length));
+				return RValue.Int.valueOf(length);
 			}
 
 			@Override
 			public boolean equals(Object o) {
-				return (o instanceof RValue.Array) && (Arrays.equals(elements, ((RValue.Array) o).elements));
+				return (o instanceof RValue.Array) && (Arrays.equals(getElements(), ((RValue.Array) o).getElements()));
 			}
 
 			@Override
 			public int hashCode() {
-				return Arrays.hashCode(elements);
+				return Arrays.hashCode(getElements());
 			}
 
 			@Override
 			public String toString() {
-				return Arrays.toString(elements);
+				return Arrays.toString(getElements());
+			}
+
+			/**
+			 * Assign a given element of this array, copying any nodes on the path to it
+			 * which were not created by this array.
+			 *
+			 * @param index
+			 * @param value
+			 */
+			private void set(int index, RValue value) {
+				if (root == null) {
+					root = build(elements, 0, shift);
+				} else {
+					root = edit(root);
+				}
+				Object[] node = root;
+				for (int s = shift; s > 0; s -= BITS) {
+					int i = (index >>> s) & MASK;
+					Object[] child = edit((Object[]) node[i]);
+					node[i] = child;
+					node = child;
+				}
+				node[index & MASK] = value;
+				elements = null;
+			}
+
+			/**
+			 * Get a version of a given node which can be modified by this array.
+			 *
+			 * @param node
+			 * @return
+			 */
+			private Object[] edit(Object[] node) {
+				int n = node.length - 1;
+				if (node[n] != this) {
+					node = node.clone();
+					node[n] = this;
+				}
+				return node;
+			}
+
+			/**
+			 * Construct the node at a given level of the trie holding those elements
+			 * from a given offset.
+			 *
+			 * @param elements
+			 * @param offset
+			 * @param shift
+			 * @return
+			 */
+			private Object[] build(RValue[] elements, int offset, int shift) {
+				if (shift == 0) {
+					int n = Math.min(WIDTH, length - offset);
+					Object[] leaf = new Object[n + 1];
+					System.arraycopy(elements, offset, leaf, 0, n);
+					leaf[n] = this;
+					return leaf;
+				} else {
+					int span = 1 << shift;
+					int n = Math.min(WIDTH, (length - offset + span - 1) / span);
+					Object[] node = new Object[n + 1];
+					for (int i = 0; i != n; ++i) {
+						node[i] = build(elements, offset + (i * span), shift - BITS);
+					}
+					node[n] = this;
+					return node;
+				}
+			}
+
+			private static void flatten(Object[] node, int shift, RValue[] elements, int offset) {
+				int n = node.length - 1;
+				if (shift == 0) {
+					System.arraycopy(node, 0, elements, offset, n);
+				} else {
+					int span = 1 << shift;
+					for (int i = 0; i != n; ++i) {
+						flatten((Object[]) node[i], shift - BITS, elements, offset + (i * span));
+					}
+				}
+			}
+
+			/**
+			 * Determine the shift for the root of a trie holding a given number of
+			 * elements.
+			 *
+			 * @param length
+			 * @return
+			 */
+			private static int shiftFor(int length) {
+				int shift = 0;
+				while (shift < 30 && (length - 1) >>> shift >= WIDTH) {
+					shift += BITS;
+				}
+				return shift;
 			}
 		}
 
@@ -540,34 +927,83 @@ public class ConcreteSemantics implements AbstractSemantics {
 		}
 
 		public final static class Record extends RValue implements AbstractSemantics.RValue.Record {
-			private final RValue.Field[] fields;
+			/**
+			 * Orders fields by name. This avoids any difficulties when comparing
+			 * records initialised with different field orders.
+			 */
+			private static final Comparator<RValue.Field> FIELD_ORDER = new Comparator<RValue.Field>() {
+				@Override
+				public int compare(RValue.Field f1, RValue.Field f2) {
+					return f1.name.compareTo(f2.name);
+				}
+			};
+
+			/**
+			 * The shape of this record, which determines the offset of each field
+			 * within the values array.
+			 */
+			private final Shape shape;
+			/**
+			 * The value of each field, ordered by name.
+			 */
+			private final RValue[] values;
+			/**
+			 * The location which exclusively holds this record (if any). When the
+			 * record is updated through its owner, the update is performed in place
+			 * rather than by copying (see <code>RValue.Array</code>).
+			 */
+			private Object owner;
 
 			private Record(RValue.Field... fields) {
-				this.fields = fields;
-				// Sort fields according by name. This avoids any difficulties when
-				// comparing records initialised with different field orders.
-				Arrays.sort(fields, new Comparator<RValue.Field>() {
-					@Override
-					public int compare(RValue.Field f1, RValue.Field f2) {
-						return f1.name.compareTo(f2.name);
-					}
-				});
+				fields = fields.clone();
+				Arrays.sort(fields, FIELD_ORDER);
+				Identifier[] names = new Identifier[fields.length];
+				this.values = new RValue[fields.length];
+				for (int i = 0; i != fields.length; ++i) {
+					names[i] = fields[i].name;
+					values[i] = fields[i].value;
+				}
+				this.shape = Shape.get(names);
+			}
+
+			private Record(Shape shape, RValue[] values) {
+				this.shape = shape;
+				this.values = values;
+			}
+
+			private Record(RValue.Record record) {
+				this.shape = record.shape;
+				this.values = record.values.clone();
+			}
+
+			/**
+			 * Get the shape of this record.
+			 *
+			 * @return
+			 */
+			public Shape getShape() {
+				return shape;
+			}
+
+			/**
+			 * Get the value of the ith field of this record, where fields are ordered
+			 * by name.
+			 *
+			 * @param i
+			 * @return
+			 */
+			public RValue getField(int i) {
+				return values[i];
 			}
 
 			@Override
 			public int size() {
-				return fields.length;
+				return values.length;
 			}
 
 			@Override
 			public boolean hasField(Identifier field) {
-				for (int i = 0; i != fields.length; ++i) {
-					RValue.Field f = fields[i];
-					if (f.name.equals(field)) {
-						return true;
-					}
-				}
-				return false;
+				return shape.indexOf(field) >= 0;
 			}
 
 			@Override
@@ -577,19 +1013,16 @@ public class ConcreteSemantics implements AbstractSemantics {
 					Tuple<Type.Field> tFields = t.getFields();
 					for (int i = 0; i != tFields.size(); ++i) {
 						Type.Field f = tFields.get(i);
-						if (hasField(f.getName())) {
-							RValue val = read(f.getName());
-							// Matching field
-							if (val.is(f.getType(), frame) == False) {
-								// Field not member of type
-								return False;
-							}
-						} else {
+						int offset = shape.indexOf(f.getName());
+						if (offset < 0) {
 							// No matching field
 							return False;
+						} else if (values[offset].is(f.getType(), frame) == False) {
+							// Field not member of type
+							return False;
 						}
 					}
-					return (t.isOpen() || fields.length == tFields.size()) ? True : False;
+					return (t.isOpen() || values.length == tFields.size()) ? True : False;
 				} else {
 					return super.is(type, frame);
 				}
@@ -611,52 +1044,255 @@ public class ConcreteSemantics implements AbstractSemantics {
 					return super.convert(type);
 				}
 			}
+
 			@Override
 			public RValue read(Identifier field) {
-				for (int i = 0; i != fields.length; ++i) {
-					RValue.Field f = fields[i];
-					if (f.name.equals(field)) {
-						return f.value;
-					}
-				}
-				throw new RuntimeException("Invalid record access");
+				return values[offsetOf(field)];
 			}
 
 			@Override
 			public RValue.Record write(Identifier field, AbstractSemantics.RValue value) {
-				RValue.Field[] fields = Arrays.copyOf(this.fields, this.fields.length);
-				for (int i = 0; i != fields.length; ++i) {
-					RValue.Field f = fields[i];
-					if (f.name.equals(field)) {
-						fields[i] = new RValue.Field(f.name, (RValue) value);
-						return new RValue.Record(fields);
-					}
+				return write(offsetOf(field), (RValue) value, null);
+			}
+
+			/**
+			 * Update a given field of this record. If this record is owned by the given
+			 * owner then the update is performed in place. Otherwise, a copy of this
+			 * record is updated which is then owned by the given owner.
+			 *
+			 * @param field
+			 * @param value
+			 * @param owner
+			 *            The location holding this record, or <code>null</code> if
+			 *            none.
+			 * @return
+			 */
+			public RValue.Record write(Identifier field, RValue value, Object owner) {
+				return write(offsetOf(field), value, owner);
+			}
+
+			private RValue.Record write(int offset, RValue value, Object owner) {
+				RValue.Record r = isOwnedBy(owner) ? this : new RValue.Record(this);
+				r.values[offset] = value;
+				r.owner = owner;
+				r.clearTypeTests();
+				return r;
+			}
+
+			/**
+			 * Check whether this record is exclusively held by a given owner and, hence,
+			 * can be updated in place through it.
+			 *
+			 * @param owner
+			 * @return
+			 */
+			public boolean isOwnedBy(Object owner) {
+				return owner != null && this.owner == owner;
+			}
+
+			@Override
+			public RValue share() {
+				owner = null;
+				return this;
+			}
+
+			private int offsetOf(Identifier field) {
+				int offset = shape.indexOf(field);
+				if (offset < 0) {
+					throw new RuntimeException("Invalid record access");
 				}
-				throw new RuntimeException("Invalid record access");
+				return offset;
 			}
 
 			@Override
 			public boolean equals(Object o) {
-				return (o instanceof RValue.Record) && Arrays.equals(fields, ((RValue.Record) o).fields);
+				if (o instanceof RValue.Record) {
+					RValue.Record r = (RValue.Record) o;
+					// NOTE: shapes are unique, hence can be compared by reference
+					return shape == r.shape && Arrays.equals(values, r.values);
+				}
+				return false;
 			}
 
 			@Override
 			public int hashCode() {
-				return Arrays.hashCode(fields);
+				return shape.hashCode() ^ Arrays.hashCode(values);
 			}
 
 			@Override
 			public String toString() {
 				String r = "{";
-				for(int i=0;i!=fields.length;++i) {
+				for(int i=0;i!=values.length;++i) {
 					if(i != 0) {
 						r = r + ",";
 					}
-					RValue.Field field = fields[i];
-					r += field.name + ":" + field.value;
+					r += shape.getName(i) + ":" + values[i];
 				}
 				return r + "}";
 			}
+
+			/**
+			 * <p>
+			 * Describes the layout of all records with a given set of fields. Each
+			 * field is assigned an offset based on its position when fields are
+			 * ordered by name, and these offsets are precomputed. There is exactly one
+			 * shape for each distinct set of field names. Thus, records with the same
+			 * fields share the same shape, and comparing shapes reduces to comparing
+			 * references. Field names are held as strings, rather than identifiers,
+			 * since the latter would keep alive the heap containing them.
+			 * </p>
+			 * <p>
+			 * Shapes also allow field accesses to be cached (see
+			 * <code>RValue.Record.Cache</code>). Since the offset of a field is the
+			 * same for all records of a given shape, an access which repeatedly
+			 * encounters records of the same shape reduces to an array index.
+			 * </p>
+			 *
+			 * @author David J. Pearce
+			 *
+			 */
+			public final static class Shape {
+				private static final ConcurrentHashMap<List<String>, Shape> shapes = new ConcurrentHashMap<>();
+
+				/**
+				 * The field names of this shape, ordered by name.
+				 */
+				private final String[] names;
+				/**
+				 * Maps each field name to its offset.
+				 */
+				private final HashMap<String, Integer> offsets;
+
+				private Shape(String[] names) {
+					this.names = names;
+					this.offsets = new HashMap<>();
+					for (int i = 0; i != names.length; ++i) {
+						offsets.put(names[i], i);
+					}
+				}
+
+				/**
+				 * Get the unique shape for a given set of field names.
+				 *
+				 * @param names
+				 *            The field names, which need not be ordered.
+				 * @return
+				 */
+				public static Shape get(Identifier... names) {
+					names = names.clone();
+					Arrays.sort(names);
+					String[] strings = new String[names.length];
+					for (int i = 0; i != names.length; ++i) {
+						strings[i] = names[i].get();
+					}
+					return shapes.computeIfAbsent(Arrays.asList(strings), k -> new Shape(strings));
+				}
+
+				/**
+				 * Get the number of fields in this shape.
+				 *
+				 * @return
+				 */
+				public int size() {
+					return names.length;
+				}
+
+				/**
+				 * Get the name of the field at a given offset.
+				 *
+				 * @param offset
+				 * @return
+				 */
+				public String getName(int offset) {
+					return names[offset];
+				}
+
+				/**
+				 * Get the offset of a given field in this shape, or <code>-1</code> if
+				 * there is no such field.
+				 *
+				 * @param field
+				 * @return
+				 */
+				public int indexOf(Identifier field) {
+					Integer offset = offsets.get(field.get());
+					return offset == null ? -1 : offset;
+				}
+
+				/**
+				 * Construct a record of this shape from an array of values, which must be
+				 * ordered by field name.
+				 *
+				 * @param values
+				 * @return
+				 */
+				public RValue.Record construct(RValue... values) {
+					return new RValue.Record(this, values);
+				}
+			}
+
+			/**
+			 * An inline cache for accessing a given field. This records the shape of
+			 * the last record accessed, along with the offset of the field within it.
+			 * Thus, repeatedly accessing records of the same shape avoids looking up
+			 * the field altogether.
+			 *
+			 * @author David J. Pearce
+			 *
+			 */
+			public final static class Cache {
+				private final Identifier field;
+				/**
+				 * The last shape encountered and the field's offset within it. These are
+				 * held together so that they are always updated atomically.
+				 */
+				private Entry entry;
+
+				public Cache(Identifier field) {
+					this.field = field;
+				}
+
+				public Identifier getField() {
+					return field;
+				}
+
+				/**
+				 * Get the offset of this field in a given record.
+				 *
+				 * @param record
+				 * @return
+				 */
+				public int offsetOf(RValue.Record record) {
+					Entry e = entry;
+					if (e == null || e.shape != record.shape) {
+						e = new Entry(record.shape, record.offsetOf(field));
+						entry = e;
+					}
+					return e.offset;
+				}
+
+				public RValue read(RValue.Record record) {
+					return record.values[offsetOf(record)];
+				}
+
+				public RValue.Record write(RValue.Record record, RValue value) {
+					return record.write(offsetOf(record), value, null);
+				}
+
+				public RValue.Record write(RValue.Record record, RValue value, Object owner) {
+					return record.write(offsetOf(record), value, owner);
+				}
+
+				private final static class Entry {
+					private final Shape shape;
+					private final int offset;
+
+					public Entry(Shape shape, int offset) {
+						this.shape = shape;
+						this.offset = offset;
+					}
+				}
+			}
 		}
 
 		public final static class Lambda extends RValue implements AbstractSemantics.RValue.Lambda {
@@ -779,21 +1415,40 @@ public class ConcreteSemantics implements AbstractSemantics {
 		abstract public RValue read(CallStack frame);
 		abstract public void write(CallStack frame, RValue rhs);
 
+		/**
+		 * Get the owner of this location. A value held here can be updated in place
+		 * if it is owned by this. This returns <code>null</code> if values held here
+		 * cannot be updated in place.
+		 *
+		 * @param frame
+		 * @return
+		 */
+		abstract public Object getOwner(CallStack frame);
+
 		public static final class Variable extends LValue {
-			private final Identifier name;
+			/**
+			 * The slot of the variable being assigned (see
+			 * <code>Interpreter.CallStack.getSlot()</code>).
+			 */
+			private final int slot;
 
-			public Variable(Identifier name) {
-				this.name = name;
+			public Variable(int slot) {
+				this.slot = slot;
 			}
 
 			@Override
 			public RValue read(CallStack frame) {
-				return frame.getLocal(name);
+				return frame.getLocal(slot);
 			}
 
 			@Override
 			public void write(CallStack frame, RValue rhs) {
-				frame.putLocal(name, rhs);
+				frame.putLocal(slot, rhs);
+			}
+
+			@Override
+			public Object getOwner(CallStack frame) {
+				return frame;
 			}
 		}
 
@@ -815,15 +1470,31 @@ public class ConcreteSemantics implements AbstractSemantics {
 			@Override
 			public void write(CallStack frame, RValue value) {
 				RValue.Array arr = Interpreter.checkType(this.src.read(frame), null, RValue.Array.class);
-				src.write(frame, arr.write(index, value));
+				Object owner = src.getOwner(frame);
+				if (arr.isOwnedBy(owner)) {
+					frame.checkUnaliased(arr);
+				}
+				src.write(frame, arr.write(index, value, owner));
+			}
+
+			@Override
+			public Object getOwner(CallStack frame) {
+				// Elements are owned by the array holding them, provided it is itself
+				// owned by its location.
+				RValue.Array arr = Interpreter.checkType(this.src.read(frame), null, RValue.Array.class);
+				return arr.isOwnedBy(src.getOwner(frame)) ? arr : null;
 			}
 		}
 
 		public static class Record extends LValue {
 			private final LValue src;
-			private final Identifier field;
+			private final RValue.Record.Cache field;
 
 			public Record(LValue src, Identifier field) {
+				this(src, new RValue.Record.Cache(field));
+			}
+
+			public Record(LValue src, RValue.Record.Cache field) {
 				this.src = src;
 				this.field = field;
 			}
@@ -831,13 +1502,25 @@ public class ConcreteSemantics implements AbstractSemantics {
 			@Override
 			public RValue read(CallStack frame) {
 				RValue.Record src = Interpreter.checkType(this.src.read(frame), null, RValue.Record.class);
-				return src.read(field);
+				return field.read(src);
 			}
 
 			@Override
 			public void write(CallStack frame, RValue value) {
 				RValue.Record rec = Interpreter.checkType(this.src.read(frame), null, RValue.Record.class);
-				src.write(frame, rec.write(field, value));
+				Object owner = src.getOwner(frame);
+				if (rec.isOwnedBy(owner)) {
+					frame.checkUnaliased(rec);
+				}
+				src.write(frame, field.write(rec, value, owner));
+			}
+
+			@Override
+			public Object getOwner(CallStack frame) {
+				// Fields are owned by the record holding them, provided it is itself
+				// owned by its location.
+				RValue.Record rec = Interpreter.checkType(this.src.read(frame), null, RValue.Record.class);
+				return rec.isOwnedBy(src.getOwner(frame)) ? rec : null;
 			}
 		}
 
@@ -861,6 +1544,12 @@ public class ConcreteSemantics implements AbstractSemantics {
 				RValue.Cell cell = ref.deref();
 				cell.write(rhs);
 			}
+
+			@Override
+			public Object getOwner(CallStack frame) {
+				// The contents of a cell may be accessed through any reference to it
+				return null;
+			}
 		}
 	}
 }
\ No newline at end of file
@@ -14,12 +14,19 @@
 package wyil.interpreter;
 
 import java.io.PrintStream;
-import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
+import wybs.lang.SyntacticHeap;
 import wybs.lang.SyntacticItem;
+import wyil.check.FlowTypeUtils;
 import wyil.lang.WyilFile;
 import wyil.lang.WyilFile.Decl;
+import wyil.util.AbstractVisitor;
 
 import static wyil.interpreter.ConcreteSemantics.LValue;
 import static wyil.interpreter.ConcreteSemantics.RValue;
@@ -45,26 +52,161 @@ public class Interpreter {
 	/**
 	 * Determines the underlying semantics used for this interpreter.
 	 */
-	private final ConcreteSemantics semantics;
+	protected final ConcreteSemantics semantics;
 
 	/**
 	 * The debug stream provides an I/O stream through which debug bytecodes can
 	 * write their messages.
 	 */
-	private final PrintStream debug;
+	protected final PrintStream debug;
+
+	/**
+	 * Determines which contracts are checked when functions or methods are
+	 * called.
+	 */
+	protected final Contracts contracts;
+
+	/**
+	 * When enabled, every in-place update of an array or record is checked to
+	 * ensure the value being updated is reachable from exactly one location in
+	 * the current frame. This is expensive and intended only for debugging.
+	 */
+	private boolean checkAliasing;
+
+	/**
+	 * The pool used to evaluate quantifiers in parallel, or <code>null</code> if
+	 * they are evaluated sequentially.
+	 */
+	private ForkJoinPool pool;
+
+	/**
+	 * Records whether or not a given quantifier can be evaluated in parallel
+	 * (see <code>isParallelisable()</code>).
+	 */
+	private final Map<Expr.Quantifier, Boolean> parallelisable = Collections.synchronizedMap(new IdentityHashMap<>());
+
+	/**
+	 * The minimum number of elements in a quantifier range before it is split
+	 * across the pool.
+	 */
+	private static final int PARALLEL_THRESHOLD = 256;
 
 	public Interpreter(PrintStream debug, WyilFile... modules) {
+		this(debug, Contracts.FULL, modules);
+	}
+
+	public Interpreter(PrintStream debug, Contracts contracts, WyilFile... modules) {
 		this.debug = debug;
+		this.contracts = contracts;
 		this.semantics = new ConcreteSemantics();
 	}
 
-	private enum Status {
+	/**
+	 * Enable or disable checking that in-place updates do not break aliasing.
+	 *
+	 * @param flag
+	 * @return
+	 */
+	public Interpreter setCheckAliasing(boolean flag) {
+		this.checkAliasing = flag;
+		return this;
+	}
+
+	/**
+	 * Enable or disable evaluating quantifiers in parallel. When enabled, large
+	 * quantifier ranges are split across the common fork/join pool, provided the
+	 * quantifier is pure.
+	 *
+	 * @param flag
+	 * @return
+	 */
+	public Interpreter setParallelQuantifiers(boolean flag) {
+		this.pool = flag ? ForkJoinPool.commonPool() : null;
+		return this;
+	}
+
+	protected enum Status {
 		RETURN,
 		BREAK,
 		CONTINUE,
 		NEXT
 	}
 
+	/**
+	 * Determines which preconditions and postconditions are checked when a
+	 * function or method is called. Checking contracts is essential when testing,
+	 * but is expensive and unnecessary when running code which has been verified.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static abstract class Contracts {
+		/**
+		 * Check the contracts of every function or method called.
+		 */
+		public static final Contracts FULL = new Contracts() {
+			@Override
+			public boolean check(Decl.FunctionOrMethod fm) {
+				return true;
+			}
+		};
+
+		/**
+		 * Check the contracts of public or exported functions and methods only. These
+		 * form the boundary of a module, and calls between them and the remainder
+		 * of the module are not checked.
+		 */
+		public static final Contracts BOUNDARY = new Contracts() {
+			@Override
+			public boolean check(Decl.FunctionOrMethod fm) {
+				Tuple<Modifier> modifiers = fm.getModifiers();
+				return modifiers.match(Modifier.Public.class) != null || modifiers.match(Modifier.Export.class) != null;
+			}
+		};
+
+		/**
+		 * Check no contracts at all.
+		 */
+		public static final Contracts NONE = new Contracts() {
+			@Override
+			public boolean check(Decl.FunctionOrMethod fm) {
+				return false;
+			}
+		};
+
+		/**
+		 * Check the contracts of one in every <code>rate</code> calls to each
+		 * function or method. Calls are counted separately for each function or
+		 * method, so that a rarely called function or method is still checked
+		 * (on its first call) regardless of how often others are called.
+		 *
+		 * @param rate
+		 * @return
+		 */
+		public static Contracts SAMPLED(int rate) {
+			if (rate <= 0) {
+				throw new IllegalArgumentException("invalid sampling rate: " + rate);
+			}
+			Map<Decl.FunctionOrMethod, AtomicLong> calls = Collections.synchronizedMap(new IdentityHashMap<>());
+			return new Contracts() {
+				@Override
+				public boolean check(Decl.FunctionOrMethod fm) {
+					return calls.computeIfAbsent(fm, f -> new AtomicLong()).getAndIncrement() % rate == 0;
+				}
+			};
+		}
+
+		/**
+		 * Determine whether the precondition and postcondition of a given call
+		 * should be checked.
+		 *
+		 * @param fm
+		 *            The function or method being called.
+		 * @return
+		 */
+		public abstract boolean check(Decl.FunctionOrMethod fm);
+	}
+
 	/**
 	 * Execute a function or method identified by a name and type signature with
 	 * the given arguments, producing a return value or null (if none). If the
@@ -93,7 +235,10 @@ public class Interpreter {
 		// Check the precondition
 		if(lambda instanceof Decl.FunctionOrMethod) {
 			Decl.FunctionOrMethod fm = (Decl.FunctionOrMethod) lambda;
-			checkInvariants(frame,fm.getRequires());
+			boolean checked = contracts.check(fm);
+			if (checked) {
+				checkInvariants(frame, fm.getRequires());
+			}
 			// check function or method body exists
 			if (fm.getBody() == null) {
 				// FIXME: Add support for native functions or methods. That is,
@@ -105,10 +250,12 @@ public class Interpreter {
 			executeBlock(fm.getBody(), frame, new FunctionOrMethodScope(fm));
 			// Extra the return values
 			RValue[] returns = packReturns(frame,lambda);
-			// Restore original parameter values
-			extractParameters(frame,args,lambda);
-			// Check the postcondition holds
-			checkInvariants(frame, fm.getEnsures());
+			if (checked) {
+				// Restore original parameter values
+				extractParameters(frame, args, lambda);
+				// Check the postcondition holds
+				checkInvariants(frame, fm.getEnsures());
+			}
 			return returns;
 		} else {
 			// Properties always return true (provided their preconditions hold)
@@ -121,7 +268,7 @@ public class Interpreter {
 		Tuple<Decl.Variable> parameters = decl.getParameters();
 		for(int i=0;i!=parameters.size();++i) {
 			Decl.Variable parameter = parameters.get(i);
-			frame.putLocal(parameter.getName(), args[i]);
+			frame.putLocal(parameter, args[i]);
 		}
 	}
 
@@ -141,7 +288,7 @@ public class Interpreter {
 			Tuple<Decl.Variable> returns = decl.getReturns();
 			RValue[] values = new RValue[returns.size()];
 			for (int i = 0; i != values.length; ++i) {
-				values[i] = frame.getLocal(returns.get(i).getName());
+				values[i] = frame.getLocal(returns.get(i));
 			}
 			return values;
 		}
@@ -451,7 +598,7 @@ public class Interpreter {
 		Tuple<Decl.Variable> returns = context.getReturns();
 		RValue[] values = executeExpressions(stmt.getReturns(), frame);
 		for (int i = 0; i != returns.size(); ++i) {
-			frame.putLocal(returns.get(i).getName(), values[i]);
+			frame.putLocal(returns.get(i), values[i]);
 		}
 		return Status.RETURN;
 	}
@@ -518,7 +665,7 @@ public class Interpreter {
 		// We only need to do something if this has an initialiser
 		if(stmt.hasInitialiser()) {
 			RValue value = executeExpression(ANY_T, stmt.getInitialiser(), frame);
-			frame.putLocal(stmt.getName(),value);
+			frame.putLocal(stmt,value);
 		}
 		return Status.NEXT;
 	}
@@ -553,6 +700,9 @@ public class Interpreter {
 			val = executeRecordInitialiser((Expr.RecordInitialiser) expr, frame);
 			break;
 		case WyilFile.EXPR_recordaccess:
+			// NOTE: a copy is implemented by sharing the value
+			val = executeRecordAccess((Expr.RecordAccess) expr, frame).share();
+			break;
 		case WyilFile.EXPR_recordborrow:
 			val = executeRecordAccess((Expr.RecordAccess) expr, frame);
 			break;
@@ -562,8 +712,10 @@ public class Interpreter {
 		case WyilFile.EXPR_invoke:
 			val = executeInvoke((Expr.Invoke) expr, frame)[0];
 			break;
-		case WyilFile.EXPR_variablemove:
 		case WyilFile.EXPR_variablecopy:
+			val = executeVariableAccess((Expr.VariableAccess) expr, frame).share();
+			break;
+		case WyilFile.EXPR_variablemove:
 			val = executeVariableAccess((Expr.VariableAccess) expr, frame);
 			break;
 		case WyilFile.EXPR_staticvariable:
@@ -645,8 +797,10 @@ public class Interpreter {
 		case WyilFile.EXPR_bitwiseshr:
 			val = executeBitwiseShiftRight((Expr.BitwiseShiftRight) expr, frame);
 			break;
-		case WyilFile.EXPR_arrayborrow:
 		case WyilFile.EXPR_arrayaccess:
+			val = executeArrayAccess((Expr.ArrayAccess) expr, frame).share();
+			break;
+		case WyilFile.EXPR_arrayborrow:
 			val = executeArrayAccess((Expr.ArrayAccess) expr, frame);
 			break;
 		case WyilFile.EXPR_arraygenerator:
@@ -690,7 +844,7 @@ public class Interpreter {
 	 *            --- The current stack frame
 	 * @return
 	 */
-	private RValue executeConst(Expr.Constant expr, CallStack frame) {
+	protected RValue executeConst(Expr.Constant expr, CallStack frame) {
 		Value v = expr.getValue();
 		switch (v.getOpcode()) {
 		case ITEM_null:
@@ -718,7 +872,7 @@ public class Interpreter {
 			for (int i = 0; i != elements.length; ++i) {
 				// FIXME: something tells me this is wrong for signed byte
 				// values?
-				elements[i] = semantics.Int(BigInteger.valueOf(bytes[i]));
+				elements[i] = semantics.Int(bytes[i]);
 			}
 			return semantics.Array(elements);
 		}
@@ -738,12 +892,13 @@ public class Interpreter {
 	 */
 	private RValue executeConvert(Expr.Cast expr, CallStack frame) {
 		RValue operand = executeExpression(ANY_T, expr.getOperand(), frame);
-		return operand.convert(expr.getType());
+		// NOTE: the operand of a cast is not considered to be consumed
+		return operand.convert(expr.getType()).share();
 	}
 
 	private RValue executeRecordAccess(Expr.RecordAccess expr, CallStack frame) {
 		RValue.Record rec = executeExpression(RECORD_T, expr.getOperand(), frame);
-		return rec.read(expr.getField());
+		return frame.getCache(expr).read(rec);
 	}
 
 	private RValue executeRecordInitialiser(Expr.RecordInitialiser expr, CallStack frame) {
@@ -787,8 +942,11 @@ public class Interpreter {
 			Decl.Variable var = vars.get(index);
 			RValue.Array range = executeExpression(ARRAY_T, var.getInitialiser(), frame);
 			RValue[] elements = range.getElements();
+			if (isParallelisable(expr, elements.length)) {
+				return quantifyParallel(var, elements, frame, f -> executeQuantifier(index + 1, expr, f));
+			}
 			for (int i = 0; i != elements.length; ++i) {
-				frame.putLocal(var.getName(), elements[i]);
+				frame.putLocal(var, elements[i]);
 				boolean r = executeQuantifier(index + 1, expr, frame);
 				if (!r) {
 					// early termination
@@ -799,6 +957,155 @@ public class Interpreter {
 		}
 	}
 
+	/**
+	 * Determine whether a given quantifier range should be evaluated in parallel.
+	 * This requires that parallel evaluation is enabled, that the range is large
+	 * enough to be worth splitting and that the quantifier is pure. The latter
+	 * ensures that evaluating different elements concurrently cannot interfere.
+	 *
+	 * @param expr
+	 * @param size
+	 *            The number of elements in the range.
+	 * @return
+	 */
+	protected boolean isParallelisable(Expr.Quantifier expr, int size) {
+		if (pool == null || size < PARALLEL_THRESHOLD) {
+			return false;
+		}
+		Boolean r = parallelisable.get(expr);
+		if (r == null) {
+			// NOTE: purity checking does not support indirect invocation
+			r = !contains(expr, Expr.IndirectInvoke.class) && FlowTypeUtils.isPure(expr);
+			parallelisable.put(expr, r);
+		}
+		return r;
+	}
+
+	private static boolean contains(SyntacticItem item, Class<? extends SyntacticItem> kind) {
+		if (kind.isInstance(item)) {
+			return true;
+		}
+		for (int i = 0; i != item.size(); ++i) {
+			if (contains(item.get(i), kind)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Evaluate one range of a quantifier in parallel. The range is split across
+	 * the pool, and each split evaluates its elements sequentially using its own
+	 * clone of the frame. The body returns <code>false</code> to indicate the
+	 * quantifier should terminate early (e.g. a counterexample was found), in
+	 * which case any elements not yet evaluated after that point are skipped.
+	 * The outcome is always that of the first element (in order) which
+	 * terminated early or raised an exception. Thus, the result is the same as
+	 * for sequential evaluation.
+	 *
+	 * @param var
+	 *            The quantified variable.
+	 * @param elements
+	 *            The elements of the range.
+	 * @param frame
+	 *            The current stack frame.
+	 * @param body
+	 *            Evaluates the remainder of the quantifier in a given frame.
+	 * @return
+	 */
+	protected boolean quantifyParallel(Decl.Variable var, RValue[] elements, CallStack frame,
+			Predicate<CallStack> body) {
+		Split split = new Split(var, elements, frame, body, new AtomicInteger(elements.length), 0, elements.length);
+		Split.Stop stop = pool.invoke(split);
+		if (stop == null) {
+			return true;
+		} else if (stop.error instanceof RuntimeException) {
+			throw (RuntimeException) stop.error;
+		} else if (stop.error != null) {
+			throw (Error) stop.error;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * A contiguous part of a quantifier range being evaluated in parallel. This
+	 * produces the first element within the part at which evaluation stopped, or
+	 * <code>null</code> if none.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static class Split extends RecursiveTask<Split.Stop> {
+		private static final long serialVersionUID = 1L;
+		private final Decl.Variable var;
+		private final RValue[] elements;
+		private final CallStack frame;
+		private final Predicate<CallStack> body;
+		/**
+		 * The lowest index at which evaluation has stopped in any split so far.
+		 * Elements beyond this need not be evaluated.
+		 */
+		private final AtomicInteger bound;
+		private final int start, end;
+
+		public Split(Decl.Variable var, RValue[] elements, CallStack frame, Predicate<CallStack> body,
+				AtomicInteger bound, int start, int end) {
+			this.var = var;
+			this.elements = elements;
+			this.frame = frame;
+			this.body = body;
+			this.bound = bound;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected Stop compute() {
+			if ((end - start) > PARALLEL_THRESHOLD) {
+				int middle = (start + end) >>> 1;
+				Split left = new Split(var, elements, frame, body, bound, start, middle);
+				Split right = new Split(var, elements, frame, body, bound, middle, end);
+				right.fork();
+				Stop l = left.compute();
+				Stop r = right.join();
+				// Elements on the left precede those on the right
+				return l != null ? l : r;
+			} else {
+				CallStack f = frame.clone();
+				for (int i = start; i < end && i < bound.get(); ++i) {
+					try {
+						f.putLocal(var, elements[i]);
+						if (!body.test(f)) {
+							return stop(new Stop(i, null));
+						}
+					} catch (RuntimeException | Error e) {
+						return stop(new Stop(i, e));
+					}
+				}
+				return null;
+			}
+		}
+
+		private Stop stop(Stop stop) {
+			int b = bound.get();
+			while (stop.index < b && !bound.compareAndSet(b, stop.index)) {
+				b = bound.get();
+			}
+			return stop;
+		}
+
+		private static class Stop {
+			private final int index;
+			private final Throwable error;
+
+			public Stop(int index, Throwable error) {
+				this.index = index;
+				this.error = error;
+			}
+		}
+	}
+
 	/**
 	 * Execute a variable access expression at a given point in the function or
 	 * method body. This simply loads the value of the given variable from the
@@ -811,8 +1118,7 @@ public class Interpreter {
 	 * @return
 	 */
 	private RValue executeVariableAccess(Expr.VariableAccess expr, CallStack frame) {
-		Decl.Variable decl = expr.getVariableDeclaration();
-		return frame.getLocal(decl.getName());
+		return frame.getLocal(frame.getSlot(expr));
 	}
 
 	private RValue executeStaticVariableAccess(Expr.StaticVariableAccess expr, CallStack frame) {
@@ -1006,7 +1312,8 @@ public class Interpreter {
 	}
 
 	public RValue executeArrayGenerator(Expr.ArrayGenerator expr, CallStack frame) {
-		RValue element = executeExpression(ANY_T, expr.getFirstOperand(), frame);
+		// NOTE: the element is not considered to be consumed, but is shared
+		RValue element = executeExpression(ANY_T, expr.getFirstOperand(), frame).share();
 		RValue.Int count = executeExpression(INT_T, expr.getSecondOperand(), frame);
 		int n = count.intValue();
 		if (n < 0) {
@@ -1033,7 +1340,7 @@ public class Interpreter {
 		int end = executeExpression(INT_T, expr.getSecondOperand(), frame).intValue();
 		RValue[] elements = new RValue[end - start];
 		for (int i = start; i < end; ++i) {
-			elements[i - start] = semantics.Int(BigInteger.valueOf(i));
+			elements[i - start] = semantics.Int(i);
 		}
 		return semantics.Array(elements);
 	}
@@ -1216,13 +1523,11 @@ public class Interpreter {
 		case EXPR_recordborrow: {
 			Expr.RecordAccess e = (Expr.RecordAccess) expr;
 			LValue src = constructLVal(e.getOperand(), frame);
-			return new LValue.Record(src, e.getField());
+			return new LValue.Record(src, frame.getCache(e));
 		}
 		case EXPR_variablemove:
 		case EXPR_variablecopy: {
-			Expr.VariableAccess e = (Expr.VariableAccess) expr;
-			Decl.Variable decl = e.getVariableDeclaration();
-			return new LValue.Variable(decl.getName());
+			return new LValue.Variable(frame.getSlot(expr));
 		}
 		}
 		deadCode(expr);
@@ -1329,32 +1634,379 @@ public class Interpreter {
 	private static final Class<RValue.Record> RECORD_T = RValue.Record.class;
 	private static final Class<RValue.Lambda> LAMBDA_T = RValue.Lambda.class;
 
+	// =============================================================
+	// Frame Slots
+	// =============================================================
+
+	/**
+	 * The initial number of slots in a frame. Frames are grown as necessary.
+	 */
+	private static final int FRAME_SIZE = 8;
+
+	/**
+	 * The slots allocated within each heap loaded so far. Slots are held here,
+	 * rather than on the variables themselves, since they are an artifact of this
+	 * interpreter and not of the program. This is copied on write (which only
+	 * happens when a module is loaded) so that it can be read by parallel
+	 * quantifier splits without locking. Writes are guarded by the lock of this
+	 * interpreter.
+	 */
+	private volatile IdentityHashMap<SyntacticHeap, Slots> slots = new IdentityHashMap<>();
+
+	/**
+	 * Get the slot assigned to a given variable. Slots must have been allocated
+	 * for the heap containing it when its module was loaded.
+	 *
+	 * @param var
+	 * @return
+	 */
+	int getSlot(Decl.Variable var) {
+		return getSlots(var).get(var);
+	}
+
+	/**
+	 * Get the slots allocated within the heap containing a given item.
+	 *
+	 * @param item
+	 * @return
+	 */
+	private Slots getSlots(SyntacticItem item) {
+		Slots table = slots.get(item.getHeap());
+		if (table == null) {
+			throw new IllegalArgumentException("no slots allocated for item: " + item);
+		}
+		return table;
+	}
+
+	/**
+	 * Assign every local variable declared within a given module a slot, unless
+	 * this has already been done. Slots are allocated densely from zero for each
+	 * declaration in a unit. Variables declared in nested lambdas share the slots
+	 * of their enclosing declaration, since a lambda executes within the frame in
+	 * which it was created.
+	 *
+	 * @param module
+	 */
+	private synchronized void allocateSlots(WyilFile module) {
+		if (!slots.containsKey(module)) {
+			SlotAllocator allocator = new SlotAllocator(module);
+			for (Decl.Unit unit : module.getModule().getUnits()) {
+				for (Decl d : unit.getDeclarations()) {
+					allocator.count = 0;
+					allocator.visitDeclaration(d);
+				}
+			}
+			IdentityHashMap<SyntacticHeap, Slots> all = new IdentityHashMap<>(slots);
+			all.put(module, allocator.table);
+			// Publish updated tables
+			slots = all;
+		}
+	}
+
+	/**
+	 * The slots allocated within a given heap. These are indexed by the heap index
+	 * of either a variable declaration, or an access to one. The latter means an
+	 * access can be resolved to its slot directly, without first following it to
+	 * the variable it accesses. Likewise, each record access in the heap is given
+	 * its own inline cache (see <code>RValue.Record.Cache</code>).
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	static final class Slots {
+		private final SyntacticHeap heap;
+		private final int[] table;
+		private final RValue.Record.Cache[] fields;
+
+		private Slots(SyntacticHeap heap) {
+			this.heap = heap;
+			this.table = new int[heap.size()];
+			this.fields = new RValue.Record.Cache[table.length];
+			Arrays.fill(table, -1);
+		}
+
+		/**
+		 * Get the inline cache for a given record access.
+		 *
+		 * @param expr
+		 * @return
+		 */
+		public RValue.Record.Cache get(Expr.RecordAccess expr) {
+			int index = expr.getIndex();
+			RValue.Record.Cache cache = index < fields.length ? fields[index] : null;
+			if (cache == null) {
+				throw new IllegalArgumentException("no cache allocated for item: " + expr);
+			}
+			return cache;
+		}
+
+		/**
+		 * Get the slot for a given variable declaration or variable access.
+		 *
+		 * @param item
+		 * @return
+		 */
+		public int get(SyntacticItem item) {
+			int index = item.getIndex();
+			int slot = index < table.length ? table[index] : -1;
+			if (slot < 0) {
+				throw new IllegalArgumentException("no slot allocated for item: " + item);
+			}
+			return slot;
+		}
+	}
+
+	/**
+	 * Responsible for assigning slots to all variables declared within a given
+	 * declaration, along with all accesses to them. Every record access is also
+	 * given an inline cache.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static class SlotAllocator extends AbstractVisitor {
+		/**
+		 * The slots assigned so far.
+		 */
+		private final Slots table;
+		/**
+		 * The number of slots allocated so far in the current declaration.
+		 */
+		private int count;
+
+		public SlotAllocator(SyntacticHeap heap) {
+			this.table = new Slots(heap);
+		}
+
+		@Override
+		public void visitVariable(Decl.Variable decl) {
+			allocate(decl);
+			super.visitVariable(decl);
+		}
+
+		@Override
+		public void visitVariableAccess(Expr.VariableAccess expr) {
+			super.visitVariableAccess(expr);
+			table.table[expr.getIndex()] = allocate(expr.getVariableDeclaration());
+		}
+
+		@Override
+		public void visitRecordAccess(Expr.RecordAccess expr) {
+			super.visitRecordAccess(expr);
+			table.fields[expr.getIndex()] = new RValue.Record.Cache(expr.getField());
+		}
+
+		private int allocate(Decl.Variable decl) {
+			int index = decl.getIndex();
+			if (table.table[index] < 0) {
+				table.table[index] = count++;
+			}
+			return table.table[index];
+		}
+
+		@Override
+		public void visitType(Type type) {
+			// No variables are declared within types
+		}
+	}
+
 	public final class CallStack {
 		private final HashMap<QualifiedName, Map<String, Decl.Callable>> callables;
+		/**
+		 * Caches the result of resolving a given signature object against the
+		 * callables above. This avoids recomputing the canonical string of a
+		 * signature every time an invocation is executed.
+		 */
+		private final HashMap<QualifiedName, IdentityHashMap<Type.Callable, Decl.Callable>> resolved;
 		private final HashMap<QualifiedName, RValue> statics;
-		private final HashMap<Identifier, RValue> locals;
+		/**
+		 * Records which nominal types can have the results of type tests against
+		 * them remembered (see <code>isCacheable()</code>).
+		 */
+		private final Map<Decl.Type, Boolean> cacheable;
+		/**
+		 * The values of local variables, indexed by their slot (see
+		 * <code>SlotAllocator</code>).
+		 */
+		private RValue[] locals;
+		/**
+		 * The slots of the heap from which variables were last accessed in this
+		 * frame. In practice, every variable accessed in a frame belongs to the same
+		 * heap.
+		 */
+		private Slots slots;
 		private final Decl.Named context;
 
 		public CallStack() {
 			this.callables = new HashMap<>();
+			this.resolved = new HashMap<>();
 			this.statics = new HashMap<>();
-			this.locals = new HashMap<>();
+			this.cacheable = Collections.synchronizedMap(new IdentityHashMap<>());
+			this.locals = new RValue[FRAME_SIZE];
 			this.context = null;
 		}
 
 		private CallStack(CallStack parent, Decl.Named context) {
 			this.context = context;
-			this.locals = new HashMap<>();
+			this.locals = new RValue[FRAME_SIZE];
+			this.slots = parent.slots;
 			this.statics = parent.statics;
+			this.cacheable = parent.cacheable;
 			this.callables = parent.callables;
+			this.resolved = parent.resolved;
+		}
+
+		/**
+		 * Get the slot for a given variable declaration or variable access.
+		 *
+		 * @param item
+		 * @return
+		 */
+		public int getSlot(SyntacticItem item) {
+			Slots s = slots;
+			if (s == null || s.heap != item.getHeap()) {
+				s = slots = getSlots(item);
+			}
+			return s.get(item);
 		}
 
-		public RValue getLocal(Identifier name) {
-			return locals.get(name);
+		/**
+		 * Get the inline cache for a given record access.
+		 *
+		 * @param expr
+		 * @return
+		 */
+		public RValue.Record.Cache getCache(Expr.RecordAccess expr) {
+			Slots s = slots;
+			if (s == null || s.heap != expr.getHeap()) {
+				s = slots = getSlots(expr);
+			}
+			return s.get(expr);
+		}
+
+		public RValue getLocal(Decl.Variable var) {
+			return getLocal(getSlot(var));
 		}
 
-		public void putLocal(Identifier name, RValue value) {
-			locals.put(name, value);
+		public RValue getLocal(int slot) {
+			return slot < locals.length ? locals[slot] : null;
+		}
+
+		public void putLocal(Decl.Variable var, RValue value) {
+			putLocal(getSlot(var), value);
+		}
+
+		public void putLocal(int slot, RValue value) {
+			if (slot >= locals.length) {
+				locals = Arrays.copyOf(locals, Math.max(slot + 1, locals.length * 2));
+			}
+			locals[slot] = value;
+		}
+
+		/**
+		 * Check that a value about to be updated in place is reachable from exactly
+		 * one location in this frame. Otherwise, updating it in place would be
+		 * visible through some other location. This does nothing unless aliasing
+		 * checks are enabled.
+		 *
+		 * @param value
+		 */
+		public void checkUnaliased(RValue value) {
+			if (checkAliasing) {
+				int count = 0;
+				for (int i = 0; i != locals.length; ++i) {
+					count += countReferences(locals[i], value);
+				}
+				if (count != 1) {
+					throw new AssertionError("in-place update of aliased value: " + value);
+				}
+			}
+		}
+
+		private int countReferences(RValue from, RValue value) {
+			if (from == value) {
+				return 1;
+			} else if (from instanceof RValue.Array) {
+				RValue[] elements = ((RValue.Array) from).getElements();
+				int count = 0;
+				for (int i = 0; i != elements.length; ++i) {
+					count += countReferences(elements[i], value);
+				}
+				return count;
+			} else if (from instanceof RValue.Record) {
+				RValue.Record rec = (RValue.Record) from;
+				int count = 0;
+				for (int i = 0; i != rec.size(); ++i) {
+					count += countReferences(rec.getField(i), value);
+				}
+				return count;
+			} else {
+				return 0;
+			}
+		}
+
+		/**
+		 * Determine whether the result of testing a value against a given nominal
+		 * type is determined entirely by that value and, hence, can be remembered.
+		 * This is not the case for types involving references, since the contents
+		 * of a reference can change without the value holding it changing.
+		 * Likewise, it is not the case for invariants which access static
+		 * variables.
+		 *
+		 * @param decl
+		 * @return
+		 */
+		public boolean isCacheable(Decl.Type decl) {
+			Boolean r = cacheable.get(decl);
+			if (r == null) {
+				r = isCacheable(decl, Collections.newSetFromMap(new IdentityHashMap<>()));
+				cacheable.put(decl, r);
+			}
+			return r;
+		}
+
+		private boolean isCacheable(Decl.Type decl, Set<Decl.Type> visited) {
+			if (!visited.add(decl)) {
+				// NOTE: recursive types are cacheable if nothing else prevents them
+				return true;
+			}
+			boolean[] statics = new boolean[1];
+			new AbstractVisitor() {
+				@Override
+				public void visitStaticVariableAccess(Expr.StaticVariableAccess expr) {
+					statics[0] = true;
+				}
+			}.visitExpressions(decl.getInvariant());
+			return !statics[0] && isCacheable(decl.getVariableDeclaration().getType(), visited);
+		}
+
+		private boolean isCacheable(Type type, Set<Decl.Type> visited) {
+			if (type instanceof Type.Primitive || type instanceof Type.Callable) {
+				return true;
+			} else if (type instanceof Type.Array) {
+				return isCacheable(((Type.Array) type).getElement(), visited);
+			} else if (type instanceof Type.Record) {
+				Tuple<Type.Field> fields = ((Type.Record) type).getFields();
+				for (int i = 0; i != fields.size(); ++i) {
+					if (!isCacheable(fields.get(i).getType(), visited)) {
+						return false;
+					}
+				}
+				return true;
+			} else if (type instanceof Type.Union) {
+				Type.Union t = (Type.Union) type;
+				for (int i = 0; i != t.size(); ++i) {
+					if (!isCacheable(t.get(i), visited)) {
+						return false;
+					}
+				}
+				return true;
+			} else if (type instanceof Type.Nominal) {
+				return isCacheable(((Type.Nominal) type).getLink().getTarget(), visited);
+			} else {
+				// References, type variables, etc.
+				return false;
+			}
 		}
 
 		public RValue getStatic(QualifiedName name) {
@@ -1366,9 +2018,23 @@ public class Interpreter {
 		}
 
 		public Decl.Callable getCallable(QualifiedName name, Type.Callable signature) {
-			// NOTE: must use toCanonicalString() here in order to guarantee that we get the
-			// same string as at the declaration site.
-			return callables.get(name).get(signature.toCanonicalString());
+			// NOTE: frames may be used concurrently (e.g. when evaluating quantifiers in
+			// parallel), hence the cache must be protected.
+			synchronized (resolved) {
+				IdentityHashMap<Type.Callable, Decl.Callable> map = resolved.get(name);
+				if (map == null) {
+					map = new IdentityHashMap<>();
+					resolved.put(name, map);
+				}
+				Decl.Callable decl = map.get(signature);
+				if (decl == null) {
+					// NOTE: must use toCanonicalString() here in order to guarantee that we get the
+					// same string as at the declaration site.
+					decl = callables.get(name).get(signature.toCanonicalString());
+					map.put(signature, decl);
+				}
+				return decl;
+			}
 		}
 
 		public CallStack enter(Decl.Named<?> context) {
@@ -1382,7 +2048,13 @@ public class Interpreter {
 		@Override
 		public CallStack clone() {
 			CallStack frame = new CallStack(this, this.context);
-			frame.locals.putAll(locals);
+			frame.locals = locals.clone();
+			// Values are now shared between both frames
+			for (int i = 0; i != locals.length; ++i) {
+				if (locals[i] != null) {
+					locals[i].share();
+				}
+			}
 			return frame;
 		}
 
@@ -1408,6 +2080,8 @@ public class Interpreter {
 		 */
 		private void load(WyilFile module) {
 			//
+			// Assign every local variable its slot up front
+			allocateSlots(module);
 			for (Decl.Unit unit : module.getModule().getUnits()) {
 				for (Decl d : unit.getDeclarations()) {
 					switch (d.getOpcode()) {
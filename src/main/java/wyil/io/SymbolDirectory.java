@@ -0,0 +1,249 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import wybs.lang.SyntacticItem;
+import wybs.util.AbstractCompilationUnit.Identifier;
+import wybs.util.AbstractCompilationUnit.Name;
+import wyfs.lang.Path;
+import wyil.lang.WyilFile;
+import wyil.lang.WyilFile.Decl;
+import wyil.lang.WyilFile.Modifier;
+
+/**
+ * <p>
+ * A directory of the symbols exported from a given WyilFile. This identifies
+ * every unit contained in the file and, for each unit, the public symbols it
+ * declares along with the index of each corresponding declaration in the heap.
+ * The directory is written into the header of a binary WyilFile and, hence, can
+ * be read without deserialising the heap itself.
+ * </p>
+ * <p>
+ * This allows external dependencies to be loaded lazily. That is, name
+ * resolution can determine which symbols exist from the directory alone, and
+ * the file itself is only read when a symbol from it is actually imported.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class SymbolDirectory {
+	/**
+	 * Responsible for reading the WyilFile described by this directory, when this
+	 * is actually required.
+	 */
+	public interface Loader {
+		public WyilFile read(Path.Entry<WyilFile> entry) throws IOException;
+	}
+
+	/**
+	 * The entry of the WyilFile described by this directory.
+	 */
+	private final Path.Entry<WyilFile> entry;
+
+	/**
+	 * The units described in this directory.
+	 */
+	private final List<Unit> units;
+
+	/**
+	 * Used to read the WyilFile described by this directory.
+	 */
+	private Loader loader;
+
+	/**
+	 * The WyilFile described by this directory, or <code>null</code> if it has
+	 * not yet been read.
+	 */
+	private WyilFile file;
+
+	/**
+	 * Construct an initially empty directory for a given WyilFile.
+	 *
+	 * @param entry
+	 */
+	public SymbolDirectory(Path.Entry<WyilFile> entry) {
+		this.entry = entry;
+		this.units = new ArrayList<>();
+		this.loader = Path.Entry::read;
+	}
+
+	/**
+	 * Construct the directory for a WyilFile which has already been read.
+	 *
+	 * @param file
+	 */
+	public SymbolDirectory(WyilFile file) {
+		this(file.getEntry());
+		this.file = file;
+		SyntacticItem root = file.getRootItem();
+		// NOTE: root may not be a module in the case of a partially constructed file.
+		if (root instanceof Decl.Module) {
+			for (Decl.Unit unit : ((Decl.Module) root).getUnits()) {
+				LinkedHashMap<Identifier, int[]> symbols = new LinkedHashMap<>();
+				for (Decl decl : unit.getDeclarations()) {
+					if (decl instanceof Decl.Named && isPublic((Decl.Named<?>) decl)) {
+						Identifier name = ((Decl.Named<?>) decl).getName();
+						int[] indices = symbols.get(name);
+						indices = (indices == null) ? new int[1] : Arrays.copyOf(indices, indices.length + 1);
+						indices[indices.length - 1] = decl.getIndex();
+						symbols.put(name, indices);
+					}
+				}
+				add(unit.getName(), unit.getIndex(), symbols);
+			}
+		}
+	}
+
+	/**
+	 * Add a unit to this directory.
+	 *
+	 * @param name    The name of the unit
+	 * @param index   The index of the unit in the heap
+	 * @param symbols The public symbols declared in the unit, along with the
+	 *                indices of their declarations in the heap.
+	 * @return
+	 */
+	public Unit add(Name name, int index, Map<Identifier, int[]> symbols) {
+		Unit unit = new Unit(name, index, symbols);
+		units.add(unit);
+		return unit;
+	}
+
+	public Path.Entry<WyilFile> getEntry() {
+		return entry;
+	}
+
+	public List<Unit> getUnits() {
+		return units;
+	}
+
+	/**
+	 * Set the loader used to read the WyilFile described by this directory.
+	 *
+	 * @param loader
+	 * @return
+	 */
+	public SymbolDirectory setLoader(Loader loader) {
+		this.loader = loader;
+		return this;
+	}
+
+	/**
+	 * Check whether or not the WyilFile described by this directory has been read.
+	 *
+	 * @return
+	 */
+	public boolean isLoaded() {
+		return file != null;
+	}
+
+	/**
+	 * Get the WyilFile described by this directory, reading it if necessary.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized WyilFile load() throws IOException {
+		if (file == null) {
+			file = loader.read(entry);
+		}
+		return file;
+	}
+
+	/**
+	 * Describes a single unit within a WyilFile.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public class Unit {
+		/**
+		 * The name of this unit
+		 */
+		private final Name name;
+		/**
+		 * The index of this unit in the heap
+		 */
+		private final int index;
+		/**
+		 * Maps each public symbol to the indices of its declarations in the heap.
+		 */
+		private final Map<Identifier, int[]> symbols;
+
+		private Unit(Name name, int index, Map<Identifier, int[]> symbols) {
+			this.name = name;
+			this.index = index;
+			this.symbols = symbols;
+		}
+
+		public Name getName() {
+			return name;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public Map<Identifier, int[]> getSymbols() {
+			return Collections.unmodifiableMap(symbols);
+		}
+
+		/**
+		 * Get the declarations of a given symbol in this unit, reading the enclosing
+		 * WyilFile if necessary.
+		 *
+		 * @param symbol
+		 * @return
+		 */
+		public List<Decl.Named<?>> getDeclarations(Identifier symbol) {
+			int[] indices = symbols.get(symbol);
+			ArrayList<Decl.Named<?>> declarations = new ArrayList<>();
+			if (indices != null) {
+				try {
+					WyilFile wf = SymbolDirectory.this.load();
+					// NOTE: decoding the unit first decodes the signatures of its declarations
+					// (though not their bodies). This ensures the enclosing unit of each
+					// declaration can be determined without decoding the entire file.
+					wf.getSyntacticItem(index);
+					for (int i = 0; i != indices.length; ++i) {
+						declarations.add((Decl.Named<?>) wf.getSyntacticItem(indices[i]));
+					}
+				} catch (IOException e) {
+					// FIXME: this is broken
+					throw new RuntimeException(e);
+				}
+			}
+			return declarations;
+		}
+	}
+
+	/**
+	 * Check whether named declaration is public or not.
+	 *
+	 * @param decl
+	 * @return
+	 */
+	private static boolean isPublic(Decl.Named<?> decl) {
+		return decl.getModifiers().match(Modifier.Public.class) != null;
+	}
+}
@@ -0,0 +1,178 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import wyfs.lang.Path;
+import wyil.lang.WyilFile;
+
+/**
+ * A cache of WyilFiles which have been read from disk, as used for external
+ * dependencies. This is intended to be kept alive across builds (e.g. by a
+ * long-running compile server) so that dependencies are only read again when
+ * their contents actually change. For every entry, the cache holds the symbol
+ * directory read from it, which in turn holds the file itself once this has
+ * been loaded. Every cached directory is associated with the modification time
+ * and size of the entry it was read from, along with a digest of its contents.
+ * When the modification time and size are unchanged, the cached directory is
+ * assumed valid without reading the entry at all. Otherwise, the digest is used
+ * to determine whether or not the cached directory remains valid. Observe that
+ * cached files are shared between builds and, hence, must not be modified.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class WyilFileCache {
+	/**
+	 * Map from entry locations to previously read directories.
+	 */
+	private final ConcurrentHashMap<String, Cached> cache = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Read the symbol directory of a given entry, reusing a previously read
+	 * directory if the contents of the entry are unchanged. The WyilFile described
+	 * by the directory is only read when it is first loaded, and this reuses the
+	 * contents read here (rather than reading the entry again).
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public SymbolDirectory readDirectory(Path.Entry<WyilFile> entry) throws IOException {
+		String location = entry.location();
+		long modified = entry.lastModified();
+		long size = sizeOf(location);
+		Cached cached = cache.get(location);
+		//
+		if (cached != null && cached.modified == modified && cached.size == size && size >= 0) {
+			// Entry is untouched since it was last read
+			hits.incrementAndGet();
+			return cached.directory;
+		}
+		byte[] bytes = readAll(entry.inputStream());
+		byte[] digest = digest(bytes);
+		if (cached != null && Arrays.equals(cached.digest, digest)) {
+			// Entry was touched, but its contents are unchanged
+			hits.incrementAndGet();
+			cache.put(location, new Cached(modified, size, digest, cached.directory));
+			return cached.directory;
+		} else {
+			misses.incrementAndGet();
+			// NOTE: reading from a buffer means items are decoded on demand
+			WyilFileReader reader = new WyilFileReader(entry, ByteBuffer.wrap(bytes));
+			SymbolDirectory directory = reader.readDirectory().setLoader(e -> reader.read());
+			cache.put(location, new Cached(modified, size, digest, directory));
+			return directory;
+		}
+	}
+
+	/**
+	 * Read a given entry, reusing a previously read file if the contents of the
+	 * entry are unchanged.
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public WyilFile read(Path.Entry<WyilFile> entry) throws IOException {
+		return readDirectory(entry).load();
+	}
+
+	/**
+	 * Remove all directories (and their files) from this cache.
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	static byte[] readAll(InputStream input) throws IOException {
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = input.read(buffer)) > 0) {
+				output.write(buffer, 0, n);
+			}
+			return output.toByteArray();
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Determine the size of the file at a given location, or <code>-1</code> if
+	 * the location does not correspond to a file (e.g. it is within a jar). In
+	 * the latter case, cached entries are always checked against their digest.
+	 *
+	 * @param location
+	 * @return
+	 */
+	private static long sizeOf(String location) {
+		File file = new File(location);
+		return file.isFile() ? file.length() : -1;
+	}
+
+	private static byte[] digest(byte[] bytes) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(bytes);
+		} catch (NoSuchAlgorithmException e) {
+			// Should be unreachable, as every Java platform must support SHA-256
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * A directory which has been read, along with the modification time, size and
+	 * digest of the entry it was read from.
+	 */
+	private static final class Cached {
+		private final long modified;
+		private final long size;
+		private final byte[] digest;
+		private final SymbolDirectory directory;
+
+		public Cached(long modified, long size, byte[] digest, SymbolDirectory directory) {
+			this.modified = modified;
+			this.size = size;
+			this.digest = digest;
+			this.directory = directory;
+		}
+	}
+}
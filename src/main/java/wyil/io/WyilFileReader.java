@@ -14,10 +14,18 @@
 package wyil.io;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import wybs.io.SyntacticHeapReader;
 import wybs.lang.SyntacticHeap;
 import wybs.lang.SyntacticItem;
+import wybs.util.AbstractCompilationUnit.Identifier;
+import wybs.util.AbstractCompilationUnit.Name;
 import wycc.util.Pair;
 import wyfs.io.BinaryInputStream;
 import wyfs.lang.Path;
@@ -25,7 +33,10 @@ import wyil.lang.WyilFile;
 
 /**
  * Read a binary WYIL file from a byte stream and convert into the corresponding
- * WhileyFile object.
+ * WhileyFile object. A reader constructed via <code>load()</code> decodes items
+ * on demand, rather than eagerly decoding the entire heap. This is useful when
+ * only some declarations are required (e.g. from an external dependency) since
+ * other declarations (e.g. their bodies) are then never decoded.
  *
  * @author David J. Pearce
  *
@@ -35,19 +46,92 @@ public final class WyilFileReader extends SyntacticHeapReader {
 
 	private Path.Entry<WyilFile> entry;
 
+	/**
+	 * The symbol directory read from the header, or <code>null</code> if the
+	 * header has not been read yet (or the file predates symbol directories).
+	 */
+	private SymbolDirectory directory;
+
+	/**
+	 * Indicates whether or not the header has been read yet.
+	 */
+	private boolean header;
+
+	/**
+	 * The version number of the file being read, as determined from its header.
+	 */
+	private int major, minor;
+
+	/**
+	 * The buffer from which this file is being read, or <code>null</code> if it is
+	 * being read from an arbitrary stream.
+	 */
+	private ByteBuffer buffer;
+
 	public WyilFileReader(Path.Entry<WyilFile> entry) throws IOException {
-		super(entry.inputStream(), WyilFile.getSchema());
+		this(entry, entry.inputStream());
+	}
+
+	public WyilFileReader(Path.Entry<WyilFile> entry, InputStream input) throws IOException {
+		super(input, WyilFile.getSchema());
 		this.entry = entry;
 	}
 
+	public WyilFileReader(Path.Entry<WyilFile> entry, ByteBuffer buffer) throws IOException {
+		this(entry, new ByteBufferInputStream(buffer));
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Construct a reader for a given entry which decodes items on demand. The
+	 * contents of the entry are loaded into memory, rather than memory mapped.
+	 * This is because the underlying file may be rewritten (e.g. by an incremental
+	 * build) whilst items remain to be decoded, and accessing a mapping of a file
+	 * which has been truncated can crash the JVM.
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public static WyilFileReader load(Path.Entry<WyilFile> entry) throws IOException {
+		return new WyilFileReader(entry, ByteBuffer.wrap(WyilFileCache.readAll(entry.inputStream())));
+	}
+
 	@Override
 	public WyilFile read() throws IOException {
-		Pair<Integer,SyntacticItem[]> p = readItems();
-		return new WyilFile(entry,p.first(),p.second());
+		checkHeader();
+		if (buffer != null && hasSections()) {
+			return readSectionsLazily();
+		} else {
+			Pair<Integer, SyntacticItem[]> p = readItems();
+			return new WyilFile(entry, p.first(), p.second());
+		}
+	}
+
+	/**
+	 * Read the symbol directory of this file. For files which include a directory
+	 * in their header, only the header is read. Otherwise, the entire file must be
+	 * read to construct the directory.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public SymbolDirectory readDirectory() throws IOException {
+		checkHeader();
+		if (directory == null) {
+			return new SymbolDirectory(read());
+		} else {
+			return directory;
+		}
 	}
 
 	@Override
 	protected void checkHeader() throws IOException {
+		if (header) {
+			// Header already read (e.g. by readDirectory())
+			return;
+		}
+		header = true;
 		// Check magic number
 		for (int i = 0; i != 8; ++i) {
 			char c = (char) in.read_u8();
@@ -56,9 +140,305 @@ public final class WyilFileReader extends SyntacticHeapReader {
 			}
 		}
 		// Check version number
-		int major = in.read_uv();
-		int minor = in.read_uv();
+		major = in.read_uv();
+		minor = in.read_uv();
+		if (!isSupported(major, minor)) {
+			throw new IllegalArgumentException("unsupported version (" + major + "." + minor + ")");
+		}
+		// Symbol directory only present from version 1.0
+		if (major >= 1) {
+			directory = readSymbolDirectory();
+		}
+		// Pad to next byte boundary
+		in.pad_u8();
+	}
+
+	@Override
+	protected Pair<Integer, SyntacticItem[]> readItems() throws IOException {
+		checkHeader();
+		if (hasSections()) {
+			return readSections();
+		} else {
+			return super.readItems();
+		}
+	}
+
+	/**
+	 * Read and decode every section of the heap.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private Pair<Integer, SyntacticItem[]> readSections() throws IOException {
+		int size = in.read_uv();
+		int root = in.read_uv();
+		Section[] sections = readSectionTable();
+		// Decode all items, then connect them together
+		SyntacticItem[] items = new SyntacticItem[size];
+		int[][] operands = new int[size][];
+		for (Section section : sections) {
+			byte[] bytes = new byte[section.stored];
+			in.read(bytes);
+			ByteBuffer data = section.decompress(ByteBuffer.wrap(bytes));
+			BinaryInputStream bin = new BinaryInputStream(new ByteBufferInputStream(data));
+			for (int i = 0; i != section.indices.length; ++i) {
+				Pair<SyntacticItem, int[]> p = decode(bin);
+				items[section.indices[i]] = p.first();
+				operands[section.indices[i]] = p.second();
+			}
+		}
+		for (int i = 0; i != size; ++i) {
+			for (int j = 0; j != operands[i].length; ++j) {
+				items[i].setOperand(j, items[operands[i][j]]);
+			}
+		}
+		return new Pair<>(root, items);
+	}
+
+	/**
+	 * Read the heap without decoding any of its items. Instead, the section and
+	 * offset of each item is determined so that it can be decoded on demand.
+	 * Furthermore, compressed sections are only decompressed when one of their
+	 * items is first decoded.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private WyilFile readSectionsLazily() throws IOException {
+		int size = in.read_uv();
+		int root = in.read_uv();
+		Section[] sections = readSectionTable();
+		// NOTE: the buffer is now positioned at the first section
+		int start = buffer.position();
+		final Section[] owners = new Section[size];
+		final int[] offsets = new int[size];
+		for (Section section : sections) {
+			ByteBuffer b = buffer.duplicate();
+			b.position(start);
+			b.limit(start + section.stored);
+			section.payload = b.slice();
+			start += section.stored;
+			int offset = 0;
+			for (int i = 0; i != section.indices.length; ++i) {
+				owners[section.indices[i]] = section;
+				offsets[section.indices[i]] = offset;
+				offset += section.lengths[i];
+			}
+		}
+		return new WyilFile(entry, root, size, index -> {
+			try {
+				ByteBuffer b = owners[index].getData().duplicate();
+				b.position(offsets[index]);
+				return decode(new BinaryInputStream(new ByteBufferInputStream(b)));
+			} catch (IOException e) {
+				// FIXME: this is broken
+				throw new RuntimeException(e);
+			}
+		});
+	}
+
+	private Section[] readSectionTable() throws IOException {
+		Section[] sections = new Section[in.read_uv()];
+		for (int i = 0; i != sections.length; ++i) {
+			Section section = new Section();
+			section.kind = in.read_uv();
+			section.flags = in.read_uv();
+			section.indices = new int[in.read_uv()];
+			section.lengths = new int[section.indices.length];
+			int next = 0;
+			for (int j = 0; j != section.indices.length; ++j) {
+				section.indices[j] = next + in.read_uv();
+				next = section.indices[j] + 1;
+			}
+			for (int j = 0; j != section.lengths.length; ++j) {
+				section.lengths[j] = in.read_uv();
+			}
+			section.length = in.read_uv();
+			section.stored = in.read_uv();
+			sections[i] = section;
+		}
 		// Pad to next byte boundary
 		in.pad_u8();
+		return sections;
+	}
+
+	/**
+	 * Decode a single item from a given input stream. The item is returned with its
+	 * operands unset, along with the indices of those operands.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	private Pair<SyntacticItem, int[]> decode(BinaryInputStream in) throws IOException {
+		int opcode = in.read_u8();
+		SyntacticItem.Schema s = schema[opcode];
+		// Read operands
+		SyntacticItem.Operands operandLayout = s.getOperandLayout();
+		int nOperands = operandLayout == SyntacticItem.Operands.MANY ? in.read_uv() : operandLayout.ordinal();
+		int[] operands = new int[nOperands];
+		for (int i = 0; i != nOperands; ++i) {
+			operands[i] = in.read_uv();
+		}
+		// Read data
+		SyntacticItem.Data dataLayout = s.getDataLayout();
+		int nBytes = dataLayout == SyntacticItem.Data.MANY ? in.read_uv() : dataLayout.ordinal();
+		byte[] data = new byte[nBytes];
+		in.read(data);
+		in.pad_u8();
+		SyntacticItem item = s.construct(opcode, new SyntacticItem[nOperands], data);
+		return new Pair<>(item, operands);
+	}
+
+	/**
+	 * Check whether a given version of the binary format can be read. Version 0.1
+	 * (i.e. the original format) is still supported, along with every version from
+	 * 1.0 up to that written by <code>WyilFileWriter</code>.
+	 *
+	 * @param major
+	 * @param minor
+	 * @return
+	 */
+	private static boolean isSupported(int major, int minor) {
+		if (major == 0) {
+			return minor == 1;
+		} else {
+			return major < WyilFileWriter.MAJOR_VERSION
+					|| (major == WyilFileWriter.MAJOR_VERSION && minor <= WyilFileWriter.MINOR_VERSION);
+		}
+	}
+
+	/**
+	 * Check whether items are partitioned into sections, which is the case from
+	 * version 1.0.
+	 *
+	 * @return
+	 */
+	private boolean hasSections() {
+		return major >= 1;
+	}
+
+	private SymbolDirectory readSymbolDirectory() throws IOException {
+		SymbolDirectory dir = new SymbolDirectory(entry);
+		int nUnits = in.read_uv();
+		for (int i = 0; i != nUnits; ++i) {
+			Identifier[] components = new Identifier[in.read_uv()];
+			for (int j = 0; j != components.length; ++j) {
+				components[j] = new Identifier(readString());
+			}
+			int index = in.read_uv();
+			int nSymbols = in.read_uv();
+			LinkedHashMap<Identifier, int[]> symbols = new LinkedHashMap<>();
+			for (int j = 0; j != nSymbols; ++j) {
+				Identifier symbol = new Identifier(readString());
+				int[] indices = new int[in.read_uv()];
+				for (int k = 0; k != indices.length; ++k) {
+					indices[k] = in.read_uv();
+				}
+				symbols.put(symbol, indices);
+			}
+			dir.add(new Name(components), index, symbols);
+		}
+		return dir;
+	}
+
+	private String readString() throws IOException {
+		byte[] bytes = new byte[in.read_uv()];
+		in.read(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Describes a section of the heap, as read from the section table.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static class Section {
+		/**
+		 * The kind of this section (e.g. <code>SECTION_bodies</code>).
+		 */
+		public int kind;
+		/**
+		 * Flags describing this section (e.g. whether or not it is compressed).
+		 */
+		public int flags;
+		/**
+		 * The indices of the items in this section, in the order they are stored.
+		 */
+		public int[] indices;
+		/**
+		 * The length (in bytes) of each item in this section.
+		 */
+		public int[] lengths;
+		/**
+		 * The length (in bytes) of this section when uncompressed.
+		 */
+		public int length;
+		/**
+		 * The length (in bytes) of this section as stored.
+		 */
+		public int stored;
+		/**
+		 * The payload of this section as stored, when reading lazily.
+		 */
+		public ByteBuffer payload;
+		/**
+		 * The uncompressed payload of this section, or <code>null</code> if this has
+		 * not been determined yet.
+		 */
+		private ByteBuffer data;
+
+		public synchronized ByteBuffer getData() throws IOException {
+			if (data == null) {
+				data = decompress(payload);
+			}
+			return data;
+		}
+
+		public ByteBuffer decompress(ByteBuffer payload) throws IOException {
+			if ((flags & WyilFileWriter.FLAG_deflate) == 0) {
+				return payload;
+			}
+			byte[] bytes = new byte[payload.remaining()];
+			payload.duplicate().get(bytes);
+			Inflater inflater = new Inflater();
+			inflater.setInput(bytes);
+			byte[] result = new byte[length];
+			try {
+				int n = 0;
+				while (n < length) {
+					int k = inflater.inflate(result, n, length - n);
+					if (k == 0 && (inflater.finished() || inflater.needsInput())) {
+						throw new IOException("truncated section");
+					}
+					n += k;
+				}
+			} catch (DataFormatException e) {
+				throw new IOException(e);
+			} finally {
+				inflater.end();
+			}
+			return ByteBuffer.wrap(result);
+		}
+	}
+
+	/**
+	 * A simple adaptor for reading from a byte buffer.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		public ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+		}
 	}
 }
@@ -14,9 +14,20 @@
 package wyil.io;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
 
 import wybs.io.SyntacticHeapWriter;
+import wybs.lang.SyntacticHeap;
+import wybs.lang.SyntacticItem;
+import wybs.util.AbstractCompilationUnit.Identifier;
+import wybs.util.AbstractCompilationUnit.Name;
 import wyil.lang.WyilFile;
+import wyil.lang.WyilFile.Decl;
 
 
 /**
@@ -25,22 +36,215 @@ import wyil.lang.WyilFile;
  * binary format is structured to given maximum flexibility and to avoid
  * built-in limitations in terms of e.g. maximum sizes, etc.
  * </p>
+ * <p>
+ * From version 1.0, the header includes a <code>SymbolDirectory</code>
+ * identifying the public symbols of each unit in the file. This allows a
+ * dependency to be inspected without deserialising the heap. In addition, items
+ * are partitioned into sections, namely: declarations and signatures; function
+ * and method bodies; identifiers; and, source spans. A section table following
+ * the header gives the indices of the items in each section, along with the
+ * length (in bytes) of each item. Every item begins on a byte boundary and,
+ * hence, a reader can locate any item without decoding those before it (see
+ * <code>WyilFileReader.load()</code>). Furthermore, a section can be compressed
+ * and a reader need only decompress those sections which it actually uses. For
+ * example, a reader which only needs declarations from a dependency never
+ * touches the bodies section.
+ * </p>
  *
  * @author David J. Pearce
  *
  */
 public final class WyilFileWriter extends SyntacticHeapWriter {
-	private static final int MAJOR_VERSION = 0;
-	private static final int MINOR_VERSION = 1;
+	static final int MAJOR_VERSION = 1;
+	static final int MINOR_VERSION = 0;
+
+	// SECTIONS
+	public static final int SECTION_declarations = 0;
+	public static final int SECTION_bodies = 1;
+	public static final int SECTION_identifiers = 2;
+	public static final int SECTION_spans = 3;
+	// SECTION FLAGS
+	public static final int FLAG_deflate = 0b0001;
+
+	/**
+	 * The heap currently being written.
+	 */
+	private SyntacticHeap heap;
+
+	/**
+	 * Determines whether or not sections are compressed (where this makes them
+	 * smaller).
+	 */
+	private boolean compression = true;
 
 	public WyilFileWriter(OutputStream output) {
 		super(output, WyilFile.getSchema());
 	}
 
+	public WyilFileWriter setCompression(boolean flag) {
+		this.compression = flag;
+		return this;
+	}
+
+	@Override
+	public void write(SyntacticHeap heap) throws IOException {
+		this.heap = heap;
+		int[] kinds = partition(heap);
+		// Encode each section upfront to determine item lengths
+		ByteArrayOutputStream[] bytes = new ByteArrayOutputStream[SECTION_spans + 1];
+		WyilFileWriter[] writers = new WyilFileWriter[bytes.length];
+		int[] lengths = new int[heap.size()];
+		for (int i = 0; i != bytes.length; ++i) {
+			bytes[i] = new ByteArrayOutputStream();
+			writers[i] = new WyilFileWriter(bytes[i]);
+		}
+		for (int i = 0; i != lengths.length; ++i) {
+			ByteArrayOutputStream section = bytes[kinds[i]];
+			int start = section.size();
+			writers[kinds[i]].writeSyntacticItem(heap.getSyntacticItem(i));
+			lengths[i] = section.size() - start;
+		}
+		writeHeader();
+		out.write_uv(lengths.length);
+		out.write_uv(heap.getRootItem().getIndex());
+		// Write the section table
+		byte[][] payloads = new byte[bytes.length][];
+		out.write_uv(bytes.length);
+		for (int kind = 0; kind != bytes.length; ++kind) {
+			byte[] raw = bytes[kind].toByteArray();
+			byte[] payload = compression ? deflate(raw) : raw;
+			payloads[kind] = payload;
+			out.write_uv(kind);
+			out.write_uv(payload != raw ? FLAG_deflate : 0);
+			writeSectionItems(kind, kinds, lengths);
+			out.write_uv(raw.length);
+			out.write_uv(payload.length);
+		}
+		// Pad to next byte boundary
+		out.pad_u8();
+		// Write the sections themselves
+		for (int kind = 0; kind != payloads.length; ++kind) {
+			out.write(payloads[kind]);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Write the indices of those items in a given section (which are delta
+	 * encoded), followed by their lengths.
+	 *
+	 * @param kind
+	 * @param kinds
+	 * @param lengths
+	 * @throws IOException
+	 */
+	private void writeSectionItems(int kind, int[] kinds, int[] lengths) throws IOException {
+		int count = 0;
+		for (int i = 0; i != kinds.length; ++i) {
+			count += (kinds[i] == kind) ? 1 : 0;
+		}
+		out.write_uv(count);
+		int next = 0;
+		for (int i = 0; i != kinds.length; ++i) {
+			if (kinds[i] == kind) {
+				out.write_uv(i - next);
+				next = i + 1;
+			}
+		}
+		for (int i = 0; i != kinds.length; ++i) {
+			if (kinds[i] == kind) {
+				out.write_uv(lengths[i]);
+			}
+		}
+	}
+
+	/**
+	 * Partition the items of a given heap into sections. Identifiers always go into
+	 * the identifiers section. Otherwise, items reachable from the root without
+	 * passing through the body of a function or method go into the declarations
+	 * section; items reachable only through such a body go into the bodies
+	 * section; and, anything else (i.e. source spans) goes into the spans section.
+	 *
+	 * @param heap
+	 * @return
+	 */
+	private static int[] partition(SyntacticHeap heap) {
+		int[] kinds = new int[heap.size()];
+		// Initially, nothing is marked
+		Arrays.fill(kinds, -1);
+		ArrayDeque<SyntacticItem> bodies = new ArrayDeque<>();
+		mark(heap.getRootItem(), SECTION_declarations, kinds, bodies);
+		while (!bodies.isEmpty()) {
+			mark(bodies.pop(), SECTION_bodies, kinds, null);
+		}
+		for (int i = 0; i != kinds.length; ++i) {
+			if (heap.getSyntacticItem(i) instanceof Identifier) {
+				kinds[i] = SECTION_identifiers;
+			} else if (kinds[i] < 0) {
+				// NOTE: this includes the items referred to by spans (e.g. their start and
+				// end), as well as any items which are unreachable.
+				kinds[i] = SECTION_spans;
+			}
+		}
+		return kinds;
+	}
+
+	/**
+	 * Mark all unmarked items reachable from a given item as belonging to a given
+	 * section. When bodies are being separated, the body of any function or method
+	 * encountered is not traversed but, instead, recorded for later.
+	 *
+	 * @param root
+	 * @param kind
+	 * @param kinds
+	 * @param bodies
+	 */
+	private static void mark(SyntacticItem root, int kind, int[] kinds, ArrayDeque<SyntacticItem> bodies) {
+		ArrayDeque<SyntacticItem> worklist = new ArrayDeque<>();
+		worklist.push(root);
+		while (!worklist.isEmpty()) {
+			SyntacticItem item = worklist.pop();
+			int index = item.getIndex();
+			if (kinds[index] >= 0) {
+				// Already marked
+				continue;
+			}
+			kinds[index] = kind;
+			SyntacticItem body = null;
+			if (bodies != null && item instanceof Decl.FunctionOrMethod) {
+				body = ((Decl.FunctionOrMethod) item).getBody();
+				bodies.push(body);
+			}
+			for (int i = 0; i != item.size(); ++i) {
+				SyntacticItem child = item.get(i);
+				if (child != null && child != body) {
+					worklist.push(child);
+				}
+			}
+		}
+	}
+
+	private static byte[] deflate(byte[] bytes) {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		deflater.setInput(bytes);
+		deflater.finish();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		while (!deflater.finished()) {
+			int n = deflater.deflate(buffer);
+			output.write(buffer, 0, n);
+		}
+		deflater.end();
+		byte[] compressed = output.toByteArray();
+		// Only use compression when it actually helps
+		return compressed.length < bytes.length ? compressed : bytes;
+	}
+
 	@Override
 	public void writeHeader() throws IOException {
 		writeMagicNumber();
 		writeVersionNumber();
+		writeSymbolDirectory();
 		// Pad to next byte boundary
 		out.pad_u8();
 	}
@@ -60,4 +264,33 @@ public final class WyilFileWriter extends SyntacticHeapWriter {
 		out.write_uv(MAJOR_VERSION);
 		out.write_uv(MINOR_VERSION);
 	}
+
+	public void writeSymbolDirectory() throws IOException {
+		List<SymbolDirectory.Unit> units = new SymbolDirectory((WyilFile) heap).getUnits();
+		out.write_uv(units.size());
+		for (SymbolDirectory.Unit unit : units) {
+			Name name = unit.getName();
+			out.write_uv(name.size());
+			for (int i = 0; i != name.size(); ++i) {
+				writeString(name.get(i).get());
+			}
+			out.write_uv(unit.getIndex());
+			Map<Identifier, int[]> symbols = unit.getSymbols();
+			out.write_uv(symbols.size());
+			for (Map.Entry<Identifier, int[]> e : symbols.entrySet()) {
+				int[] indices = e.getValue();
+				writeString(e.getKey().get());
+				out.write_uv(indices.length);
+				for (int i = 0; i != indices.length; ++i) {
+					out.write_uv(indices[i]);
+				}
+			}
+		}
+	}
+
+	private void writeString(String str) throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.write_uv(bytes.length);
+		out.write(bytes);
+	}
 }
@@ -13,12 +13,56 @@
 // limitations under the License.
 package wyil.lang;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import wyil.lang.WyilFile.Decl;
+
 public interface Compiler {
 
 	public interface Check {
 		public boolean check(WyilFile file);
 	}
 
+	/**
+	 * A check which can be applied to each unit of a given file in isolation. In
+	 * particular, applying the check to every unit returned by
+	 * <code>getUnits()</code> (in order) must be equivalent to applying
+	 * <code>check(WyilFile)</code> on the whole file. This allows units to be
+	 * checked in parallel using a fresh instance of the check for each unit.
+	 * Likewise, the check can be applied to individual declarations within a unit
+	 * (e.g. when only some have changed).
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public interface UnitCheck extends Check {
+		/**
+		 * Check a single unit within a given file, or a single declaration within a
+		 * unit.
+		 *
+		 * @param file The enclosing file
+		 * @param decl The unit or declaration to be checked
+		 * @return
+		 */
+		public boolean check(WyilFile file, Decl decl);
+
+		/**
+		 * Get the units which are visited by this check, in the order in which they
+		 * are visited by <code>check(WyilFile)</code>.
+		 *
+		 * @param file
+		 * @return
+		 */
+		public default List<Decl.Unit> getUnits(WyilFile file) {
+			ArrayList<Decl.Unit> units = new ArrayList<>();
+			for (Decl.Unit unit : file.getModule().getUnits()) {
+				units.add(unit);
+			}
+			return units;
+		}
+	}
+
 	public interface Transform {
 		public void apply(WyilFile file);
 	}
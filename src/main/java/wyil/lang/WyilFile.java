@@ -16,6 +16,8 @@ package wyil.lang;
 import java.io.*;
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.*;
 
 import wybs.lang.CompilationUnit;
@@ -43,6 +45,7 @@ import wyil.lang.WyilFile.Decl;
 import wyil.lang.WyilFile.SemanticType;
 import wyil.lang.WyilFile.Template;
 import wyil.lang.WyilFile.Type;
+import wyil.type.util.TypeInterner;
 import wyil.util.AbstractConsumer;
 
 /**
@@ -295,6 +298,331 @@ public class WyilFile extends AbstractCompilationUnit<WyilFile> {
 		setRootItem(getSyntacticItem(root));
 	}
 
+	/**
+	 * Construct a WyilFile whose items are decoded on demand. That is, an item is
+	 * only decoded when it is first accessed, either directly or by traversing
+	 * from its parent.
+	 *
+	 * @param entry
+	 * @param root    Index of the root item
+	 * @param size    Number of items in the heap
+	 * @param decoder Responsible for decoding individual items
+	 */
+	public WyilFile(Entry<WyilFile> entry, int root, int size, Decoder decoder) {
+		super(entry);
+		this.decoder = decoder;
+		for (int i = 0; i != size; ++i) {
+			syntacticItems.add(null);
+		}
+		this.root = root;
+	}
+
+	// =========================================================================
+	// Heap
+	// =========================================================================
+
+	// NOTE: the following methods are synchronised on the heap itself. This is
+	// necessary because compiler checks may be applied to different units of the
+	// same file concurrently (see Compiler.UnitCheck) and, in doing so, they can
+	// allocate new items into the heap.
+
+	/**
+	 * Responsible for decoding individual items of a heap on demand.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public interface Decoder {
+		/**
+		 * Decode the item at a given index. The returned item has no operands set,
+		 * and is paired with the indices of its operands.
+		 *
+		 * @param index
+		 * @return
+		 */
+		public wycc.util.Pair<SyntacticItem, int[]> decode(int index);
+	}
+
+	/**
+	 * Used to decode items on demand, or <code>null</code> if every item in this
+	 * heap has already been decoded.
+	 */
+	private Decoder decoder;
+
+	/**
+	 * Those functions and methods whose bodies have not yet been decoded, mapped
+	 * to the index of their body in the heap.
+	 */
+	private final IdentityHashMap<Decl.FunctionOrMethod, Integer> bodies = new IdentityHashMap<>();
+
+	/**
+	 * Maps each item decoded on demand to those decoded items which have it as an
+	 * operand (excluding references). This allows the ancestors of a decoded item
+	 * to be found without scanning the entire heap.
+	 */
+	private final IdentityHashMap<SyntacticItem, List<SyntacticItem>> parents = new IdentityHashMap<>();
+
+	@Override
+	public synchronized int size() {
+		return super.size();
+	}
+
+	@Override
+	public synchronized SyntacticItem getSyntacticItem(int index) {
+		SyntacticItem item = super.getSyntacticItem(index);
+		if (item == null && decoder != null) {
+			wycc.util.Pair<SyntacticItem, int[]> p = decoder.decode(index);
+			int[] operands = p.second();
+			item = p.first();
+			// NOTE: item must be in place before its operands are decoded, as items
+			// may be cyclic.
+			syntacticItems.set(index, item);
+			item.allocate(this, index);
+			for (int i = 0; i != operands.length; ++i) {
+				if (item instanceof Decl.FunctionOrMethod && i == Decl.FunctionOrMethod.BODY) {
+					// NOTE: the body of a function or method is not needed to resolve names
+					// or check types against its signature. Hence, it is only decoded when
+					// first accessed.
+					Decl.FunctionOrMethod fm = (Decl.FunctionOrMethod) item;
+					bodies.put(fm, operands[i]);
+					fm.deferred = true;
+				} else {
+					SyntacticItem operand = getSyntacticItem(operands[i]);
+					item.setOperand(i, operand);
+					addParent(item, operand);
+				}
+			}
+		}
+		return item;
+	}
+
+	/**
+	 * Record that a given item decoded on demand is a parent of a given operand.
+	 *
+	 * @param parent
+	 * @param child
+	 */
+	private void addParent(SyntacticItem parent, SyntacticItem child) {
+		if (child != null && !(parent instanceof Ref)) {
+			parents.computeIfAbsent(child, k -> new ArrayList<>(1)).add(parent);
+		}
+	}
+
+	/**
+	 * Check whether the item at a given index has been decoded yet. Observe that
+	 * this is always true for a heap which was not read on demand.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public synchronized boolean isDecoded(int index) {
+		return super.getSyntacticItem(index) != null;
+	}
+
+	/**
+	 * Decode the body of a given function or method, if this has not already been
+	 * done.
+	 *
+	 * @param fm
+	 */
+	private synchronized void decodeBody(Decl.FunctionOrMethod fm) {
+		Integer index = bodies.remove(fm);
+		if (index != null) {
+			SyntacticItem body = getSyntacticItem(index);
+			fm.setOperand(Decl.FunctionOrMethod.BODY, body);
+			fm.deferred = false;
+			addParent(fm, body);
+		}
+	}
+
+	/**
+	 * Ensure every item in this heap has been decoded, including all function and
+	 * method bodies. This is necessary for any operation which must scan the
+	 * entire heap.
+	 */
+	private void decodeAll() {
+		if (decoder != null) {
+			for (int i = 0; i != syntacticItems.size(); ++i) {
+				getSyntacticItem(i);
+			}
+			for (Decl.FunctionOrMethod fm : new ArrayList<>(bodies.keySet())) {
+				decodeBody(fm);
+			}
+			decoder = null;
+			parents.clear();
+		}
+	}
+
+	@Override
+	public synchronized int getIndexOf(SyntacticItem item) {
+		return super.getIndexOf(item);
+	}
+
+	@Override
+	public synchronized <T extends SyntacticItem> List<T> getSyntacticItems(Class<T> kind) {
+		decodeAll();
+		return super.getSyntacticItems(kind);
+	}
+
+	@Override
+	public synchronized <T extends SyntacticItem> T getParent(SyntacticItem child, Class<T> kind) {
+		if (decoder != null) {
+			// NOTE: a parent is typically decoded before its operands. Therefore, look
+			// amongst the decoded items first and only decode the entire heap when this
+			// fails.
+			for (SyntacticItem parent : parents.getOrDefault(child, Collections.emptyList())) {
+				if (kind.isInstance(parent)) {
+					return kind.cast(parent);
+				}
+			}
+		}
+		decodeAll();
+		return super.getParent(child, kind);
+	}
+
+	@Override
+	public synchronized <T extends SyntacticItem> List<T> getParents(SyntacticItem child, Class<T> kind) {
+		decodeAll();
+		return super.getParents(child, kind);
+	}
+
+	@Override
+	public synchronized <T extends SyntacticItem> T getAncestor(SyntacticItem child, Class<T> kind) {
+		if (decoder != null) {
+			// NOTE: the enclosing declarations of a decoded item are typically decoded
+			// as well (e.g. a declaration is decoded along with its enclosing unit).
+			// Therefore, look amongst the decoded items first and only decode the
+			// entire heap when this fails.
+			T ancestor = getDecodedAncestor(child, kind, Collections.newSetFromMap(new IdentityHashMap<>()));
+			if (ancestor != null) {
+				return ancestor;
+			}
+		}
+		decodeAll();
+		return super.getAncestor(child, kind);
+	}
+
+	/**
+	 * Find an ancestor of a given kind for a given item, considering only those
+	 * items which have already been decoded. In particular, this does not force
+	 * the decoding of any function or method body.
+	 *
+	 * @param child
+	 * @param kind
+	 * @param visited Those items already considered, since items may be cyclic.
+	 * @return
+	 */
+	private <T extends SyntacticItem> T getDecodedAncestor(SyntacticItem child, Class<T> kind,
+			Set<SyntacticItem> visited) {
+		if (kind.isInstance(child)) {
+			return kind.cast(child);
+		} else if (visited.add(child)) {
+			for (SyntacticItem parent : parents.getOrDefault(child, Collections.emptyList())) {
+				T ancestor = getDecodedAncestor(parent, kind, visited);
+				if (ancestor != null) {
+					return ancestor;
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public synchronized <T extends SyntacticItem> T allocate(T item) {
+		// NOTE: new items are appended after those read from disk and, hence, do not
+		// interfere with those yet to be decoded.
+		return super.allocate(item);
+	}
+
+	// =========================================================================
+	// Instantiation
+	// =========================================================================
+
+	/**
+	 * Caches the instantiations of generic types declared in this heap. This is
+	 * replaced at the start of each build, since names may then be resolved
+	 * differently.
+	 */
+	private volatile Type.Nominal.Instantiations instantiations = new Type.Nominal.Instantiations(
+			Type.Nominal.CACHE_SIZE);
+
+	public Type.Nominal.Instantiations getInstantiations() {
+		return instantiations;
+	}
+
+	public void setInstantiations(Type.Nominal.Instantiations instantiations) {
+		this.instantiations = instantiations;
+	}
+
+	// =========================================================================
+	// Interning
+	// =========================================================================
+
+	/**
+	 * The pool of interned identifiers and names in this heap. Each maps to
+	 * itself. Observe that only identifiers and names copied into this heap from
+	 * other modules (i.e. by name resolution) are interned. Those created by the
+	 * parser are not, since each is the target of its own source span. Thus,
+	 * lookups keyed on parsed identifiers still compare them by content.
+	 */
+	private final HashMap<SyntacticItem, SyntacticItem> pool = new HashMap<>();
+
+	/**
+	 * The pool of interned qualified names for this heap. Each maps to itself.
+	 * This includes the qualified name of every declaration which has been
+	 * asked for one (see <code>Decl.Named.getQualifiedName()</code>).
+	 */
+	private final HashMap<QualifiedName, QualifiedName> qualifiedNames = new HashMap<>();
+
+	/**
+	 * Get the canonical instance of a given identifier or name in this heap,
+	 * allocating it if necessary. Thus, all interned items which are equal are
+	 * the same item and, hence, can be compared by reference. Observe that items
+	 * which are the target of an attribute (e.g. a source span) should not be
+	 * interned, as they will then be shared.
+	 *
+	 * @param item
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T extends SyntacticItem> T intern(T item) {
+		if (!(item instanceof Identifier || item instanceof Name)) {
+			throw new IllegalArgumentException("cannot intern " + item.getClass().getName());
+		} else if (item.getHeap() == this && pool.get(item) == item) {
+			// Already interned
+			return item;
+		}
+		// Intern components first, so they can be compared by reference.
+		SyntacticItem[] operands = new SyntacticItem[item.size()];
+		for (int i = 0; i != operands.length; ++i) {
+			operands[i] = intern(item.get(i));
+		}
+		SyntacticItem key = item.clone(operands);
+		SyntacticItem r = pool.get(key);
+		if (r == null) {
+			r = allocate(key);
+			pool.put(r, r);
+		}
+		return (T) r;
+	}
+
+	/**
+	 * Get the canonical instance of a given qualified name for this heap. Thus, all
+	 * interned qualified names which are equal are the same object and, hence,
+	 * comparisons in e.g. a <code>HashMap</code> reduce to a reference check.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public synchronized QualifiedName intern(QualifiedName name) {
+		QualifiedName r = qualifiedNames.get(name);
+		if (r == null) {
+			r = name;
+			qualifiedNames.put(r, r);
+		}
+		return r;
+	}
+
 	// =========================================================================
 	// Accessors
 	// =========================================================================
@@ -338,6 +666,7 @@ public class WyilFile extends AbstractCompilationUnit<WyilFile> {
 	public static class QualifiedName {
 		private final Name unit;
 		private final Identifier name;
+		private final int hash;
 
 		public QualifiedName(Tuple<Identifier> path, Identifier name) {
 			this(path.toArray(Identifier.class), name);
@@ -350,20 +679,24 @@ public class WyilFile extends AbstractCompilationUnit<WyilFile> {
 		public QualifiedName(Name unit, Identifier name) {
 			this.unit = unit;
 			this.name = name;
+			this.hash = unit.hashCode() ^ name.hashCode();
 		}
 
 		@Override
 		public boolean equals(Object o) {
-			if (o instanceof QualifiedName) {
+			if (o == this) {
+				return true;
+			} else if (o instanceof QualifiedName) {
 				QualifiedName n = (QualifiedName) o;
-				return unit.equals(n.unit) && name.equals(n.name);
+				return hash == n.hash && (unit == n.unit || unit.equals(n.unit))
+						&& (name == n.name || name.equals(n.name));
 			}
 			return false;
 		}
 
 		@Override
 		public int hashCode() {
-			return unit.hashCode() ^ name.hashCode();
+			return hash;
 		}
 
 		public Name getUnit() {
@@ -620,6 +953,12 @@ public class WyilFile extends AbstractCompilationUnit<WyilFile> {
 		 */
 		public static abstract class Named<T extends WyilFile.Type> extends AbstractSyntacticItem implements Decl {
 
+			/**
+			 * The (interned) qualified name of this declaration, or <code>null</code> if
+			 * not yet determined.
+			 */
+			private QualifiedName qualifiedName;
+
 			public Named(int opcode, Tuple<Modifier> modifiers, Identifier name, SyntacticItem... rest) {
 				super(opcode, ArrayUtils.append(new SyntacticItem[] { modifiers, name }, rest));
 			}
@@ -634,9 +973,20 @@ public class WyilFile extends AbstractCompilationUnit<WyilFile> {
 			}
 
 			public QualifiedName getQualifiedName() {
-				// FIXME: this is completely broken.
-				Unit module = getAncestor(Decl.Unit.class);
-				return new QualifiedName(module.getName(), getName());
+				QualifiedName r = qualifiedName;
+				if (r == null) {
+					// FIXME: this is completely broken.
+					Unit module = getAncestor(Decl.Unit.class);
+					r = new QualifiedName(module.getName(), getName());
+					if (getHeap() instanceof WyilFile) {
+						// Cache the interned name, since finding the enclosing unit is expensive.
+						// NOTE: the enclosing unit's name cannot change, even if the unit itself
+						// is replaced (e.g. during consolidation).
+						r = ((WyilFile) getHeap()).intern(r);
+						qualifiedName = r;
+					}
+				}
+				return r;
 			}
 
 			public Tuple<Template.Variable> getTemplate() {
@@ -719,6 +1069,16 @@ public class WyilFile extends AbstractCompilationUnit<WyilFile> {
 		 * @see Callable
 		 */
 		public static abstract class FunctionOrMethod extends Callable {
+			/**
+			 * The operand position of the body.
+			 */
+			static final int BODY = 7;
+
+			/**
+			 * Indicates that the body has not yet been decoded. This only arises for a
+			 * heap read on demand (see <code>WyilFile.Decoder</code>).
+			 */
+			private volatile boolean deferred;
 
 			public FunctionOrMethod(int opcode, Tuple<Modifier> modifiers, Identifier name,
 					Tuple<Template.Variable> template, Tuple<Decl.Variable> parameters, Tuple<Decl.Variable> returns,
@@ -738,7 +1098,38 @@ public class WyilFile extends AbstractCompilationUnit<WyilFile> {
 			}
 
 			public Stmt.Block getBody() {
-				return (Stmt.Block) get(7);
+				return (Stmt.Block) get(BODY);
+			}
+
+			@Override
+			public SyntacticItem get(int i) {
+				if (i == BODY && deferred) {
+					((WyilFile) getHeap()).decodeBody(this);
+				}
+				return super.get(i);
+			}
+
+			@Override
+			public SyntacticItem[] getAll() {
+				if (deferred) {
+					((WyilFile) getHeap()).decodeBody(this);
+				}
+				return super.getAll();
+			}
+
+			@Override
+			public int hashCode() {
+				get(BODY);
+				return super.hashCode();
+			}
+
+			@Override
+			public boolean equals(Object o) {
+				if (o instanceof FunctionOrMethod) {
+					get(BODY);
+					((FunctionOrMethod) o).get(BODY);
+				}
+				return super.equals(o);
 			}
 		}
 
@@ -1244,6 +1635,18 @@ public class WyilFile extends AbstractCompilationUnit<WyilFile> {
 				super(DECL_link,name);
 			}
 
+			/**
+			 * Construct a link which is already resolved to a given target. Unlike
+			 * <code>resolve()</code>, this does not require the link to be allocated
+			 * in a heap.
+			 *
+			 * @param name
+			 * @param target
+			 */
+			public Link(Name name, T target) {
+				super(DECL_link, name, new Ref<>(target));
+			}
+
 			private Link(int opcode, SyntacticItem... operands) {
 				super(opcode, operands);
 			}
@@ -4606,6 +5009,11 @@ public class WyilFile extends AbstractCompilationUnit<WyilFile> {
 		 * @return
 		 */
 		public static class Nominal extends AbstractSemanticType implements Type, Linkable {
+			/**
+			 * The default maximum number of instantiated generic types held in a
+			 * cache.
+			 */
+			public static final int CACHE_SIZE = 4096;
 
 			public Nominal(Decl.Link<Decl.Type> name, Tuple<Type> parameters) {
 				super(TYPE_nominal, name, parameters);
@@ -4627,6 +5035,12 @@ public class WyilFile extends AbstractCompilationUnit<WyilFile> {
 				Type type = decl.getType();
 				//
 				if (template.size() > 0) {
+					// NOTE: the link is always allocated in the heap which the nominal
+					// type came from, even if the nominal type itself is not.
+					SyntacticHeap heap = getLink().getHeap();
+					if (heap instanceof WyilFile) {
+						return ((WyilFile) heap).getInstantiations().get(decl, arguments);
+					}
 					type = type.substitute(bindingFunction(template,arguments));
 				}
 				//
@@ -4664,6 +5078,130 @@ public class WyilFile extends AbstractCompilationUnit<WyilFile> {
 			public String toCanonicalString() {
 				return getLink().getTarget().getQualifiedName().toString();
 			}
+
+			/**
+			 * <p>
+			 * A bounded cache of instantiated generic types, keyed on their declaration
+			 * and the interned identifiers of their type arguments. Each heap has its
+			 * own cache which is replaced at the start of every build (see
+			 * <code>WyilFile.setInstantiations()</code>), since the declarations and
+			 * the identifiers recorded here are only valid whilst names remain
+			 * resolved as they are. Once full, an arbitrary entry is evicted for each
+			 * new entry.
+			 * </p>
+			 * <p>
+			 * Instantiated types are shared between callers and, hence, only those not
+			 * allocated in any heap are cached. Should a caller subsequently allocate
+			 * one, it is dropped from the cache the next time it is found.
+			 * </p>
+			 *
+			 * @author David J. Pearce
+			 *
+			 */
+			public static final class Instantiations {
+				private final int capacity;
+				/**
+				 * Assigns canonical identifiers to type arguments.
+				 */
+				private final TypeInterner interner = new TypeInterner();
+				private final ConcurrentHashMap<Instance, Type> types = new ConcurrentHashMap<>();
+				/**
+				 * Number of cache lookups which hit (resp. missed).
+				 */
+				private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+				public Instantiations(int capacity) {
+					this.capacity = capacity;
+				}
+
+				/**
+				 * Get the type of a given generic declaration instantiated with some
+				 * given type arguments.
+				 *
+				 * @param decl
+				 * @param arguments
+				 * @return
+				 */
+				public Type get(Decl.Type decl, Tuple<Type> arguments) {
+					int[] ids = new int[arguments.size()];
+					for (int i = 0; i != ids.length; ++i) {
+						ids[i] = interner.getId(arguments.get(i));
+					}
+					Instance key = new Instance(decl, ids);
+					Type type = types.get(key);
+					if (type != null) {
+						if (type.getHeap() == null) {
+							hits.incrementAndGet();
+							return type;
+						}
+						types.remove(key, type);
+					}
+					misses.incrementAndGet();
+					type = decl.getType().substitute(bindingFunction(decl.getTemplate(), arguments));
+					if (type.getHeap() == null && capacity > 0) {
+						if (types.size() >= capacity) {
+							Iterator<Instance> i = types.keySet().iterator();
+							if (i.hasNext()) {
+								i.next();
+								i.remove();
+							}
+						}
+						types.put(key, type);
+					}
+					return type;
+				}
+
+				public long getCacheHits() {
+					return hits.get();
+				}
+
+				public long getCacheMisses() {
+					return misses.get();
+				}
+
+				/**
+				 * Get the number of instantiated types held in this cache.
+				 *
+				 * @return
+				 */
+				public int size() {
+					return types.size();
+				}
+			}
+
+			/**
+			 * Identifies a given instantiation of a generic type. Declarations are
+			 * compared by reference, whilst type arguments are compared by their
+			 * interned identifiers.
+			 *
+			 * @author David J. Pearce
+			 *
+			 */
+			private static final class Instance {
+				private final Decl.Type declaration;
+				private final int[] arguments;
+				private final int hash;
+
+				public Instance(Decl.Type declaration, int[] arguments) {
+					this.declaration = declaration;
+					this.arguments = arguments;
+					this.hash = System.identityHashCode(declaration) ^ Arrays.hashCode(arguments);
+				}
+
+				@Override
+				public boolean equals(Object o) {
+					if (o instanceof Instance) {
+						Instance i = (Instance) o;
+						return declaration == i.declaration && Arrays.equals(arguments, i.arguments);
+					}
+					return false;
+				}
+
+				@Override
+				public int hashCode() {
+					return hash;
+				}
+			}
 		}
 
 		/**
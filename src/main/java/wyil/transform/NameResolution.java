@@ -25,6 +25,9 @@ import wycc.util.ArrayUtils;
 import wyfs.lang.Content;
 import wyfs.lang.Path;
 
+import wyil.io.SymbolDirectory;
+import wyil.io.WyilFileCache;
+import wyil.io.WyilFileReader;
 import wyil.lang.WyilFile;
 import static wyil.lang.WyilFile.*;
 
@@ -32,6 +35,7 @@ import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import wyil.lang.WyilFile.Decl;
 import wyil.lang.WyilFile.Expr;
@@ -84,11 +88,22 @@ public class NameResolution {
 
 	private final Build.Project project;
 
+	/**
+	 * Cache used for reading external dependencies, or <code>null</code> if they
+	 * should always be read from scratch.
+	 */
+	private final WyilFileCache cache;
+
 	private boolean status = true;
 
 	public NameResolution(Build.Project project, WyilFile target) throws IOException {
+		this(project, target, null);
+	}
+
+	public NameResolution(Build.Project project, WyilFile target, WyilFileCache cache) throws IOException {
 		this.project = project;
 		this.target = target;
+		this.cache = cache;
 		this.symbolTable = new SymbolTable(target,getExternals());
 		this.resolver = new Resolver();
 	}
@@ -99,9 +114,22 @@ public class NameResolution {
 	 * @param wf
 	 */
 	public boolean apply() {
-		// FIXME: need to make this incremental
+		return apply(null);
+	}
+
+	/**
+	 * Apply this name resolver to a given set of declarations in the WyilFile. All
+	 * other declarations are assumed to have been resolved already (e.g. during a
+	 * previous compilation) and are not touched. This is used for incremental
+	 * compilation where only declarations affected by a change are resolved again.
+	 *
+	 * @param declarations The set of declarations to resolve, or
+	 *                     <code>null</code> to resolve all declarations.
+	 * @return
+	 */
+	public boolean apply(Set<Decl> declarations) {
 		// Create initial set of patches.
-		List<Patch> patches = resolver.apply(target);
+		List<Patch> patches = resolver.apply(target, declarations);
 		// Keep iterating until all patches are resolved
 		while (patches.size() > 0) {
 			// Create importer
@@ -125,8 +153,8 @@ public class NameResolution {
 	 * amounts to loading in every WyilFile contained within an external package
 	 * dependency.
 	 */
-	private List<WyilFile> getExternals() throws IOException {
-		ArrayList<WyilFile> externals = new ArrayList<>();
+	private List<SymbolDirectory> getExternals() throws IOException {
+		ArrayList<SymbolDirectory> externals = new ArrayList<>();
 		List<Build.Package> pkgs = project.getPackages();
 		// Consider each package in turn and identify all contained WyilFiles
 		for (int i = 0; i != pkgs.size(); ++i) {
@@ -135,7 +163,18 @@ public class NameResolution {
 			// figure out what modules are supplied via the configuration.
 			List<Path.Entry<WyilFile>> entries = p.getRoot().get(Content.filter("**/*", WyilFile.ContentType));
 			for (int j = 0; j != entries.size(); ++j) {
-				externals.add(entries.get(j).read());
+				Path.Entry<WyilFile> entry = entries.get(j);
+				// NOTE: only the symbol directory is decoded here, with the file itself being
+				// decoded only when one of its symbols is imported. Even then, only the units
+				// containing imported declarations are decoded and, furthermore, function
+				// and method bodies are never decoded (since only stubs are imported). When
+				// a cache is available, neither is read again unless the entry has changed.
+				if (cache != null) {
+					externals.add(cache.readDirectory(entry));
+				} else {
+					WyilFileReader reader = WyilFileReader.load(entry);
+					externals.add(reader.readDirectory().setLoader(e -> reader.read()));
+				}
 			}
 		}
 		return externals;
@@ -160,7 +199,14 @@ public class NameResolution {
 		 */
 		private ArrayList<Patch> patches = new ArrayList<>();
 
-		public List<Patch> apply(WyilFile module) {
+		/**
+		 * The set of declarations to be resolved, where <code>null</code> indicates
+		 * all declarations.
+		 */
+		private Set<Decl> declarations;
+
+		public List<Patch> apply(WyilFile module, Set<Decl> declarations) {
+			this.declarations = declarations;
 			super.visitModule(module, null);
 			return patches;
 		}
@@ -168,7 +214,14 @@ public class NameResolution {
 		@Override
 		public void visitUnit(Decl.Unit unit, List<Decl.Import> unused) {
 			// Create an initially empty list of import statements.
-			super.visitUnit(unit, new ArrayList<>());
+			ArrayList<Decl.Import> imports = new ArrayList<>();
+			//
+			for (Decl decl : unit.getDeclarations()) {
+				// NOTE: imports are always visited as they determine the visible names.
+				if (declarations == null || decl instanceof Decl.Import || declarations.contains(decl)) {
+					visitDeclaration(decl, imports);
+				}
+			}
 		}
 
 		@Override
@@ -542,6 +595,17 @@ public class NameResolution {
 		public SyntacticItem allocate(SyntacticItem item) {
 
 			switch (item.getOpcode()) {
+			case ITEM_ident:
+			case ITEM_name:
+				if (item.getHeap() != heap && heap instanceof WyilFile) {
+					// Names imported from another module are never the target of attributes
+					// (e.g. source spans) and, hence, can be shared.
+					SyntacticItem interned = ((WyilFile) heap).intern(item);
+					map.put(item, interned);
+					return interned;
+				} else {
+					return super.allocate(item);
+				}
 			case ITEM_ref:
 				Ref<?> ref = (Ref<?>) item;
 				SyntacticItem referent = ref.get();
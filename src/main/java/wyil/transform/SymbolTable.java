@@ -24,7 +24,6 @@
  */
 package wyil.transform;
 
-import static wyil.lang.WyilFile.Modifier;
 import static wyil.lang.WyilFile.Name;
 
 import java.util.ArrayList;
@@ -36,6 +35,7 @@ import java.util.Map;
 
 import wybs.util.AbstractCompilationUnit.Identifier;
 import wybs.util.AbstractCompilationUnit.Tuple;
+import wyil.io.SymbolDirectory;
 import wyil.lang.WyilFile;
 import wyil.lang.WyilFile.Decl;
 import wyil.lang.WyilFile.Decl.Named;
@@ -71,9 +71,11 @@ public class SymbolTable {
 	 * dependencies.
 	 *
 	 * @param target
-	 * @param deps
+	 * @param deps   Directories of the symbols available in each dependency.
+	 *               Dependencies are only read when one of their symbols is
+	 *               actually required.
 	 */
-	public SymbolTable(WyilFile target, List<WyilFile> deps) {
+	public SymbolTable(WyilFile target, List<SymbolDirectory> deps) {
 		this.target = target;
 		//
 		Decl.Module module = target.getModule();
@@ -83,8 +85,7 @@ public class SymbolTable {
 		}
 		// Register all external symbols
 		for(int i=0;i!=deps.size();++i) {
-			Decl.Module dep = deps.get(i).getModule();
-			for (Decl.Unit unit : dep.getUnits()) {
+			for (SymbolDirectory.Unit unit : deps.get(i).getUnits()) {
 				symbolTable.put(unit.getName(), new ExternalGroup(unit));
 			}
 		}
@@ -294,9 +295,10 @@ public class SymbolTable {
 
 	public class ExternalGroup extends AbstractGroup<ExternalEntry> {
 		/**
-		 * The external declaration that this group is associated with.
+		 * The external unit that this group is associated with. Declarations from
+		 * this are only read when they are actually required.
 		 */
-		private final Decl.Unit external;
+		private final SymbolDirectory.Unit external;
 		/**
 		 * The available declaration representing this group in the target. This may be
 		 * null if the unit has not yet been imported.
@@ -308,18 +310,25 @@ public class SymbolTable {
 		 *
 		 * @param unit
 		 */
-		public ExternalGroup(Decl.Unit unit) {
+		public ExternalGroup(SymbolDirectory.Unit unit) {
 			this.external = unit;
-			//
-			for(Decl d : unit.getDeclarations()) {
-				if(d instanceof Decl.Named) {
-					Decl.Named n = (Decl.Named) d;
-					// Add public members only
-					if(isPublic(n)) {
-						get(n.getName()).addExternal(n);
-					}
+			// Register public members only (as only these are in the directory)
+			for (Identifier name : unit.getSymbols().keySet()) {
+				get(name);
+			}
+		}
+
+		@Override
+		public List<Named> getRegisteredDeclarations(Identifier name) {
+			ExternalEntry entry = entries.get(name);
+			if (!entry.isLoaded()) {
+				// Read the external declarations for this symbol on demand
+				for (Decl.Named<?> decl : external.getDeclarations(name)) {
+					entry.addExternal(decl);
 				}
+				entry.loaded = true;
 			}
+			return entry.getDeclarations();
 		}
 
 		/**
@@ -363,7 +372,7 @@ public class SymbolTable {
 			return available;
 		}
 
-		private Entry get(Identifier name) {
+		private ExternalEntry get(Identifier name) {
 			SymbolTable.ExternalEntry r = entries.get(name);
 			//
 			if (r == null) {
@@ -372,16 +381,6 @@ public class SymbolTable {
 			}
 			return r;
 		}
-
-		/**
-		 * Check whether named declaration is public or not.
-		 *
-		 * @param decl
-		 * @return
-		 */
-		private boolean isPublic(Decl.Named decl) {
-			return decl.getModifiers().match(Modifier.Public.class) != null;
-		}
 	}
 
 
@@ -492,11 +491,20 @@ public class SymbolTable {
 		 */
 		private final ArrayList<Decl.Named> externals = new ArrayList<>();
 
+		/**
+		 * Indicates whether or not the external declarations have been read yet.
+		 */
+		private boolean loaded;
+
 		@Override
 		public boolean isAvailable() {
 			return availables.size() > 0;
 		}
 
+		public boolean isLoaded() {
+			return loaded;
+		}
+
 		@Override
 		public List<Named> getAvailable() {
 			return availables;
@@ -30,7 +30,13 @@ import static wyil.lang.WyilFile.TYPE_staticreference;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.function.Function;
 
 import wybs.lang.SyntacticItem;
@@ -50,12 +56,33 @@ public class RelaxedTypeResolver implements TypeResolver {
 	private final SubtypeOperator subtypeOperator;
 	private final ConcreteTypeExtractor concreteTypeExtractor;
 	private final ReadWriteTypeExtractor rwTypeExtractor;
+	/**
+	 * Records the outcome of previous overload resolutions.
+	 */
+	private final Cache cache;
 
 	public RelaxedTypeResolver(SubtypeOperator subtypeOperator, ConcreteTypeExtractor concreteTypeExtractor,
 			ReadWriteTypeExtractor rwTypeExtractor) {
+		this(subtypeOperator, concreteTypeExtractor, rwTypeExtractor, new Cache());
+	}
+
+	/**
+	 * Construct a resolver which shares a given cache of overload resolutions. This
+	 * allows e.g. every unit in a module to benefit from the resolutions of the
+	 * others. Observe that all resolvers sharing a cache must employ equivalent
+	 * subtype operators.
+	 *
+	 * @param subtypeOperator
+	 * @param concreteTypeExtractor
+	 * @param rwTypeExtractor
+	 * @param cache
+	 */
+	public RelaxedTypeResolver(SubtypeOperator subtypeOperator, ConcreteTypeExtractor concreteTypeExtractor,
+			ReadWriteTypeExtractor rwTypeExtractor, Cache cache) {
 		this.subtypeOperator = subtypeOperator;
 		this.concreteTypeExtractor = concreteTypeExtractor;
 		this.rwTypeExtractor = rwTypeExtractor;
+		this.cache = cache;
 	}
 
 	/**
@@ -92,22 +119,57 @@ public class RelaxedTypeResolver implements TypeResolver {
 		Decl.Link<Decl.Callable> link = binding.getLink();
 		List<Decl.Callable> candidates = link.getCandidates();
 		Tuple<SyntacticItem> templateArguments = binding.getArguments();
+		// Check whether this resolution has been performed before
+		Cache.Key key = new Cache.Key(candidates, templateArguments, types, environment);
+		Cache.Entry entry = cache.get(key);
+		Binding selected;
+		long start = System.nanoTime();
+		if (entry == null) {
+			selected = bind(link.getName(), candidates, types, templateArguments, environment);
+			Decl.Callable candidate = selected == null ? null : selected.getCandidateDeclaration();
+			cache.put(key, new Cache.Entry(candidate, System.nanoTime() - start));
+		} else if (entry.candidate != null) {
+			// NOTE: only the selected candidate is reused, and this is bound again
+			// against the given arguments. This ensures the inferred arguments and
+			// concrete type are not shared with any other invocation.
+			selected = bind(link.getName(), Collections.singletonList(entry.candidate), types, templateArguments,
+					environment);
+			cache.reuse(entry, System.nanoTime() - start);
+		} else {
+			selected = null;
+		}
+		// Check whether one was selected or not
+		if (selected != null) {
+			// Assign descriptor to this expression
+			link.resolve(selected.getCandidateDeclaration());
+			// Set inferred lifetime parameters as well
+			binding.setArguments(link.getHeap().allocate(selected.getArguments()));
+			//
+			return selected.getConcreteType();
+		}
+		return null;
+	}
+
+	/**
+	 * Select the most precise candidate declaration for a given set of argument
+	 * types, or <code>null</code> if no single candidate is most precise.
+	 *
+	 * @param name
+	 * @param candidates
+	 * @param types
+	 * @param templateArguments
+	 * @param environment
+	 * @return
+	 */
+	private Binding bind(Name name, List<Decl.Callable> candidates, Tuple<? extends SemanticType> types,
+			Tuple<SyntacticItem> templateArguments, LifetimeRelation environment) {
 		// Bind candidate types to given argument types which, in particular, will
 		// produce bindings for template variables
 		List<Binding> bindings = bindCallableCandidates(candidates, types, templateArguments, environment);
 		// Sanity check bindings generated
 		if (!bindings.isEmpty()) {
 			// Select the most precise signature from the candidate bindings
-			Binding selected = selectCallableCandidate(link.getName(), bindings, environment);
-			// Check whether one was selected or not
-			if(selected != null) {
-				// Assign descriptor to this expression
-				link.resolve(selected.getCandidateDeclaration());
-				// Set inferred lifetime parameters as well
-				binding.setArguments(link.getHeap().allocate(selected.getArguments()));
-				//
-				return selected.getConcreteType();
-			}
+			return selectCallableCandidate(name, bindings, environment);
 		}
 		return null;
 	}
@@ -813,4 +875,176 @@ public class RelaxedTypeResolver implements TypeResolver {
 			return "{" + r + "}:" + candidate.getType();
 		}
 	}
+
+	/**
+	 * <p>
+	 * A cache of overload resolutions. The same callee is typically invoked with
+	 * the same argument types over and over again (e.g. helpers from the standard
+	 * library). In such cases, the outcome of resolution is the same and can be
+	 * reused. Resolutions are keyed on the set of candidate declarations (compared
+	 * by reference), along with the explicit template arguments and argument types
+	 * (compared structurally) and the fingerprint of the lifetime relation in
+	 * effect.
+	 * </p>
+	 * <p>
+	 * Only the selected candidate is recorded, rather than its binding. When a
+	 * resolution is reused, the selected candidate alone is bound against the
+	 * arguments again. This is much cheaper than considering every candidate and
+	 * ensures no invocations share inferred arguments or concrete types.
+	 * </p>
+	 * <p>
+	 * The cache is bounded, with the least recently used entries being evicted
+	 * first. It may be shared between resolvers operating concurrently. To
+	 * quantify its effectiveness, the time taken to perform each resolution is
+	 * recorded. Whenever that resolution is subsequently reused, the time it took
+	 * less the time taken to bind the selected candidate again is accumulated.
+	 * </p>
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static class Cache {
+		/**
+		 * The default maximum number of entries held in the cache.
+		 */
+		public static final int DEFAULT_CACHE_SIZE = 4096;
+
+		private final LinkedHashMap<Key, Entry> entries;
+
+		/**
+		 * Number of cache lookups which hit (resp. missed).
+		 */
+		private long hits, misses;
+
+		/**
+		 * Total time (in nanoseconds) spent resolving, and saved by reusing
+		 * resolutions.
+		 */
+		private long spent, saved;
+
+		public Cache() {
+			this(DEFAULT_CACHE_SIZE);
+		}
+
+		public Cache(final int cacheSize) {
+			this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+					return size() > cacheSize;
+				}
+			};
+		}
+
+		public synchronized long getCacheHits() {
+			return hits;
+		}
+
+		public synchronized long getCacheMisses() {
+			return misses;
+		}
+
+		/**
+		 * Get the total time (in nanoseconds) spent performing resolutions which
+		 * were not in the cache.
+		 *
+		 * @return
+		 */
+		public synchronized long getTimeSpent() {
+			return spent;
+		}
+
+		/**
+		 * Get the total time (in nanoseconds) saved by reusing resolutions. This is
+		 * estimated from the time originally taken to perform each resolution reused,
+		 * less that taken to bind its selected candidate again.
+		 *
+		 * @return
+		 */
+		public synchronized long getTimeSaved() {
+			return saved;
+		}
+
+		private synchronized Entry get(Key key) {
+			Entry e = entries.get(key);
+			if (e != null) {
+				hits++;
+			} else {
+				misses++;
+			}
+			return e;
+		}
+
+		/**
+		 * Record that a given resolution was reused, where binding its selected
+		 * candidate again took a given time (in nanoseconds).
+		 *
+		 * @param entry
+		 * @param time
+		 */
+		private synchronized void reuse(Entry entry, long time) {
+			saved += Math.max(0, entry.time - time);
+		}
+
+		private synchronized void put(Key key, Entry entry) {
+			spent += entry.time;
+			entries.put(key, entry);
+		}
+
+		private static final class Entry {
+			/**
+			 * The selected candidate, or <code>null</code> if resolution failed.
+			 */
+			private final Decl.Callable candidate;
+			/**
+			 * The time taken (in nanoseconds) to perform this resolution.
+			 */
+			private final long time;
+
+			public Entry(Decl.Callable candidate, long time) {
+				this.candidate = candidate;
+				this.time = time;
+			}
+		}
+
+		private static final class Key {
+			private final Set<Decl.Callable> candidates;
+			private final SyntacticItem[] templateArguments;
+			private final SemanticType[] arguments;
+			private final Object lifetimes;
+			private final int hash;
+
+			public Key(List<Decl.Callable> candidates, Tuple<SyntacticItem> templateArguments,
+					Tuple<? extends SemanticType> arguments, LifetimeRelation lifetimes) {
+				this.candidates = Collections.newSetFromMap(new IdentityHashMap<>());
+				this.candidates.addAll(candidates);
+				this.templateArguments = templateArguments.toArray(SyntacticItem.class);
+				this.arguments = arguments.toArray(SemanticType.class);
+				// NOTE: lifetimes may be null when no lifetimes are involved
+				this.lifetimes = lifetimes == null ? null : lifetimes.getFingerprint();
+				int h = Arrays.hashCode(this.templateArguments) ^ (31 * Arrays.hashCode(this.arguments))
+						^ Objects.hashCode(this.lifetimes);
+				// NOTE: the hash must not depend on the order of candidates
+				for (Decl.Callable candidate : this.candidates) {
+					h += System.identityHashCode(candidate);
+				}
+				this.hash = h;
+			}
+
+			@Override
+			public boolean equals(Object o) {
+				if (o instanceof Key) {
+					Key k = (Key) o;
+					// NOTE: both sets compare candidates by reference
+					return candidates.equals(k.candidates) && Arrays.equals(templateArguments, k.templateArguments)
+							&& Arrays.equals(arguments, k.arguments) && Objects.equals(lifetimes, k.lifetimes);
+				}
+				return false;
+			}
+
+			@Override
+			public int hashCode() {
+				return hash;
+			}
+		}
+	}
 }
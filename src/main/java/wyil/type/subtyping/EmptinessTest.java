@@ -118,5 +118,17 @@ public interface EmptinessTest<T> {
 		 * @return
 		 */
 		public boolean isWithin(String inner, String outer);
+
+		/**
+		 * Get a fingerprint for this relation. Two relations with equal fingerprints
+		 * must agree on <code>isWithin()</code> for all lifetimes. This allows the
+		 * results of tests involving lifetimes to be cached safely. By default, every
+		 * relation is considered distinct.
+		 *
+		 * @return
+		 */
+		public default Object getFingerprint() {
+			return this;
+		}
 	}
 }
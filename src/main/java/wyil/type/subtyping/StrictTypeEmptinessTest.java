@@ -19,7 +19,8 @@ import java.util.Objects;
 
 import wybs.util.AbstractCompilationUnit.Identifier;
 import wyil.type.util.BinaryRelation;
-import wyil.type.util.HashSetBinaryRelation;
+import wyil.type.util.IntBinaryRelation;
+import wyil.type.util.TypeInterner;
 
 import static wyil.lang.WyilFile.Name;
 import static wyil.lang.WyilFile.*;
@@ -175,6 +176,11 @@ import static wyil.lang.WyilFile.*;
  *
  */
 public class StrictTypeEmptinessTest implements EmptinessTest<SemanticType> {
+	/**
+	 * Assigns canonical identifiers to the types encountered by this test. These
+	 * allow terms to be compared (and hashed) without traversing their types.
+	 */
+	private final TypeInterner interner = new TypeInterner();
 
 	@Override
 	public boolean isVoid(SemanticType lhs, EmptinessTest.State lhsState, SemanticType rhs,
@@ -182,12 +188,16 @@ public class StrictTypeEmptinessTest implements EmptinessTest<SemanticType> {
 		// FIXME: this is really temporary for now.
 		Term<?> lhsTerm = new Term<>(lhs, lhsState);
 		Term<?> rhsTerm = new Term<>(rhs, rhsState);
-		HashSetBinaryRelation<Term<?>> assumptions = new HashSetBinaryRelation<>();
+		// Assumptions are keyed on the canonical identifiers of their terms
+		IntBinaryRelation<Term<?>> assumptions = new IntBinaryRelation<>(t -> t.intern(interner));
 		return isVoidTerm(lhsTerm, rhsTerm, assumptions, lifetimes);
 	}
 
 	protected boolean isVoidTerm(Term<?> lhs, Term<?> rhs, BinaryRelation<Term<?>> assumptions,
 			LifetimeRelation lifetimes) {
+		// Intern both terms so they can be compared by identifier
+		lhs.intern(interner);
+		rhs.intern(interner);
 		//
 		if (assumptions.get(lhs, rhs)) {
 			// This represents the "coinductive" case. That is, we have
@@ -197,36 +207,38 @@ public class StrictTypeEmptinessTest implements EmptinessTest<SemanticType> {
 			return true;
 		} else {
 			assumptions.set(lhs, rhs, true);
-			ArrayList<Atom<?>> truths = new ArrayList<>();
-			Worklist worklist = new Worklist();
-			worklist.push(lhs);
-			worklist.push(rhs);
-			boolean r = isVoid(truths, worklist, assumptions, lifetimes);
+			Search search = new Search();
+			search.push(lhs);
+			search.push(rhs);
+			boolean r = isVoid(search, assumptions, lifetimes);
 			assumptions.set(lhs, rhs, false);
 			return r;
 		}
 	}
 
 	/**
+	 * <p>
 	 * Determine whether or not the intersection of a given list of types (the
-	 * worklist) reduces to void or not. This is performed in the context of a
-	 * number of ground "atoms" which are known to hold. In essence, this algorithm
-	 * exhaustively expands all items on the worklist to form atoms. The expanded
-	 * atoms are then checked for consistency.
-	 *
-	 * is type is equivalent to void. This is a relatively complex operation which
-	 * builds up a list of clauses known to hold.
+	 * worklist) reduces to void or not. In essence, this algorithm exhaustively
+	 * expands all items on the worklist to form ground "atoms" which are known to
+	 * hold (the truths). The expanded atoms are then checked for consistency.
+	 * </p>
+	 * <p>
+	 * Expanding a disjunction (e.g. a positive union) splits the search into one
+	 * path for each operand, and the intersection is void only if every path is.
+	 * Paths are explored depth-first using an explicit stack of choices. Rather
+	 * than copying the worklist and truths for each path, every change made along
+	 * a path is recorded on a trail and undone when backtracking to the most
+	 * recent choice.
+	 * </p>
 	 *
-	 * @param truths
-	 *            The set of truths which have been established.
-	 * @param worklist
-	 *            The set of types currently being expanded
+	 * @param search
+	 *            The worklist and truths established so far.
 	 * @param assumptions
 	 *            The set of assumed subtype relationships
-	 * @return @
+	 * @return
 	 */
-	protected boolean isVoid(ArrayList<Atom<?>> truths, Worklist worklist, BinaryRelation<Term<?>> assumptions,
-			LifetimeRelation lifetimes) {
+	protected boolean isVoid(Search search, BinaryRelation<Term<?>> assumptions, LifetimeRelation lifetimes) {
 		// FIXME: there is a bug in the following case which needs to be
 		// addressed:
 		//
@@ -240,31 +252,59 @@ public class StrictTypeEmptinessTest implements EmptinessTest<SemanticType> {
 		// ({int f} & !{int f} & !{null f}) || ({null f} & !{int f} & !{null f})
 		//
 		// This will now produce the correct result.
-
-		if (worklist.size() == 0) {
-			// At this point, we have run out of terms to expand further.
-			// Therefore, we have accumulated the complete list of "truths" and
-			// we must now attempt to establish whether or not this is
-			// consistent. For example, "int & !bool & !int" is not consistent
-			// because "int & !int" is not consistent.
-			//
-			// Therefore, we consider each possible pair of truths looking for
-			// consistency.
-			//
-			for (int i = 0; i != truths.size(); ++i) {
-				Atom<?> ith = truths.get(i);
-				for (int j = i + 1; j != truths.size(); ++j) {
-					Atom<?> jth = truths.get(j);
-					if (isVoidAtom(ith, jth, assumptions, lifetimes)) {
-						return true;
-					}
+		ArrayList<Choice> choices = new ArrayList<>();
+		while (true) {
+			switch (expand(search, choices)) {
+			case UNKNOWN:
+				return false;
+			case EXPANDED:
+				// Ran out of terms to expand on this path. Therefore, we have accumulated
+				// the complete list of "truths" and must now establish whether or not they
+				// are consistent. If a single path is definitely not void, then the whole
+				// thing is not void.
+				if (!isVoidTruths(search, assumptions, lifetimes)) {
+					return false;
 				}
+				break;
+			case VOID:
+				break;
 			}
-			return false;
-		} else {
+			// Backtrack to the most recent choice which has operands remaining
+			Choice choice = null;
+			while (!choices.isEmpty()) {
+				Choice c = choices.get(choices.size() - 1);
+				if (c.index < c.operands.length) {
+					choice = c;
+					break;
+				}
+				choices.remove(choices.size() - 1);
+			}
+			if (choice == null) {
+				// Every path is void
+				return true;
+			}
+			search.undo(choice.mark);
+			search.push(choice.operands[choice.index++], choice.context);
+		}
+	}
+
+	/**
+	 * Expand the items on the worklist along the current path into atoms. This
+	 * stops early if the path is known to be void, or if an unresolved type is
+	 * encountered. Upon encountering a disjunction, the first operand is followed
+	 * and a choice is recorded so that the remainder can be followed later.
+	 *
+	 * @param search
+	 *            The worklist and truths established so far.
+	 * @param choices
+	 *            The choices made so far.
+	 * @return
+	 */
+	private Path expand(Search search, ArrayList<Choice> choices) {
+		while (!search.isEmpty()) {
 			// In this case, we still have items on the worklist which need to
 			// be processed. That is, broken down into "atomic" terms.
-			Term<SemanticType> item = worklist.pop();
+			Term<SemanticType> item = search.pop();
 			SemanticType t = item.type;
 			//
 			boolean conjunct = item.sign;
@@ -275,16 +315,23 @@ public class StrictTypeEmptinessTest implements EmptinessTest<SemanticType> {
 			case SEMTYPE_intersection: {
 				Type.Combinator ut = (Type.Combinator) t;
 				if (conjunct) {
-					worklist.push(ut.getAll(), item);
+					search.push(ut.getAll(), item);
 				} else {
-					return isVoidDisjunction(ut, item, truths, worklist, assumptions, lifetimes);
+					SemanticType[] operands = ut.getAll();
+					if (operands.length == 0) {
+						// An empty disjunction is void
+						return Path.VOID;
+					}
+					Choice choice = new Choice(operands, item, search.mark());
+					choices.add(choice);
+					search.push(operands[choice.index++], item);
 				}
 				break;
 			}
 			case SEMTYPE_difference: {
 				SemanticType.Difference nt = (SemanticType.Difference) t;
-				worklist.push(nt.getLeftHandSide(), item);
-				worklist.push(nt.getRightHandSide(), item.invert());
+				search.push(nt.getLeftHandSide(), item);
+				search.push(nt.getRightHandSide(), item.invert());
 				break;
 			}
 			case TYPE_nominal: {
@@ -294,44 +341,109 @@ public class StrictTypeEmptinessTest implements EmptinessTest<SemanticType> {
 					Decl.Type decl = link.getTarget();
 					if (item.maximise || decl.getInvariant().size() == 0) {
 						// Push everything, including the type variables and arguments for any binding.
-						worklist.push(nom.getConcreteType(), item);
+						search.push(nom.getConcreteType(), item);
 					} else if (item.sign) {
 						// Corresponds to void, so we're done on this path.
-						return true;
+						return Path.VOID;
 					}
 				} else {
 					// Error recovery case. Basically return a conservative result since we don't
 					// know what the type in question is.
-					return false;
+					return Path.UNKNOWN;
 				}
 				break;
 			}
 			case TYPE_recursive: {
 				Type.Recursive rec = (Type.Recursive) t;
-				worklist.push(rec.getHead(), item);
+				search.push(rec.getHead(), item);
 				break;
 			}
 			default:
-				truths.add(new Atom((SemanticType.Atom) item.type, item));
+				search.add(new Atom((SemanticType.Atom) item.type, item));
+			}
+		}
+		return Path.EXPANDED;
+	}
+
+	/**
+	 * Determine whether the truths established along a path are inconsistent. For
+	 * example, "int & !bool & !int" is not consistent because "int & !int" is not
+	 * consistent. Only atoms of the same kind need to be compared pairwise (e.g.
+	 * two record atoms). For atoms of different kinds, whether or not their
+	 * intersection is void depends only on their signs and whether either is void
+	 * or any. Hence, these are considered en masse.
+	 *
+	 * @param search
+	 * @param assumptions
+	 * @param lifetimes
+	 * @return
+	 */
+	private boolean isVoidTruths(Search search, BinaryRelation<Term<?>> assumptions, LifetimeRelation lifetimes) {
+		int[] positives = search.positives;
+		int[] negatives = search.negatives;
+		// Count kinds with positive atoms, and atoms overall (excluding unknown kinds)
+		int kinds = 0, atoms = 0, negated = 0;
+		for (int k = 0; k != KIND_other; ++k) {
+			if (k != KIND_any && positives[k] > 0) {
+				kinds = kinds + 1;
+			}
+			atoms += positives[k] + negatives[k];
+			negated += negatives[k];
+		}
+		if (kinds > 1) {
+			// Two positive atoms of different kinds (e.g. int & {int f})
+			return true;
+		} else if (positives[KIND_void] > 0 && negated > negatives[KIND_void]) {
+			// A positive void and a negative atom of a different kind (e.g. void & !int)
+			return true;
+		} else if (negatives[KIND_any] > 0 && atoms > positives[KIND_any] + negatives[KIND_any]) {
+			// A negative any and an atom of a different kind (e.g. !any & int)
+			return true;
+		}
+		// Compare atoms of the same kind pairwise
+		ArrayList<Atom<?>>[] truths = search.truths;
+		for (int k = 0; k != KIND_other; ++k) {
+			ArrayList<Atom<?>> bucket = truths[k];
+			if (bucket != null && isVoidPairs(bucket, bucket, assumptions, lifetimes)) {
+				return true;
+			}
+		}
+		// Compare atoms of unknown kinds against all others
+		ArrayList<Atom<?>> others = truths[KIND_other];
+		if (others != null) {
+			for (int k = 0; k != KIND_other; ++k) {
+				if (truths[k] != null && isVoidPairs(others, truths[k], assumptions, lifetimes)) {
+					return true;
+				}
 			}
-			return isVoid(truths, worklist, assumptions, lifetimes);
+			return isVoidPairs(others, others, assumptions, lifetimes);
 		}
+		return false;
 	}
 
-	protected boolean isVoidDisjunction(Type.Combinator combinator, Context context,
-			ArrayList<Atom<?>> truths, Worklist worklist, BinaryRelation<Term<?>> assumptions,
+	/**
+	 * Determine whether the intersection of any atom from one list with any from
+	 * another is void. If both are the same list, then each pair of distinct atoms
+	 * is compared once, in the order they were established.
+	 *
+	 * @param lhs
+	 * @param rhs
+	 * @param assumptions
+	 * @param lifetimes
+	 * @return
+	 */
+	private boolean isVoidPairs(ArrayList<Atom<?>> lhs, ArrayList<Atom<?>> rhs, BinaryRelation<Term<?>> assumptions,
 			LifetimeRelation lifetimes) {
-		SemanticType[] operands = combinator.getAll();
-		for (int i = 0; i != operands.length; ++i) {
-			Worklist tmp = worklist.clone();
-			tmp.push(operands[i], context);
-			if (!isVoid((ArrayList<Atom<?>>) truths.clone(), tmp, assumptions, lifetimes)) {
-				// If a single clause of the disjunct is definitely
-				// not void, then the whole thing is not void.
-				return false;
+		for (int i = 0; i != lhs.size(); ++i) {
+			Atom<?> ith = lhs.get(i);
+			for (int j = (lhs == rhs) ? i + 1 : 0; j < rhs.size(); ++j) {
+				Atom<?> jth = rhs.get(j);
+				if (isVoidAtom(ith, jth, assumptions, lifetimes)) {
+					return true;
+				}
 			}
 		}
-		return true;
+		return false;
 	}
 
 	protected Name[] append(Name[] lhs, Name rhs) {
@@ -877,41 +989,221 @@ public class StrictTypeEmptinessTest implements EmptinessTest<SemanticType> {
 	// Helpers
 	// ========================================================================
 
-	private final static class Worklist extends ArrayList<Term<SemanticType>> {
+	/**
+	 * The outcome of expanding a single path.
+	 */
+	private enum Path {
 		/**
-		 *
+		 * The path is known to be void, without considering its truths.
+		 */
+		VOID,
+		/**
+		 * Every item on the worklist has been expanded into truths.
+		 */
+		EXPANDED,
+		/**
+		 * An unresolved type was encountered, so nothing is known.
 		 */
-		private static final long serialVersionUID = 1L;
+		UNKNOWN
+	}
+
+	/**
+	 * A disjunction encountered along a path, such that each of its operands
+	 * must be followed in turn.
+	 */
+	private static final class Choice {
+		private final SemanticType[] operands;
+		private final Context context;
+		/**
+		 * The position on the trail at which the disjunction was encountered.
+		 */
+		private final int mark;
+		/**
+		 * The index of the next operand to follow.
+		 */
+		private int index;
+
+		public Choice(SemanticType[] operands, Context context, int mark) {
+			this.operands = operands;
+			this.context = context;
+			this.mark = mark;
+		}
+	}
+
+	/**
+	 * The kinds by which truths are indexed. Atoms of different kinds are never
+	 * compared pairwise. Observe that the kind of an atom is determined by its
+	 * normalised opcode.
+	 */
+	private static final int KIND_void = 0;
+	private static final int KIND_any = 1;
+	private static final int KIND_null = 2;
+	private static final int KIND_bool = 3;
+	private static final int KIND_byte = 4;
+	private static final int KIND_int = 5;
+	private static final int KIND_array = 6;
+	private static final int KIND_record = 7;
+	private static final int KIND_reference = 8;
+	private static final int KIND_function = 9;
+	private static final int KIND_property = 10;
+	private static final int KIND_variable = 11;
+	private static final int KIND_other = 12;
 
-		public Term<SemanticType> top() {
-			return get(size() - 1);
+	private static int getKind(SemanticType.Atom atom) {
+		switch (normaliseOpcode(atom.getOpcode())) {
+		case TYPE_void:
+			return KIND_void;
+		case TYPE_any:
+			return KIND_any;
+		case TYPE_null:
+			return KIND_null;
+		case TYPE_bool:
+			return KIND_bool;
+		case TYPE_byte:
+			return KIND_byte;
+		case TYPE_int:
+			return KIND_int;
+		case SEMTYPE_array:
+			return KIND_array;
+		case SEMTYPE_record:
+			return KIND_record;
+		case SEMTYPE_reference:
+			return KIND_reference;
+		case TYPE_function:
+			return KIND_function;
+		case TYPE_property:
+			return KIND_property;
+		case TYPE_variable:
+			return KIND_variable;
+		default:
+			return KIND_other;
+		}
+	}
+
+	/**
+	 * The state of a search along one path at a time, consisting of a worklist of
+	 * terms still to be expanded and the truths established so far (indexed by
+	 * kind). Once a choice has been made, every change is recorded on a trail so
+	 * that the state at that choice can be restored.
+	 */
+	protected static final class Search {
+		/**
+		 * Trail entries for pushing onto, and popping from, the worklist. All other
+		 * entries record the kind of a truth established.
+		 */
+		private static final int PUSH = -1;
+		private static final int POP = -2;
+
+		private final ArrayList<Term<SemanticType>> worklist = new ArrayList<>();
+		@SuppressWarnings("unchecked")
+		private final ArrayList<Atom<?>>[] truths = new ArrayList[KIND_other + 1];
+		/**
+		 * Number of positive (resp. negative) truths of each kind.
+		 */
+		private final int[] positives = new int[KIND_other + 1];
+		private final int[] negatives = new int[KIND_other + 1];
+		/**
+		 * The trail, which is empty until the first choice is made.
+		 */
+		private int[] trail;
+		private int length;
+		/**
+		 * The terms popped from the worklist, in the order they appear on the trail.
+		 */
+		private ArrayList<Term<SemanticType>> popped;
+
+		public boolean isEmpty() {
+			return worklist.isEmpty();
 		}
 
 		public void push(Term item) {
-			add(item);
+			worklist.add(item);
+			record(PUSH);
 		}
 
 		public void push(SemanticType type, Context context) {
-			add(new Term(type, context));
+			push(new Term(type, context));
 		}
 
 		public void push(SemanticType[] types, Context context) {
 			for (int i = 0; i != types.length; ++i) {
-				add(new Term(types[i], context));
+				push(new Term(types[i], context));
 			}
 		}
 
 		public Term<SemanticType> pop() {
-			Term<SemanticType> i = get(size() - 1);
-			remove(size() - 1);
-			return i;
+			Term<SemanticType> item = worklist.remove(worklist.size() - 1);
+			if (trail != null) {
+				popped.add(item);
+				record(POP);
+			}
+			return item;
 		}
 
-		@Override
-		public Worklist clone() {
-			Worklist wl = new Worklist();
-			wl.addAll(this);
-			return wl;
+		/**
+		 * Add a truth established along the current path.
+		 *
+		 * @param atom
+		 */
+		public void add(Atom<?> atom) {
+			int kind = getKind(atom.type);
+			if (truths[kind] == null) {
+				truths[kind] = new ArrayList<>();
+			}
+			truths[kind].add(atom);
+			if (atom.sign) {
+				positives[kind]++;
+			} else {
+				negatives[kind]++;
+			}
+			record(kind);
+		}
+
+		/**
+		 * Get the current position on the trail, such that the current state can be
+		 * restored later. This begins recording changes if not already done.
+		 *
+		 * @return
+		 */
+		public int mark() {
+			if (trail == null) {
+				trail = new int[16];
+				popped = new ArrayList<>();
+			}
+			return length;
+		}
+
+		/**
+		 * Undo every change recorded after a given position on the trail.
+		 *
+		 * @param mark
+		 */
+		public void undo(int mark) {
+			while (length > mark) {
+				int entry = trail[--length];
+				if (entry == PUSH) {
+					worklist.remove(worklist.size() - 1);
+				} else if (entry == POP) {
+					worklist.add(popped.remove(popped.size() - 1));
+				} else {
+					ArrayList<Atom<?>> bucket = truths[entry];
+					Atom<?> atom = bucket.remove(bucket.size() - 1);
+					if (atom.sign) {
+						positives[entry]--;
+					} else {
+						negatives[entry]--;
+					}
+				}
+			}
+		}
+
+		private void record(int entry) {
+			if (trail != null) {
+				if (length == trail.length) {
+					trail = Arrays.copyOf(trail, length * 2);
+				}
+				trail[length++] = entry;
+			}
 		}
 	}
 
@@ -953,7 +1245,18 @@ public class StrictTypeEmptinessTest implements EmptinessTest<SemanticType> {
 
 	public static class Term<T extends SemanticType> extends Context {
 		public final T type;
-
+		/**
+		 * The canonical identifier for this term, or <code>-1</code> if it has not
+		 * been interned. This combines the canonical identifier of its type with its
+		 * sign and whether it is maximising or not. Two terms interned by the same
+		 * interner are equal if, and only if, they have the same identifier.
+		 */
+		private int id = -1;
+		/**
+		 * The interner which assigned this term its identifier, or <code>null</code>
+		 * if it has not been interned.
+		 */
+		private TypeInterner interner;
 
 		public Term(T type, EmptinessTest.State state) {
 			super(state);
@@ -970,10 +1273,33 @@ public class StrictTypeEmptinessTest implements EmptinessTest<SemanticType> {
 			return type.toString() + ":" + sign + ":" + maximise;
 		}
 
+		/**
+		 * Assign this term its canonical identifier (if not already done). Interning
+		 * does not affect equality or hashing, but allows interned terms to be
+		 * compared without traversing their types.
+		 *
+		 * @param interner
+		 * @return
+		 */
+		public int intern(TypeInterner interner) {
+			if (this.interner == null) {
+				this.id = (interner.getId(type) << 2) | (sign ? 2 : 0) | (maximise ? 1 : 0);
+				this.interner = interner;
+			} else if (this.interner != interner) {
+				// Identifiers from different interners are unrelated
+				return (interner.getId(type) << 2) | (sign ? 2 : 0) | (maximise ? 1 : 0);
+			}
+			return id;
+		}
+
 		@Override
 		public boolean equals(Object o) {
 			if (o instanceof Term) {
 				Term t = (Term) o;
+				if (interner != null && interner == t.interner) {
+					// Fast path for terms interned by the same interner
+					return id == t.id;
+				}
 				return sign == t.sign && maximise == t.maximise && type.equals(t.type);
 			}
 			return false;
@@ -0,0 +1,308 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.type.subtyping;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import wybs.util.AbstractCompilationUnit.Name;
+import wybs.util.AbstractCompilationUnit.Tuple;
+import wyil.lang.WyilFile;
+import wyil.lang.WyilFile.Decl;
+import wyil.lang.WyilFile.Type;
+import wyil.type.subtyping.SubtypeOperator.Result;
+
+/**
+ * <p>
+ * A precomputed subtype relation between the named types declared in a given
+ * module. This is constructed after name resolution by querying a subtype
+ * operator for every pair of eligible declarations, such that subsequent
+ * queries between two such nominal types can be answered in constant time
+ * without expanding either type (see
+ * <code>SubtypeOperator.setLattice()</code>).
+ * </p>
+ * <p>
+ * A declaration is only eligible when it is neither generic nor involves
+ * references (since the answer may then depend upon the lifetimes in scope),
+ * and when every type it depends upon is declared in the same module. Queries
+ * involving any other declaration are reported as unknown and must be answered
+ * in the usual fashion.
+ * </p>
+ * <p>
+ * When compiling incrementally, a lattice can be reused across compilations.
+ * In such case, only the rows and columns of declarations which have changed
+ * (or which depend upon a declaration which has changed) are computed again.
+ * To support this, declarations are identified by their qualified names (which
+ * are stable across compilations) rather than by the declarations themselves,
+ * and the subtype operator used is supplied afresh for each compilation.
+ * Thus, nothing from a previous compilation is retained beyond the relation
+ * itself.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class SubtypeLattice {
+	/**
+	 * Maps the qualified name of each declaration in the lattice to its index.
+	 */
+	private final HashMap<String, Integer> indices = new HashMap<>();
+	/**
+	 * The qualified name of the declaration at each index, or <code>null</code>
+	 * if that index is currently unused.
+	 */
+	private final ArrayList<String> names = new ArrayList<>();
+	/**
+	 * The subtype relation itself, where bit <code>j</code> of row
+	 * <code>i</code> is set iff declaration <code>i</code> is a supertype of
+	 * declaration <code>j</code>.
+	 */
+	private final ArrayList<BitSet> supertypes = new ArrayList<>();
+	/**
+	 * Maps each declaration in the lattice, as of the most recent compilation,
+	 * to its index. This allows queries to be answered without determining the
+	 * qualified names of the declarations involved.
+	 */
+	private IdentityHashMap<Decl.Type, Integer> declarations = new IdentityHashMap<>();
+
+	/**
+	 * Get the number of declarations currently in the lattice.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return indices.size();
+	}
+
+	/**
+	 * Determine whether one nominal type is a subtype of another. This returns
+	 * <code>Unknown</code> if either type is generic or unresolved, or its
+	 * declaration is not in the lattice.
+	 *
+	 * @param lhs The candidate supertype
+	 * @param rhs The candidate subtype
+	 * @return
+	 */
+	Result isSubtype(Type.Nominal lhs, Type.Nominal rhs) {
+		Decl.Link<Decl.Type> l = lhs.getLink();
+		Decl.Link<Decl.Type> r = rhs.getLink();
+		if (lhs.getParameters().size() != 0 || rhs.getParameters().size() != 0 || !l.isResolved()
+				|| !r.isResolved()) {
+			return Result.Unknown;
+		} else {
+			return isSubtype(l.getTarget(), r.getTarget());
+		}
+	}
+
+	/**
+	 * Determine whether one declared type is a subtype of another. This returns
+	 * <code>Unknown</code> if either declaration is not in the lattice.
+	 *
+	 * @param lhs The candidate supertype
+	 * @param rhs The candidate subtype
+	 * @return
+	 */
+	Result isSubtype(Decl.Type lhs, Decl.Type rhs) {
+		Integer i = declarations.get(lhs);
+		Integer j = declarations.get(rhs);
+		if (i == null || j == null) {
+			return Result.Unknown;
+		} else if (supertypes.get(i).get(j)) {
+			return Result.True;
+		} else {
+			return Result.False;
+		}
+	}
+
+	/**
+	 * (Re)compute this lattice for a given file after name resolution, where only
+	 * some of its declarations may have changed since it was last computed.
+	 *
+	 * @param wf        The file whose declarations make up the lattice.
+	 * @param dirty     The set of declarations which have changed, or
+	 *                  <code>null</code> if the lattice should be computed from
+	 *                  scratch.
+	 * @param subtyping The operator used to compute relationships which are not
+	 *                  already known.
+	 */
+	public void apply(WyilFile wf, Set<Decl> dirty, SubtypeOperator subtyping) {
+		if (dirty == null) {
+			indices.clear();
+			names.clear();
+			supertypes.clear();
+		}
+		// Determine the units making up this module
+		Set<Decl.Unit> units = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Decl.Unit unit : wf.getModule().getUnits()) {
+			units.add(unit);
+		}
+		// Identify the eligible declarations by name
+		HashMap<String, Decl.Type> eligible = new HashMap<>();
+		for (Decl.Unit unit : units) {
+			for (Decl d : unit.getDeclarations()) {
+				if (d instanceof Decl.Type) {
+					Decl.Type decl = (Decl.Type) d;
+					if (isEligible(decl, units, Collections.newSetFromMap(new IdentityHashMap<>()))) {
+						eligible.putIfAbsent(decl.getQualifiedName().toString(), decl);
+					}
+				}
+			}
+		}
+		// Remove declarations which are stale, changed or no longer eligible
+		for (int i = 0; i != names.size(); ++i) {
+			String name = names.get(i);
+			if (name != null) {
+				Decl.Type decl = eligible.get(name);
+				if (decl == null || (dirty != null && dirty.contains(decl))) {
+					remove(i);
+				}
+			}
+		}
+		// Add the remaining declarations
+		ArrayList<Integer> added = new ArrayList<>();
+		for (String name : eligible.keySet()) {
+			if (!indices.containsKey(name)) {
+				int i = allocate(name);
+				indices.put(name, i);
+				added.add(i);
+			}
+		}
+		// Determine the declaration at each index
+		declarations = new IdentityHashMap<>();
+		for (int i = 0; i != names.size(); ++i) {
+			String name = names.get(i);
+			if (name != null) {
+				declarations.put(eligible.get(name), i);
+			}
+		}
+		// Compute relationships involving newly added declarations. Nominal types
+		// are only constructed for those declarations actually queried.
+		Type.Nominal[] nominals = added.isEmpty() ? null : new Type.Nominal[names.size()];
+		for (int i : added) {
+			Type.Nominal lhs = nominal(nominals, i, eligible);
+			for (int j = 0; j != nominals.length; ++j) {
+				if (names.get(j) != null) {
+					Type.Nominal rhs = nominal(nominals, j, eligible);
+					// NOTE: eligible types involve no lifetimes
+					supertypes.get(i).set(j, subtyping.isSubtype(lhs, rhs, null));
+					supertypes.get(j).set(i, subtyping.isSubtype(rhs, lhs, null));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get a nominal type for the declaration at a given index, constructing it if
+	 * this has not already been done.
+	 *
+	 * @param nominals The nominal types constructed so far
+	 * @param i        The index of the declaration
+	 * @param eligible The eligible declarations by name
+	 * @return
+	 */
+	private Type.Nominal nominal(Type.Nominal[] nominals, int i, HashMap<String, Decl.Type> eligible) {
+		if (nominals[i] == null) {
+			Decl.Type decl = eligible.get(names.get(i));
+			nominals[i] = new Type.Nominal(new Decl.Link<>(new Name(decl.getName()), decl), new Tuple<>());
+		}
+		return nominals[i];
+	}
+
+	/**
+	 * Allocate an index for a given declaration, reusing the first unused index
+	 * (if any).
+	 *
+	 * @param name
+	 * @return
+	 */
+	private int allocate(String name) {
+		int i = names.indexOf(null);
+		if (i < 0) {
+			i = names.size();
+			names.add(name);
+			supertypes.add(new BitSet());
+		} else {
+			names.set(i, name);
+		}
+		return i;
+	}
+
+	/**
+	 * Remove the declaration at a given index, clearing both its row and column.
+	 *
+	 * @param i
+	 */
+	private void remove(int i) {
+		indices.remove(names.get(i));
+		names.set(i, null);
+		supertypes.get(i).clear();
+		for (int j = 0; j != supertypes.size(); ++j) {
+			supertypes.get(j).clear(i);
+		}
+	}
+
+	/**
+	 * Check whether a given declaration is eligible for the lattice. That is, it
+	 * is not generic, and neither it nor any declaration it depends upon involves
+	 * references, type variables or types declared outside this module.
+	 *
+	 * @param decl
+	 * @param units   The units making up this module
+	 * @param visited The declarations visited already
+	 * @return
+	 */
+	private static boolean isEligible(Decl.Type decl, Set<Decl.Unit> units, Set<Decl.Type> visited) {
+		if (!visited.add(decl)) {
+			// NOTE: recursive types are eligible if nothing else prevents them
+			return true;
+		}
+		return decl.getTemplate().size() == 0 && units.contains(decl.getAncestor(Decl.Unit.class))
+				&& isEligible(decl.getType(), units, visited);
+	}
+
+	private static boolean isEligible(Type type, Set<Decl.Unit> units, Set<Decl.Type> visited) {
+		if (type instanceof Type.Primitive) {
+			return true;
+		} else if (type instanceof Type.Array) {
+			return isEligible(((Type.Array) type).getElement(), units, visited);
+		} else if (type instanceof Type.Record) {
+			Tuple<Type.Field> fields = ((Type.Record) type).getFields();
+			for (int i = 0; i != fields.size(); ++i) {
+				if (!isEligible(fields.get(i).getType(), units, visited)) {
+					return false;
+				}
+			}
+			return true;
+		} else if (type instanceof Type.Union) {
+			Type.Union t = (Type.Union) type;
+			for (int i = 0; i != t.size(); ++i) {
+				if (!isEligible(t.get(i), units, visited)) {
+					return false;
+				}
+			}
+			return true;
+		} else if (type instanceof Type.Nominal) {
+			Type.Nominal t = (Type.Nominal) type;
+			Decl.Link<Decl.Type> link = t.getLink();
+			return t.getParameters().size() == 0 && link.isResolved() && isEligible(link.getTarget(), units, visited);
+		} else {
+			// References, callables, type variables, etc.
+			return false;
+		}
+	}
+}
@@ -16,10 +16,15 @@ package wyil.type.subtyping;
 import static wyil.lang.WyilFile.*;
 
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 
 import wyil.lang.WyilFile.Decl;
 import wyil.lang.WyilFile.Type;
 import wyil.type.subtyping.EmptinessTest.LifetimeRelation;
+import wyil.type.subtyping.EmptinessTest.State;
+import wyil.type.util.TypeInterner;
 
 /**
  * <p>
@@ -30,19 +35,102 @@ import wyil.type.subtyping.EmptinessTest.LifetimeRelation;
  * possible integer values. Then, one type is a subtype another if the set it
  * corresponds to is a subset of the other's corresponding set.
  * </p>
+ * <p>
+ * Since the same questions are typically asked many times over, the results of
+ * the underlying emptiness test are cached. The cache is bounded, with the least
+ * recently used entries being evicted first. Likewise, the types from which
+ * cache keys are constructed are bounded in number.
+ * </p>
  *
  * @author David J. Pearce
  *
  */
 public class SubtypeOperator {
+	/**
+	 * The default maximum number of entries held in the cache.
+	 */
+	public static final int DEFAULT_CACHE_SIZE = 4096;
+
+	/**
+	 * The number of type objects the interner may record for each entry the cache
+	 * can hold. Beyond this, the interner is cleared along with the cache.
+	 */
+	private static final int INTERNER_FACTOR = 16;
+
 	private final EmptinessTest<SemanticType> emptinessTest;
 
+	/**
+	 * Cache of results from the emptiness test.
+	 */
+	private final LinkedHashMap<Key, Boolean> cache;
+
+	/**
+	 * Assigns canonical identifiers to types, such that cache keys can be compared
+	 * without traversing the types involved. Since this records every type it is
+	 * given, it is bounded by clearing it (and, hence, the cache) periodically.
+	 */
+	private final TypeInterner interner = new TypeInterner();
+
+	/**
+	 * The maximum number of type objects recorded by the interner.
+	 */
+	private final int internerSize;
+
+	/**
+	 * Incremented whenever the interner is cleared, such that results computed
+	 * for keys from an earlier generation are not cached.
+	 */
+	private long generation;
+
+	/**
+	 * Precomputed relation between named types, or <code>null</code> if none is
+	 * available.
+	 */
+	private SubtypeLattice lattice;
+
+	/**
+	 * Number of cache lookups which hit (resp. missed).
+	 */
+	private long hits, misses;
+
 	enum Result {
 		True, False, Unknown
 	}
 
 	public SubtypeOperator(EmptinessTest<SemanticType> emptinessTest) {
+		this(emptinessTest, DEFAULT_CACHE_SIZE);
+	}
+
+	public SubtypeOperator(EmptinessTest<SemanticType> emptinessTest, final int cacheSize) {
 		this.emptinessTest = emptinessTest;
+		this.internerSize = INTERNER_FACTOR * cacheSize;
+		this.cache = new LinkedHashMap<Key, Boolean>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * Provide a precomputed relation between named types which is used to answer
+	 * queries between two nominal types directly. This must have been computed
+	 * using an equivalent emptiness test.
+	 *
+	 * @param lattice
+	 * @return
+	 */
+	public SubtypeOperator setLattice(SubtypeLattice lattice) {
+		this.lattice = lattice;
+		return this;
+	}
+
+	public synchronized long getCacheHits() {
+		return hits;
+	}
+
+	public synchronized long getCacheMisses() {
+		return misses;
 	}
 
 	/**
@@ -91,14 +179,19 @@ public class SubtypeOperator {
 	 *             corresponding type declaration.
 	 */
 	public boolean isSubtype(SemanticType lhs, SemanticType rhs, LifetimeRelation lifetimes) {
-		boolean max = emptinessTest.isVoid(lhs, EmptinessTest.NegativeMax, rhs, EmptinessTest.PositiveMax, lifetimes);
+		if (lattice != null && lhs instanceof Type.Nominal && rhs instanceof Type.Nominal) {
+			Result r = lattice.isSubtype((Type.Nominal) lhs, (Type.Nominal) rhs);
+			if (r != Result.Unknown) {
+				return r == Result.True;
+			}
+		}
+		boolean max = isVoid(lhs, EmptinessTest.NegativeMax, rhs, EmptinessTest.PositiveMax, lifetimes);
 		//
 		// FIXME: I don't think this logic is correct yet for some reason.
 		if (!max) {
 			return false;
 		} else {
-			boolean min = emptinessTest.isVoid(lhs, EmptinessTest.NegativeMin, rhs, EmptinessTest.PositiveMin,
-					lifetimes);
+			boolean min = isVoid(lhs, EmptinessTest.NegativeMin, rhs, EmptinessTest.PositiveMin, lifetimes);
 			if (min) {
 				return true;
 			} else {
@@ -140,7 +233,51 @@ public class SubtypeOperator {
 	 * @throws ResolutionError
 	 */
 	public boolean isVoid(SemanticType type, LifetimeRelation lifetimes) {
-		return emptinessTest.isVoid(type, EmptinessTest.PositiveMax, type, EmptinessTest.PositiveMax, lifetimes);
+		return isVoid(type, EmptinessTest.PositiveMax, type, EmptinessTest.PositiveMax, lifetimes);
+	}
+
+	/**
+	 * Apply the underlying emptiness test, reusing a previous result where
+	 * possible.
+	 *
+	 * @param lhs
+	 * @param lhsState
+	 * @param rhs
+	 * @param rhsState
+	 * @param lifetimes
+	 * @return
+	 */
+	private boolean isVoid(SemanticType lhs, State lhsState, SemanticType rhs, State rhsState,
+			LifetimeRelation lifetimes) {
+		// NOTE: lifetimes may be null when no lifetimes are involved
+		Object fingerprint = lifetimes == null ? null : lifetimes.getFingerprint();
+		Key key;
+		long current;
+		synchronized (this) {
+			if (interner.getObjectCount() > internerSize) {
+				// NOTE: identifiers are reallocated after clearing the interner, hence
+				// existing keys are meaningless.
+				interner.clear();
+				cache.clear();
+				generation++;
+			}
+			key = new Key(interner.getId(lhs), lhsState, interner.getId(rhs), rhsState, fingerprint);
+			current = generation;
+			Boolean r = cache.get(key);
+			if (r != null) {
+				hits++;
+				return r;
+			}
+			misses++;
+		}
+		// NOTE: the test is not performed whilst holding the lock
+		boolean r = emptinessTest.isVoid(lhs, lhsState, rhs, rhsState, lifetimes);
+		synchronized (this) {
+			if (current == generation) {
+				cache.put(key, r);
+			}
+		}
+		return r;
 	}
 
 	/**
@@ -218,4 +355,46 @@ public class SubtypeOperator {
 		}
 		}
 	}
+
+	/**
+	 * Identifies a given query of the emptiness test. Observe that states are
+	 * compared by reference since, for example, <code>PositiveMax</code> and
+	 * <code>PositiveMin</code> are otherwise indistinguishable.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	private static final class Key {
+		private final int lhs;
+		private final State lhsState;
+		private final int rhs;
+		private final State rhsState;
+		private final Object lifetimes;
+		private final int hash;
+
+		public Key(int lhs, State lhsState, int rhs, State rhsState, Object lifetimes) {
+			this.lhs = lhs;
+			this.lhsState = lhsState;
+			this.rhs = rhs;
+			this.rhsState = rhsState;
+			this.lifetimes = lifetimes;
+			this.hash = lhs ^ (31 * rhs) ^ System.identityHashCode(lhsState) ^ System.identityHashCode(rhsState)
+					^ Objects.hashCode(lifetimes);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Key) {
+				Key k = (Key) o;
+				return lhs == k.lhs && rhs == k.rhs && lhsState == k.lhsState && rhsState == k.rhsState
+						&& Objects.equals(lifetimes, k.lifetimes);
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
 }
@@ -0,0 +1,156 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.type.util;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * <p>
+ * An implementation of BinaryRelation for values which can be mapped to
+ * (non-negative) integer identifiers, such as interned types. Each pair is
+ * packed into a single <code>long</code> and stored in a primitive
+ * open-addressing hash set using linear probing. Thus, unlike
+ * <code>HashSetBinaryRelation</code>, neither <code>get()</code> nor
+ * <code>set()</code> allocate or hash the values themselves.
+ * </p>
+ * <p>
+ * The identifiers need not be dense. However, the mapping must be stable for
+ * the lifetime of the relation, and two values are considered the same if, and
+ * only if, they map to the same identifier.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ * @param <T>
+ */
+public class IntBinaryRelation<T> implements BinaryRelation<T> {
+	/**
+	 * The value used to indicate an empty slot. Since identifiers are offset by
+	 * one when packed, this never corresponds to a valid key.
+	 */
+	private static final long EMPTY = 0;
+
+	private final ToIntFunction<T> mapping;
+	private long[] keys;
+	private int size;
+
+	public IntBinaryRelation(ToIntFunction<T> mapping) {
+		this(mapping, 16);
+	}
+
+	public IntBinaryRelation(ToIntFunction<T> mapping, int capacity) {
+		this.mapping = mapping;
+		this.keys = new long[Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1];
+	}
+
+	@Override
+	public boolean get(T lhs, T rhs) {
+		return keys[find(pack(lhs, rhs))] != EMPTY;
+	}
+
+	@Override
+	public void set(T lhs, T rhs, boolean value) {
+		long key = pack(lhs, rhs);
+		int index = find(key);
+		if (value && keys[index] == EMPTY) {
+			keys[index] = key;
+			// Maintain a load factor of at most one half
+			if (++size > (keys.length >> 1)) {
+				resize();
+			}
+		} else if (!value && keys[index] != EMPTY) {
+			remove(index);
+			size = size - 1;
+		}
+	}
+
+	/**
+	 * Get the number of pairs currently in this relation.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Pack a pair of values into a single key. Identifiers are offset by one to
+	 * ensure no valid key is ever <code>EMPTY</code>.
+	 *
+	 * @param lhs
+	 * @param rhs
+	 * @return
+	 */
+	private long pack(T lhs, T rhs) {
+		long l = mapping.applyAsInt(lhs) + 1L;
+		long r = mapping.applyAsInt(rhs) + 1L;
+		return (l << 32) | r;
+	}
+
+	/**
+	 * Find the slot which either contains the given key, or is the empty slot
+	 * terminating its probe sequence.
+	 *
+	 * @param key
+	 * @return
+	 */
+	private int find(long key) {
+		final int mask = keys.length - 1;
+		int index = hash(key) & mask;
+		while (keys[index] != EMPTY && keys[index] != key) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	/**
+	 * Remove the key at a given slot. Rather than leaving a tombstone, any
+	 * subsequent keys in the same cluster are shifted back to fill the gap so
+	 * that probe sequences remain unbroken.
+	 *
+	 * @param index
+	 */
+	private void remove(int index) {
+		final int mask = keys.length - 1;
+		int gap = index;
+		int next = (gap + 1) & mask;
+		while (keys[next] != EMPTY) {
+			int home = hash(keys[next]) & mask;
+			// Can the key at next be moved into the gap? Only if its home slot
+			// does not lie (cyclically) within the range (gap,next].
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[gap] = EMPTY;
+	}
+
+	private void resize() {
+		long[] old = keys;
+		keys = new long[old.length << 1];
+		for (int i = 0; i != old.length; ++i) {
+			if (old[i] != EMPTY) {
+				keys[find(old[i])] = old[i];
+			}
+		}
+	}
+
+	private static int hash(long key) {
+		// Mix both halves of the key, as identifiers are typically small
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
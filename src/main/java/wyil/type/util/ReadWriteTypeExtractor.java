@@ -26,6 +26,8 @@ import wyil.lang.WyilFile.SemanticType.Reference;
 import wyil.type.subtyping.SubtypeOperator;
 
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import wybs.util.AbstractCompilationUnit.Identifier;
 import wybs.util.AbstractCompilationUnit.Tuple;
@@ -89,16 +91,26 @@ public class ReadWriteTypeExtractor {
 	public static final Combinator<SemanticType.Record> WRITEABLE_RECORD = new WriteableRecordCombinator();
 	//
 	private final SubtypeOperator subtypeOperator;
+	/**
+	 * Caches the disjunctive normal forms computed for types. This may be shared
+	 * with other extractors in the same compilation.
+	 */
+	private final Cache cache;
 
 	public ReadWriteTypeExtractor(SubtypeOperator subtypeOperator) {
+		this(subtypeOperator, new Cache());
+	}
+
+	public ReadWriteTypeExtractor(SubtypeOperator subtypeOperator, Cache cache) {
 		this.subtypeOperator = subtypeOperator;
+		this.cache = cache;
 	}
 
 	public <T extends SemanticType.Atom> T apply(SemanticType type, LifetimeRelation lifetimes, Combinator<T> kind) {
 		// First, convert type into conjunctive normal form. This allows all atom
 		// combinations to be tried and potentially reduced to void which, in turn,
 		// allows further simplifications.
-		Disjunct dnf = toDisjunctiveNormalForm(type);
+		Disjunct dnf = toCachedDisjunctiveNormalForm(type);
 		// Now, convert from DNF back into a type whilst, hopefully, preserving the
 		// underlying form we are looking for (e.g. an array or record, etc).
 		return construct(dnf, lifetimes, kind);
@@ -108,6 +120,28 @@ public class ReadWriteTypeExtractor {
 	// toDisjunctiveNormalForm
 	// ====================================================================================
 
+	/**
+	 * Convert an arbitrary type to <i>Disjunctive Normal Form (DNF)</i>, reusing
+	 * the result from a previous conversion of the same type where possible.
+	 *
+	 * @param type
+	 * @return
+	 */
+	protected Disjunct toCachedDisjunctiveNormalForm(SemanticType type) {
+		int id = cache.interner.getId(type);
+		Disjunct dnf = cache.get(id);
+		if (dnf == null) {
+			// NOTE: the conversion is not performed whilst holding any lock
+			if (type instanceof Type.Nominal) {
+				dnf = toDisjunctiveNormalForm((Type.Nominal) type);
+			} else {
+				dnf = toDisjunctiveNormalForm(type);
+			}
+			cache.put(id, dnf);
+		}
+		return dnf;
+	}
+
 	/**
 	 * Convert an arbitrary type to <i>Disjunctive Normal Form (DNF)</i>. That is a
 	 * type with a specific structure made up from one or more "conjuncts" which are
@@ -143,7 +177,9 @@ public class ReadWriteTypeExtractor {
 		case SEMTYPE_staticreference:
 			return toDisjunctiveNormalForm((SemanticType.Reference) type);
 		case TYPE_nominal:
-			return toDisjunctiveNormalForm((Type.Nominal) type);
+			// NOTE: expansions are cached, since the same nominal types are
+			// encountered repeatedly.
+			return toCachedDisjunctiveNormalForm(type);
 		case TYPE_union:
 		case SEMTYPE_union:
 			return toDisjunctiveNormalForm((SemanticType.Union) type);
@@ -293,6 +329,70 @@ public class ReadWriteTypeExtractor {
 		return result;
 	}
 
+	// ====================================================================================
+	// Cache
+	// ====================================================================================
+
+	/**
+	 * Caches the disjunctive normal form computed for each type, including the
+	 * expansions of nominal types. This is intended to be shared by all
+	 * extractors in a single compilation (e.g. those used when checking
+	 * different units in parallel), and discarded afterwards. It must not be
+	 * reused in a later compilation, since nominal types may then expand
+	 * differently.
+	 *
+	 * @author David J. Pearce
+	 *
+	 */
+	public static class Cache {
+		/**
+		 * Assigns canonical identifiers to types, such that normal forms can be
+		 * cached against them.
+		 */
+		private final TypeInterner interner = new TypeInterner();
+		/**
+		 * The normal form computed for each type, keyed by its canonical
+		 * identifier. Since disjuncts are never modified once constructed, they can
+		 * be shared freely.
+		 */
+		private final ConcurrentHashMap<Integer, Disjunct> dnfs = new ConcurrentHashMap<>();
+		/**
+		 * Number of cache lookups which hit (resp. missed).
+		 */
+		private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+		public long getCacheHits() {
+			return hits.get();
+		}
+
+		public long getCacheMisses() {
+			return misses.get();
+		}
+
+		/**
+		 * Get the number of normal forms held in this cache.
+		 *
+		 * @return
+		 */
+		public int size() {
+			return dnfs.size();
+		}
+
+		private Disjunct get(int id) {
+			Disjunct dnf = dnfs.get(id);
+			if (dnf != null) {
+				hits.incrementAndGet();
+			} else {
+				misses.incrementAndGet();
+			}
+			return dnf;
+		}
+
+		private void put(int id, Disjunct dnf) {
+			dnfs.put(id, dnf);
+		}
+	}
+
 	// ====================================================================================
 	// Disjunct
 	// ====================================================================================
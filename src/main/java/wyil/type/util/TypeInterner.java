@@ -0,0 +1,130 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.type.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import wyil.lang.WyilFile.SemanticType;
+
+/**
+ * <p>
+ * Maps semantic types to canonical identifiers, such that two types have the
+ * same identifier if, and only if, they are structurally equal. Identifiers
+ * are allocated densely starting from zero in the order in which types are
+ * first encountered. Thus, once interned, checking whether two types are equal
+ * reduces to comparing integers, and identifiers can be used directly as keys
+ * in caches (or as indices into tables).
+ * </p>
+ * <p>
+ * Determining the structural hash of a type requires traversing the type in
+ * its entirety. To avoid doing this repeatedly, the identifier assigned to
+ * each type object is also recorded by identity. Since the same type objects
+ * are typically encountered over and over again (e.g. those in the heap), most
+ * lookups never traverse the type at all. As a result, a type must not be
+ * modified once interned, since its recorded identifier would then be stale.
+ * In particular, an interner should not outlive the build in which its types
+ * were resolved, since names may be resolved again by a later build.
+ * </p>
+ *
+ * @author David J. Pearce
+ *
+ */
+public class TypeInterner {
+	/**
+	 * Maps each distinct (i.e. structurally unequal) type to its identifier.
+	 */
+	private final HashMap<SemanticType, Integer> ids = new HashMap<>();
+	/**
+	 * Maps each type object seen so far to its identifier.
+	 */
+	private final IdentityHashMap<SemanticType, Integer> objects = new IdentityHashMap<>();
+	/**
+	 * The canonical type for each identifier.
+	 */
+	private final ArrayList<SemanticType> types = new ArrayList<>();
+
+	/**
+	 * Get the canonical identifier for a given type, allocating one if the type
+	 * has not been seen before.
+	 *
+	 * @param type
+	 * @return
+	 */
+	public synchronized int getId(SemanticType type) {
+		Integer id = objects.get(type);
+		if (id == null) {
+			id = ids.get(type);
+			if (id == null) {
+				id = types.size();
+				types.add(type);
+				ids.put(type, id);
+			}
+			objects.put(type, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Get the canonical type for a given type. That is, the first type
+	 * encountered which is structurally equal to it.
+	 *
+	 * @param type
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends SemanticType> T intern(T type) {
+		return (T) get(getId(type));
+	}
+
+	/**
+	 * Get the canonical type associated with a given identifier.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public synchronized SemanticType get(int id) {
+		return types.get(id);
+	}
+
+	/**
+	 * Get the number of distinct types interned so far.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return types.size();
+	}
+
+	/**
+	 * Get the number of type objects recorded so far. This is at least the number
+	 * of distinct types, and determines how much memory this interner occupies.
+	 *
+	 * @return
+	 */
+	public synchronized int getObjectCount() {
+		return objects.size();
+	}
+
+	/**
+	 * Forget every type interned so far, such that identifiers are allocated from
+	 * zero again. Any identifiers obtained previously are no longer valid.
+	 */
+	public synchronized void clear() {
+		ids.clear();
+		objects.clear();
+		types.clear();
+	}
+}
@@ -15,6 +15,9 @@ package wyil.util;
 
 import static wyil.lang.WyilFile.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import wyil.lang.WyilFile;
 import wyil.lang.WyilFile.Decl;
 import wyil.lang.WyilFile.SemanticType;
@@ -31,13 +34,28 @@ import wyil.lang.WyilFile.SemanticType;
 public abstract class AbstractConsumer<T> {
 
 	public void visitModule(WyilFile wf, T data) {
+		for (Decl.Unit decl : getUnits(wf)) {
+			visitDeclaration(decl, data);
+		}
+	}
+
+	/**
+	 * Get the units visited by this consumer for a given file. This includes both
+	 * the units being compiled and any externs imported into the file.
+	 *
+	 * @param wf
+	 * @return
+	 */
+	public List<Decl.Unit> getUnits(WyilFile wf) {
 		Decl.Module module = wf.getModule();
+		ArrayList<Decl.Unit> units = new ArrayList<>();
 		for (Decl.Unit decl : module.getUnits()) {
-			visitDeclaration(decl, data);
+			units.add(decl);
 		}
 		for (Decl.Unit decl : module.getExterns()) {
-			visitDeclaration(decl, data);
+			units.add(decl);
 		}
+		return units;
 	}
 
 	public void visitDeclaration(Decl decl, T data) {
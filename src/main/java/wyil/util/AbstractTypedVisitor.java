@@ -29,6 +29,7 @@ import static wyil.lang.WyilFile.*;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import wybs.util.AbstractCompilationUnit.Identifier;
@@ -1358,6 +1359,10 @@ public abstract class AbstractTypedVisitor {
 	 */
 	public static class Environment implements LifetimeRelation {
 		private final Map<String, String[]> withins;
+		/**
+		 * Fingerprint of the within relation, or <code>null</code> if not yet computed.
+		 */
+		private Map<String, List<String>> fingerprint;
 
 		public Environment() {
 			this.withins = new HashMap<>();
@@ -1379,6 +1384,20 @@ public abstract class AbstractTypedVisitor {
 			}
 		}
 
+		@Override
+		public Object getFingerprint() {
+			Map<String, List<String>> r = fingerprint;
+			if (r == null) {
+				// NOTE: withins are never modified once this environment is constructed.
+				r = new HashMap<>();
+				for (Map.Entry<String, String[]> w : withins.entrySet()) {
+					r.put(w.getKey(), Arrays.asList(w.getValue()));
+				}
+				fingerprint = r;
+			}
+			return r;
+		}
+
 		public Environment declareWithin(String inner, Tuple<Identifier> outers) {
 			String[] outs = new String[outers.size()];
 			for (int i = 0; i != outs.length; ++i) {
@@ -0,0 +1,110 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyc.testing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import wyc.util.TestUtils;
+import wycc.util.Pair;
+
+/**
+ * Run through the invalid test cases with parallel checking enabled. To ensure
+ * each check is actually applied to several units concurrently, test cases are
+ * grouped together and each group is compiled as a single module. A successful
+ * test occurs when the output produced is identical to that of compiling the
+ * same group sequentially.
+ *
+ * @author David J. Pearce
+ *
+ */
+@RunWith(Parameterized.class)
+public class AllInvalidParallelTest {
+	/**
+	 * The number of test cases compiled together as a single module.
+	 */
+	public final static int GROUP_SIZE = 8;
+
+	// ======================================================================
+	// Test Harness
+	// ======================================================================
+
+	/**
+	 * Compile a group of invalid test cases both sequentially and in parallel,
+	 * and check the output produced is identical.
+	 *
+	 * @param names
+	 *            Names of the tests to compile. These must correspond to whiley
+	 *            source files in the <code>WHILEY_SRC_DIR</code> directory.
+	 * @throws IOException
+	 */
+	protected void runTest(String... names) throws IOException {
+		File whileySrcDir = new File(AllInvalidTest.WHILEY_SRC_DIR);
+		//
+		Pair<Boolean, String> sequential = TestUtils.compile(whileySrcDir, false, false,
+				task -> task.setParallel(false), names);
+		Pair<Boolean, String> parallel = TestUtils.compile(whileySrcDir, false, false,
+				task -> task.setParallel(true), names);
+		//
+		assertEquals(sequential.second(), parallel.second());
+		assertEquals(sequential.first(), parallel.first());
+	}
+
+	// ======================================================================
+	// Tests
+	// ======================================================================
+
+	// Parameter to test case is the group of tests to compile.
+	// It will be passed to the constructor by JUnit.
+	private final String[] testNames;
+	public AllInvalidParallelTest(String testName, String[] testNames) {
+		this.testNames = testNames;
+	}
+
+	// Here we group together all available test cases.
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> data() {
+		ArrayList<Object[]> groups = new ArrayList<>();
+		List<String> group = new ArrayList<>();
+		for (Object[] test : TestUtils.findTestNames(AllInvalidTest.WHILEY_SRC_DIR)) {
+			String name = (String) test[0];
+			if (!AllInvalidTest.IGNORED.containsKey(name)) {
+				group.add(name);
+			}
+			if (group.size() == GROUP_SIZE) {
+				groups.add(new Object[] { group.get(0), group.toArray(new String[group.size()]) });
+				group.clear();
+			}
+		}
+		if (!group.isEmpty()) {
+			groups.add(new Object[] { group.get(0), group.toArray(new String[group.size()]) });
+		}
+		return groups;
+	}
+
+	@Test
+	public void invalid() throws IOException {
+		runTest(this.testNames);
+	}
+}
@@ -0,0 +1,229 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyc.testing;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.junit.*;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import wyc.util.TestUtils;
+import wycc.util.Pair;
+import wyfs.util.Trie;
+import wyil.interpreter.ClosureInterpreter;
+import wyil.interpreter.Interpreter;
+
+/**
+ * Run through all valid test cases using each available execution engine. This
+ * ensures that every engine (and every configuration of an engine) agrees on
+ * the valid test suite. As for <code>AllValidTest</code>, a successful test
+ * occurs when the compiler succeeds and the compiled file then executes without
+ * error. Furthermore, when compiling into bytecode, at least one function or
+ * method must actually be compiled (unless the test is known not to permit
+ * this).
+ *
+ * @author David J. Pearce
+ *
+ */
+@RunWith(Parameterized.class)
+public class AllValidEngineTest {
+
+	/**
+	 * The execution engines being tested, each identified by a short name.
+	 */
+	public final static Map<String, Supplier<Interpreter>> ENGINES = new LinkedHashMap<>();
+
+	static {
+		// The tree-walking interpreter
+		ENGINES.put("interpreter", () -> new Interpreter(System.out));
+		// The interpreter, checking only the contracts of public functions and methods
+		ENGINES.put("boundary", () -> new Interpreter(System.out, Interpreter.Contracts.BOUNDARY));
+		// The interpreter, checking no contracts at all
+		ENGINES.put("unchecked", () -> new Interpreter(System.out, Interpreter.Contracts.NONE));
+		// The interpreter with aliasing checks for in-place updates
+		ENGINES.put("aliasing", () -> new Interpreter(System.out).setCheckAliasing(true));
+		// The interpreter, evaluating large quantifiers in parallel
+		ENGINES.put("parallel", () -> new Interpreter(System.out).setParallelQuantifiers(true));
+		// The closure-compiled interpreter, without any bytecode generation
+		ENGINES.put("closure", () -> new ClosureInterpreter(System.out));
+		// The closure-compiled interpreter, compiling every function to bytecode
+		ENGINES.put("bytecode", () -> new ClosureInterpreter(System.out).setCompileThreshold(0));
+	}
+
+	/**
+	 * Tests for which no function or method can be compiled into bytecode, and a
+	 * reason why. Every other test must have at least one function or method
+	 * compiled into bytecode when using the <code>bytecode</code> engine.
+	 */
+	public final static Map<String, String> NOT_COMPILED = new HashMap<>();
+
+	static {
+		// Uses debug statements
+		NOT_COMPILED.put("Syntax_Valid_1", "uses debug statements");
+		// Uses lambdas
+		NOT_COMPILED.put("AddressExpression_Valid_1", "uses lambdas");
+		NOT_COMPILED.put("AddressExpression_Valid_2", "uses lambdas");
+		NOT_COMPILED.put("AddressExpression_Valid_3", "uses lambdas");
+		NOT_COMPILED.put("AddressExpression_Valid_4", "uses lambdas");
+		NOT_COMPILED.put("FunctionRef_Valid_1", "uses lambdas");
+		NOT_COMPILED.put("FunctionRef_Valid_2", "uses lambdas");
+		NOT_COMPILED.put("FunctionRef_Valid_5", "uses lambdas");
+		NOT_COMPILED.put("FunctionRef_Valid_6", "uses lambdas");
+		NOT_COMPILED.put("FunctionRef_Valid_8", "uses lambdas");
+		NOT_COMPILED.put("Lambda_Valid_1", "uses lambdas");
+		NOT_COMPILED.put("Lambda_Valid_2", "uses lambdas");
+		NOT_COMPILED.put("Lambda_Valid_9", "uses lambdas");
+		NOT_COMPILED.put("Lambda_Valid_10", "uses lambdas");
+		NOT_COMPILED.put("Lambda_Valid_11", "uses lambdas");
+		NOT_COMPILED.put("Lifetime_Lambda_Valid_1", "uses lambdas");
+		NOT_COMPILED.put("Lifetime_Lambda_Valid_3", "uses lambdas");
+		NOT_COMPILED.put("MethodRef_Valid_1", "uses lambdas");
+		NOT_COMPILED.put("MethodRef_Valid_2", "uses lambdas");
+		NOT_COMPILED.put("OpenRecord_Valid_3", "uses lambdas");
+		NOT_COMPILED.put("Template_Valid_22", "uses lambdas");
+		// Uses lambdas and references
+		NOT_COMPILED.put("FunctionRef_Valid_9", "uses lambdas and references");
+		NOT_COMPILED.put("MessageRef_Valid_1", "uses lambdas and references");
+		NOT_COMPILED.put("MessageRef_Valid_2", "uses lambdas and references");
+		NOT_COMPILED.put("MethodCall_Valid_4", "uses lambdas and references");
+		// Uses references
+		NOT_COMPILED.put("Lambda_Valid_12", "uses references");
+		NOT_COMPILED.put("Lifetime_Lambda_Valid_4", "uses references");
+		NOT_COMPILED.put("Lifetime_Valid_1", "uses references");
+		NOT_COMPILED.put("Lifetime_Valid_2", "uses references");
+		NOT_COMPILED.put("Lifetime_Valid_3", "uses references");
+		NOT_COMPILED.put("Lifetime_Valid_4", "uses references");
+		NOT_COMPILED.put("Lifetime_Valid_5", "uses references");
+		NOT_COMPILED.put("Lifetime_Valid_6", "uses references");
+		NOT_COMPILED.put("Lifetime_Valid_9", "uses references");
+		NOT_COMPILED.put("Lifetime_Valid_11", "uses references");
+		NOT_COMPILED.put("ProcessAccess_Valid_1", "uses references");
+		NOT_COMPILED.put("ProcessAccess_Valid_2", "uses references");
+		NOT_COMPILED.put("Process_Valid_1", "uses references");
+		NOT_COMPILED.put("Process_Valid_4", "uses references");
+		NOT_COMPILED.put("Process_Valid_5", "uses references");
+		NOT_COMPILED.put("Process_Valid_9", "uses references");
+		NOT_COMPILED.put("Process_Valid_10", "uses references");
+		NOT_COMPILED.put("Process_Valid_11", "uses references");
+		NOT_COMPILED.put("Process_Valid_12", "uses references");
+		NOT_COMPILED.put("RecordAccess_Valid_1", "uses references");
+		NOT_COMPILED.put("Reference_Valid_1", "uses references");
+		NOT_COMPILED.put("Reference_Valid_2", "uses references");
+		NOT_COMPILED.put("Reference_Valid_3", "uses references");
+		NOT_COMPILED.put("Reference_Valid_4", "uses references");
+		NOT_COMPILED.put("Reference_Valid_5", "uses references");
+		NOT_COMPILED.put("Reference_Valid_6", "uses references");
+		NOT_COMPILED.put("Reference_Valid_7", "uses references");
+		NOT_COMPILED.put("Template_Valid_5", "uses references");
+		NOT_COMPILED.put("Template_Valid_27", "uses references");
+		NOT_COMPILED.put("UnionType_Valid_24", "uses references");
+		// Uses static variables
+		NOT_COMPILED.put("Constant_Valid_3", "uses static variables");
+		NOT_COMPILED.put("ConstrainedRecord_Valid_8", "uses static variables");
+		NOT_COMPILED.put("ListAssign_Valid_4", "uses static variables");
+		NOT_COMPILED.put("Process_Valid_3", "uses static variables");
+		NOT_COMPILED.put("RecursiveType_Valid_11", "uses static variables");
+		NOT_COMPILED.put("RecursiveType_Valid_13", "uses static variables");
+		NOT_COMPILED.put("RecursiveType_Valid_14", "uses static variables");
+		NOT_COMPILED.put("RecursiveType_Valid_15", "uses static variables");
+		NOT_COMPILED.put("StaticVar_Valid_1", "uses static variables");
+		NOT_COMPILED.put("StaticVar_Valid_2", "uses static variables");
+		NOT_COMPILED.put("StaticVar_Valid_3", "uses static variables");
+		NOT_COMPILED.put("StaticVar_Valid_4", "uses static variables");
+		NOT_COMPILED.put("StaticVar_Valid_5", "uses static variables");
+		NOT_COMPILED.put("StaticVar_Valid_6", "uses static variables");
+		NOT_COMPILED.put("StaticVar_Valid_7", "uses static variables");
+		NOT_COMPILED.put("StaticVar_Valid_8", "uses static variables");
+		NOT_COMPILED.put("Switch_Valid_4", "uses static variables");
+		NOT_COMPILED.put("Switch_Valid_5", "uses static variables");
+		NOT_COMPILED.put("While_Valid_19", "uses static variables");
+	}
+
+	// ======================================================================
+	// Test Harness
+	// ======================================================================
+
+	protected void runTest(String engine, String testName) throws IOException {
+		File whileySrcDir = new File(AllValidTest.WHILEY_SRC_DIR);
+		//
+		Pair<Boolean,String> p = TestUtils.compile(
+				whileySrcDir,      // location of source directory
+				false,             // no verification
+				false,             // no counterexample generation
+				testName);     // name of test to compile
+
+		boolean r = p.first();
+
+		System.out.print(p.second());
+		if (!r) {
+			fail("Test failed to compile!");
+		}
+		// Execute the compile WyIL file
+		Interpreter interpreter = ENGINES.get(engine).get();
+		TestUtils.execWyil(whileySrcDir, Trie.fromString(testName), interpreter);
+		// Check that bytecode was actually generated (where possible)
+		if (engine.equals("bytecode") && !NOT_COMPILED.containsKey(testName)) {
+			int compiled = ((ClosureInterpreter) interpreter).getCompiledCount();
+			assertTrue("Test " + testName + " compiled nothing into bytecode", compiled > 0);
+		}
+	}
+
+	// ======================================================================
+	// Tests
+	// ======================================================================
+
+	private final String engine;
+	private final String testName;
+
+	public AllValidEngineTest(String engine, String testName) {
+		this.engine = engine;
+		this.testName = testName;
+	}
+
+	// Here we enumerate all available test cases for each engine.
+	@Parameters(name = "{0}:{1}")
+	public static Collection<Object[]> data() {
+		ArrayList<Object[]> data = new ArrayList<>();
+		for (String engine : ENGINES.keySet()) {
+			for (Object[] test : TestUtils.findTestNames(AllValidTest.WHILEY_SRC_DIR)) {
+				data.add(new Object[] { engine, test[0] });
+			}
+		}
+		return data;
+	}
+
+	// Skip ignored tests
+	@Before
+	public void beforeMethod() {
+		String ignored = AllValidTest.IGNORED.get(this.testName);
+		Assume.assumeTrue("Test " + this.testName + " skipped: " + ignored, ignored == null);
+	}
+
+	@Test
+	public void valid() throws IOException {
+		runTest(this.engine, this.testName);
+	}
+}
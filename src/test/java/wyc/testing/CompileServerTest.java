@@ -0,0 +1,128 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyc.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.*;
+
+import wybs.util.StdBuildGraph;
+import wybs.util.StdProject;
+import wyc.lang.WhileyFile;
+import wyc.task.CompileTask;
+import wyc.util.BuildUtils;
+import wyc.util.CompileServer;
+import wyfs.lang.Path;
+import wyfs.util.DirectoryRoot;
+import wyfs.util.Trie;
+import wyil.lang.WyilFile;
+
+/**
+ * Check the request protocol of the compile server, and that external
+ * dependencies are only read once across builds.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class CompileServerTest {
+	private File libdir;
+	private File appdir;
+
+	@Before
+	public void setup() throws IOException {
+		libdir = Files.createTempDirectory("lib").toFile();
+		appdir = Files.createTempDirectory("app").toFile();
+	}
+
+	@After
+	public void teardown() {
+		for (File dir : new File[] { libdir, appdir }) {
+			for (File f : dir.listFiles()) {
+				f.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	@Test
+	public void server_01() throws IOException {
+		// A package containing one unit
+		write(libdir, "x", "public function g(int v) -> (int r):", "    return v + 1");
+		Path.Root lib = new DirectoryRoot(libdir, new BuildUtils.Registry());
+		Path.Entry<WhileyFile> x = lib.get(Trie.fromString("x"), WhileyFile.ContentType);
+		Path.Entry<WyilFile> pkg = BuildUtils.findSourceFiles(lib, new StdBuildGraph(), "x").second();
+		assertTrue(new CompileTask(new StdProject(lib), lib).build(pkg, Arrays.asList(x)));
+		pkg.flush();
+		// A project which imports it
+		write(appdir, "main", "import x", //
+				"function f(int v) -> (int r):", "    return x::g(v)");
+		CompileServer server = new CompileServer();
+		// Register the package and build against it
+		assertEquals("ok\nok\n", serve(server, "package " + libdir, "build " + appdir + " main"));
+		assertEquals(1, server.getCache().getMisses());
+		assertEquals(0, server.getCache().getHits());
+		// Build again, which should reuse the package
+		assertEquals("ok\n", serve(server, "build " + appdir + " main"));
+		assertEquals(1, server.getCache().getMisses());
+		assertTrue(server.getCache().getHits() > 0);
+		// Finally, shutdown the server
+		assertEquals("ok\n", serve(server, "quit"));
+	}
+
+	@Test
+	public void server_02() throws IOException {
+		// Errors are reported, followed by "failed"
+		write(appdir, "main", "function f(int v) -> (bool r):", "    return v");
+		CompileServer server = new CompileServer();
+		String output = serve(server, "build " + appdir + " main");
+		assertTrue(output, output.endsWith("failed\n"));
+		assertFalse(output, output.startsWith("failed"));
+		// Malformed requests are rejected
+		assertEquals("usage: build <dir> <file>\n", serve(server, "build " + appdir));
+		assertEquals("unknown request: make\n", serve(server, "make"));
+	}
+
+	// ======================================================================
+	// Helpers
+	// ======================================================================
+
+	private static String serve(CompileServer server, String... requests) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream(out);
+		server.serve(new BufferedReader(new StringReader(String.join("\n", requests))), ps);
+		ps.flush();
+		return out.toString().replace(System.lineSeparator(), "\n");
+	}
+
+	private static void write(File dir, String name, String... lines) throws IOException {
+		try (FileWriter fw = new FileWriter(new File(dir, name + ".whiley"))) {
+			for (String line : lines) {
+				fw.write(line);
+				fw.write("\n");
+			}
+		}
+	}
+}
@@ -0,0 +1,139 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyc.testing;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.*;
+
+import wyc.util.TestUtils;
+import wycc.util.Pair;
+import wyfs.util.Trie;
+import wyil.interpreter.ClosureInterpreter;
+import wyil.interpreter.Interpreter;
+import wyil.interpreter.Interpreter.Contracts;
+
+/**
+ * Check that the contracts checked at runtime are determined by the selected
+ * mode. Each test runs a program which violates the precondition of a private
+ * function, and checks whether or not the violation is caught.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ContractsTest {
+	private File dir;
+
+	@Before
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("contracts").toFile();
+	}
+
+	@After
+	public void teardown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void contracts_01() throws IOException {
+		compile("test", VIOLATION);
+		assertTrue(caught("test", new Interpreter(System.out, Contracts.FULL)));
+		assertTrue(caught("test", new ClosureInterpreter(System.out, Contracts.FULL)));
+	}
+
+	@Test
+	public void contracts_02() throws IOException {
+		compile("test", VIOLATION);
+		assertFalse(caught("test", new Interpreter(System.out, Contracts.NONE)));
+		assertFalse(caught("test", new ClosureInterpreter(System.out, Contracts.NONE)));
+	}
+
+	@Test
+	public void contracts_03() throws IOException {
+		// The violating function is private and, hence, not on the boundary
+		compile("test", VIOLATION);
+		assertFalse(caught("test", new Interpreter(System.out, Contracts.BOUNDARY)));
+		assertFalse(caught("test", new ClosureInterpreter(System.out, Contracts.BOUNDARY)));
+	}
+
+	@Test
+	public void contracts_04() throws IOException {
+		// The first call to each function is checked, no matter how often other
+		// functions are called.
+		compile("test", VIOLATION);
+		assertTrue(caught("test", new Interpreter(System.out, Contracts.SAMPLED(2))));
+		assertTrue(caught("test", new ClosureInterpreter(System.out, Contracts.SAMPLED(2))));
+	}
+
+	// ======================================================================
+	// Helpers
+	// ======================================================================
+
+	/**
+	 * A program where <code>f</code> is called in violation of its precondition,
+	 * after <code>g</code> has been called several times.
+	 */
+	private static final String[] VIOLATION = { //
+			"function f(int x) -> (int r)", //
+			"requires x > 0:", //
+			"    return x", //
+			"function g(int x) -> (int r):", //
+			"    return x", //
+			"public export method test():", //
+			"    int y = g(1)", //
+			"    y = g(2)", //
+			"    y = f(0)" //
+	};
+
+	private void compile(String name, String... lines) throws IOException {
+		try (FileWriter fw = new FileWriter(new File(dir, name + ".whiley"))) {
+			for (String line : lines) {
+				fw.write(line);
+				fw.write("\n");
+			}
+		}
+		Pair<Boolean, String> p = TestUtils.compile(dir, false, false, name);
+		if (!p.first()) {
+			fail("Test failed to compile!\n" + p.second());
+		}
+	}
+
+	/**
+	 * Execute a compiled program using a given interpreter, and determine whether
+	 * or not a contract violation was caught.
+	 *
+	 * @param name
+	 * @param interpreter
+	 * @return
+	 * @throws IOException
+	 */
+	private boolean caught(String name, Interpreter interpreter) throws IOException {
+		try {
+			TestUtils.execWyil(dir, Trie.fromString(name), interpreter);
+			return false;
+		} catch (AssertionError e) {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyc.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.*;
+
+import wybs.lang.Build;
+import wybs.util.AbstractCompilationUnit.Identifier;
+import wybs.util.AbstractCompilationUnit.Name;
+import wybs.util.AbstractCompilationUnit.Tuple;
+import wybs.util.StdProject;
+import wycc.cfg.Configuration;
+import wyc.lang.WhileyFile;
+import wyc.task.CompileTask;
+import wyc.util.TestUtils;
+import wyfs.lang.Path;
+import wyfs.util.DirectoryRoot;
+import wyfs.util.Trie;
+import wyil.io.SymbolDirectory;
+import wyil.io.WyilFileCache;
+import wyil.io.WyilFileReader;
+import wyil.lang.WyilFile;
+
+/**
+ * Check that declarations are only deserialised from an external package when
+ * they are actually imported.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ExternalPackageTest {
+	private File libdir;
+	private File appdir;
+	private Path.Root lib;
+	private Path.Root app;
+
+	@Before
+	public void setup() throws IOException {
+		libdir = Files.createTempDirectory("lib").toFile();
+		appdir = Files.createTempDirectory("app").toFile();
+		lib = new DirectoryRoot(libdir, new TestUtils.Registry());
+		app = new DirectoryRoot(appdir, new TestUtils.Registry());
+	}
+
+	@After
+	public void teardown() {
+		for (File dir : new File[] { libdir, appdir }) {
+			for (File f : dir.listFiles()) {
+				f.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	@Test
+	public void external_01() throws IOException {
+		// A package containing two units
+		write(libdir, "x", "public type T is (int n) where n >= 0", //
+				"public function g(T v) -> (int r):", "    return v + 1");
+		write(libdir, "y", "public type U is (int n) where n < 0", //
+				"public function h(U v) -> (int r):", "    return v - 1");
+		lib.refresh();
+		Path.Entry<WyilFile> pkg = createTarget(lib, "pkg");
+		CompileTask task = new CompileTask(new StdProject(lib), lib);
+		assertTrue(task.build(pkg, Arrays.asList(source(lib, "x"), source(lib, "y"))));
+		pkg.flush();
+		// A project which imports only one of them
+		write(appdir, "main", "import x", //
+				"function f(x::T v) -> (int r):", "    return x::g(v)");
+		app.refresh();
+		StdProject project = new StdProject(app);
+		project.getPackages().add(new Build.Package() {
+			@Override
+			public Configuration getConfiguration() {
+				return null;
+			}
+
+			@Override
+			public Path.Root getRoot() {
+				return lib;
+			}
+		});
+		WyilFileCache cache = new WyilFileCache();
+		Path.Entry<WyilFile> target = createTarget(app, "main");
+		assertTrue(new CompileTask(project, app).setCache(cache).build(target, Arrays.asList(source(app, "main"))));
+		// Only unit x should have been deserialised from the package
+		WyilFile wf = cache.read(pkg);
+		assertEquals(1, cache.getHits());
+		List<SymbolDirectory.Unit> units = WyilFileReader.load(pkg).readDirectory().getUnits();
+		for (SymbolDirectory.Unit unit : units) {
+			boolean imported = unit.getName().toString().equals("x");
+			assertEquals(unit.getName().toString(), imported, wf.isDecoded(unit.getIndex()));
+			for (int[] indices : unit.getSymbols().values()) {
+				for (int index : indices) {
+					assertEquals(imported, wf.isDecoded(index));
+				}
+			}
+		}
+		// Nor should the body of the imported function
+		int g = units.get(0).getSymbols().get(new Identifier("g"))[0];
+		WyilFile.Decl.Function original = (WyilFile.Decl.Function) pkg.read().getSyntacticItem(g);
+		assertFalse(wf.isDecoded(original.getBody().getIndex()));
+	}
+
+	// ======================================================================
+	// Helpers
+	// ======================================================================
+
+	private static void write(File dir, String name, String... lines) throws IOException {
+		try (FileWriter fw = new FileWriter(new File(dir, name + ".whiley"))) {
+			for (String line : lines) {
+				fw.write(line);
+				fw.write("\n");
+			}
+		}
+	}
+
+	private static Path.Entry<WhileyFile> source(Path.Root root, String name) throws IOException {
+		return root.get(Trie.fromString(name), WhileyFile.ContentType);
+	}
+
+	private static Path.Entry<WyilFile> createTarget(Path.Root root, String name) throws IOException {
+		Path.ID id = Trie.fromString(name);
+		Path.Entry<WyilFile> target = root.create(id, WyilFile.ContentType);
+		WyilFile wf = new WyilFile(target);
+		target.write(wf);
+		wf.setRootItem(new WyilFile.Decl.Module(new Name(id), new Tuple<>(), new Tuple<>(), new Tuple<>()));
+		return target;
+	}
+}
@@ -0,0 +1,252 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyc.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.*;
+
+import wybs.util.AbstractCompilationUnit.Name;
+import wybs.util.AbstractCompilationUnit.Tuple;
+import wybs.util.StdProject;
+import wyc.lang.WhileyFile;
+import wyc.task.CompileTask;
+import wyc.util.TestUtils;
+import wycc.util.Logger;
+import wyfs.lang.Path;
+import wyfs.util.DirectoryRoot;
+import wyfs.util.Trie;
+import wyil.lang.WyilFile;
+import wyil.lang.WyilFile.Decl;
+import wyil.lang.WyilFile.Type;
+import wyil.type.subtyping.RelaxedTypeEmptinessTest;
+import wyil.type.subtyping.SubtypeLattice;
+import wyil.type.subtyping.SubtypeOperator;
+
+/**
+ * Check that incremental compilation resolves and checks again exactly those
+ * declarations affected by a change. That is, the declarations of a changed
+ * unit and those declarations in other units which (transitively) depend upon
+ * them, or which refer to a name the changed unit declares. Also check that
+ * the subtype lattice is kept consistent with those changes.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class IncrementalCompileTest {
+	private File dir;
+	private Path.Root root;
+	private StdProject project;
+	private List<String> messages;
+
+	@Before
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("incremental").toFile();
+		root = new DirectoryRoot(dir, new TestUtils.Registry());
+		project = new StdProject(root);
+		messages = new ArrayList<>();
+		project.setLogger(new Logger() {
+			@Override
+			public void logTimedMessage(String msg, long time, long memory) {
+				messages.add(msg);
+			}
+		});
+	}
+
+	@After
+	public void teardown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void incremental_01() throws IOException {
+		// Change to a type used (indirectly) from an untouched unit
+		write("a", "public type T is int", "public type U is int");
+		write("b", "import a", //
+				"public type V is a::T", //
+				"function f(V x) -> (int r):", "    return x", //
+				"function g(a::U y) -> (int r):", "    return y", //
+				"function h() -> (int r):", "    return 1");
+		Path.Entry<WhileyFile> a = root.get(Trie.fromString("a"), WhileyFile.ContentType);
+		Path.Entry<WhileyFile> b = root.get(Trie.fromString("b"), WhileyFile.ContentType);
+		Path.Entry<WyilFile> target = createTarget("m");
+		CompileTask task = new CompileTask(project, root).setIncremental(true);
+		// Initial compilation checks everything
+		assertTrue(task.build(target, Arrays.asList(a, b)));
+		assertEquals("", markers(target, a, b));
+		// Change the type of T from int to bool
+		write("a", "public type T is bool", "public type U is int");
+		a.refresh();
+		messages.clear();
+		assertFalse(task.build(target, Arrays.asList(a, b), Collections.singleton(a)));
+		// Only T, U, V, f and g are checked again (but not h)
+		assertTrue(messages.toString(), messages.contains("Parsed 1 source file(s), with 5 declaration(s) to check."));
+		// The error is reported in the untouched unit
+		String output = markers(target, a, b);
+		assertTrue(output, output.startsWith(new File(dir, "b.whiley") + ":4: expected type int, found V"));
+	}
+
+	@Test
+	public void incremental_02() throws IOException {
+		// Change to a function not used from any other unit
+		write("a", "public function f(int x) -> (int r):", "    return x", //
+				"public function g(int x) -> (int r):", "    return x");
+		write("b", "import a", //
+				"function h(int y) -> (int r):", "    return a::f(y)");
+		write("c", "function k() -> (int r):", "    return 1");
+		Path.Entry<WhileyFile> a = root.get(Trie.fromString("a"), WhileyFile.ContentType);
+		Path.Entry<WhileyFile> b = root.get(Trie.fromString("b"), WhileyFile.ContentType);
+		Path.Entry<WhileyFile> c = root.get(Trie.fromString("c"), WhileyFile.ContentType);
+		Path.Entry<WyilFile> target = createTarget("m");
+		CompileTask task = new CompileTask(project, root).setIncremental(true);
+		assertTrue(task.build(target, Arrays.asList(a, b, c)));
+		// Change the body of g
+		write("a", "public function f(int x) -> (int r):", "    return x", //
+				"public function g(int x) -> (int r):", "    return x + 1");
+		a.refresh();
+		messages.clear();
+		assertTrue(task.build(target, Arrays.asList(a, b, c), Collections.singleton(a)));
+		// Only f, g and h are checked again (but not k)
+		assertTrue(messages.toString(), messages.contains("Parsed 1 source file(s), with 3 declaration(s) to check."));
+		assertEquals("", markers(target, a, b, c));
+	}
+
+	@Test
+	public void incremental_03() throws IOException {
+		// Adding an overload for a name used from another unit
+		write("a", "public function g(int x) -> (int r):", "    return x");
+		write("b", "import f from c", //
+				"function h(int y) -> (int r):", "    return f(y)", //
+				"function k() -> (int r):", "    return 1");
+		write("c", "public function f(int x) -> (int r):", "    return x");
+		Path.Entry<WhileyFile> a = root.get(Trie.fromString("a"), WhileyFile.ContentType);
+		Path.Entry<WhileyFile> b = root.get(Trie.fromString("b"), WhileyFile.ContentType);
+		Path.Entry<WhileyFile> c = root.get(Trie.fromString("c"), WhileyFile.ContentType);
+		Path.Entry<WyilFile> target = createTarget("m");
+		CompileTask task = new CompileTask(project, root).setIncremental(true);
+		assertTrue(task.build(target, Arrays.asList(a, b, c)));
+		// Declare f in a as well, which h does not link to
+		write("a", "public function g(int x) -> (int r):", "    return x", //
+				"public function f(bool x) -> (int r):", "    return 0");
+		a.refresh();
+		messages.clear();
+		assertTrue(task.build(target, Arrays.asList(a, b, c), Collections.singleton(a)));
+		// Since h refers to f, its links are resolved again (but not k)
+		assertTrue(messages.toString(), messages.contains("Parsed 1 source file(s), with 3 declaration(s) to check."));
+		assertEquals("", markers(target, a, b, c));
+	}
+
+	@Test
+	public void incremental_04() throws IOException {
+		// The subtype lattice agrees with the subtype operator after changes
+		write("a", "public type T is int", "public type U is int|null", "public type R is {int f}");
+		write("b", "import a", //
+				"type V is a::T", //
+				"type W is a::U|bool", //
+				"type S is {int f, int g}");
+		Path.Entry<WhileyFile> a = root.get(Trie.fromString("a"), WhileyFile.ContentType);
+		Path.Entry<WhileyFile> b = root.get(Trie.fromString("b"), WhileyFile.ContentType);
+		Path.Entry<WyilFile> target = createTarget("m");
+		CompileTask task = new CompileTask(project, root).setIncremental(true).setLattice(true);
+		assertTrue(task.build(target, Arrays.asList(a, b)));
+		checkLattice(task, target, 6);
+		// Change T from int to bool, such that U is no longer a supertype of T or V
+		write("a", "public type T is bool", "public type U is int|null", "public type R is {int f}");
+		a.refresh();
+		assertTrue(task.build(target, Arrays.asList(a, b), Collections.singleton(a)));
+		checkLattice(task, target, 6);
+		// Remove R and add Q, leaving the declarations of b untouched
+		write("a", "public type T is bool", "public type U is int|null", "public type Q is int");
+		a.refresh();
+		assertTrue(task.build(target, Arrays.asList(a, b), Collections.singleton(a)));
+		checkLattice(task, target, 6);
+	}
+
+	// ======================================================================
+	// Helpers
+	// ======================================================================
+
+	/**
+	 * Check that the lattice computed for a target holds a given number of
+	 * declarations, and gives the same answer as the subtype operator for every
+	 * pair of declared types in the target.
+	 */
+	private static void checkLattice(CompileTask task, Path.Entry<WyilFile> target, int size) throws IOException {
+		SubtypeLattice lattice = task.getLattice(target.id());
+		assertEquals(size, lattice.size());
+		SubtypeOperator expected = new SubtypeOperator(new RelaxedTypeEmptinessTest());
+		SubtypeOperator actual = new SubtypeOperator(new RelaxedTypeEmptinessTest()).setLattice(lattice);
+		List<Type.Nominal> types = new ArrayList<>();
+		for (Decl.Unit unit : target.read().getModule().getUnits()) {
+			for (Decl decl : unit.getDeclarations()) {
+				if (decl instanceof Decl.Type) {
+					types.add(new Type.Nominal(new Decl.Link<>(new Name(decl.getName()), (Decl.Type) decl),
+							new Tuple<>()));
+				}
+			}
+		}
+		for (Type.Nominal lhs : types) {
+			for (Type.Nominal rhs : types) {
+				assertEquals(lhs + " :> " + rhs, expected.isSubtype(lhs, rhs, null), actual.isSubtype(lhs, rhs, null));
+			}
+		}
+		// Nothing is left to the operator
+		assertEquals(0, actual.getCacheMisses());
+	}
+
+	private void write(String name, String... lines) throws IOException {
+		try (FileWriter fw = new FileWriter(new File(dir, name + ".whiley"))) {
+			for (String line : lines) {
+				fw.write(line);
+				fw.write("\n");
+			}
+		}
+		root.refresh();
+	}
+
+	private Path.Entry<WyilFile> createTarget(String name) throws IOException {
+		Path.ID id = Trie.fromString(name);
+		Path.Entry<WyilFile> target = root.create(id, WyilFile.ContentType);
+		WyilFile wf = new WyilFile(target);
+		target.write(wf);
+		wf.setRootItem(new WyilFile.Decl.Module(new Name(id), new Tuple<>(), new Tuple<>(), new Tuple<>()));
+		return target;
+	}
+
+	@SafeVarargs
+	private static String markers(Path.Entry<WyilFile> target, Path.Entry<WhileyFile>... sources)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream(out);
+		wycc.commands.Build.printSyntacticMarkers(ps, new ArrayList<>(Arrays.asList(sources)), target);
+		ps.flush();
+		return out.toString();
+	}
+}
@@ -0,0 +1,163 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyc.testing;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import wybs.lang.SyntacticItem;
+import wybs.util.AbstractCompilationUnit.Name;
+import wybs.util.AbstractCompilationUnit.Tuple;
+import wybs.util.StdProject;
+import wyc.lang.WhileyFile;
+import wyc.task.CompileTask;
+import wyc.util.TestUtils;
+import wyfs.lang.Path;
+import wyfs.util.DirectoryRoot;
+import wyfs.util.Trie;
+import wyil.lang.WyilFile;
+
+/**
+ * Check that parsing source files in parallel produces exactly the same heap as
+ * parsing them sequentially. That is, the same items in the same order, with
+ * the same root and units, and with no items duplicated by merging.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ParallelParseTest {
+	private File dir;
+	private Path.Root root;
+	private StdProject project;
+
+	@Before
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("parallel").toFile();
+		root = new DirectoryRoot(dir, new TestUtils.Registry());
+		project = new StdProject(root);
+	}
+
+	@After
+	public void teardown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void parse_01() throws IOException {
+		// Units which share names, types and constants
+		write("a", "public type T is (int x) where x >= 0", //
+				"public function f(T x) -> (int r):", //
+				"    return x + 1");
+		write("b", "import a", //
+				"public type U is {a::T f, int g}", //
+				"function f(U u) -> (int r):", //
+				"    return a::f(u.f) + u.g");
+		write("c", "import a", "import b", //
+				"function g(int x) -> (int r):", //
+				"    int y = x + 1", //
+				"    return y * 2", //
+				"function h(b::U u) -> (a::T r):", //
+				"    return u.f");
+		checkIdentical(sources("a", "b", "c"));
+	}
+
+	@Test
+	public void parse_02() throws IOException {
+		// Many small units
+		String[] names = new String[16];
+		for (int i = 0; i != names.length; ++i) {
+			names[i] = "u" + i;
+			write(names[i], "public function f(int x) -> (int r):", "    return x + " + i);
+		}
+		checkIdentical(sources(names));
+	}
+
+	@Test
+	public void parse_03() throws IOException {
+		// Parsing again into a heap which already contains the units
+		write("a", "public type T is int");
+		write("b", "import a", "function f(a::T x) -> (int r):", "    return x");
+		List<Path.Entry<WhileyFile>> sources = sources("a", "b");
+		WyilFile sequential = parse(false, sources);
+		WyilFile parallel = parse(true, sources);
+		new CompileTask(project, root).setParallel(false).compile(sequential, sources);
+		new CompileTask(project, root).setParallel(true).compile(parallel, sources);
+		checkIdentical(sequential, parallel);
+	}
+
+	// ======================================================================
+	// Helpers
+	// ======================================================================
+
+	private void checkIdentical(List<Path.Entry<WhileyFile>> sources) throws IOException {
+		checkIdentical(parse(false, sources), parse(true, sources));
+	}
+
+	private WyilFile parse(boolean parallel, List<Path.Entry<WhileyFile>> sources) throws IOException {
+		WyilFile wf = new WyilFile(null);
+		wf.setRootItem(new WyilFile.Decl.Module(new Name(Trie.fromString("m")), new Tuple<>(), new Tuple<>(),
+				new Tuple<>()));
+		new CompileTask(project, root).setParallel(parallel).compile(wf, sources);
+		return wf;
+	}
+
+	private static void checkIdentical(WyilFile expected, WyilFile actual) {
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected.getRootItem().getIndex(), actual.getRootItem().getIndex());
+		for (int i = 0; i != expected.size(); ++i) {
+			SyntacticItem e = expected.getSyntacticItem(i);
+			SyntacticItem a = actual.getSyntacticItem(i);
+			assertEquals(e.getOpcode(), a.getOpcode());
+			assertArrayEquals(e.getData(), a.getData());
+			assertEquals(e.size(), a.size());
+			for (int j = 0; j != e.size(); ++j) {
+				SyntacticItem eo = e.get(j);
+				SyntacticItem ao = a.get(j);
+				assertEquals(eo == null ? -1 : eo.getIndex(), ao == null ? -1 : ao.getIndex());
+			}
+		}
+	}
+
+	private List<Path.Entry<WhileyFile>> sources(String... names) throws IOException {
+		ArrayList<Path.Entry<WhileyFile>> sources = new ArrayList<>();
+		for (String name : names) {
+			sources.add(root.get(Trie.fromString(name), WhileyFile.ContentType));
+		}
+		return sources;
+	}
+
+	private void write(String name, String... lines) throws IOException {
+		try (FileWriter fw = new FileWriter(new File(dir, name + ".whiley"))) {
+			for (String line : lines) {
+				fw.write(line);
+				fw.write("\n");
+			}
+		}
+		root.refresh();
+	}
+}
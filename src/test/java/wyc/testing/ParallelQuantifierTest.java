@@ -0,0 +1,166 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyc.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.*;
+
+import wyc.util.TestUtils;
+import wycc.util.Pair;
+import wyfs.util.Trie;
+import wyil.interpreter.ClosureInterpreter;
+import wyil.interpreter.Interpreter;
+
+/**
+ * Check that evaluating a quantifier in parallel has the same outcome as
+ * evaluating it sequentially. Specifically, when evaluating different elements
+ * of the range would find a counterexample or raise an exception, the outcome
+ * must be that of the first such element (in order), regardless of which is
+ * evaluated first. Each test is repeated a number of times to give such races
+ * a chance to occur.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ParallelQuantifierTest {
+	/**
+	 * The number of times each program is executed.
+	 */
+	private static final int REPEATS = 20;
+
+	/**
+	 * The values which can be stored in the array being quantified over, and the
+	 * outcome of evaluating the quantifier body on each.
+	 */
+	private static final int DIVIDE_BY_ZERO = 1;
+	private static final int COUNTEREXAMPLE = 2;
+	private static final int OUT_OF_BOUNDS = 3;
+
+	private File dir;
+
+	@Before
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("parallel").toFile();
+	}
+
+	@After
+	public void teardown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void parallel_01() throws IOException {
+		// A counterexample, followed by an exception
+		run(COUNTEREXAMPLE, DIVIDE_BY_ZERO, null);
+	}
+
+	@Test
+	public void parallel_02() throws IOException {
+		// An exception, followed by a counterexample
+		run(DIVIDE_BY_ZERO, COUNTEREXAMPLE, "java.lang.ArithmeticException");
+	}
+
+	@Test
+	public void parallel_03() throws IOException {
+		// Two different exceptions
+		run(OUT_OF_BOUNDS, DIVIDE_BY_ZERO, "java.lang.AssertionError: out-of-bounds");
+		run(DIVIDE_BY_ZERO, OUT_OF_BOUNDS, "java.lang.ArithmeticException");
+	}
+
+	// ======================================================================
+	// Helpers
+	// ======================================================================
+
+	/**
+	 * Compile and execute a program whose quantifier stops at two elements, and
+	 * check the outcome is that of the first. This is checked for both sequential
+	 * and parallel evaluation.
+	 *
+	 * @param first
+	 *            What happens at the first element.
+	 * @param second
+	 *            What happens at the second element.
+	 * @param expected
+	 *            The start of the description of the exception expected (see
+	 *            <code>outcome()</code>), or <code>null</code> if the quantifier
+	 *            should simply be false.
+	 * @throws IOException
+	 */
+	private void run(int first, int second, String expected) throws IOException {
+		String name = "test_" + first + "_" + second;
+		compile(name, //
+				"function check(int[] xs, int[] ys) -> (bool r):", //
+				"    return all { i in 0..|xs| | 10 / ys[xs[i]] > 0 }", //
+				"public export method test():", //
+				"    int[] xs = [0; 2000]", //
+				"    xs[100] = " + first, //
+				"    xs[1900] = " + second, //
+				"    int[] ys = [1, 0, -1]", //
+				"    assume !check(xs, ys)");
+		String sequential = outcome(name, new Interpreter(System.out));
+		if (expected == null) {
+			assertEquals(null, sequential);
+		} else {
+			assertTrue(sequential, sequential != null && sequential.startsWith(expected));
+		}
+		for (int i = 0; i != REPEATS; ++i) {
+			assertEquals(sequential, outcome(name, new Interpreter(System.out).setParallelQuantifiers(true)));
+			assertEquals(sequential, outcome(name, new ClosureInterpreter(System.out).setParallelQuantifiers(true)));
+		}
+	}
+
+	private void compile(String name, String... lines) throws IOException {
+		try (FileWriter fw = new FileWriter(new File(dir, name + ".whiley"))) {
+			for (String line : lines) {
+				fw.write(line);
+				fw.write("\n");
+			}
+		}
+		Pair<Boolean, String> p = TestUtils.compile(dir, false, false, name);
+		if (!p.first()) {
+			fail("Test failed to compile!\n" + p.second());
+		}
+	}
+
+	/**
+	 * Execute a compiled program using a given interpreter, and describe the
+	 * exception raised (if any). The description includes the message, since a
+	 * failed assumption and an out-of-bounds access are both reported as an
+	 * <code>AssertionError</code>.
+	 *
+	 * @param name
+	 * @param interpreter
+	 * @return
+	 * @throws IOException
+	 */
+	private String outcome(String name, Interpreter interpreter) throws IOException {
+		try {
+			TestUtils.execWyil(dir, Trie.fromString(name), interpreter);
+			return null;
+		} catch (RuntimeException | Error e) {
+			return e.getClass().getName() + ": " + e.getMessage();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyc.testing;
+
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.junit.*;
+
+import wyc.util.TestUtils;
+import wycc.util.Pair;
+import wyfs.util.Trie;
+import wyil.interpreter.Interpreter;
+
+/**
+ * Check that the interpreter does not reuse the result of a type test against
+ * a nominal type once it may have changed. That is, when the value tested has
+ * been updated in place, or when the type's invariant depends upon something
+ * other than the value itself (i.e. references or static variables). Each
+ * program is run on every engine.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class TypeTestCacheTest {
+	private File dir;
+
+	@Before
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("typetests").toFile();
+	}
+
+	@After
+	public void teardown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void typetest_01() throws IOException {
+		// Arrays and records updated in place, including an element of an array
+		// updated in place through the array.
+		run("test", //
+				"type sorted is (int[] xs) where all { i in 1..|xs| | xs[i-1] <= xs[i] }", //
+				"type point is ({int x, int y} p) where p.x <= p.y", //
+				"type origin is ({int x, int y}[] ps) where all { i in 0..|ps| | ps[i].x == 0 }", //
+				"public export method test():", //
+				"    int[] xs = [1,2,3]", //
+				"    assume xs is sorted", //
+				"    xs[0] = 5", //
+				"    assume !(xs is sorted)", //
+				"    xs[0] = 0", //
+				"    assume xs is sorted", //
+				"    xs[2] = -1", //
+				"    assume !(xs is sorted)", //
+				"    {int x, int y} p = {x:1, y:2}", //
+				"    assume p is point", //
+				"    p.x = 3", //
+				"    assume !(p is point)", //
+				"    p.y = 4", //
+				"    assume p is point", //
+				"    {int x, int y}[] ps = [{x:0, y:0}, {x:0, y:1}]", //
+				"    assume ps is origin", //
+				"    ps[1].x = 1", //
+				"    assume !(ps is origin)", //
+				"    ps[1].x = 0", //
+				"    assume ps is origin");
+	}
+
+	@Test
+	public void typetest_02() throws IOException {
+		// Types whose invariants read through references
+		run("test", //
+				"type positive is (&int p) where *p > 0", //
+				"type holder is ({&int ptr} r) where *(r.ptr) > 0", //
+				"public export method test():", //
+				"    &int p = new 1", //
+				"    {&int ptr} h = {ptr: p}", //
+				"    assume p is positive", //
+				"    assume h is holder", //
+				"    *p = 0", //
+				"    assume !(p is positive)", //
+				"    assume !(h is holder)", //
+				"    *p = 2", //
+				"    assume p is positive", //
+				"    assume h is holder");
+	}
+
+	@Test
+	public void typetest_03() throws IOException {
+		// Types whose invariants read static variables
+		run("test", //
+				"int limit = 0", //
+				"type below is (int x) where x < limit", //
+				"public export method test():", //
+				"    int x = 5", //
+				"    assume !(x is below)", //
+				"    limit = 10", //
+				"    assume x is below", //
+				"    limit = 0", //
+				"    assume !(x is below)");
+	}
+
+	// ======================================================================
+	// Helpers
+	// ======================================================================
+
+	/**
+	 * Compile a program and execute it on every engine, failing if any
+	 * assumption does not hold.
+	 *
+	 * @param name
+	 * @param lines
+	 * @throws IOException
+	 */
+	private void run(String name, String... lines) throws IOException {
+		try (FileWriter fw = new FileWriter(new File(dir, name + ".whiley"))) {
+			for (String line : lines) {
+				fw.write(line);
+				fw.write("\n");
+			}
+		}
+		Pair<Boolean, String> p = TestUtils.compile(dir, false, false, name);
+		if (!p.first()) {
+			fail("Test failed to compile!\n" + p.second());
+		}
+		for (Map.Entry<String, Supplier<Interpreter>> e : AllValidEngineTest.ENGINES.entrySet()) {
+			try {
+				TestUtils.execWyil(dir, Trie.fromString(name), e.getValue().get());
+			} catch (AssertionError ex) {
+				throw new AssertionError("engine " + e.getKey() + ": " + ex.getMessage(), ex);
+			}
+		}
+	}
+}
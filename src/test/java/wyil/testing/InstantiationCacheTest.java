@@ -0,0 +1,155 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import wybs.util.AbstractCompilationUnit.Identifier;
+import wybs.util.AbstractCompilationUnit.Name;
+import wybs.util.AbstractCompilationUnit.Tuple;
+import wyil.lang.WyilFile;
+import wyil.lang.WyilFile.Decl;
+import wyil.lang.WyilFile.Template;
+import wyil.lang.WyilFile.Type;
+
+/**
+ * Check the cache of instantiated generic types. That is, instantiating a
+ * generic type with structurally equal arguments gives the same (unallocated)
+ * type, the cache remains bounded, and each heap has its own cache.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class InstantiationCacheTest {
+
+	@Test
+	public void instantiation_01() {
+		// Structurally equal arguments give the same instantiation
+		Decl.Type box = box();
+		Type.Nominal.Instantiations cache = new Type.Nominal.Instantiations(Type.Nominal.CACHE_SIZE);
+		Type t1 = cache.get(box, new Tuple<>(new Type.Int()));
+		assertEquals(field(new Type.Int()), t1);
+		assertNull(t1.getHeap());
+		assertSame(t1, cache.get(box, new Tuple<>(new Type.Int())));
+		assertEquals(1, cache.getCacheHits());
+		// Different arguments give different instantiations
+		Type t2 = cache.get(box, new Tuple<>(new Type.Bool()));
+		assertEquals(field(new Type.Bool()), t2);
+		assertEquals(2, cache.getCacheMisses());
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void instantiation_02() {
+		// The same arguments for different declarations give different
+		// instantiations
+		Decl.Type b1 = box();
+		Decl.Type b2 = box();
+		Type.Nominal.Instantiations cache = new Type.Nominal.Instantiations(Type.Nominal.CACHE_SIZE);
+		Type t1 = cache.get(b1, new Tuple<>(new Type.Int()));
+		Type t2 = cache.get(b2, new Tuple<>(new Type.Int()));
+		assertNotSame(t1, t2);
+		assertEquals(t1, t2);
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void instantiation_03() {
+		// An instantiation allocated by a caller is no longer shared
+		Decl.Type box = box();
+		Type.Nominal.Instantiations cache = new Type.Nominal.Instantiations(Type.Nominal.CACHE_SIZE);
+		Type t1 = cache.get(box, new Tuple<>(new Type.Int()));
+		WyilFile heap = new WyilFile(null);
+		heap.allocate(t1);
+		Type t2 = cache.get(box, new Tuple<>(new Type.Int()));
+		assertNotSame(t1, t2);
+		assertNull(t2.getHeap());
+		assertEquals(t1, t2);
+		assertEquals(0, cache.getCacheHits());
+	}
+
+	@Test
+	public void instantiation_04() {
+		// Nominal types whose link is in a heap use that heap's cache, and
+		// instantiations are not shared with a replacement cache.
+		WyilFile heap = new WyilFile(null);
+		Decl.Type box = heap.allocate(box());
+		Decl.Link<Decl.Type> link = heap.allocate(new Decl.Link<>(new Name(new Identifier("Box")), box));
+		Type.Nominal n1 = new Type.Nominal(link, new Tuple<>(new Type.Int()));
+		Type.Nominal n2 = new Type.Nominal(link, new Tuple<>(new Type.Int()));
+		Type t1 = n1.getConcreteType();
+		assertEquals(field(new Type.Int()), t1);
+		assertSame(t1, n2.getConcreteType());
+		assertEquals(1, heap.getInstantiations().getCacheHits());
+		heap.setInstantiations(new Type.Nominal.Instantiations(Type.Nominal.CACHE_SIZE));
+		Type t2 = n2.getConcreteType();
+		assertNotSame(t1, t2);
+		assertEquals(t1, t2);
+		assertEquals(1, heap.getInstantiations().getCacheMisses());
+	}
+
+	@Test
+	public void eviction_01() {
+		// The cache never exceeds its capacity, and evicted instantiations are
+		// computed again as necessary.
+		Decl.Type box = box();
+		Type[] arguments = { new Type.Int(), new Type.Bool(), new Type.Null(), new Type.Array(new Type.Int()),
+				new Type.Array(new Type.Bool()), new Type.Reference(new Type.Int()) };
+		Type.Nominal.Instantiations cache = new Type.Nominal.Instantiations(2);
+		for (int i = 0; i != 3; ++i) {
+			for (Type argument : arguments) {
+				assertEquals(field(argument), cache.get(box, new Tuple<>(argument)));
+				assertTrue(cache.size() <= 2);
+			}
+		}
+		assertEquals(3 * arguments.length, cache.getCacheHits() + cache.getCacheMisses());
+		assertTrue(cache.getCacheMisses() > arguments.length);
+	}
+
+	@Test
+	public void eviction_02() {
+		// A cache with no capacity still gives correct instantiations
+		Decl.Type box = box();
+		Type.Nominal.Instantiations cache = new Type.Nominal.Instantiations(0);
+		assertEquals(field(new Type.Int()), cache.get(box, new Tuple<>(new Type.Int())));
+		assertEquals(field(new Type.Int()), cache.get(box, new Tuple<>(new Type.Int())));
+		assertEquals(0, cache.size());
+	}
+
+	// ======================================================================
+	// Helpers
+	// ======================================================================
+
+	/**
+	 * Construct the declaration <code>type Box&lt;T&gt; is ({T f} x)</code>.
+	 *
+	 * @return
+	 */
+	private static Decl.Type box() {
+		Identifier T = new Identifier("T");
+		Decl.Variable x = new Decl.Variable(new Tuple<>(), new Identifier("x"), field(new Type.Variable(T)));
+		return new Decl.Type(new Tuple<>(), new Identifier("Box"), new Tuple<>(new Template.Type(T)), x,
+				new Tuple<>());
+	}
+
+	private static Type.Record field(Type type) {
+		return new Type.Record(false, new Tuple<>(new Type.Field(new Identifier("f"), type)));
+	}
+}
@@ -0,0 +1,224 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import wyil.type.util.IntBinaryRelation;
+
+/**
+ * Check insertion, lookup and removal in an <code>IntBinaryRelation</code>,
+ * particularly where keys collide, where probe sequences wrap around the end
+ * of the table and where the table is resized.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class IntBinaryRelationTest {
+	/**
+	 * The size of the table created for an initial capacity of 16. This can hold
+	 * up to half as many pairs before being resized.
+	 */
+	private static final int TABLE = 16;
+
+	@Test
+	public void relation_01() {
+		IntBinaryRelation<Integer> r = relation(TABLE);
+		assertFalse(r.get(0, 0));
+		r.set(0, 0, true);
+		r.set(1, 2, true);
+		assertTrue(r.get(0, 0));
+		assertTrue(r.get(1, 2));
+		// Pairs are ordered
+		assertFalse(r.get(2, 1));
+		assertEquals(2, r.size());
+		// Inserting twice has no effect
+		r.set(1, 2, true);
+		assertEquals(2, r.size());
+		r.set(1, 2, false);
+		assertFalse(r.get(1, 2));
+		assertTrue(r.get(0, 0));
+		assertEquals(1, r.size());
+		// Removing an absent pair has no effect
+		r.set(1, 2, false);
+		assertEquals(1, r.size());
+	}
+
+	@Test
+	public void relation_02() {
+		// Pairs whose home is the same slot
+		List<int[]> pairs = colliding(3, TABLE / 2);
+		IntBinaryRelation<Integer> r = relation(TABLE);
+		for (int[] p : pairs) {
+			r.set(p[0], p[1], true);
+		}
+		Set<Integer> removed = new HashSet<>();
+		check(r, pairs, removed);
+		// Remove from the middle of the cluster, then from its start
+		remove(r, pairs, removed, 4);
+		check(r, pairs, removed);
+		remove(r, pairs, removed, 0);
+		check(r, pairs, removed);
+	}
+
+	@Test
+	public void relation_03() {
+		// Pairs whose home is the last slot, such that the cluster wraps around
+		List<int[]> pairs = colliding(TABLE - 1, TABLE / 2);
+		IntBinaryRelation<Integer> r = relation(TABLE);
+		for (int[] p : pairs) {
+			r.set(p[0], p[1], true);
+		}
+		Set<Integer> removed = new HashSet<>();
+		check(r, pairs, removed);
+		// Remove the pair in the last slot, forcing the others to shift back across
+		// the end of the table
+		remove(r, pairs, removed, 0);
+		check(r, pairs, removed);
+		remove(r, pairs, removed, 5, 7);
+		check(r, pairs, removed);
+	}
+
+	@Test
+	public void relation_04() {
+		// Pairs homed at the last slot followed by pairs homed at the first,
+		// such that a removal must not shift a pair before its home.
+		List<int[]> pairs = colliding(TABLE - 1, 3);
+		pairs.addAll(colliding(0, 3));
+		IntBinaryRelation<Integer> r = relation(TABLE);
+		for (int[] p : pairs) {
+			r.set(p[0], p[1], true);
+		}
+		Set<Integer> removed = new HashSet<>();
+		check(r, pairs, removed);
+		remove(r, pairs, removed, 1);
+		check(r, pairs, removed);
+		remove(r, pairs, removed, 3);
+		check(r, pairs, removed);
+	}
+
+	@Test
+	public void relation_05() {
+		// Resizing retains every pair, including those in clusters which wrapped
+		// around before the resize.
+		List<int[]> pairs = colliding(TABLE - 1, TABLE / 2);
+		pairs.addAll(colliding(0, 4));
+		IntBinaryRelation<Integer> r = relation(TABLE);
+		for (int[] p : pairs) {
+			r.set(p[0], p[1], true);
+		}
+		Set<Integer> removed = new HashSet<>();
+		check(r, pairs, removed);
+		remove(r, pairs, removed, 2, 9, 11);
+		check(r, pairs, removed);
+	}
+
+	@Test
+	public void relation_06() {
+		// Random insertions and removals, checked against a set of pairs. The small
+		// range of identifiers and initial capacity ensure plenty of collisions and
+		// several resizes.
+		Random random = new Random(0);
+		IntBinaryRelation<Integer> r = relation(2);
+		Set<Long> expected = new HashSet<>();
+		for (int i = 0; i != 20000; ++i) {
+			int lhs = random.nextInt(64);
+			int rhs = random.nextInt(64);
+			boolean value = random.nextInt(3) != 0;
+			r.set(lhs, rhs, value);
+			if (value) {
+				expected.add(key(lhs, rhs));
+			} else {
+				expected.remove(key(lhs, rhs));
+			}
+			assertEquals(expected.size(), r.size());
+			if (i % 1000 == 0) {
+				for (int l = 0; l != 64; ++l) {
+					for (int k = 0; k != 64; ++k) {
+						assertEquals(expected.contains(key(l, k)), r.get(l, k));
+					}
+				}
+			}
+		}
+	}
+
+	// ======================================================================
+	// Helpers
+	// ======================================================================
+
+	private static IntBinaryRelation<Integer> relation(int capacity) {
+		return new IntBinaryRelation<>(i -> i, capacity);
+	}
+
+	/**
+	 * Remove pairs at given indices from a relation, recording them as removed.
+	 */
+	private static void remove(IntBinaryRelation<Integer> r, List<int[]> pairs, Set<Integer> removed,
+			int... indices) {
+		for (int i : indices) {
+			int[] p = pairs.get(i);
+			r.set(p[0], p[1], false);
+			removed.add(i);
+		}
+	}
+
+	/**
+	 * Check that a relation contains exactly those pairs which have not been
+	 * removed.
+	 */
+	private static void check(IntBinaryRelation<Integer> r, List<int[]> pairs, Set<Integer> removed) {
+		for (int i = 0; i != pairs.size(); ++i) {
+			int[] p = pairs.get(i);
+			assertEquals(!removed.contains(i), r.get(p[0], p[1]));
+		}
+		assertEquals(pairs.size() - removed.size(), r.size());
+	}
+
+	/**
+	 * Find a number of distinct pairs which all have the same home slot in a
+	 * table of size <code>TABLE</code>. This mirrors the hash function used by
+	 * <code>IntBinaryRelation</code>. Should that change, the pairs may no longer
+	 * collide, but the tests remain valid.
+	 */
+	private static List<int[]> colliding(int slot, int count) {
+		List<int[]> pairs = new ArrayList<>();
+		for (int lhs = 0; pairs.size() < count; ++lhs) {
+			for (int rhs = 0; rhs != 64 && pairs.size() < count; ++rhs) {
+				if ((hash(key(lhs, rhs)) & (TABLE - 1)) == slot) {
+					pairs.add(new int[] { lhs, rhs });
+				}
+			}
+		}
+		return pairs;
+	}
+
+	private static long key(int lhs, int rhs) {
+		return ((lhs + 1L) << 32) | (rhs + 1L);
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
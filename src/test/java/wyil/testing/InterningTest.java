@@ -0,0 +1,132 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import wybs.util.AbstractCompilationUnit.Identifier;
+import wybs.util.AbstractCompilationUnit.Name;
+import wybs.util.AbstractCompilationUnit.Tuple;
+import wyil.lang.WyilFile;
+import wyil.lang.WyilFile.QualifiedName;
+
+/**
+ * Check that identifiers, names and qualified names are interned per heap.
+ * That is, equal items interned in the same heap are the same object, whilst
+ * those interned in different heaps are not. Observe that identifiers created
+ * by the parser are never interned (see <code>WyilFile.intern()</code>).
+ *
+ * @author David J. Pearce
+ *
+ */
+public class InterningTest {
+
+	@Test
+	public void identifier_01() {
+		WyilFile heap = new WyilFile(null);
+		Identifier x = heap.intern(new Identifier("x"));
+		assertSame(heap, x.getHeap());
+		assertSame(x, heap.intern(new Identifier("x")));
+		// Interning an interned item returns it
+		assertSame(x, heap.intern(x));
+	}
+
+	@Test
+	public void identifier_02() {
+		WyilFile heap = new WyilFile(null);
+		assertNotSame(heap.intern(new Identifier("x")), heap.intern(new Identifier("y")));
+	}
+
+	@Test
+	public void identifier_03() {
+		// An identifier allocated but not interned is replaced by the canonical one
+		WyilFile heap = new WyilFile(null);
+		Identifier x = heap.intern(new Identifier("x"));
+		Identifier y = heap.allocate(new Identifier("x"));
+		assertSame(x, heap.intern(y));
+	}
+
+	@Test
+	public void identifier_04() {
+		// Interning is per heap
+		WyilFile h1 = new WyilFile(null);
+		WyilFile h2 = new WyilFile(null);
+		Identifier x1 = h1.intern(new Identifier("x"));
+		Identifier x2 = h2.intern(new Identifier("x"));
+		assertNotSame(x1, x2);
+		assertSame(h2, x2.getHeap());
+		// Interning an item from another heap gives the canonical item for this one
+		assertSame(x2, h2.intern(x1));
+	}
+
+	@Test
+	public void name_01() {
+		WyilFile heap = new WyilFile(null);
+		Name n1 = heap.intern(name("std", "ascii"));
+		Name n2 = heap.intern(name("std", "ascii"));
+		assertSame(n1, n2);
+		// Components are interned as well
+		assertSame(heap.intern(new Identifier("std")), n1.get(0));
+		assertSame(heap.intern(new Identifier("ascii")), n1.get(1));
+		assertNotSame(n1, heap.intern(name("std", "array")));
+	}
+
+	@Test
+	public void name_02() {
+		// Only identifiers and names can be interned
+		WyilFile heap = new WyilFile(null);
+		try {
+			heap.intern(new Tuple<>(new Identifier("x")));
+			fail("tuple should not be interned");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void qualified_01() {
+		WyilFile heap = new WyilFile(null);
+		QualifiedName q1 = heap.intern(new QualifiedName(name("std", "ascii"), new Identifier("string")));
+		QualifiedName q2 = heap.intern(new QualifiedName(name("std", "ascii"), new Identifier("string")));
+		assertSame(q1, q2);
+		assertNotSame(q1, heap.intern(new QualifiedName(name("std", "ascii"), new Identifier("char"))));
+		assertNotSame(q1, heap.intern(new QualifiedName(name("std", "array"), new Identifier("string"))));
+	}
+
+	@Test
+	public void qualified_02() {
+		// Interning is per heap
+		WyilFile h1 = new WyilFile(null);
+		WyilFile h2 = new WyilFile(null);
+		QualifiedName q1 = h1.intern(new QualifiedName(name("std", "ascii"), new Identifier("string")));
+		QualifiedName q2 = h2.intern(new QualifiedName(name("std", "ascii"), new Identifier("string")));
+		assertEquals(q1, q2);
+		assertNotSame(q1, q2);
+		assertSame(q1, h1.intern(q2));
+		assertSame(q2, h2.intern(q1));
+	}
+
+	private static Name name(String... components) {
+		Identifier[] identifiers = new Identifier[components.length];
+		for (int i = 0; i != components.length; ++i) {
+			identifiers[i] = new Identifier(components[i]);
+		}
+		return new Name(identifiers);
+	}
+}
@@ -0,0 +1,111 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import wyc.util.TestUtils;
+import wyil.lang.WyilFile.SemanticType;
+import wyil.type.subtyping.StrictTypeEmptinessTest;
+import wyil.type.subtyping.SubtypeOperator;
+import wyil.type.util.ReadWriteTypeExtractor;
+import wyil.type.util.ReadWriteTypeExtractor.Combinator;
+
+/**
+ * Check that extracting readable and writeable types using a cache of normal
+ * forms gives the same results as extracting them without one, including when
+ * the cache is shared between extractors.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class NormalFormCacheTest {
+	private static final String[] ARRAYS = { "int[]", "(int|null)[]", "int[]|bool[]", "int[]|null", "int[][]|int[]",
+			"int" };
+	private static final String[] RECORDS = { "{int f}", "{int f}|{bool f}", "{int f, int g}|{int f}",
+			"{int f}|null", "{int[] f}|{int f}", "int" };
+
+	@Test
+	public void cache_01() {
+		// Arrays
+		check(ARRAYS, ReadWriteTypeExtractor.READABLE_ARRAY);
+		check(ARRAYS, ReadWriteTypeExtractor.WRITEABLE_ARRAY);
+	}
+
+	@Test
+	public void cache_02() {
+		// Records
+		check(RECORDS, ReadWriteTypeExtractor.READABLE_RECORD);
+		check(RECORDS, ReadWriteTypeExtractor.WRITEABLE_RECORD);
+	}
+
+	@Test
+	public void cache_03() {
+		// References and callables
+		check(new String[] { "&int", "&int|null", "int" }, ReadWriteTypeExtractor.READABLE_REFERENCE);
+		check(new String[] { "function(int)->int", "int" }, ReadWriteTypeExtractor.READABLE_CALLABLE);
+	}
+
+	@Test
+	public void cache_04() {
+		// Different kinds of extraction from the same types share normal forms
+		ReadWriteTypeExtractor.Cache cache = new ReadWriteTypeExtractor.Cache();
+		ReadWriteTypeExtractor extractor = extractor(cache);
+		extractor.apply(type("{int[] f}|{int f}"), null, ReadWriteTypeExtractor.READABLE_RECORD);
+		long misses = cache.getCacheMisses();
+		int size = cache.size();
+		extractor.apply(type("{int[] f}|{int f}"), null, ReadWriteTypeExtractor.WRITEABLE_RECORD);
+		extractor.apply(type("{int[] f}|{int f}"), null, ReadWriteTypeExtractor.READABLE_ARRAY);
+		assertEquals(misses, cache.getCacheMisses());
+		assertEquals(size, cache.size());
+		assertEquals(2, cache.getCacheHits());
+	}
+
+	// ======================================================================
+	// Helpers
+	// ======================================================================
+
+	/**
+	 * Extract a given kind of type from each of some given types, using two
+	 * extractors which share a cache. Each result must be the same as that from
+	 * an extractor with a fresh cache.
+	 *
+	 * @param types
+	 * @param kind
+	 */
+	private static <T extends SemanticType.Atom> void check(String[] types, Combinator<T> kind) {
+		ReadWriteTypeExtractor.Cache cache = new ReadWriteTypeExtractor.Cache();
+		ReadWriteTypeExtractor e1 = extractor(cache);
+		ReadWriteTypeExtractor e2 = extractor(cache);
+		for (int i = 0; i != 2; ++i) {
+			for (String t : types) {
+				T expected = extractor(new ReadWriteTypeExtractor.Cache()).apply(type(t), null, kind);
+				assertEquals(t, expected, e1.apply(type(t), null, kind));
+				assertEquals(t, expected, e2.apply(type(t), null, kind));
+			}
+		}
+		assertTrue(cache.getCacheHits() > 0);
+	}
+
+	private static ReadWriteTypeExtractor extractor(ReadWriteTypeExtractor.Cache cache) {
+		return new ReadWriteTypeExtractor(new SubtypeOperator(new StrictTypeEmptinessTest()), cache);
+	}
+
+	private static SemanticType type(String from) {
+		return TestUtils.fromString(from);
+	}
+}
@@ -0,0 +1,190 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.testing;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import wyil.interpreter.ConcreteSemantics;
+import wyil.interpreter.ConcreteSemantics.RValue;
+
+/**
+ * Check reading and writing arrays in the interpreter, which are represented
+ * as persistent vectors. Lengths are chosen either side of the points at which
+ * the trie gains another level (i.e. 32 and 1024 elements).
+ *
+ * @author David J. Pearce
+ *
+ */
+public class PersistentArrayTest {
+	private static final ConcreteSemantics semantics = new ConcreteSemantics();
+
+	private static final int[] LENGTHS = { 1, 31, 32, 33, 1023, 1024, 1025, 32769 };
+
+	@Test
+	public void array_01() {
+		// Reading an array which has never been written
+		for (int n : LENGTHS) {
+			RValue.Array arr = array(n, 0);
+			check(arr, expected(n, 0));
+		}
+	}
+
+	@Test
+	public void array_02() {
+		// Writing every element persistently leaves every earlier version intact
+		for (int n : LENGTHS) {
+			int[] values = expected(n, 0);
+			RValue.Array original = array(n, 0);
+			RValue.Array arr = original;
+			for (int i = 0; i < n; i += stride(n)) {
+				RValue.Array next = arr.write(semantics.Int(i), semantics.Int(-i));
+				assertNotSame(arr, next);
+				values[i] = -i;
+				check(next, values);
+				arr = next;
+			}
+			check(original, expected(n, 0));
+		}
+	}
+
+	@Test
+	public void array_03() {
+		// Writing every element through an owner updates in place
+		Object owner = new Object();
+		for (int n : LENGTHS) {
+			int[] values = expected(n, 0);
+			RValue.Array arr = array(n, 0).write(semantics.Int(0), semantics.Int(0), owner);
+			assertTrue(arr.isOwnedBy(owner));
+			for (int i = 0; i < n; i += stride(n)) {
+				assertSame(arr, arr.write(semantics.Int(i), semantics.Int(-i), owner));
+				values[i] = -i;
+			}
+			check(arr, values);
+			// Writing the last element as well
+			assertSame(arr, arr.write(semantics.Int(n - 1), semantics.Int(-1), owner));
+			values[n - 1] = -1;
+			check(arr, values);
+		}
+	}
+
+	@Test
+	public void array_04() {
+		// A persistent copy is unaffected by later writes in place to the original
+		Object owner = new Object();
+		for (int n : LENGTHS) {
+			RValue.Array original = array(n, 0).write(semantics.Int(0), semantics.Int(0), owner);
+			RValue.Array copy = original.write(semantics.Int(n / 2), semantics.Int(-1));
+			int[] values = expected(n, 0);
+			values[n / 2] = -1;
+			check(copy, values);
+			// Write every element of the original through its owner
+			for (int i = 0; i < n; i += stride(n)) {
+				original = original.write(semantics.Int(i), semantics.Int(n + i), owner);
+			}
+			original = original.write(semantics.Int(n - 1), semantics.Int(n + n - 1), owner);
+			check(copy, values);
+			assertEquals(semantics.Int(n + n - 1), original.read(semantics.Int(n - 1)));
+		}
+	}
+
+	@Test
+	public void array_05() {
+		// A copy made by another owner is unaffected by later writes in place to
+		// the original, and vice versa.
+		Object owner1 = new Object();
+		Object owner2 = new Object();
+		for (int n : LENGTHS) {
+			RValue.Array arr1 = array(n, 0).write(semantics.Int(0), semantics.Int(0), owner1);
+			RValue.Array arr2 = arr1.write(semantics.Int(n - 1), semantics.Int(-1), owner2);
+			assertNotSame(arr1, arr2);
+			assertTrue(arr2.isOwnedBy(owner2));
+			arr1 = arr1.write(semantics.Int(0), semantics.Int(-2), owner1);
+			arr2 = arr2.write(semantics.Int(n / 2), semantics.Int(-3), owner2);
+			int[] values1 = expected(n, 0);
+			values1[0] = -2;
+			int[] values2 = expected(n, 0);
+			values2[n - 1] = -1;
+			values2[n / 2] = -3;
+			check(arr1, values1);
+			check(arr2, values2);
+		}
+	}
+
+	@Test
+	public void array_06() {
+		// Once shared, an array is no longer updated in place
+		Object owner = new Object();
+		for (int n : LENGTHS) {
+			RValue.Array arr = array(n, 0).write(semantics.Int(0), semantics.Int(0), owner);
+			arr.share();
+			assertFalse(arr.isOwnedBy(owner));
+			RValue.Array next = arr.write(semantics.Int(n - 1), semantics.Int(-1), owner);
+			assertNotSame(arr, next);
+			check(arr, expected(n, 0));
+		}
+	}
+
+	// ======================================================================
+	// Helpers
+	// ======================================================================
+
+	/**
+	 * Construct an array of a given length, where each element is its index plus
+	 * some offset.
+	 */
+	private static RValue.Array array(int length, int offset) {
+		RValue[] elements = new RValue[length];
+		for (int i = 0; i != length; ++i) {
+			elements[i] = semantics.Int(i + offset);
+		}
+		return semantics.Array(elements);
+	}
+
+	private static int[] expected(int length, int offset) {
+		int[] values = new int[length];
+		for (int i = 0; i != length; ++i) {
+			values[i] = i + offset;
+		}
+		return values;
+	}
+
+	/**
+	 * Determine how many elements to step over between writes, such that large
+	 * arrays do not take too long.
+	 */
+	private static int stride(int length) {
+		return length > 2000 ? 97 : 1;
+	}
+
+	/**
+	 * Check an array holds the expected values, both by reading each element and
+	 * by flattening it.
+	 */
+	private static void check(RValue.Array arr, int[] values) {
+		assertEquals(semantics.Int(values.length), arr.length());
+		RValue[] expected = new RValue[values.length];
+		for (int i = 0; i != values.length; ++i) {
+			expected[i] = semantics.Int(values[i]);
+			assertEquals(expected[i], arr.read(semantics.Int(i)));
+		}
+		assertArrayEquals(expected, arr.getElements());
+	}
+}
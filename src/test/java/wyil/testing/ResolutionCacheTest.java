@@ -0,0 +1,174 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import wybs.util.AbstractCompilationUnit.Identifier;
+import wybs.util.AbstractCompilationUnit.Name;
+import wybs.util.AbstractCompilationUnit.Tuple;
+import wyil.lang.WyilFile;
+import wyil.lang.WyilFile.Decl;
+import wyil.lang.WyilFile.Stmt;
+import wyil.lang.WyilFile.Template;
+import wyil.lang.WyilFile.Type;
+import wyil.type.binding.RelaxedTypeResolver;
+import wyil.type.subtyping.EmptinessTest.LifetimeRelation;
+import wyil.type.subtyping.RelaxedTypeEmptinessTest;
+import wyil.type.subtyping.StrictTypeEmptinessTest;
+import wyil.type.subtyping.SubtypeOperator;
+import wyil.type.util.ConcreteTypeExtractor;
+import wyil.type.util.ReadWriteTypeExtractor;
+
+/**
+ * Check the cache of overload resolutions. That is, equivalent invocations
+ * reuse an earlier resolution without sharing its result, whilst invocations in
+ * a different lifetime environment do not. Furthermore, the outcome of every
+ * resolution is the same regardless of whether the cache is used or not.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class ResolutionCacheTest {
+	private static final LifetimeRelation ENVIRONMENT = (inner, outer) -> inner.equals(outer);
+
+	@Test
+	public void resolution_01() {
+		// Equivalent invocations hit, even when candidates are in a different order
+		WyilFile heap = new WyilFile(null);
+		Decl.Callable f1 = function(heap, "f", false, new Type.Int());
+		Decl.Callable f2 = function(heap, "f", false, new Type.Bool());
+		RelaxedTypeResolver.Cache cache = new RelaxedTypeResolver.Cache();
+		RelaxedTypeResolver resolver = resolver(cache);
+		Decl.Binding<Type.Callable, Decl.Callable> b1 = invoke(heap, "f", f1, f2);
+		Decl.Binding<Type.Callable, Decl.Callable> b2 = invoke(heap, "f", f2, f1);
+		Type.Callable t1 = resolver.bind(b1, new Tuple<>(new Type.Int()), ENVIRONMENT);
+		Type.Callable t2 = resolver.bind(b2, new Tuple<>(new Type.Int()), ENVIRONMENT);
+		assertEquals(1, cache.getCacheHits());
+		assertEquals(1, cache.getCacheMisses());
+		assertSame(f1, b1.getDeclaration());
+		assertSame(f1, b2.getDeclaration());
+		assertEquals(t1, t2);
+	}
+
+	@Test
+	public void resolution_02() {
+		// Reusing a resolution which infers template arguments does not share them
+		// between invocations.
+		WyilFile heap = new WyilFile(null);
+		Decl.Callable id = function(heap, "id", true, null);
+		RelaxedTypeResolver.Cache cache = new RelaxedTypeResolver.Cache();
+		RelaxedTypeResolver resolver = resolver(cache);
+		Decl.Binding<Type.Callable, Decl.Callable> b1 = invoke(heap, "id", id);
+		Decl.Binding<Type.Callable, Decl.Callable> b2 = invoke(heap, "id", id);
+		Type.Callable t1 = resolver.bind(b1, new Tuple<>(new Type.Int()), ENVIRONMENT);
+		Type.Callable t2 = resolver.bind(b2, new Tuple<>(new Type.Int()), ENVIRONMENT);
+		assertEquals(1, cache.getCacheHits());
+		assertEquals(t1, t2);
+		assertNotSame(t1, t2);
+		assertEquals(b1.getArguments(), b2.getArguments());
+		assertNotSame(b1.getArguments(), b2.getArguments());
+	}
+
+	@Test
+	public void resolution_03() {
+		// Invocations in a different lifetime environment miss
+		WyilFile heap = new WyilFile(null);
+		Decl.Callable f1 = function(heap, "f", false, new Type.Int());
+		Decl.Callable f2 = function(heap, "f", false, new Type.Bool());
+		RelaxedTypeResolver.Cache cache = new RelaxedTypeResolver.Cache();
+		RelaxedTypeResolver resolver = resolver(cache);
+		LifetimeRelation other = (inner, outer) -> inner.equals(outer);
+		resolver.bind(invoke(heap, "f", f1, f2), new Tuple<>(new Type.Int()), ENVIRONMENT);
+		resolver.bind(invoke(heap, "f", f1, f2), new Tuple<>(new Type.Int()), other);
+		assertEquals(0, cache.getCacheHits());
+		assertEquals(2, cache.getCacheMisses());
+		resolver.bind(invoke(heap, "f", f1, f2), new Tuple<>(new Type.Int()), other);
+		assertEquals(1, cache.getCacheHits());
+	}
+
+	@Test
+	public void resolution_04() {
+		// Outcomes are the same with and without the cache, including when
+		// resolution fails.
+		WyilFile heap = new WyilFile(null);
+		Decl.Callable f1 = function(heap, "f", false, new Type.Int());
+		Decl.Callable f2 = function(heap, "f", false, new Type.Bool());
+		Decl.Callable f3 = function(heap, "f", false, new Type.Union(new Type.Int(), new Type.Null()));
+		Decl.Callable id = function(heap, "id", true, null);
+		Decl.Callable[][] candidates = { { f1 }, { f1, f2 }, { f1, f3 }, { f1, f2, f3 }, { id }, { id, f2 } };
+		Type[] arguments = { new Type.Int(), new Type.Bool(), new Type.Null(),
+				new Type.Union(new Type.Int(), new Type.Bool()), new Type.Array(new Type.Int()) };
+		RelaxedTypeResolver cached = resolver(new RelaxedTypeResolver.Cache());
+		RelaxedTypeResolver uncached = resolver(new RelaxedTypeResolver.Cache(0));
+		for (int i = 0; i != 2; ++i) {
+			for (Decl.Callable[] cs : candidates) {
+				for (Type argument : arguments) {
+					Decl.Binding<Type.Callable, Decl.Callable> b1 = invoke(heap, "f", cs);
+					Decl.Binding<Type.Callable, Decl.Callable> b2 = invoke(heap, "f", cs);
+					Type.Callable t1 = cached.bind(b1, new Tuple<>(argument), ENVIRONMENT);
+					Type.Callable t2 = uncached.bind(b2, new Tuple<>(argument), ENVIRONMENT);
+					assertEquals(t2, t1);
+					if (t2 != null) {
+						assertSame(b2.getDeclaration(), b1.getDeclaration());
+						assertEquals(b2.getArguments(), b1.getArguments());
+					}
+				}
+			}
+		}
+	}
+
+	// ======================================================================
+	// Helpers
+	// ======================================================================
+
+	private static RelaxedTypeResolver resolver(RelaxedTypeResolver.Cache cache) {
+		StrictTypeEmptinessTest strict = new StrictTypeEmptinessTest();
+		return new RelaxedTypeResolver(new SubtypeOperator(new RelaxedTypeEmptinessTest()),
+				new ConcreteTypeExtractor(strict), new ReadWriteTypeExtractor(new SubtypeOperator(strict)), cache);
+	}
+
+	/**
+	 * Construct a function with one parameter and one return of a given type.
+	 * Alternatively, if the function is generic, construct
+	 * <code>function name&lt;T&gt;(T x) -> (T r)</code>.
+	 */
+	private static Decl.Callable function(WyilFile heap, String name, boolean generic, Type type) {
+		Tuple<Template.Variable> template = new Tuple<>();
+		if (generic) {
+			Identifier T = new Identifier("T");
+			template = new Tuple<>(new Template.Type(T));
+			type = new Type.Variable(T);
+		}
+		Decl.Variable x = new Decl.Variable(new Tuple<>(), new Identifier("x"), type);
+		Decl.Variable r = new Decl.Variable(new Tuple<>(), new Identifier("r"), type);
+		return heap.allocate(new Decl.Function(new Tuple<>(), new Identifier(name), template, new Tuple<>(x),
+				new Tuple<>(r), new Tuple<>(), new Tuple<>(), new Stmt.Block()));
+	}
+
+	/**
+	 * Construct an invocation of a given name, for which name resolution has
+	 * identified some given candidates.
+	 */
+	private static Decl.Binding<Type.Callable, Decl.Callable> invoke(WyilFile heap, String name,
+			Decl.Callable... candidates) {
+		Decl.Link<Decl.Callable> link = heap.allocate(new Decl.Link<>(new Name(new Identifier(name))));
+		link.resolve(candidates);
+		return heap.allocate(new Decl.Binding<>(link, new Tuple<>()));
+	}
+}
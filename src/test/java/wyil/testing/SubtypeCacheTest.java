@@ -0,0 +1,160 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import wyc.util.TestUtils;
+import wyil.lang.WyilFile.SemanticType;
+import wyil.lang.WyilFile.Type;
+import wyil.type.subtyping.EmptinessTest;
+import wyil.type.subtyping.RelaxedTypeEmptinessTest;
+import wyil.type.subtyping.SubtypeOperator;
+
+/**
+ * Check that the subtype operator reuses results of the emptiness test where
+ * (and only where) it is safe to do so.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class SubtypeCacheTest {
+
+	@Test
+	public void cache_01() {
+		// Repeating a query hits the cache
+		CountingTest test = new CountingTest();
+		SubtypeOperator subtyping = new SubtypeOperator(test);
+		assertTrue(subtyping.isSubtype(type("int|null"), type("int"), null));
+		long misses = subtyping.getCacheMisses();
+		assertEquals(misses, test.count);
+		assertEquals(0, subtyping.getCacheHits());
+		assertTrue(subtyping.isSubtype(type("int|null"), type("int"), null));
+		assertEquals(misses, subtyping.getCacheMisses());
+		assertEquals(misses, subtyping.getCacheHits());
+		assertEquals(misses, test.count);
+	}
+
+	@Test
+	public void cache_02() {
+		// Distinct but structurally equal types share entries
+		CountingTest test = new CountingTest();
+		SubtypeOperator subtyping = new SubtypeOperator(test);
+		assertFalse(subtyping.isSubtype(type("{int f}"), type("{int|null f}"), null));
+		long count = test.count;
+		assertFalse(subtyping.isSubtype(type("{int f}"), type("{int|null f}"), null));
+		assertEquals(count, test.count);
+	}
+
+	@Test
+	public void cache_03() {
+		// Different types do not share entries
+		CountingTest test = new CountingTest();
+		SubtypeOperator subtyping = new SubtypeOperator(test);
+		assertTrue(subtyping.isSubtype(type("int|null"), type("int"), null));
+		long count = test.count;
+		assertFalse(subtyping.isSubtype(type("int|null"), type("bool"), null));
+		assertTrue(test.count > count);
+		assertEquals(0, subtyping.getCacheHits());
+	}
+
+	@Test
+	public void cache_04() {
+		// Lifetime relations with different fingerprints do not share entries,
+		// whilst those with equal fingerprints do.
+		CountingTest test = new CountingTest();
+		SubtypeOperator subtyping = new SubtypeOperator(test);
+		assertTrue(subtyping.isSubtype(type("int|null"), type("int"), new Lifetimes("a")));
+		long count = test.count;
+		assertTrue(subtyping.isSubtype(type("int|null"), type("int"), new Lifetimes("b")));
+		assertEquals(2 * count, test.count);
+		assertTrue(subtyping.isSubtype(type("int|null"), type("int"), new Lifetimes("a")));
+		assertTrue(subtyping.isSubtype(type("int|null"), type("int"), null));
+		assertEquals(3 * count, test.count);
+	}
+
+	@Test
+	public void cache_05() {
+		// Least recently used entries are evicted first
+		CountingTest test = new CountingTest();
+		SubtypeOperator subtyping = new SubtypeOperator(test, 1);
+		assertFalse(subtyping.isVoid(type("int"), null));
+		assertFalse(subtyping.isVoid(type("bool"), null));
+		assertEquals(2, test.count);
+		assertFalse(subtyping.isVoid(type("bool"), null));
+		assertEquals(2, test.count);
+		assertFalse(subtyping.isVoid(type("int"), null));
+		assertEquals(3, test.count);
+	}
+
+	@Test
+	public void cache_06() {
+		// Results remain correct when the types used for keys are forgotten
+		CountingTest test = new CountingTest();
+		SubtypeOperator subtyping = new SubtypeOperator(test, 1);
+		String element = "int";
+		for (int i = 0; i != 20; ++i) {
+			String array = element + "[]";
+			assertTrue(subtyping.isSubtype(type(array), type(array), null));
+			assertFalse(subtyping.isSubtype(type(array), type(element), null));
+			assertFalse(subtyping.isSubtype(type(element), type(array), null));
+			element = array;
+		}
+	}
+
+	private static Type type(String from) {
+		return TestUtils.fromString(from);
+	}
+
+	/**
+	 * Counts the number of queries which reach the underlying emptiness test.
+	 */
+	private static class CountingTest implements EmptinessTest<SemanticType> {
+		private final RelaxedTypeEmptinessTest test = new RelaxedTypeEmptinessTest();
+		private long count;
+
+		@Override
+		public boolean isVoid(SemanticType lhs, State lhsState, SemanticType rhs, State rhsState,
+				LifetimeRelation lifetimes) {
+			count++;
+			return test.isVoid(lhs, lhsState, rhs, rhsState, lifetimes);
+		}
+	}
+
+	/**
+	 * A lifetime relation in which no lifetime is within another, and whose
+	 * fingerprint is given.
+	 */
+	private static class Lifetimes implements EmptinessTest.LifetimeRelation {
+		private final String fingerprint;
+
+		public Lifetimes(String fingerprint) {
+			this.fingerprint = fingerprint;
+		}
+
+		@Override
+		public boolean isWithin(String inner, String outer) {
+			return inner.equals(outer);
+		}
+
+		@Override
+		public Object getFingerprint() {
+			return fingerprint;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import wyc.util.TestUtils;
+import wyil.lang.WyilFile.Type;
+import wyil.type.util.TypeInterner;
+
+/**
+ * Check that types are assigned the same canonical identifier if, and only
+ * if, they are structurally equal.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class TypeInternerTest {
+
+	@Test
+	public void interner_01() {
+		checkSame("int");
+	}
+
+	@Test
+	public void interner_02() {
+		checkSame("{int f, bool g}");
+	}
+
+	@Test
+	public void interner_03() {
+		checkSame("(int|null)[]");
+	}
+
+	@Test
+	public void interner_04() {
+		checkSame("function(int)->int");
+	}
+
+	@Test
+	public void interner_05() {
+		checkDifferent("int", "bool");
+	}
+
+	@Test
+	public void interner_06() {
+		checkDifferent("{int f}", "{int g}");
+	}
+
+	@Test
+	public void interner_07() {
+		checkDifferent("int|null", "null|int");
+	}
+
+	@Test
+	public void interner_08() {
+		checkDifferent("int[]", "int[][]");
+	}
+
+	@Test
+	public void interner_09() {
+		// Identifiers are allocated densely from zero
+		TypeInterner interner = new TypeInterner();
+		assertEquals(0, interner.getId(type("int")));
+		assertEquals(1, interner.getId(type("bool")));
+		assertEquals(0, interner.getId(type("int")));
+		assertEquals(2, interner.getId(type("null")));
+		assertEquals(3, interner.size());
+	}
+
+	@Test
+	public void interner_10() {
+		// The canonical type is the first encountered
+		TypeInterner interner = new TypeInterner();
+		Type t1 = type("{int f}");
+		Type t2 = type("{int f}");
+		assertNotSame(t1, t2);
+		assertSame(t1, interner.intern(t1));
+		assertSame(t1, interner.intern(t2));
+		assertSame(t1, interner.get(interner.getId(t2)));
+	}
+
+	@Test
+	public void interner_11() {
+		// Clearing forgets every type, and allocates identifiers from zero again
+		TypeInterner interner = new TypeInterner();
+		interner.getId(type("int"));
+		interner.getId(type("bool"));
+		assertEquals(2, interner.getObjectCount());
+		interner.clear();
+		assertEquals(0, interner.size());
+		assertEquals(0, interner.getObjectCount());
+		assertEquals(0, interner.getId(type("bool")));
+	}
+
+	private static void checkSame(String from) {
+		TypeInterner interner = new TypeInterner();
+		Type t1 = type(from);
+		Type t2 = type(from);
+		assertNotSame(t1, t2);
+		assertEquals(interner.getId(t1), interner.getId(t2));
+		assertEquals(1, interner.size());
+	}
+
+	private static void checkDifferent(String from, String to) {
+		TypeInterner interner = new TypeInterner();
+		assertNotEquals(interner.getId(type(from)), interner.getId(type(to)));
+		assertEquals(2, interner.size());
+	}
+
+	private static Type type(String from) {
+		return TestUtils.fromString(from);
+	}
+}
@@ -0,0 +1,136 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.testing;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import wyc.util.TestUtils;
+import wyil.lang.WyilFile.Type;
+import wyil.type.subtyping.EmptinessTest;
+import wyil.type.subtyping.RelaxedTypeEmptinessTest;
+import wyil.type.subtyping.StrictTypeEmptinessTest;
+import wyil.type.subtyping.SubtypeOperator;
+
+/**
+ * Check subtyping between unions with many operands of many different kinds,
+ * including unions nested within unions. Each path through such types must be
+ * considered separately, and atoms of every kind compared correctly.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class UnionSubtypeTest {
+	private static final String[] ATOMS = { "int", "bool", "null", "byte", "int[]", "bool[]", "{int f}", "{bool f}",
+			"&int", "&bool", "function(int)->int", "function(bool)->int" };
+	private static final EmptinessTest.LifetimeRelation LIFETIMES = (inner, outer) -> inner.equals(outer);
+
+	@Test
+	public void union_01() {
+		// Differently nested unions of the same atoms are equivalent
+		String flat = flat(0, ATOMS.length);
+		String nested = nested(0, ATOMS.length);
+		checkIsSubtype(flat, nested);
+		checkIsSubtype(nested, flat);
+		checkIsSubtype(nested, nested);
+	}
+
+	@Test
+	public void union_02() {
+		// Omitting any one atom gives a strict subtype
+		String all = nested(0, ATOMS.length);
+		for (int i = 0; i != ATOMS.length; ++i) {
+			String some = without(i);
+			checkIsSubtype(all, some);
+			checkNotSubtype(some, all);
+			checkNotSubtype(some, ATOMS[i]);
+			checkIsSubtype(all, ATOMS[i]);
+		}
+	}
+
+	@Test
+	public void union_03() {
+		// Unions of some of the same atoms, and of atoms not included
+		String all = nested(0, ATOMS.length);
+		checkNotSubtype(all, "int|{int g}");
+		checkNotSubtype(all, "(int|null)|(&(int|bool))");
+		checkIsSubtype(all, "(int|null)|(bool|(int[]|{int f}))");
+		checkNotSubtype("(int|null)|(bool|(int[]|{int f}))", all);
+	}
+
+	// ======================================================================
+	// Helpers
+	// ======================================================================
+
+	/**
+	 * Construct a union of the atoms in a given range, nested as a balanced tree.
+	 */
+	private static String nested(int start, int end) {
+		if (end - start == 1) {
+			return ATOMS[start];
+		} else {
+			int mid = (start + end) / 2;
+			return "(" + nested(start, mid) + ")|(" + nested(mid, end) + ")";
+		}
+	}
+
+	/**
+	 * Construct a union of the atoms in a given range without nesting. Each atom
+	 * is bracketed, since otherwise e.g. the return of a function type would
+	 * extend over subsequent atoms.
+	 */
+	private static String flat(int start, int end) {
+		String r = "";
+		for (int i = start; i != end; ++i) {
+			r += (i == start ? "" : "|") + "(" + ATOMS[i] + ")";
+		}
+		return r;
+	}
+
+	/**
+	 * Construct a union of every atom except one, nested on either side of it.
+	 */
+	private static String without(int i) {
+		if (i == 0) {
+			return nested(1, ATOMS.length);
+		} else if (i == ATOMS.length - 1) {
+			return nested(0, i);
+		} else {
+			return "(" + nested(0, i) + ")|(" + nested(i + 1, ATOMS.length) + ")";
+		}
+	}
+
+	private static void checkIsSubtype(String from, String to) {
+		for (SubtypeOperator subtypeOperator : operators()) {
+			Type ft = TestUtils.fromString(from);
+			Type tt = TestUtils.fromString(to);
+			assertTrue(from + " :> " + to, subtypeOperator.isSubtype(ft, tt, LIFETIMES));
+		}
+	}
+
+	private static void checkNotSubtype(String from, String to) {
+		for (SubtypeOperator subtypeOperator : operators()) {
+			Type ft = TestUtils.fromString(from);
+			Type tt = TestUtils.fromString(to);
+			assertFalse(from + " :> " + to, subtypeOperator.isSubtype(ft, tt, LIFETIMES));
+		}
+	}
+
+	private static SubtypeOperator[] operators() {
+		return new SubtypeOperator[] { new SubtypeOperator(new StrictTypeEmptinessTest()),
+				new SubtypeOperator(new RelaxedTypeEmptinessTest()) };
+	}
+}
@@ -0,0 +1,316 @@
+// Copyright 2011 The Whiley Project Developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package wyil.testing;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.*;
+
+import wybs.lang.SyntacticItem;
+import wybs.util.AbstractCompilationUnit.Identifier;
+import wybs.util.AbstractCompilationUnit.Name;
+import wybs.util.AbstractCompilationUnit.Tuple;
+import wybs.util.StdProject;
+import wyc.lang.WhileyFile;
+import wyc.task.CompileTask;
+import wyc.util.TestUtils;
+import wyfs.io.BinaryOutputStream;
+import wyfs.lang.Path;
+import wyfs.util.DirectoryRoot;
+import wyfs.util.Trie;
+import wyil.io.SymbolDirectory;
+import wyil.io.WyilFileCache;
+import wyil.io.WyilFileReader;
+import wyil.io.WyilFileWriter;
+import wyil.lang.WyilFile;
+import wyil.lang.WyilFile.Decl;
+import wyil.lang.WyilFile.Stmt;
+
+/**
+ * Tests for reading and writing binary WyilFiles. In particular, check that a
+ * file read on demand only decodes those items which are actually needed.
+ *
+ * @author David J. Pearce
+ *
+ */
+public class WyilFileReaderTest {
+	private File dir;
+	private Path.Root root;
+	private StdProject project;
+
+	@Before
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("wyilfile").toFile();
+		root = new DirectoryRoot(dir, new TestUtils.Registry());
+		project = new StdProject(root);
+	}
+
+	@After
+	public void teardown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void lazy_01() throws IOException {
+		Path.Entry<WyilFile> target = compile("a", "public type T is (int x) where x >= 0", //
+				"public function f(T x) -> (int r):", //
+				"    int y = x + 1", //
+				"    return y * 2");
+		// Read the file on demand, as done for external dependencies
+		WyilFileReader reader = WyilFileReader.load(target);
+		SymbolDirectory directory = reader.readDirectory().setLoader(e -> reader.read());
+		checkSignaturesOnly(target, directory);
+	}
+
+	@Test
+	public void lazy_02() throws IOException {
+		Path.Entry<WyilFile> target = compile("a", "public type T is (int x) where x >= 0", //
+				"public function f(T x) -> (int r):", //
+				"    int y = x + 1", //
+				"    return y * 2");
+		// Read the file through a cache, as done by the compile server
+		WyilFileCache cache = new WyilFileCache();
+		SymbolDirectory directory = cache.readDirectory(target);
+		checkSignaturesOnly(target, directory);
+		// Reading again reuses both the directory and the file
+		assertSame(directory, cache.readDirectory(target));
+		assertSame(directory.load(), cache.read(target));
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void lazy_03() throws IOException {
+		Path.Entry<WyilFile> target = compile("a", "public type T is (int x) where x >= 0", //
+				"public function f(T x) -> (int r):", //
+				"    int y = x + 1", //
+				"    return y * 2");
+		int body = ((Decl.Function) target.read().getSyntacticItem(find(target, "f").getIndex())).getBody().getIndex();
+		WyilFileReader reader = WyilFileReader.load(target);
+		SymbolDirectory directory = reader.readDirectory().setLoader(e -> reader.read());
+		Decl.Function f = (Decl.Function) directory.getUnits().get(0).getDeclarations(new Identifier("f")).get(0);
+		WyilFile wf = directory.load();
+		// Neither finding ancestors nor allocating decodes the body
+		assertSame(f, wf.getParent(f.getParameters(), Decl.Function.class));
+		Decl.Variable x = f.getParameters().get(0);
+		assertEquals(directory.getUnits().get(0).getIndex(), x.getAncestor(Decl.Unit.class).getIndex());
+		wf.allocate(new Identifier("g"));
+		assertFalse(wf.isDecoded(body));
+		// Truncate the file, as happens when it is rewritten by another build
+		Files.write(new File(dir, "a.wyil").toPath(), new byte[0]);
+		// The body can still be decoded
+		assertEquals(2, f.getBody().size());
+		assertTrue(wf.isDecoded(body));
+	}
+
+	@Test
+	public void roundtrip_01() throws IOException {
+		checkRoundTrip(false);
+	}
+
+	@Test
+	public void roundtrip_02() throws IOException {
+		checkRoundTrip(true);
+	}
+
+	@Test
+	public void version_01() throws IOException {
+		checkUnsupported(0, 2);
+	}
+
+	@Test
+	public void version_02() throws IOException {
+		checkUnsupported(0, 3);
+	}
+
+	@Test
+	public void version_03() throws IOException {
+		checkUnsupported(1, 1);
+	}
+
+	@Test
+	public void version_04() throws IOException {
+		checkUnsupported(2, 0);
+	}
+
+	// ======================================================================
+	// Helpers
+	// ======================================================================
+
+	/**
+	 * Write a compiled file and read it back, both eagerly from a stream and on
+	 * demand from a buffer. In both cases, the heap read back should be identical
+	 * to that written.
+	 *
+	 * @param compression
+	 * @throws IOException
+	 */
+	private void checkRoundTrip(boolean compression) throws IOException {
+		String[] lines = new String[30];
+		for (int i = 0; i != lines.length; i += 3) {
+			// Repetitive functions so that compression definitely helps
+			lines[i] = "public function f" + i + "(int x) -> (int r)";
+			lines[i + 1] = "requires x >= " + i + ":";
+			lines[i + 2] = "    return (x * x) + " + i;
+		}
+		WyilFile original = compile("a", lines).read();
+		byte[] plain = write(original, false);
+		byte[] bytes = compression ? write(original, true) : plain;
+		assertEquals(compression, bytes.length < plain.length);
+		Path.Entry<WyilFile> entry = original.getEntry();
+		checkIdentical(original, new WyilFileReader(entry, new ByteArrayInputStream(bytes)).read());
+		checkIdentical(original, new WyilFileReader(entry, ByteBuffer.wrap(bytes)).read());
+	}
+
+	private static byte[] write(WyilFile wf, boolean compression) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new WyilFileWriter(out).setCompression(compression).write(wf);
+		return out.toByteArray();
+	}
+
+	private static void checkIdentical(WyilFile expected, WyilFile actual) {
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected.getRootItem().getIndex(), actual.getRootItem().getIndex());
+		for (int i = 0; i != expected.size(); ++i) {
+			SyntacticItem e = expected.getSyntacticItem(i);
+			SyntacticItem a = actual.getSyntacticItem(i);
+			assertEquals(e.getOpcode(), a.getOpcode());
+			assertArrayEquals(e.getData(), a.getData());
+			assertEquals(e.size(), a.size());
+			for (int j = 0; j != e.size(); ++j) {
+				SyntacticItem eo = e.get(j);
+				SyntacticItem ao = a.get(j);
+				assertEquals(eo == null ? -1 : eo.getIndex(), ao == null ? -1 : ao.getIndex());
+			}
+		}
+	}
+
+	/**
+	 * Check that a file with a given version number is rejected when read.
+	 *
+	 * @param major
+	 * @param minor
+	 * @throws IOException
+	 */
+	private void checkUnsupported(int major, int minor) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryOutputStream out = new BinaryOutputStream(bytes);
+		for (char c : "WYILFILE".toCharArray()) {
+			out.write_u8(c);
+		}
+		out.write_uv(major);
+		out.write_uv(minor);
+		out.close();
+		try {
+			new WyilFileReader(null, new ByteArrayInputStream(bytes.toByteArray())).read();
+			fail("version " + major + "." + minor + " should be rejected");
+		} catch (IllegalArgumentException e) {
+			assertEquals("unsupported version (" + major + "." + minor + ")", e.getMessage());
+		}
+	}
+
+	/**
+	 * Access the signature of function <code>f</code> and check its body is not
+	 * decoded until it is actually accessed.
+	 *
+	 * @param target
+	 * @param directory
+	 * @throws IOException
+	 */
+	private static void checkSignaturesOnly(Path.Entry<WyilFile> target, SymbolDirectory directory)
+			throws IOException {
+		SymbolDirectory.Unit unit = directory.getUnits().get(0);
+		List<Decl.Named<?>> decls = unit.getDeclarations(new Identifier("f"));
+		assertEquals(1, decls.size());
+		Decl.Function f = (Decl.Function) decls.get(0);
+		// Access the signature
+		assertEquals("a::f", f.getQualifiedName().toString());
+		assertEquals(1, f.getType().getParameters().size());
+		// Body items are at the same indices as in the compiled (i.e. in memory) file
+		Stmt.Block original = ((Decl.Function) target.read().getSyntacticItem(f.getIndex())).getBody();
+		WyilFile wf = directory.load();
+		assertFalse(wf.isDecoded(original.getIndex()));
+		for (int i = 0; i != original.size(); ++i) {
+			assertFalse(wf.isDecoded(original.get(i).getIndex()));
+		}
+		// Accessing the body decodes it
+		Stmt.Block body = f.getBody();
+		assertEquals(original.getIndex(), body.getIndex());
+		assertEquals(original.size(), body.size());
+		assertTrue(wf.isDecoded(original.get(0).getIndex()));
+	}
+
+	/**
+	 * Find the declaration of a given name in a compiled (i.e. in memory) file.
+	 *
+	 * @param target
+	 * @param name
+	 * @return
+	 * @throws IOException
+	 */
+	private static Decl.Named<?> find(Path.Entry<WyilFile> target, String name) throws IOException {
+		for (Decl.Unit unit : target.read().getModule().getUnits()) {
+			for (Decl decl : unit.getDeclarations()) {
+				if (decl instanceof Decl.Named && ((Decl.Named<?>) decl).getName().get().equals(name)) {
+					return (Decl.Named<?>) decl;
+				}
+			}
+		}
+		throw new IllegalArgumentException("unknown declaration: " + name);
+	}
+
+	/**
+	 * Compile a single source file into a binary WyilFile of the same name.
+	 *
+	 * @param name
+	 * @param lines
+	 * @return
+	 * @throws IOException
+	 */
+	private Path.Entry<WyilFile> compile(String name, String... lines) throws IOException {
+		try (FileWriter fw = new FileWriter(new File(dir, name + ".whiley"))) {
+			for (String line : lines) {
+				fw.write(line);
+				fw.write("\n");
+			}
+		}
+		root.refresh();
+		Path.ID id = Trie.fromString(name);
+		Path.Entry<WhileyFile> source = root.get(id, WhileyFile.ContentType);
+		Path.Entry<WyilFile> target = root.create(id, WyilFile.ContentType);
+		WyilFile wf = new WyilFile(target);
+		target.write(wf);
+		wf.setRootItem(new WyilFile.Decl.Module(new Name(id), new Tuple<>(), new Tuple<>(), new Tuple<>()));
+		assertTrue(new CompileTask(project, root).build(target, Arrays.asList(source)));
+		target.flush();
+		return target;
+	}
+}